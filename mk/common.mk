@@ -5,6 +5,15 @@ LIB_DIR			= $(OUTPUT_DIR)/lib
 JUNIT_PATH		= $(LIB_DIR)/junit-4.13.jar
 HAMCREST_PATH	= $(LIB_DIR)/hamcrest-2.2.jar
 
+BENCH_CLASS_PATH	= $(OUTPUT_DIR)/benchClasses
+BENCH_RESULT		= $(OUTPUT_DIR)/bench.json
+JMH_CORE_PATH		= $(LIB_DIR)/jmh-core-1.37.jar
+JMH_GENERATOR_PATH	= $(LIB_DIR)/jmh-generator-annprocess-1.37.jar
+JOPT_PATH			= $(LIB_DIR)/jopt-simple-5.0.4.jar
+MATH3_PATH			= $(LIB_DIR)/commons-math3-3.6.1.jar
+JMH_PATH			= $(JMH_CORE_PATH):$(JOPT_PATH):$(MATH3_PATH)
+
+BENCH_SOURCES = $(wildcard $(BENCH_SOURCE_DIR)/*/*.java)
 CLASS_FILES = $(patsubst $(MAIN_SOURCE_DIR)/%.java, \
 $(CLASS_PATH)/%.class, $(wildcard $(MAIN_SOURCE_DIR)/*/*.java))
 TEST_CLASS_FILES = $(patsubst $(TEST_SOURCE_DIR)/%.java, \
@@ -22,12 +31,18 @@ jar: $(OUTPUT_DIR)/$(JAR_FILE_NAME)
 .PHONY: jar
 
 test: $(OUTPUT_DIR)/$(JAR_FILE_NAME) $(TEST_CLASS_FILES) $(JUNIT_PATH) $(HAMCREST_PATH)
-	java -cp $(TEST_CLASS_PATH):$(OUTPUT_DIR)/$(JAR_FILE_NAME):\
+	java $(TEST_JVM_ARGS) -cp $(TEST_CLASS_PATH):$(OUTPUT_DIR)/$(JAR_FILE_NAME):\
 	$(DEPENDENCIES):$(JUNIT_PATH):$(HAMCREST_PATH) \
 	org.junit.runner.JUnitCore \
 	$(TEST_CLASS_NAMES)
 .PHONY: test
 
+# results go to $(BENCH_RESULT) as JSON, for comparing runs
+bench: $(BENCH_CLASS_PATH)/META-INF/BenchmarkList
+	java -cp $(BENCH_CLASS_PATH):$(CLASS_PATH):$(DEPENDENCIES):$(JMH_PATH) \
+	org.openjdk.jmh.Main -rf json -rff $(BENCH_RESULT) $(BENCH_ARGS)
+.PHONY: bench
+
 docs:
 	javadoc -d $(OUTPUT_DIR)/docs -sourcepath $(MAIN_SOURCE_DIR) $(MAIN_PACKAGE) \
 	-tag requires:a:"Requires:" -tag effects:a:"Effects:" -tag modifies:a:"Modifies:"
@@ -41,6 +56,22 @@ $(HAMCREST_PATH):
 	mvn dependency:copy -Dartifact=org.hamcrest:hamcrest:2.2 \
 	-DoutputDirectory=build/lib
 
+$(JMH_CORE_PATH):
+	mvn dependency:copy -Dartifact=org.openjdk.jmh:jmh-core:1.37 \
+	-DoutputDirectory=build/lib
+
+$(JMH_GENERATOR_PATH):
+	mvn dependency:copy -Dartifact=org.openjdk.jmh:jmh-generator-annprocess:1.37 \
+	-DoutputDirectory=build/lib
+
+$(JOPT_PATH):
+	mvn dependency:copy -Dartifact=net.sf.jopt-simple:jopt-simple:5.0.4 \
+	-DoutputDirectory=build/lib
+
+$(MATH3_PATH):
+	mvn dependency:copy -Dartifact=org.apache.commons:commons-math3:3.6.1 \
+	-DoutputDirectory=build/lib
+
 clean:
 	rm -rf $(OUTPUT_DIR)
 .PHONY: clean
@@ -59,4 +90,12 @@ $(CLASS_PATH)/%.class: $(MAIN_SOURCE_DIR)/%.java
 
 $(TEST_CLASS_PATH)/%.class: $(TEST_SOURCE_DIR)/%.java $(CLASS_FILES) $(JUNIT_PATH)
 	javac -d $(TEST_CLASS_PATH) -sourcepath $(TEST_SOURCE_DIR) -cp \
-	$(CLASS_PATH):$(DEPENDENCIES):$(TEST_CLASS_PATH):$(JUNIT_PATH) $<
\ No newline at end of file
+	$(CLASS_PATH):$(DEPENDENCIES):$(TEST_CLASS_PATH):$(JUNIT_PATH) $<
+
+# the JMH annotation processor writes a single list of every benchmark, so the
+# benchmarks are compiled together rather than one file at a time
+$(BENCH_CLASS_PATH)/META-INF/BenchmarkList: $(BENCH_SOURCES) $(CLASS_FILES) \
+$(JMH_CORE_PATH) $(JMH_GENERATOR_PATH) $(JOPT_PATH) $(MATH3_PATH)
+	rm -rf $(BENCH_CLASS_PATH)
+	javac -d $(BENCH_CLASS_PATH) -cp $(CLASS_PATH):$(DEPENDENCIES):$(JMH_PATH) \
+	-processorpath $(JMH_GENERATOR_PATH):$(JMH_PATH) $(BENCH_SOURCES)
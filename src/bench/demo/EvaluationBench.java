@@ -0,0 +1,58 @@
+package demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Static evaluation and saving and loading positions with <code>ChessSerializer</code>, each
+ * invocation covering every position of the phase.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBench {
+
+    @Param({Bench.OPENING, Bench.MIDDLEGAME, Bench.ENDGAME})
+    public String phase;
+
+    private ChessPosition[] positions;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    @Setup
+    public void setup() {
+        positions = Bench.positions(phase);
+    }
+
+    @Benchmark
+    public void evaluate(Blackhole bh) {
+        for (ChessPosition position : positions) {
+            bh.consume(BoardEval.evaluate(position));
+        }
+    }
+
+    @Benchmark
+    public void serializerRoundTrip(Blackhole bh) throws IOException, SerializationException {
+        for (ChessPosition position : positions) {
+            buffer.reset();
+            ChessSerializer.serialize(buffer, position);
+            bh.consume(ChessSerializer.deserialize(new ByteArrayInputStream(buffer.toByteArray())));
+        }
+    }
+}
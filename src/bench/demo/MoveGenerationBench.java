@@ -0,0 +1,92 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Move generation and the operations search builds on it: pseudo-legal moves of single pieces,
+ * legal moves of a position, check detection and making a move. Each invocation covers every
+ * position of the phase.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenerationBench {
+
+    @Param({Bench.OPENING, Bench.MIDDLEGAME, Bench.ENDGAME})
+    public String phase;
+
+    private ChessPosition[] positions;
+
+    // every legal move of every position, flattened, and the position each is made from
+    private Move[] moves;
+    private ChessPosition[] movePositions;
+
+    @Setup
+    public void setup() {
+        positions = Bench.positions(phase);
+        List<Move> allMoves = new ArrayList<>();
+        List<ChessPosition> from = new ArrayList<>();
+        for (ChessPosition position : positions) {
+            for (Move move : position.possibleMoves()) {
+                allMoves.add(move);
+                from.add(position);
+            }
+        }
+        moves = allMoves.toArray(new Move[0]);
+        movePositions = from.toArray(new ChessPosition[0]);
+    }
+
+    @Benchmark
+    public void pieceMoves(Blackhole bh) {
+        for (ChessPosition position : positions) {
+            Board board = position.getBoard();
+            for (int x = 0; x < 8; x++) {
+                for (int y = 0; y < 8; y++) {
+                    Piece piece = board.getPiece(x, y);
+                    if (piece != null) {
+                        bh.consume(piece.getMoves(board, x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void possibleMoves(Blackhole bh) {
+        for (ChessPosition position : positions) {
+            bh.consume(position.possibleMoves());
+        }
+    }
+
+    @Benchmark
+    public void isInCheck(Blackhole bh) {
+        for (ChessPosition position : positions) {
+            bh.consume(position.isInCheck(Player.WHITE));
+            bh.consume(position.isInCheck(Player.BLACK));
+        }
+    }
+
+    @Benchmark
+    public void move(Blackhole bh) {
+        for (int i = 0; i < moves.length; i++) {
+            bh.consume(movePositions[i].move(moves[i]));
+        }
+    }
+}
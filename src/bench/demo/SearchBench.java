@@ -0,0 +1,58 @@
+package demo;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Fixed depth alpha beta searches with no node or time limit, so every run does the same work.
+ * The bot is rebuilt before each invocation so that its best move table starts out empty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBench {
+
+    @Param({Bench.OPENING, Bench.MIDDLEGAME, Bench.ENDGAME})
+    public String phase;
+
+    @Param({"2"})
+    public int depth;
+
+    private ChessPosition[] positions;
+    private ChessBot bot;
+
+    @Setup
+    public void setup() {
+        positions = Bench.positions(phase);
+    }
+
+    @Setup(Level.Invocation)
+    public void newBot() {
+        bot = new ChessBot();
+        bot.setPly(depth);
+        bot.setNodeLimit(Long.MAX_VALUE);
+        bot.setTimeLimit(0);
+    }
+
+    @Benchmark
+    public void getBestMove(Blackhole bh) {
+        for (ChessPosition position : positions) {
+            bh.consume(bot.getBestMove(position));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package demo;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Searches a fixed list of positions to a fixed depth and reports the total number of nodes and
+ * the speed.
+ * <p>
+ * The search is single threaded, starts each position with a new bot (so an empty best move
+ * table), and has no node or time limit, opening book or tablebase. It therefore visits exactly
+ * the same nodes on every run and every machine. The node total is a signature of the search:
+ * a change to move generation, ordering, pruning or evaluation that alters what the bot does
+ * almost always changes it, while a pure speed up leaves it alone and shows in the nodes per
+ * second instead. Evaluation weights loaded with loadeval also change it.
+ * <pre>
+ *   java -cp build/classes demo.Bench [depth]
+ * </pre>
+ * The JMH benchmarks in src/bench run over the same positions, one game phase at a time.
+ */
+public class Bench {
+
+    public static final int DEFAULT_DEPTH = 3;
+
+    public static final String OPENING = "opening";
+    public static final String MIDDLEGAME = "middlegame";
+    public static final String ENDGAME = "endgame";
+
+    /**
+     * openings, middlegames and endgames, as FEN piece placement and side to move; each phase
+     * starts at the index below
+     */
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w",
+            "r1bqk1nr/pppp1ppp/2n5/2b1p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w",
+            "rnbqkb1r/pp2pppp/3p1n2/8/3NP3/8/PPP2PPP/RNBQKB1R w",
+            "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP3PPP/R2QKB1R w",
+            "r2q1rk1/1b2bppp/p2p1n2/np2p3/3PP3/5N1P/PPB2PP1/RNBQR1K1 b",
+            "2rq1rk1/pb1nbppp/1p2pn2/2pp4/2PP4/1PN1PN2/PB2BPPP/2RQ1RK1 w",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w",
+            "8/5pk1/6p1/8/3R4/6P1/5PKP/1r6 w",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w",
+            "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w",
+            "8/8/4k3/8/2K5/3Q4/8/8 w",
+            "8/8/1p6/p1p1k3/P1P5/1P2K3/8/8 b",
+    };
+    private static final int MIDDLEGAME_START = 3;
+    private static final int ENDGAME_START = 7;
+
+    /**
+     * Gets the bench positions.
+     * @return new copies of the positions
+     */
+    public static ChessPosition[] positions() {
+        PackedPositions packed = new PackedPositions(POSITIONS.length);
+        for (String fen : POSITIONS) {
+            try {
+                Fen.parse(fen, 0, fen.length(), packed);
+            } catch (SerializationException e) {
+                // the list above is fixed, so this is a bug
+                throw new IllegalStateException(fen, e);
+            }
+        }
+        ChessPosition[] positions = new ChessPosition[POSITIONS.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = packed.get(i);
+        }
+        return positions;
+    }
+
+    /**
+     * Gets the bench positions of one game phase.
+     * @param phase OPENING, MIDDLEGAME or ENDGAME
+     * @return new copies of the positions
+     * @throws IllegalArgumentException if phase is not one of the three
+     */
+    public static ChessPosition[] positions(String phase) {
+        ChessPosition[] positions = positions();
+        if (OPENING.equals(phase)) {
+            return Arrays.copyOfRange(positions, 0, MIDDLEGAME_START);
+        } else if (MIDDLEGAME.equals(phase)) {
+            return Arrays.copyOfRange(positions, MIDDLEGAME_START, ENDGAME_START);
+        } else if (ENDGAME.equals(phase)) {
+            return Arrays.copyOfRange(positions, ENDGAME_START, positions.length);
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * Searches every bench position and prints a line per position followed by the totals.
+     * @param depth the depth to search to
+     * @param out where to print, or null to print nothing
+     * @return the total number of nodes searched, the signature
+     * @throws IllegalArgumentException if depth &lt; 1
+     */
+    public static long run(int depth, PrintStream out) {
+        if (depth < 1) {
+            throw new IllegalArgumentException();
+        }
+        ChessPosition[] positions = positions();
+        long nodes = 0;
+        long nanos = 0;
+        for (int i = 0; i < positions.length; i++) {
+            ChessBot bot = new ChessBot();
+            bot.setPly(depth);
+            bot.setNodeLimit(Long.MAX_VALUE);
+            bot.setTimeLimit(0);
+            Move move = bot.getBestMove(positions[i]);
+            nodes += bot.getLastNodes();
+            nanos += bot.getLastNanos();
+            if (out != null) {
+                out.printf("position %2d/%d: %9d nodes  %s%n", i + 1, positions.length, bot.getLastNodes(), move);
+            }
+        }
+        if (out != null) {
+            out.println("===========================");
+            out.printf("Total time (ms) : %d%n", nanos / 1000000);
+            out.printf("Nodes searched  : %d%n", nodes);
+            out.printf("Nodes/second    : %d%n", nanos == 0 ? 0 : nodes * 1000000000L / nanos);
+        }
+        return nodes;
+    }
+
+    /**
+     * Runs the bench from the command line.
+     * @param args optionally the depth, DEFAULT_DEPTH if not given
+     */
+    public static void main(String[] args) {
+        int depth = DEFAULT_DEPTH;
+        if (args.length > 0) {
+            try {
+                depth = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                depth = 0;
+            }
+            if (depth < 1) {
+                System.err.println("usage: java demo.Bench [depth]");
+                System.exit(1);
+            }
+        }
+        run(depth, System.out);
+    }
+}
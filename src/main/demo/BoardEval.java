@@ -1,5 +1,11 @@
 package demo;
 
+import java.io.*;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * provides static functionality for evaluating a board state (an instance of ChessPosition).
  * Note: this is heavily inspired by the method of evaluating a board state in the 332 chess
@@ -61,10 +67,41 @@ public class BoardEval {
      */
     private static int[][][] positionBonuses;
 
+    /**
+     * names of the six kinds of pieces, in the order used by weight files. The kind of a piece is
+     * Piece.getPositionBonusIndex() / 2
+     */
+    public static final String[] KIND_NAMES = {"pawn", "knight", "bishop", "king", "rook", "queen"};
+
+    /**
+     * the material value of each kind of piece for its owner, indexed like KIND_NAMES. Starts out as
+     * the values from Piece.getValue(), but can be replaced by tuned weights through loadWeights
+     */
+    private static int[] pieceValues;
+
+    /**
+     * piece value plus position bonus for every (piece code, square) pair, flattened so that the
+     * entry for a piece with PackedPositions code c on square (x, y) is at c * 64 + y * 8 + x.
+     * The entries for code 0 (an empty square) are all 0, which lets the batch evaluation loop
+     * run over every square without a branch.
+     */
+    private static volatile int[] squareValues;
+
+    /**
+     * how many positions a single task of a parallel batch evaluation scores
+     */
+    private static final int BATCH_CHUNK = 4096;
+
     /**
      * initializes black piece arrays as well as positionBonuses
      */
     static {
+        pieceValues = new int[KIND_NAMES.length];
+        for (Piece piece : Piece.values()) {
+            if (piece.getPlayer() == Player.WHITE) {
+                pieceValues[piece.getPositionBonusIndex() / 2] = piece.getValue();
+            }
+        }
         blackPawnBonuses = invertValues(whitePawnBonuses);
         blackKnightBonuses = invertValues(whiteKnightBonuses);
         blackBishopBonuses = invertValues(whiteBishopBonuses);
@@ -74,6 +111,7 @@ public class BoardEval {
         positionBonuses = new int[][][] {whitePawnBonuses, blackPawnBonuses, whiteKnightBonuses, blackKnightBonuses,
                             whiteBishopBonuses, blackBishopBonuses, whiteKingBonuses, blackKingBonuses,
                             whiteRookBonuses, blackRookBonuses, whiteQueenBonuses, blackQueenBonuses};
+        squareValues = buildSquareValues();
     }
 
     /**
@@ -82,6 +120,7 @@ public class BoardEval {
     public static final int INFINITY = 1000000;
     public static final int MATE_VALUE = INFINITY / 2;
     public static final int STALEMATE_VALUE = 0;
+    public static final int DRAW_VALUE = 0;
 
 
     /**
@@ -108,6 +147,171 @@ public class BoardEval {
         }
     }
 
+    /**
+     * combines the piece values and positionBonuses into the flat squareValues layout
+     *
+     * @return a new array of PackedPositions.CODES * 64 values
+     */
+    private static int[] buildSquareValues() {
+        int[] values = new int[PackedPositions.CODES * PackedPositions.SQUARES];
+        for (Piece piece : Piece.values()) {
+            int base = PackedPositions.encode(piece) * PackedPositions.SQUARES;
+            int[][] bonuses = positionBonuses[piece.getPositionBonusIndex()];
+            int kindValue = pieceValues[piece.getPositionBonusIndex() / 2];
+            int material = piece.getPlayer() == Player.WHITE ? kindValue : -kindValue;
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    values[base + y * 8 + x] = material + bonuses[7 - y][x];
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * replaces the piece values and position bonus tables used by every evaluation function
+     *
+     * @param values the value of each kind of piece, indexed like KIND_NAMES
+     * @param whiteBonuses an 8 x 8 position bonus table for the white piece of each kind, indexed like
+     *                     KIND_NAMES, with the first row at the bottom of the board like the arrays above.
+     *                     The tables for black are derived from these
+     * @throws IllegalArgumentException if either array is null or has the wrong shape
+     */
+    public static synchronized void setWeights(int[] values, int[][][] whiteBonuses) {
+        checkWeights(values, whiteBonuses);
+        int[][][] bonuses = new int[KIND_NAMES.length * 2][][];
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            int[][] white = new int[8][];
+            for (int row = 0; row < 8; row++) {
+                white[row] = whiteBonuses[kind][row].clone();
+            }
+            bonuses[kind * 2] = white;
+            bonuses[kind * 2 + 1] = invertValues(white);
+        }
+        pieceValues = values.clone();
+        positionBonuses = bonuses;
+        squareValues = buildSquareValues();
+    }
+
+    /**
+     * gets a copy of the current value of each kind of piece
+     *
+     * @return the value of each kind of piece, indexed like KIND_NAMES
+     */
+    public static synchronized int[] getPieceValues() {
+        return pieceValues.clone();
+    }
+
+    /**
+     * gets a copy of the current position bonus tables for white's pieces
+     *
+     * @return an 8 x 8 table for each kind of piece, indexed like KIND_NAMES, first row at the bottom of the board
+     */
+    public static synchronized int[][][] getWhiteBonuses() {
+        int[][][] result = new int[KIND_NAMES.length][8][];
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            for (int row = 0; row < 8; row++) {
+                result[kind][row] = positionBonuses[kind * 2][row].clone();
+            }
+        }
+        return result;
+    }
+
+    private static void checkWeights(int[] values, int[][][] whiteBonuses) {
+        if (values == null || whiteBonuses == null
+                || values.length != KIND_NAMES.length || whiteBonuses.length != KIND_NAMES.length) {
+            throw new IllegalArgumentException();
+        }
+        for (int[][] table : whiteBonuses) {
+            if (table == null || table.length != 8) {
+                throw new IllegalArgumentException();
+            }
+            for (int[] row : table) {
+                if (row == null || row.length != 8) {
+                    throw new IllegalArgumentException();
+                }
+            }
+        }
+    }
+
+    /**
+     * writes the given weights in the text format read by loadWeights. For each kind of piece, in the
+     * order of KIND_NAMES, there is a line with its name and value followed by 8 lines of 8 position
+     * bonuses, starting with the bottom row of the board.
+     *
+     * @param s the stream to write to
+     * @param values the value of each kind of piece, indexed like KIND_NAMES
+     * @param whiteBonuses the position bonus tables for white, as passed to setWeights
+     * @throws IllegalArgumentException if any argument is null or the weights have the wrong shape
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeWeights(OutputStream s, int[] values, int[][][] whiteBonuses) throws IOException {
+        if (s == null) {
+            throw new IllegalArgumentException();
+        }
+        checkWeights(values, whiteBonuses);
+        OutputStreamWriter w = new OutputStreamWriter(s);
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            w.write(KIND_NAMES[kind] + " " + values[kind] + "\n");
+            for (int[] row : whiteBonuses[kind]) {
+                for (int x = 0; x < 8; x++) {
+                    w.write((x == 0 ? "" : " ") + row[x]);
+                }
+                w.write('\n');
+            }
+        }
+        w.flush();
+    }
+
+    /**
+     * reads weights written by writeWeights from the given file and starts using them
+     *
+     * @param filename the file to read
+     * @throws SerializationException if the file is ill-formatted
+     * @throws IOException if an I/O error occurs
+     */
+    public static void loadWeights(String filename) throws IOException, SerializationException {
+        if (filename == null) {
+            throw new IllegalArgumentException();
+        }
+        try (FileInputStream in = new FileInputStream(filename)) {
+            loadWeights(in);
+        }
+    }
+
+    /**
+     * reads weights written by writeWeights from the given stream and starts using them
+     *
+     * @param s the stream to read
+     * @throws SerializationException if the data is ill-formatted
+     * @throws IOException if an I/O error occurs
+     */
+    public static void loadWeights(InputStream s) throws IOException, SerializationException {
+        Scanner scanner = new Scanner(s);
+        int[] values = new int[KIND_NAMES.length];
+        int[][][] whiteBonuses = new int[KIND_NAMES.length][8][8];
+        try {
+            for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+                if (!scanner.next().equals(KIND_NAMES[kind])) {
+                    throw new SerializationException("expected " + KIND_NAMES[kind]);
+                }
+                values[kind] = scanner.nextInt();
+                for (int row = 0; row < 8; row++) {
+                    for (int x = 0; x < 8; x++) {
+                        whiteBonuses[kind][row][x] = scanner.nextInt();
+                    }
+                }
+            }
+        } catch (NoSuchElementException e) {
+            // also covers InputMismatchException
+            throw new SerializationException();
+        }
+        if (scanner.ioException() != null) {
+            throw scanner.ioException();
+        }
+        setWeights(values, whiteBonuses);
+    }
+
     /**
      * evaluates given position and returns its utility for the current player. The magnitude of typical evaluation
      * scores can range from 0 to a few thousand (positive means good for current player, negative means bad), but checkmate
@@ -118,18 +322,116 @@ public class BoardEval {
      * @return an evaluation score for this position's utility to the current player
      */
     public static int evaluate(ChessPosition position) {
+        if (!SearchProfiler.ENABLED) {
+            return evaluatePosition(position);
+        }
+        SearchProfiler.enter(SearchProfiler.Phase.EVALUATION);
+        try {
+            return evaluatePosition(position);
+        } finally {
+            SearchProfiler.exit();
+        }
+    }
+
+    /**
+     * the evaluation itself, without profiling
+     */
+    private static int evaluatePosition(ChessPosition position) {
         Board board = position.getBoard();
+        int[] squareValues = BoardEval.squareValues;
         int value = 0;
         for (int y = 0; y < 8; y++) {
             for (int x = 0; x < 8; x++) {
                 Piece piece = board.getPiece(x, y);
                 if (piece != null) {
-                    value += piece.getValue();
-                    value += positionBonuses[piece.getPositionBonusIndex()][7 - y][x];
+                    value += squareValues[PackedPositions.encode(piece) * PackedPositions.SQUARES + y * 8 + x];
                 }
             }
         }
 
         return position.getPlayer() == Player.WHITE ? value : -value;
     }
+
+    /**
+     * evaluates every position in the given collection, writing the score of position i into scores[i].
+     * Each score is identical to what evaluate would return for the same position, but the positions are
+     * read straight out of the packed arrays, so no ChessPosition or Board objects are touched.
+     *
+     * @param positions the positions to evaluate
+     * @param scores the array to write the scores into, at least positions.size() long
+     * @throws IllegalArgumentException if either argument is null or scores is too short
+     */
+    public static void evaluateBatch(PackedPositions positions, int[] scores) {
+        checkBatchArgs(positions, scores);
+        evaluateRange(positions.squares(), positions.sides(), scores, 0, positions.size());
+    }
+
+    /**
+     * same as the other evaluateBatch, but splits the positions into chunks that are scored in parallel
+     * on the given pool
+     *
+     * @param positions the positions to evaluate
+     * @param scores the array to write the scores into, at least positions.size() long
+     * @param pool the pool to run the chunks on
+     * @throws IllegalArgumentException if any argument is null or scores is too short
+     */
+    public static void evaluateBatch(PackedPositions positions, int[] scores, ForkJoinPool pool) {
+        checkBatchArgs(positions, scores);
+        if (pool == null) {
+            throw new IllegalArgumentException();
+        }
+        pool.invoke(new BatchTask(positions.squares(), positions.sides(), scores, 0, positions.size()));
+    }
+
+    private static void checkBatchArgs(PackedPositions positions, int[] scores) {
+        if (positions == null || scores == null || scores.length < positions.size()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * scores positions [from, to) of the packed arrays. The inner loop is a plain branch free sum over a
+     * contiguous run of 64 bytes, which is the shape the JIT unrolls best.
+     */
+    private static void evaluateRange(byte[] squares, byte[] sides, int[] scores, int from, int to) {
+        int[] values = squareValues;
+        for (int i = from; i < to; i++) {
+            int base = i * PackedPositions.SQUARES;
+            int value = 0;
+            for (int s = 0; s < PackedPositions.SQUARES; s++) {
+                value += values[(squares[base + s] << 6) + s];
+            }
+            scores[i] = sides[i] == PackedPositions.WHITE_TO_MOVE ? value : -value;
+        }
+    }
+
+    /**
+     * a fork join task that halves its range until it is at most BATCH_CHUNK positions long
+     */
+    private static class BatchTask extends RecursiveAction {
+        private final byte[] squares;
+        private final byte[] sides;
+        private final int[] scores;
+        private final int from;
+        private final int to;
+
+        BatchTask(byte[] squares, byte[] sides, int[] scores, int from, int to) {
+            this.squares = squares;
+            this.sides = sides;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_CHUNK) {
+                evaluateRange(squares, sides, scores, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchTask(squares, sides, scores, from, mid),
+                        new BatchTask(squares, sides, scores, mid, to));
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -1,11 +1,10 @@
 package demo;
 
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
@@ -37,6 +36,12 @@ public class BoardGUI {
     // The chess pieces
     private static Map<String, ImageIcon> assets;
 
+    // Offered by the load and save dialogs next to "All Files"
+    private static final FileNameExtensionFilter FEN_FILTER =
+            new FileNameExtensionFilter("FEN positions (*.fen, *.epd)", "fen", "epd");
+    private static final FileNameExtensionFilter PGN_FILTER =
+            new FileNameExtensionFilter("PGN games (*.pgn)", "pgn");
+
     private final Color beige = new Color(235,236,208);
     private final Color green = new Color(119,149,86);
     private final Color background = new Color(49,46, 43);
@@ -63,6 +68,15 @@ public class BoardGUI {
         initializeSideBar();
         initializeGUI();
         initializeGame();
+        // Record moves in a journal, resuming its unfinished game if there is one
+        String journal = System.getProperty("chess.journal");
+        if (journal != null && psm.openJournal(journal)) {
+            botGame = psm.getBot() != null;
+            drawPosition();
+            switchBoard(true);
+            // the bot moves first if the game stopped on its turn
+            botMove();
+        }
     }
 
     /**
@@ -88,7 +102,7 @@ public class BoardGUI {
 
     private void initializeSideBar() {
         // Set side bar dimensions
-        sidebar = new JPanel(new GridLayout(5, 1));
+        sidebar = new JPanel(new GridLayout(6, 1));
         sidebar.setMinimumSize(new Dimension(200, 50));
         sidebar.setPreferredSize(new Dimension(200, 50));
 
@@ -141,6 +155,8 @@ public class BoardGUI {
         formatSideButton(load);
         load.addActionListener((ActionEvent e) -> {  // Prompt user to select a file to load save data from
             JFileChooser fc = new JFileChooser();
+            fc.addChoosableFileFilter(FEN_FILTER);
+            fc.addChoosableFileFilter(PGN_FILTER);
             int result = fc.showOpenDialog(frame);
             File f = null;
             if (result == JFileChooser.APPROVE_OPTION) {  // File was found
@@ -200,20 +216,22 @@ public class BoardGUI {
         formatSideButton(save);
         save.addActionListener((ActionEvent j) -> {
             JFileChooser fc = new JFileChooser();
+            fc.addChoosableFileFilter(FEN_FILTER);
+            fc.addChoosableFileFilter(PGN_FILTER);
             int result = fc.showSaveDialog(frame);
             File f = null;
             if (result == JFileChooser.APPROVE_OPTION) {
                 f = fc.getSelectedFile();
+                // saving with a filter picked means that format, even if the name was typed without it
+                if (fc.getFileFilter() == FEN_FILTER && !ChessSerializer.isFenFile(f.getName())) {
+                    f = new File(f.getPath() + ".fen");
+                } else if (fc.getFileFilter() == PGN_FILTER && !f.getName().toLowerCase().endsWith(".pgn")) {
+                    f = new File(f.getPath() + ".pgn");
+                }
             }
             if (f != null) {
-                FileOutputStream fout = null;
-                try {
-                    fout = new FileOutputStream(f);
-                } catch (FileNotFoundException e) {  // I'm really not sure how this could possibly happen
-                    e.printStackTrace();
-                }
                 try {  // Save the game to the specified file
-                    ChessSerializer.serialize(fout, psm.getChessPosition());
+                    psm.saveGame(f.getPath());
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -221,6 +239,39 @@ public class BoardGUI {
         });
         sidebar.add(save);
 
+        // Lets the user pick how the bot searches for its moves
+        JButton settings = new JButton("Bot Settings");
+        formatSideButton(settings);
+        settings.addActionListener((ActionEvent e) -> {
+            ChessBot bot = psm.getBot();
+            if (bot == null) {
+                JOptionPane.showMessageDialog(frame, "Start a game against a bot first.");
+                return;
+            }
+            JComboBox<Difficulty> level = new JComboBox<>(Difficulty.values());
+            level.setSelectedItem(bot.getDifficulty() == null ? Difficulty.MEDIUM : bot.getDifficulty());
+            String[] strategies = {"Alpha Beta", "MCTS"};
+            JComboBox<String> strategy = new JComboBox<>(strategies);
+            strategy.setSelectedIndex(bot.getStrategy().ordinal());
+            JSpinner threads = new JSpinner(new SpinnerNumberModel(bot.getThreads(), 1,
+                    Runtime.getRuntime().availableProcessors(), 1));
+            JPanel panel = new JPanel(new GridLayout(3, 2));
+            panel.add(new JLabel("Level:"));
+            panel.add(level);
+            panel.add(new JLabel("Search:"));
+            panel.add(strategy);
+            panel.add(new JLabel("Threads:"));
+            panel.add(threads);
+            int response = JOptionPane.showConfirmDialog(frame, panel, "Bot Settings",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (response == JOptionPane.OK_OPTION) {
+                bot.setDifficulty((Difficulty) level.getSelectedItem());
+                bot.setStrategy(ChessBot.Strategy.values()[strategy.getSelectedIndex()]);
+                bot.setThreads((Integer) threads.getValue());
+            }
+        });
+        sidebar.add(settings);
+
         // Small QoL feature that allows users to see the currently selected piece at bottom left
         selectedDisplay = new SelectedDisplay();
         sidebar.add(selectedDisplay);
@@ -330,6 +381,14 @@ public class BoardGUI {
     // Loads a new game from a specified file path
     private void loadGame(String path) throws IOException {
         psm.loadGame(path, botGame ? "pvb" : "pvp");
+        drawPosition();
+        switchBoard(true);
+        // Bot makes the first move if loaded onto the bot's turn
+        botMove();
+    }
+
+    // Sets the GUI chessboard to the current position of the game
+    private void drawPosition() {
         Board loadBoard = psm.getChessPosition().getBoard();
         // Add pieces to the GUI chessboard 1 at a time
         for (int i = 0; i < 8; i++) {
@@ -343,22 +402,22 @@ public class BoardGUI {
                 }
             }
         }
-        switchBoard(true);
-        // Bot makes the first move if loaded onto the bot's turn
-        botMove();
     }
 
     // Attempt to make a move in the chess game
-    // Move m will only NOT be null if the bot is making a move
+    // Move m will only NOT be null if the bot made a move, which psm has played already without
+    // checking it, so only a human's move is checked (and recorded as a MoveValidationEvent)
     private void attemptMove(Move m) {
-        ChessPosition cp = psm.getChessPosition();
-        if (m == null) {  // If a human is making a move
+        boolean human = m == null;
+        if (human) {
             m = BoardCoord.move(MoveCommand.source, MoveCommand.dest);
         }
-        if (!cp.possibleMoves().contains(m)) {
+        if (human && !psm.isLegalMove(m)) {
             System.err.println("Invalid move");
         } else {  // Make the move
-            psm.move(m);
+            if (human) {
+                psm.move(m);
+            }
             int[] source = MoveCommand.toCoord(MoveCommand.source);
             int[] dest = MoveCommand.toCoord(MoveCommand.dest);
 
@@ -374,6 +433,8 @@ public class BoardGUI {
                     endGame("Stalemate");
                 }
                 endGame(oldPlayer.equals(Player.WHITE) ? "Black" : "White");
+            } else if (psm.getHistory().isDraw(psm.getChessPosition())) {
+                endGame("Draw by " + psm.getHistory().drawReason(psm.getChessPosition()));
             }
         }
 
@@ -383,13 +444,21 @@ public class BoardGUI {
         MoveCommand.clear();
     }
 
-    // The game is over, takes a string representing the game state (black wins/white wins/draw)
+    // The game is over, takes a string representing the game state (black wins/white wins/stalemate/draw by ...)
     private void endGame(String p) {
-        String endMessage = (p.equals("Stalemate") ? "Draw!" : p + " wins!") + "\nWould you like to play again?";
+        String result;
+        if (p.equals("Stalemate")) {
+            result = "Draw!";
+        } else if (p.startsWith("Draw by ")) {
+            result = p + "!";
+        } else {
+            result = p + " wins!";
+        }
+        String endMessage = result + "\nWould you like to play again?";
 
         // New popup message with information about the winner and what to do next
         int choice = JOptionPane.showConfirmDialog(frame, endMessage , "Game Over", JOptionPane.YES_NO_OPTION);
-        System.out.println(p + " wins!");
+        System.out.println(result);
         for (JButton[] buttonArr : board) {
             for (JButton button : buttonArr) {
                 button.setDisabledIcon(button.getIcon());
@@ -471,10 +540,10 @@ public class BoardGUI {
             Thread t = new Thread(() -> {
                 botThinking = true;
                 switchBoard(false);
-                Move m = psm.getBot().getBestMove((psm.getChessPosition()));
+                Move m = psm.botMove();
                 MoveCommand.source = m.toString().substring(0, 2);
                 MoveCommand.dest = m.toString().substring(m.toString().length() - 2);
-                attemptMove(psm.getBot().getBestMove(psm.getChessPosition()));
+                attemptMove(m);
                 botThinking = false;
                 if (!psm.getChessPosition().possibleMoves().isEmpty()) {
                     switchBoard(true);
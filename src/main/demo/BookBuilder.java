@@ -0,0 +1,646 @@
+package demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds an <code>OpeningBook</code> from game archives of any size in bounded memory.
+ * <p>
+ * Games are read one per line as a result followed by the moves in coordinate notation, e.g.
+ * <pre>
+ *   1-0 e2e4 e7e5 g1f3 b8c6 f1b5
+ * </pre>
+ * where the result is 1-0, 0-1 or 1/2-1/2 and blank lines and lines starting with # are
+ * skipped. Files ending in .pgn are read with <code>PgnReader</code> instead, and their games
+ * from the standard starting position are used the same way. The reading thread hands batches
+ * of lines to worker threads, which replay the first moves of each game on
+ * <code>ChessPosition</code> and count wins, draws and losses for every (position, move) pair
+ * in an open addressing table of primitive arrays. When a worker's table fills up it is sorted
+ * and spilled to a run file on disk, so memory stays fixed however many games there are. At the
+ * end the runs are merged, at most <code>maxFanIn</code> at a time so open files and read
+ * buffers stay bounded too, and every move played often enough goes into the book with
+ * weight 2 * wins + draws for the player who made it.
+ */
+public class BookBuilder {
+
+    public static final int DEFAULT_MAX_PLY = 24;
+    public static final int DEFAULT_MIN_GAMES = 2;
+    public static final int DEFAULT_ENTRIES = 1 << 20;
+    public static final int DEFAULT_MAX_FAN_IN = 64;
+
+    /**
+     * games per batch handed to a worker
+     */
+    private static final int BATCH = 256;
+
+    private static final List<String> END = Collections.emptyList();
+
+    private final int threads;
+    private final int entries;
+    private final int maxPly;
+    private final int minGames;
+    private final Path tempDirectory;
+
+    private final List<Path> runs = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong games = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private long records = 0;
+    private int maxFanIn = DEFAULT_MAX_FAN_IN;
+
+    /**
+     * Constructs a builder.
+     * @param threads how many workers replay games
+     * @param entries how many (position, move) pairs each worker holds before spilling to disk;
+     *   each takes 48 to 96 bytes of heap
+     * @param maxPly how many plies of each game go into the book
+     * @param minGames how many games a move must have been played in to go into the book
+     * @param tempDirectory where to write run files
+     * @throws IllegalArgumentException if threads, entries or maxPly is less than 1, or
+     *   tempDirectory is null
+     */
+    public BookBuilder(int threads, int entries, int maxPly, int minGames, Path tempDirectory) {
+        if (threads < 1 || entries < 1 || maxPly < 1 || tempDirectory == null) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+        this.entries = entries;
+        this.maxPly = maxPly;
+        this.minGames = minGames;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Sets how many run files are merged at once. When there are more runs than this, groups of
+     * them are first merged into bigger runs, so each pass has at most this many files open.
+     * @param maxFanIn the most runs to merge at once, at least 2
+     * @throws IllegalArgumentException if maxFanIn &lt; 2
+     * @modifies <code>this</code>
+     */
+    public void setMaxFanIn(int maxFanIn) {
+        if (maxFanIn < 2) {
+            throw new IllegalArgumentException();
+        }
+        this.maxFanIn = maxFanIn;
+    }
+
+    /**
+     * Gets the number of games replayed so far.
+     */
+    public long getGames() {
+        return games.get();
+    }
+
+    /**
+     * Gets the number of lines skipped because they had no result or an illegal move. Games
+     * with an illegal move still count up to the move before it.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Gets the number of records written to the book by build.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Reads every game in the given files and writes the book.
+     * @param inputs the game files
+     * @param out where to write the book; it is not closed
+     * @throws IOException if a file cannot be read, or a run file cannot be written
+     * @throws IllegalArgumentException if inputs or out is null
+     */
+    public void build(List<Path> inputs, OutputStream out) throws IOException {
+        if (inputs == null || out == null) {
+            throw new IllegalArgumentException();
+        }
+        BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(threads * 2);
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(queue);
+            workers.add(worker);
+            worker.start();
+        }
+        try {
+            try {
+                List<String> batch = new ArrayList<>(BATCH);
+                for (Path input : inputs) {
+                    if (input.toString().toLowerCase(Locale.ROOT).endsWith(".pgn")) {
+                        try (PgnReader reader = PgnReader.open(input)) {
+                            while (reader.hasNext()) {
+                                batch.add(toLine(reader.next(), maxPly));
+                                if (batch.size() == BATCH) {
+                                    queue.put(batch);
+                                    batch = new ArrayList<>(BATCH);
+                                }
+                            }
+                        } catch (UncheckedIOException e) {
+                            throw e.getCause();
+                        }
+                        continue;
+                    }
+                    try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            batch.add(line);
+                            if (batch.size() == BATCH) {
+                                queue.put(batch);
+                                batch = new ArrayList<>(BATCH);
+                            }
+                        }
+                    }
+                }
+                queue.put(batch);
+            } finally {
+                for (int i = 0; i < threads; i++) {
+                    queue.put(END);
+                }
+                for (Worker worker : workers) {
+                    worker.join();
+                }
+            }
+            for (Worker worker : workers) {
+                if (worker.failure != null) {
+                    throw worker.failure;
+                }
+            }
+            merge(out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+        }
+    }
+
+    /**
+     * replays games from the queue until it hands out END
+     */
+    private class Worker extends Thread {
+        private final BlockingQueue<List<String>> queue;
+        private final RecordMap map = new RecordMap(entries);
+        private IOException failure;
+
+        Worker(BlockingQueue<List<String>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            boolean done = false;
+            try {
+                while (!done) {
+                    List<String> batch = queue.take();
+                    if (batch == END) {
+                        done = true;
+                    } else {
+                        for (String line : batch) {
+                            replay(line);
+                        }
+                    }
+                }
+                if (map.size() > 0) {
+                    spill();
+                }
+            } catch (IOException e) {
+                failure = e;
+                if (!done) {
+                    // keep taking batches so the reader is never stuck on a full queue
+                    drain();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void drain() {
+            try {
+                while (queue.take() != END) {
+                    // discard
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void replay(String line) throws IOException {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                return;
+            }
+            String[] tokens = trimmed.split("\\s+");
+            float white = Tuner.parseResult(tokens[0], 0, tokens[0].length());
+            if (Float.isNaN(white)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            games.incrementAndGet();
+            ChessPosition position = ChessPosition.standardBoard();
+            for (int ply = 1; ply < tokens.length && ply <= maxPly; ply++) {
+                Move move = parseMove(tokens[ply]);
+                if (move == null || !position.isLegal(move)) {
+                    skipped.incrementAndGet();
+                    return;
+                }
+                float mover = position.getPlayer() == Player.WHITE ? white : 1 - white;
+                if (!map.add(position.getHash(), Move.encode(move), mover)) {
+                    spill();
+                    map.add(position.getHash(), Move.encode(move), mover);
+                }
+                position = position.move(move);
+            }
+        }
+
+        private void spill() throws IOException {
+            Path run = Files.createTempFile(tempDirectory, "book", ".run");
+            runs.add(run);
+            map.sort();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(run), 1 << 16))) {
+                for (int i = 0; i < map.size(); i++) {
+                    out.writeLong(map.hashes[i]);
+                    out.writeInt(map.moves[i]);
+                    out.writeInt(map.wins[i]);
+                    out.writeInt(map.draws[i]);
+                    out.writeInt(map.losses[i]);
+                }
+            }
+            map.clear();
+        }
+    }
+
+    /**
+     * writes the first maxPly moves of a PGN game in the one line format; games with no result
+     * get "*", which replay skips
+     */
+    private static String toLine(PgnGame game, int maxPly) {
+        StringBuilder sb = new StringBuilder(game.getResult());
+        if (game.getStart().getHash() != ChessPosition.standardBoard().getHash()) {
+            // the book only follows games from the standard start
+            return "*";
+        }
+        List<Move> moves = game.getMoves();
+        for (int i = 0; i < moves.size() && i < maxPly; i++) {
+            Move move = moves.get(i);
+            sb.append(' ')
+                    .append((char) ('a' + move.prevX)).append((char) ('8' - move.prevY))
+                    .append((char) ('a' + move.moveToX)).append((char) ('8' - move.moveToY));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * parses a move like e2e4 or e2-e4, or returns null
+     */
+    private static Move parseMove(String token) {
+        if (token.length() == 5 && token.charAt(2) == '-') {
+            token = token.substring(0, 2) + token.substring(3);
+        }
+        if (token.length() != 4) {
+            return null;
+        }
+        try {
+            return BoardCoord.move(token.substring(0, 2), token.substring(2));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * merges the run files into the book, first merging the oldest maxFanIn runs into a new run
+     * until few enough are left. Every file made stays in runs until it has been merged, so
+     * build deletes it even if a pass fails
+     */
+    private void merge(OutputStream out) throws IOException {
+        while (runs.size() > maxFanIn) {
+            List<Path> group = new ArrayList<>(runs.subList(0, maxFanIn));
+            Path run = Files.createTempFile(tempDirectory, "book", ".run");
+            runs.add(run);
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(run), 1 << 16))) {
+                merge(group, data, false);
+            }
+            runs.subList(0, maxFanIn).clear();
+            for (Path merged : group) {
+                Files.delete(merged);
+            }
+        }
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        OpeningBook.writeHeader(data);
+        records = merge(runs, data, true);
+        data.flush();
+    }
+
+    /**
+     * k-way merges run files, adding up the counts of equal (hash, move) pairs, and writes
+     * either book records for the moves played often enough, or another run
+     * @return how many records were written
+     */
+    private long merge(List<Path> group, DataOutputStream data, boolean book) throws IOException {
+        PriorityQueue<RunReader> heap = new PriorityQueue<>((a, b) -> a.hash != b.hash
+                ? Long.compare(a.hash, b.hash) : Integer.compare(a.move, b.move));
+        List<RunReader> readers = new ArrayList<>();
+        long written = 0;
+        try {
+            for (Path run : group) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.next()) {
+                    heap.add(reader);
+                }
+            }
+            while (!heap.isEmpty()) {
+                RunReader first = heap.poll();
+                long hash = first.hash;
+                int move = first.move;
+                long wins = 0;
+                long draws = 0;
+                long losses = 0;
+                RunReader reader = first;
+                while (true) {
+                    wins += reader.wins;
+                    draws += reader.draws;
+                    losses += reader.losses;
+                    if (reader.next()) {
+                        heap.add(reader);
+                    }
+                    RunReader peek = heap.peek();
+                    if (peek == null || peek.hash != hash || peek.move != move) {
+                        break;
+                    }
+                    reader = heap.poll();
+                }
+                if (!book) {
+                    data.writeLong(hash);
+                    data.writeInt(move);
+                    data.writeInt((int) Math.min(Integer.MAX_VALUE, wins));
+                    data.writeInt((int) Math.min(Integer.MAX_VALUE, draws));
+                    data.writeInt((int) Math.min(Integer.MAX_VALUE, losses));
+                    written++;
+                    continue;
+                }
+                long weight = 2 * wins + draws;
+                if (wins + draws + losses >= minGames && weight > 0) {
+                    data.writeLong(hash);
+                    data.writeInt(move);
+                    data.writeInt((int) Math.min(Integer.MAX_VALUE, weight));
+                    written++;
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * a cursor over one run file
+     */
+    private static class RunReader {
+        private final DataInputStream in;
+        long hash;
+        int move;
+        int wins;
+        int draws;
+        int losses;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            try {
+                hash = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            move = in.readInt();
+            wins = in.readInt();
+            draws = in.readInt();
+            losses = in.readInt();
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * An open addressing hash table from (hash, move) to win/draw/loss counts, in parallel
+     * primitive arrays at most half full. sort() packs the entries to the front of the arrays in
+     * (hash, move) order, after which the table can only be cleared.
+     */
+    static class RecordMap {
+        final long[] hashes;
+        final int[] moves;
+        final int[] wins;
+        final int[] draws;
+        final int[] losses;
+        private final int limit;
+        private int size = 0;
+
+        RecordMap(int limit) {
+            int capacity = Integer.highestOneBit(Math.max(2, limit) * 2 - 1) * 2;
+            this.limit = limit;
+            hashes = new long[capacity];
+            moves = new int[capacity];
+            wins = new int[capacity];
+            draws = new int[capacity];
+            losses = new int[capacity];
+            Arrays.fill(moves, -1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * adds a game result for the player making the move, or returns false if the table
+         * is full
+         */
+        boolean add(long hash, int move, float result) {
+            int mask = moves.length - 1;
+            long mixed = (hash ^ (move * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+            int slot = (int) (mixed >>> 40) & mask;
+            while (moves[slot] >= 0 && (hashes[slot] != hash || moves[slot] != move)) {
+                slot = (slot + 1) & mask;
+            }
+            if (moves[slot] < 0) {
+                if (size == limit) {
+                    return false;
+                }
+                hashes[slot] = hash;
+                moves[slot] = move;
+                size++;
+            }
+            if (result > 0.75f) {
+                wins[slot]++;
+            } else if (result > 0.25f) {
+                draws[slot]++;
+            } else {
+                losses[slot]++;
+            }
+            return true;
+        }
+
+        void sort() {
+            int n = 0;
+            for (int i = 0; i < moves.length; i++) {
+                if (moves[i] >= 0) {
+                    swap(i, n++);
+                }
+            }
+            quicksort(0, n - 1);
+        }
+
+        void clear() {
+            Arrays.fill(moves, -1);
+            Arrays.fill(wins, 0);
+            Arrays.fill(draws, 0);
+            Arrays.fill(losses, 0);
+            size = 0;
+        }
+
+        private int compare(int a, int b) {
+            if (hashes[a] != hashes[b]) {
+                return Long.compare(hashes[a], hashes[b]);
+            }
+            return Integer.compare(moves[a], moves[b]);
+        }
+
+        private void quicksort(int low, int high) {
+            while (high - low > 16) {
+                int mid = (low + high) >>> 1;
+                // median of three as the pivot, moved to high
+                if (compare(mid, low) < 0) {
+                    swap(mid, low);
+                }
+                if (compare(high, low) < 0) {
+                    swap(high, low);
+                }
+                if (compare(mid, high) < 0) {
+                    swap(mid, high);
+                }
+                int store = low;
+                for (int i = low; i < high; i++) {
+                    if (compare(i, high) < 0) {
+                        swap(i, store++);
+                    }
+                }
+                swap(store, high);
+                // recurse into the smaller side to bound the stack
+                if (store - low < high - store) {
+                    quicksort(low, store - 1);
+                    low = store + 1;
+                } else {
+                    quicksort(store + 1, high);
+                    high = store - 1;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(j, j - 1) < 0; j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            long h = hashes[a];
+            hashes[a] = hashes[b];
+            hashes[b] = h;
+            int t = moves[a];
+            moves[a] = moves[b];
+            moves[b] = t;
+            t = wins[a];
+            wins[a] = wins[b];
+            wins[b] = t;
+            t = draws[a];
+            draws[a] = draws[b];
+            draws[b] = t;
+            t = losses[a];
+            losses[a] = losses[b];
+            losses[b] = t;
+        }
+    }
+
+    /**
+     * Builds a book.
+     * Usage: <code>java demo.BookBuilder &lt;book&gt; &lt;games&gt;... [-threads n] [-plies n]
+     * [-min n] [-entries n]</code>
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        Path output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxPly = DEFAULT_MAX_PLY;
+        int minGames = DEFAULT_MIN_GAMES;
+        int entries = DEFAULT_ENTRIES;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("-") && i + 1 < args.length) {
+                int value = Integer.parseInt(args[++i]);
+                switch (args[i - 1]) {
+                    case "-threads":
+                        threads = value;
+                        break;
+                    case "-plies":
+                        maxPly = value;
+                        break;
+                    case "-min":
+                        minGames = value;
+                        break;
+                    case "-entries":
+                        entries = value;
+                        break;
+                    default:
+                        System.err.println("unknown option " + args[i - 1]);
+                        System.exit(1);
+                }
+            } else if (output == null) {
+                output = Paths.get(args[i]);
+            } else {
+                inputs.add(Paths.get(args[i]));
+            }
+        }
+        if (output == null || inputs.isEmpty()) {
+            System.err.println("usage: java demo.BookBuilder <book> <games>... "
+                    + "[-threads n] [-plies n] [-min n] [-entries n]");
+            System.exit(1);
+        }
+        Path parent = output.toAbsolutePath().getParent();
+        BookBuilder builder = new BookBuilder(threads, entries, maxPly, minGames, parent);
+        long start = System.nanoTime();
+        try (OutputStream out = Files.newOutputStream(output)) {
+            builder.build(inputs, out);
+        }
+        System.out.println(builder.getGames() + " games (" + builder.getSkipped() + " skipped), "
+                + builder.getRecords() + " book moves, " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
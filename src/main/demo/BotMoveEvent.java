@@ -0,0 +1,36 @@
+package demo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event committed by <code>ChessBot</code> for every move it picks. The event's
+ * duration is the time the bot took to answer, book and tablebase lookups included.
+ */
+@Name("demo.BotMove")
+@Label("Bot Move")
+@Category({"Chess", "Search"})
+@Description("The bot picked a move")
+@StackTrace(false)
+public class BotMoveEvent extends Event {
+
+    @Label("Position Hash")
+    long positionHash;
+
+    @Label("Move")
+    String move;
+
+    @Label("Strategy")
+    String strategy;
+
+    @Label("Depth")
+    @Description("Deepest alpha beta iteration finished, 0 for MCTS and book moves")
+    int depth;
+
+    @Label("Nodes")
+    long nodes;
+}
@@ -1,6 +1,11 @@
 package demo;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents an autonomous chess player. Uses alpha beta pruning to assist its search, but still unable
@@ -12,12 +17,142 @@ import java.util.Set;
  */
 public class ChessBot {
 
+    /**
+     * the search algorithms the bot can use to pick its move
+     */
+    public enum Strategy {
+        /**
+         * depth limited alpha beta search with quiescence (the default)
+         */
+        ALPHA_BETA,
+        /**
+         * Monte Carlo tree search with PUCT selection, see MctsSearch
+         */
+        MCTS
+    }
+
     /**
      * how many moves ahead to look. Really was hoping to get at least 4 but after plugging the bot in to
      * the command line interface, even 3 is a bit of a stretch on a slower computer.
      */
     private int ply = 3;
 
+    /**
+     * how many nodes and how much time, in milliseconds (0 for no limit), a search may use, and the level
+     * these came from, or null after setPly or either setter changed them
+     */
+    private long nodeLimit = Long.MAX_VALUE;
+    private long timeLimit = 0;
+    private Difficulty difficulty = null;
+
+    /**
+     * set once a search runs out of nodes or time, after which every node returns straight away
+     */
+    private boolean aborted = false;
+    private long deadline = 0;
+
+    /**
+     * for the helper threads of a lazy SMP search, set once the main search has finished, see lazySmp;
+     * null for the bot itself
+     */
+    private final AtomicBoolean stop;
+
+    /**
+     * the default and largest number of entries in the best move table
+     */
+    public static final int DEFAULT_TABLE_SIZE = 1 << 16;
+    public static final int MAX_TABLE_SIZE = 1 << 24;
+
+    /**
+     * best move found at each position by earlier iterations, searched first next time: a table with a power
+     * of two number of entries indexed by the low bits of the position hash
+     */
+    private long[] tableKeys;
+    private int[] tableMoves;
+
+    /**
+     * tableKeys again, published for getTableOccupancy on other threads. The search reads the plain field,
+     * which only the thread calling getBestMove writes
+     */
+    private volatile long[] publishedKeys;
+
+    /**
+     * changes to the table asked for by other threads (see EngineMetrics), made when the next search starts
+     */
+    private volatile int requestedTableSize = DEFAULT_TABLE_SIZE;
+    private volatile boolean clearRequested = false;
+
+    /**
+     * where searches are reported, or null
+     */
+    private volatile EngineMetrics metrics = null;
+
+    /**
+     * the positions leading up to the one currently being searched: the game history passed to getBestMove
+     * followed by the positions on the current search path
+     */
+    private PositionHistory history = new PositionHistory();
+
+    private Strategy strategy = Strategy.ALPHA_BETA;
+
+    /**
+     * how many threads a search uses, and how many leaves MCTS evaluates per move
+     */
+    private int threads = 1;
+    private int mctsIterations = 2000;
+
+    /**
+     * created on first use since its node arena takes a few megabytes
+     */
+    private MctsSearch mcts = null;
+
+    /**
+     * the opening book consulted before searching, or null, and where book moves are picked at random from
+     */
+    private OpeningBook book = null;
+    private Random random = new Random();
+
+    /**
+     * endgame tables to look positions up in, or null
+     */
+    private Tablebase tablebase = null;
+
+    /**
+     * counters for the last search: nodes visited (alpha beta) or leaves evaluated (MCTS), how long it
+     * took, the deepest iteration it finished and how well its move ordering worked
+     */
+    private SearchStats stats = new SearchStats();
+
+    /**
+     * constructs a bot playing at MEDIUM difficulty
+     */
+    public ChessBot() {
+        this.stop = null;
+        this.tableKeys = new long[DEFAULT_TABLE_SIZE];
+        this.tableMoves = new int[DEFAULT_TABLE_SIZE];
+        this.publishedKeys = this.tableKeys;
+        this.setDifficulty(Difficulty.MEDIUM);
+    }
+
+    /**
+     * constructs a helper for the lazy SMP search main is about to start, with the same limits and history
+     * and sharing its best move table
+     *
+     * @param main the bot whose search this one helps
+     * @param stop set once main's search has finished
+     */
+    private ChessBot(ChessBot main, AtomicBoolean stop) {
+        this.stop = stop;
+        this.ply = main.ply;
+        this.nodeLimit = main.nodeLimit;
+        this.timeLimit = main.timeLimit;
+        this.tableKeys = main.tableKeys;
+        this.tableMoves = main.tableMoves;
+        this.publishedKeys = main.tableKeys;
+        this.tablebase = main.tablebase;
+        this.history = new PositionHistory(main.history);
+    }
+
     /**
      * gets the best move for whoever's turn it is
      *
@@ -25,7 +160,178 @@ public class ChessBot {
      * @return the best move available to the current player
      */
     public Move getBestMove(ChessPosition position) {
-        return this.alphabeta(position, this.ply, -BoardEval.INFINITY, BoardEval.INFINITY).choice;
+        return this.getBestMove(position, null);
+    }
+
+    /**
+     * gets the best move for whoever's turn it is, treating any move that repeats an earlier position of the
+     * game as a draw
+     *
+     * @param position the position to analyze
+     * @param gameHistory the positions that came before position in the game, or null if unknown
+     * @return the best move available to the current player
+     */
+    public Move getBestMove(ChessPosition position, PositionHistory gameHistory) {
+        BotMoveEvent event = new BotMoveEvent();
+        event.begin();
+        long start = System.nanoTime();
+        this.stats = new SearchStats();
+        if (SearchProfiler.ENABLED) {
+            SearchProfiler.reset();
+        }
+        this.applyTableRequests();
+        EngineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.searchStarted();
+        }
+        Move best = this.book == null ? null : this.book.pick(position, this.random);
+        int searchThreads = 1;
+        try {
+            if (best != null) {
+                // book moves need no search at all
+            } else if (this.strategy == Strategy.MCTS) {
+                if (this.mcts == null) {
+                    this.mcts = new MctsSearch(1 << 18);
+                }
+                // each iteration evaluates one leaf, so the node budget caps the iterations
+                int iterations = (int) Math.min(this.mctsIterations, this.nodeLimit);
+                best = this.mcts.search(position, iterations, this.threads, this.timeLimit);
+                this.stats = this.mcts.getStats();
+                searchThreads = this.threads;
+            } else {
+                this.history = gameHistory == null ? new PositionHistory() : new PositionHistory(gameHistory);
+                best = this.tablebaseMove(position);
+                if (best == null && this.threads > 1) {
+                    best = this.lazySmp(position, start);
+                    searchThreads = this.threads;
+                } else if (best == null) {
+                    best = this.iterativeDeepening(position, start, 1);
+                }
+            }
+        } finally {
+            this.stats.nanos = System.nanoTime() - start;
+            if (metrics != null) {
+                metrics.searchFinished(this.stats.nodes, this.stats.nanos);
+            }
+        }
+        if (SearchProfiler.ENABLED) {
+            // every search thread counts towards the phases, so they all count towards the total too
+            System.err.print(SearchProfiler.report(this.stats.nanos * searchThreads));
+        }
+        if (event.shouldCommit()) {
+            event.positionHash = position.getHash();
+            event.move = String.valueOf(best);
+            event.strategy = this.strategy.name();
+            event.depth = this.stats.depth;
+            event.nodes = this.stats.nodes;
+            event.commit();
+        }
+        return best;
+    }
+
+    /**
+     * lazy SMP: searches position on this thread while threads - 1 helpers search it on theirs, all sharing
+     * the best move table. The helpers' moves are never played, but the best moves they store order this
+     * thread's search, and since every other helper starts a ply deeper they tend to store them first. The
+     * helpers are stopped as soon as this thread's search finishes
+     *
+     * @param position the position to analyze
+     * @param start when the search started, from System.nanoTime
+     * @return the best move found, or null if there are no legal moves
+     */
+    private Move lazySmp(ChessPosition position, long start) {
+        AtomicBoolean stop = new AtomicBoolean();
+        List<ChessBot> helpers = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 1; i < this.threads; i++) {
+            ChessBot helper = new ChessBot(this, stop);
+            int firstDepth = 1 + i % 2;
+            Thread t = new Thread(() -> helper.iterativeDeepening(position, start, firstDepth), "alphabeta-" + i);
+            helpers.add(helper);
+            workers.add(t);
+            t.start();
+        }
+        try {
+            return this.iterativeDeepening(position, start, 1);
+        } finally {
+            stop.set(true);
+            for (int i = 0; i < workers.size(); i++) {
+                try {
+                    workers.get(i).join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                this.stats.merge(helpers.get(i).stats);
+            }
+        }
+    }
+
+    /**
+     * searches one ply deeper at a time until the depth, node or time limit is reached. Each iteration
+     * searches the best moves of the one before first, so the deeper searches cut off sooner and, if they
+     * are stopped part way, the best move found so far is still worth playing
+     *
+     * @param position the position to analyze
+     * @param start when the search started, from System.nanoTime
+     * @param firstDepth the depth of the first iteration
+     * @return the best move found, or null if there are no legal moves
+     */
+    private Move iterativeDeepening(ChessPosition position, long start, int firstDepth) {
+        this.aborted = false;
+        this.deadline = start + this.timeLimit * 1000000;
+        Move best = null;
+        for (int depth = firstDepth; depth <= this.ply; depth++) {
+            SearchDepthEvent event = new SearchDepthEvent();
+            event.begin();
+            MoveChoice choice = this.alphabeta(position, depth, 0, -BoardEval.INFINITY, BoardEval.INFINITY);
+            if (choice.choice != null) {
+                // even an unfinished iteration only picks a move after searching it fully
+                best = choice.choice;
+            }
+            if (this.aborted) {
+                break;
+            }
+            if (depth <= SearchStats.MAX_DEPTH) {
+                this.stats.depthNodes[depth] = this.stats.nodes;
+                this.stats.depthNanos[depth] = System.nanoTime() - start;
+                this.stats.depthMoves[depth] = choice.choice == null ? 0 : Move.encode(choice.choice);
+            }
+            this.stats.depth = depth;
+            if (this.stop == null && event.shouldCommit()) {
+                event.positionHash = position.getHash();
+                event.depth = depth;
+                event.score = choice.value;
+                event.nodes = this.stats.nodes;
+                event.elapsed = System.nanoTime() - start;
+                event.commit();
+            }
+            if (Math.abs(choice.value) >= BoardEval.MATE_VALUE - TablebaseFile.MAX_PLIES - 1) {
+                // a forced mate either way won't change with more depth
+                break;
+            }
+        }
+        if (best == null) {
+            // out of time before a single move was searched
+            List<Move> moves = orderMoves(position, position.possibleMoves(), false, null);
+            best = moves.isEmpty() ? null : moves.get(0);
+        }
+        return best;
+    }
+
+    /**
+     * checks the node and time limits, and for a lazy SMP helper whether the main search has finished, and
+     * once any of these happens aborts the search
+     *
+     * @return true iff the search has been aborted
+     */
+    private boolean outOfBudget() {
+        if (!this.aborted && (this.stats.nodes > this.nodeLimit
+                || this.timeLimit > 0 && System.nanoTime() - this.deadline > 0
+                || this.stop != null && this.stop.get())) {
+            this.aborted = true;
+        }
+        return this.aborted;
     }
 
     /**
@@ -33,11 +339,24 @@ public class ChessBot {
      *
      * @param position the position to be analyzed by this call
      * @param depth the number of levels left to search
+     * @param height the number of moves between the root of the search and position
      * @param alpha current alpha value
      * @param beta current beta value
-     * @return a MoveChoice consisting of the best move from this position, along with its value
+     * @return a MoveChoice consisting of the best move from this position, along with its value. If the
+     * search gets aborted the value is meaningless, but the move, if any, was fully searched
      */
-    private MoveChoice alphabeta(ChessPosition position, int depth, int alpha, int beta) {
+    private MoveChoice alphabeta(ChessPosition position, int depth, int height, int alpha, int beta) {
+        this.stats.nodes++;
+        if (height > 0 && this.outOfBudget()) {
+            return new MoveChoice(null, 0);
+        }
+        if (this.tablebase != null && height > 0) {
+            // the tables know the exact outcome, so there's nothing left to search below here
+            int dtm = this.tablebase.probe(position);
+            if (dtm != Tablebase.NOT_FOUND && dtm != (TablebaseFile.ILLEGAL & 0xFF)) {
+                return new MoveChoice(null, tablebaseScore(dtm));
+            }
+        }
         Set<Move> availableMoves = position.possibleMoves();
 
         if (availableMoves.isEmpty()) {
@@ -47,13 +366,31 @@ public class ChessBot {
                 return new MoveChoice(null, BoardEval.STALEMATE_VALUE);
             }
         } else if (depth <= 0) {
-            return new MoveChoice(null, BoardEval.evaluate(position));
+            return new MoveChoice(null, this.quiesce(position, availableMoves, alpha, beta));
         }
 
         MoveChoice result = new MoveChoice(null, 0);
-        for (Move move : availableMoves) {
+        int slot = (int) position.getHash() & (this.tableKeys.length - 1);
+        Move tableMove = null;
+        this.stats.tableProbes++;
+        if (this.tableKeys[slot] == position.getHash()) {
+            tableMove = Move.decode(this.tableMoves[slot]);
+            this.stats.tableHits++;
+        }
+        this.history.push(position);
+        boolean firstMove = true;
+        for (Move move : orderMoves(position, availableMoves, false, tableMove)) {
             ChessPosition nextPos = position.move(move);
-            MoveChoice opponentBest = this.alphabeta(nextPos, depth - 1, -beta, -alpha);
+            MoveChoice opponentBest;
+            if (this.isDrawn(nextPos)) {
+                // no need to search any further, going back to an earlier position is as good as a draw
+                opponentBest = new MoveChoice(null, BoardEval.DRAW_VALUE);
+            } else {
+                opponentBest = this.alphabeta(nextPos, depth - 1, height + 1, -beta, -alpha);
+            }
+            if (this.aborted) {
+                break;
+            }
             //negate the value since the best move for them is the worst for us
             opponentBest.value = -opponentBest.value;
             if (opponentBest.value > alpha) {
@@ -62,21 +399,246 @@ public class ChessBot {
             }
 
             if (alpha >= beta) {
-                result.value = alpha;
+                this.stats.cutoffs++;
+                if (firstMove) {
+                    this.stats.firstMoveCutoffs++;
+                }
+                break;
             }
+            firstMove = false;
         }
+        this.history.pop();
 
+        if (result.choice != null && !this.aborted) {
+            this.tableKeys[slot] = position.getHash();
+            this.tableMoves[slot] = Move.encode(result.choice);
+            this.stats.tableStores++;
+        }
         result.value = alpha;
         return result;
     }
 
     /**
-     * sets the search depth for this bot (how many moves ahead it looks)
+     * picks a move straight from the endgame tables: the quickest win, else a draw, else the slowest loss
+     *
+     * @param position the position to move from
+     * @return the best move, or null if the tables don't cover position and every position it leads to
+     */
+    private Move tablebaseMove(ChessPosition position) {
+        if (this.tablebase == null || this.tablebase.probe(position) == Tablebase.NOT_FOUND) {
+            return null;
+        }
+        Move best = null;
+        int bestScore = -BoardEval.INFINITY;
+        for (Move move : position.possibleMoves()) {
+            this.stats.nodes++;
+            int dtm = this.tablebase.probe(position.move(move));
+            if (dtm == Tablebase.NOT_FOUND) {
+                return null;
+            }
+            int score = -tablebaseScore(dtm);
+            if (best == null || score > bestScore) {
+                best = move;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * converts a DTM value from the endgame tables into a score for the player to move. Mates found in the
+     * tables score a little less than mates found by search, and sooner mates score higher
+     *
+     * @param dtm a value returned by Tablebase.probe, other than NOT_FOUND or ILLEGAL
+     * @return the score of the position
+     */
+    private static int tablebaseScore(int dtm) {
+        if (dtm == TablebaseFile.DRAW) {
+            return BoardEval.DRAW_VALUE;
+        }
+        int plies = dtm - 1;
+        return (plies & 1) == 1 ? BoardEval.MATE_VALUE - 1 - plies : -(BoardEval.MATE_VALUE - 1 - plies);
+    }
+
+    /**
+     * checks whether a position reached during search should be scored as a draw: it repeats a position from
+     * earlier in the game or search (once is enough, since the player who repeated could do it again), or the
+     * fifty move rule applies
+     *
+     * @param position the position just reached; the position it was reached from must be on the history
+     * @return true iff the position is a draw
+     */
+    private boolean isDrawn(ChessPosition position) {
+        return position.getHalfmoveClock() >= PositionHistory.FIFTY_MOVE_LIMIT
+                || this.history.repetitions(position) > 0;
+    }
+
+    /**
+     * quiescence search: keeps resolving captures past the depth limit so that the evaluation isn't taken in
+     * the middle of an exchange. The current player may "stand pat" on the static evaluation instead of
+     * capturing, and captures that lose material according to static exchange evaluation are never tried
+     *
+     * @param position the position to be analyzed by this call
+     * @param availableMoves the legal moves in position, which must not be empty
+     * @param alpha current alpha value
+     * @param beta current beta value
+     * @return the value of position for the current player
+     */
+    private int quiesce(ChessPosition position, Set<Move> availableMoves, int alpha, int beta) {
+        this.stats.nodes++;
+        this.stats.quiescenceNodes++;
+        if (this.outOfBudget()) {
+            return alpha;
+        }
+        int standPat = BoardEval.evaluate(position);
+        if (standPat >= beta) {
+            return beta;
+        }
+        if (standPat > alpha) {
+            alpha = standPat;
+        }
+
+        for (Move move : orderMoves(position, availableMoves, true, null)) {
+            ChessPosition nextPos = position.move(move);
+            Set<Move> replies = nextPos.possibleMoves();
+            int value;
+            if (replies.isEmpty()) {
+                value = nextPos.isInCheck(nextPos.getPlayer()) ? BoardEval.MATE_VALUE : BoardEval.STALEMATE_VALUE;
+            } else {
+                value = -this.quiesce(nextPos, replies, -beta, -alpha);
+            }
+            if (this.aborted) {
+                return alpha;
+            }
+            if (value >= beta) {
+                return beta;
+            }
+            if (value > alpha) {
+                alpha = value;
+            }
+        }
+        return alpha;
+    }
+
+    /**
+     * sorts moves so that the most promising are searched first, which makes alpha beta cut off sooner.
+     * The best move from an earlier search comes first, then captures, ordered by their static exchange
+     * evaluation, then quiet moves, then captures that lose material. Each move's value field is overwritten
+     * with its ordering score.
+     *
+     * @param position the position the moves are made from
+     * @param moves the moves to order
+     * @param capturesOnly if true, only captures that don't lose material are returned
+     * @param first a move to put ahead of all others if it is in moves, or null
+     * @return the moves, best first
+     */
+    private static List<Move> orderMoves(ChessPosition position, Set<Move> moves, boolean capturesOnly, Move first) {
+        Board board = position.getBoard();
+        List<Move> ordered = new ArrayList<>(moves.size());
+        for (Move move : moves) {
+            boolean capture = board.getPiece(move.moveToX, move.moveToY) != null;
+            if (capture) {
+                int see = position.see(move);
+                if (capturesOnly && see < 0) {
+                    continue;
+                }
+                // winning and even captures ahead of quiet moves (score 0), losing ones behind
+                move.value = see >= 0 ? see + 1 : see;
+            } else if (capturesOnly) {
+                continue;
+            } else {
+                move.value = 0;
+            }
+            if (move.equals(first)) {
+                move.value = Integer.MAX_VALUE;
+            }
+            ordered.add(move);
+        }
+        ordered.sort((a, b) -> Integer.compare(b.value, a.value));
+        return ordered;
+    }
+
+    /**
+     * sets the search depth for this bot (how many moves ahead it looks). The node and time limits stay as
+     * they are
      *
      * @param ply the new depth to search to
      */
     public void setPly(int ply) {
         this.ply = ply;
+        this.difficulty = null;
+    }
+
+    /**
+     * sets the depth, node and time limits to those of a difficulty level
+     *
+     * @param difficulty the level to play at
+     * @throws IllegalArgumentException if difficulty is null
+     */
+    public void setDifficulty(Difficulty difficulty) {
+        if (difficulty == null) {
+            throw new IllegalArgumentException();
+        }
+        this.ply = difficulty.getDepth();
+        this.nodeLimit = difficulty.getNodeLimit();
+        this.timeLimit = difficulty.getTimeLimit();
+        this.difficulty = difficulty;
+    }
+
+    /**
+     * getter for the difficulty level the limits were last set from, or null if they have been changed since
+     */
+    public Difficulty getDifficulty() {
+        return this.difficulty;
+    }
+
+    /**
+     * sets how many nodes a search may visit (leaves for MCTS) before it stops and plays the best move found
+     *
+     * @param nodeLimit the node budget, or Long.MAX_VALUE for none
+     * @throws IllegalArgumentException if nodeLimit &lt; 1
+     */
+    public void setNodeLimit(long nodeLimit) {
+        if (nodeLimit < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.nodeLimit = nodeLimit;
+        this.difficulty = null;
+    }
+
+    /**
+     * getter for the node budget of a search
+     */
+    public long getNodeLimit() {
+        return this.nodeLimit;
+    }
+
+    /**
+     * sets how long a search may take before it stops and plays the best move found
+     *
+     * @param millis the time limit in milliseconds, or 0 for none
+     * @throws IllegalArgumentException if millis &lt; 0
+     */
+    public void setTimeLimit(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.timeLimit = millis;
+        this.difficulty = null;
+    }
+
+    /**
+     * getter for the time limit of a search, in milliseconds, or 0 if there is none
+     */
+    public long getTimeLimit() {
+        return this.timeLimit;
+    }
+
+    /**
+     * gets the deepest iteration the last alpha beta search completed
+     */
+    public int getLastDepth() {
+        return this.stats.depth;
     }
 
     /**
@@ -85,4 +647,222 @@ public class ChessBot {
     public int getPly() {
         return this.ply;
     }
-}
\ No newline at end of file
+
+    /**
+     * sets the search algorithm this bot uses
+     *
+     * @param strategy the new strategy
+     * @throws IllegalArgumentException if strategy is null
+     */
+    public void setStrategy(Strategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException();
+        }
+        this.strategy = strategy;
+    }
+
+    /**
+     * getter for the current search algorithm
+     */
+    public Strategy getStrategy() {
+        return this.strategy;
+    }
+
+    /**
+     * sets how many threads a search uses. MCTS shares its iterations between them; alpha beta runs a lazy
+     * SMP search, with the extra threads filling the best move table for this one, so the node and time
+     * limits apply to each thread
+     *
+     * @param threads the number of threads, at least 1
+     * @throws IllegalArgumentException if threads < 1
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * getter for the number of search threads
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * sets how many leaves MCTS evaluates per move, unless the node or time limit stops it sooner
+     *
+     * @param iterations the number of iterations, at least 1
+     * @throws IllegalArgumentException if iterations < 1
+     */
+    public void setMctsIterations(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.mctsIterations = iterations;
+    }
+
+    /**
+     * getter for the number of MCTS iterations per move
+     */
+    public int getMctsIterations() {
+        return this.mctsIterations;
+    }
+
+    /**
+     * gets the number of nodes the last search visited (alpha beta) or leaves it evaluated (MCTS)
+     */
+    public long getLastNodes() {
+        return this.stats.nodes;
+    }
+
+    /**
+     * gets how long the last search took, in nanoseconds
+     */
+    public long getLastNanos() {
+        return this.stats.nanos;
+    }
+
+    /**
+     * gets the full statistics of the last search: node counts, timings per iteration, branching factor,
+     * cutoff and best move table rates
+     *
+     * @return a copy of the statistics
+     */
+    public SearchStats getLastStats() {
+        return new SearchStats(this.stats);
+    }
+
+    /**
+     * checks whether a number of entries is allowed for the best move table
+     *
+     * @param entries the number of entries
+     * @return true iff entries is a power of two no larger than MAX_TABLE_SIZE
+     */
+    public static boolean isValidTableSize(int entries) {
+        return entries > 0 && entries <= MAX_TABLE_SIZE && Integer.bitCount(entries) == 1;
+    }
+
+    /**
+     * sets the number of entries in the best move table. Safe to call from any thread; the table is
+     * replaced, empty, when the next search starts
+     *
+     * @param entries the new number of entries, a power of two
+     * @throws IllegalArgumentException if isValidTableSize(entries) is false
+     */
+    public void setTableSize(int entries) {
+        if (!isValidTableSize(entries)) {
+            throw new IllegalArgumentException();
+        }
+        this.requestedTableSize = entries;
+    }
+
+    /**
+     * getter for the number of entries in the best move table, including a change not made yet
+     */
+    public int getTableSize() {
+        return this.requestedTableSize;
+    }
+
+    /**
+     * empties the best move table. Safe to call from any thread; the table is emptied when the next search
+     * starts
+     */
+    public void clearTable() {
+        this.clearRequested = true;
+    }
+
+    /**
+     * gets the fraction of best move table entries in use. Safe to call from any thread, though the answer
+     * is only approximate while a search is running
+     */
+    public double getTableOccupancy() {
+        long[] keys = this.publishedKeys;
+        int used = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                used++;
+            }
+        }
+        return (double) used / keys.length;
+    }
+
+    /**
+     * makes the changes to the best move table asked for by setTableSize and clearTable
+     */
+    private void applyTableRequests() {
+        int size = this.requestedTableSize;
+        if (size != this.tableKeys.length) {
+            this.tableKeys = new long[size];
+            this.tableMoves = new int[size];
+            this.publishedKeys = this.tableKeys;
+            this.clearRequested = false;
+        } else if (this.clearRequested) {
+            this.clearRequested = false;
+            Arrays.fill(this.tableKeys, 0);
+            Arrays.fill(this.tableMoves, 0);
+        }
+    }
+
+    /**
+     * sets the metrics this bot reports its searches to; use EngineMetrics.attach rather than calling this
+     *
+     * @param metrics the metrics, or null to stop reporting
+     */
+    void setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * getter for the metrics this bot reports its searches to, or null if it has none
+     */
+    public EngineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * sets the endgame tables this bot looks positions up in
+     *
+     * @param tablebase the tables to use, or null to search endgames like any other position
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * getter for the endgame tables this bot uses, or null if it has none
+     */
+    public Tablebase getTablebase() {
+        return this.tablebase;
+    }
+
+    /**
+     * sets the opening book this bot plays from while the game is still in it
+     *
+     * @param book the book to use, or null to always search
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * getter for the opening book this bot uses, or null if it has none
+     */
+    public OpeningBook getOpeningBook() {
+        return this.book;
+    }
+
+    /**
+     * sets where book moves are picked at random from, e.g. to make games repeatable
+     *
+     * @param random the source of randomness
+     * @throws IllegalArgumentException if random is null
+     */
+    public void setRandom(Random random) {
+        if (random == null) {
+            throw new IllegalArgumentException();
+        }
+        this.random = random;
+    }
+}
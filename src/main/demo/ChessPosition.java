@@ -27,6 +27,26 @@ public class ChessPosition {
     private Board board;
     private Player player;
 
+    /**
+     * Zobrist hash of the pieces on the board and the player to move, kept up to date by
+     * populate, setPlayer and move
+     */
+    private long hash;
+
+    /**
+     * number of moves made since the last capture or pawn move
+     */
+    private int halfmoveClock;
+
+    /**
+     * the eight directions a queen or king can move in; the first four are ranks and files
+     */
+    private static final int[] RAY_DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] RAY_DY = {0, 0, 1, -1, 1, -1, 1, -1};
+    private static final int[] KNIGHT_DX = {2, 1, -1, -2, -2, -1, 1, 2};
+    private static final int[] KNIGHT_DY = {-1, -2, -2, -1, 1, 2, 2, 1};
+    private static final int SEE_KING_VALUE = 20000;
+
     /**
      * Construct a new empty board on white's turn.
      */
@@ -46,6 +66,71 @@ public class ChessPosition {
         }
         board = new Board();
         this.player = player;
+        this.hash = player == Player.BLACK ? Zobrist.SIDE : 0;
+    }
+
+    /**
+     * Constructs the starting position of a standard chess game, with white to move.
+     * @return a new position with every piece on its starting square
+     */
+    public static ChessPosition standardBoard() {
+        ChessPosition chess = new ChessPosition(Player.WHITE);
+        /* Starting position
+         * R N B Q K B N R
+         * P P P P P P P P
+         *   #   #   #   #
+         * #   #   #   #
+         *   #   #   #   #
+         * #   #   #   #
+         * P P P P P P P P
+         * R N B Q K B N R
+         */
+        // White
+        chess.populate(Piece.WROOK, 0, 7);
+        chess.populate(Piece.WKNIGHT, 1, 7);
+        chess.populate(Piece.WBISHOP, 2, 7);
+        chess.populate(Piece.WQUEEN, 3, 7);
+        chess.populate(Piece.WKING, 4, 7);
+        chess.populate(Piece.WBISHOP, 5, 7);
+        chess.populate(Piece.WKNIGHT, 6, 7);
+        chess.populate(Piece.WROOK, 7, 7);
+        for (int i = 0; i < 8; i++) {
+            chess.populate(Piece.WPAWN, i, 6);
+        }
+        // Black
+        chess.populate(Piece.BROOK, 0, 0);
+        chess.populate(Piece.BKNIGHT, 1, 0);
+        chess.populate(Piece.BBISHOP, 2, 0);
+        chess.populate(Piece.BQUEEN, 3, 0);
+        chess.populate(Piece.BKING, 4, 0);
+        chess.populate(Piece.BBISHOP, 5, 0);
+        chess.populate(Piece.BKNIGHT, 6, 0);
+        chess.populate(Piece.BROOK, 7, 0);
+        for (int i = 0; i < 8; i++) {
+            chess.populate(Piece.BPAWN, i, 1);
+        }
+        return chess;
+    }
+
+    /**
+     * Constructs a position from a FEN record, e.g.
+     * "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b - - 0 1".
+     * @param fen the record; castling rights and the en passant square are ignored
+     * @return a new position
+     * @throws IllegalArgumentException if fen is null
+     * @throws SerializationException if fen is ill-formatted
+     */
+    public static ChessPosition fromFen(String fen) throws SerializationException {
+        return Fen.parse(fen);
+    }
+
+    /**
+     * Writes this position as a FEN record, with no castling rights or en passant square and
+     * a fullmove number of 1.
+     * @return the record
+     */
+    public String toFen() {
+        return Fen.format(this);
     }
 
     /**
@@ -61,6 +146,13 @@ public class ChessPosition {
         if (!board.isValidPosition(x, y)) {
             throw new IllegalArgumentException();
         }
+        Piece old = board.getPiece(x, y);
+        if (old != null) {
+            hash ^= Zobrist.key(old, x, y);
+        }
+        if (piece != null) {
+            hash ^= Zobrist.key(piece, x, y);
+        }
         board.setPiece(x, y, piece);
     }
 
@@ -78,6 +170,21 @@ public class ChessPosition {
      * @throws NoSuchElementException if there is no piece on the starting position
      */
     public ChessPosition move(int prevX, int prevY, int moveToX, int moveToY) {
+        if (!SearchProfiler.ENABLED) {
+            return copyAndMove(prevX, prevY, moveToX, moveToY);
+        }
+        SearchProfiler.enter(SearchProfiler.Phase.POSITION_COPY);
+        try {
+            return copyAndMove(prevX, prevY, moveToX, moveToY);
+        } finally {
+            SearchProfiler.exit();
+        }
+    }
+
+    /**
+     * the copy and move itself; move wraps it in profiling when that is on
+     */
+    private ChessPosition copyAndMove(int prevX, int prevY, int moveToX, int moveToY) {
         if (!board.isValidPosition(prevX, prevY)) {
             throw new IllegalArgumentException();
         }
@@ -107,9 +214,24 @@ public class ChessPosition {
 
         // set the origin position to be null and set the piece to the new position
         Piece pieceToMove = copy.getBoard().getPiece(prevX, prevY);
+        Piece captured = copy.getBoard().getPiece(moveToX, moveToY);
         copy.getBoard().setPiece(prevX, prevY, null);
         copy.getBoard().setPiece(moveToX, moveToY, pieceToMove);
 
+        // update the hash for the moved and captured pieces and the change of turn
+        copy.hash = this.hash ^ Zobrist.SIDE
+                ^ Zobrist.key(pieceToMove, prevX, prevY) ^ Zobrist.key(pieceToMove, moveToX, moveToY);
+        if (captured != null) {
+            copy.hash ^= Zobrist.key(captured, moveToX, moveToY);
+        }
+
+        // captures and pawn moves can't be undone, so they reset the clock
+        if (captured != null || pieceToMove == Piece.WPAWN || pieceToMove == Piece.BPAWN) {
+            copy.halfmoveClock = 0;
+        } else {
+            copy.halfmoveClock = this.halfmoveClock + 1;
+        }
+
         // return the board copy
         return copy;
 
@@ -137,7 +259,21 @@ public class ChessPosition {
         if (player == null) {
             throw new IllegalArgumentException();
         }
-        
+        if (!SearchProfiler.ENABLED) {
+            return kingAttacked(player);
+        }
+        SearchProfiler.enter(SearchProfiler.Phase.CHECK_DETECTION);
+        try {
+            return kingAttacked(player);
+        } finally {
+            SearchProfiler.exit();
+        }
+    }
+
+    /**
+     * isInCheck without the argument check and profiling
+     */
+    private boolean kingAttacked(Player player) {
         // The king to test for
         Piece king;
         if (player == Player.WHITE) {
@@ -177,6 +313,21 @@ public class ChessPosition {
      * @return A set of all legal moves the current player can make.
      */
     public Set<Move> possibleMoves() {
+        if (!SearchProfiler.ENABLED) {
+            return legalMoves();
+        }
+        SearchProfiler.enter(SearchProfiler.Phase.MOVE_GENERATION);
+        try {
+            return legalMoves();
+        } finally {
+            SearchProfiler.exit();
+        }
+    }
+
+    /**
+     * generates the legal moves, see possibleMoves
+     */
+    private Set<Move> legalMoves() {
         // Set to accumulate all possible moves
         Set<Move> moves = new HashSet<>();
         // Find all pieces belonging to the current player
@@ -205,6 +356,237 @@ public class ChessPosition {
         return moves;
     }
 
+    /**
+     * Determines whether a single move is legal for the current player. Much cheaper than
+     * checking whether possibleMoves() contains it, since no other moves are generated.
+     * @param move the move to check
+     * @return true iff possibleMoves() contains move
+     * @throws IllegalArgumentException if move is null
+     */
+    public boolean isLegal(Move move) {
+        if (move == null) {
+            throw new IllegalArgumentException();
+        }
+        if (!board.isValidPosition(move.prevX, move.prevY) || !board.isValidPosition(move.moveToX, move.moveToY)) {
+            return false;
+        }
+        Piece piece = board.getPiece(move.prevX, move.prevY);
+        if (piece == null || piece.getPlayer() != player
+                || !piece.getMoves(board, move.prevX, move.prevY).contains(move)) {
+            return false;
+        }
+        return !move(move).isInCheck(player);
+    }
+
+    /**
+     * Counts the leaves of the tree of legal moves to the given depth (perft). The standard
+     * reference numbers assume castling, en passant and promotion, which this class doesn't
+     * support, so they only match while none of those could have happened.
+     * @param depth the number of plies to look ahead
+     * @return the number of move sequences of exactly depth legal moves, 1 if depth is 0
+     * @throws IllegalArgumentException if depth &lt; 0
+     */
+    public long perft(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (depth == 0) {
+            return 1;
+        }
+        Set<Move> moves = possibleMoves();
+        if (depth == 1) {
+            return moves.size();
+        }
+        long leaves = 0;
+        for (Move move : moves) {
+            leaves += move(move).perft(depth - 1);
+        }
+        return leaves;
+    }
+
+    /**
+     * Static exchange evaluation of a move: the material the moving side gains (or loses, if
+     * negative) when both players keep recapturing on the destination square with their least
+     * valuable piece for as long as it pays off. Sliding pieces lined up behind other attackers
+     * (x-rays) join in once the pieces in front of them have captured. Pins and checks are
+     * ignored, except that a king never recaptures onto a square the other player still attacks.
+     * Does not allocate, so it is cheap enough to run at every node of a search.
+     * @param move the move to evaluate; normally a capture, but quiet moves are allowed too
+     * @return the net material gain of the exchange for the player making the move
+     * @throws IllegalArgumentException if either square of the move is not on the board
+     * @throws NoSuchElementException if there is no piece on the starting square
+     */
+    public int see(Move move) {
+        if (!board.isValidPosition(move.prevX, move.prevY) || !board.isValidPosition(move.moveToX, move.moveToY)) {
+            throw new IllegalArgumentException();
+        }
+        Piece mover = board.getPiece(move.prevX, move.prevY);
+        if (mover == null) {
+            throw new NoSuchElementException();
+        }
+        Piece target = board.getPiece(move.moveToX, move.moveToY);
+        int gain = target == null ? 0 : seeValue(target);
+        long removed = 1L << (move.prevY * 8 + move.prevX);
+        Player other = mover.getPlayer() == Player.WHITE ? Player.BLACK : Player.WHITE;
+        return gain - seeSwap(move.moveToX, move.moveToY, other, removed, seeValue(mover));
+    }
+
+    /**
+     * The value side can win by capturing a piece worth targetValue on (x, y), given that the
+     * squares in the removed bitmask have already been vacated by earlier captures. Never
+     * negative, since side can always decline to capture.
+     */
+    private int seeSwap(int x, int y, Player side, long removed, int targetValue) {
+        int from = leastValuableAttacker(x, y, side, removed);
+        if (from < 0) {
+            return 0;
+        }
+        Piece attacker = board.getPiece(from & 7, from >>> 3);
+        Player other = side == Player.WHITE ? Player.BLACK : Player.WHITE;
+        int value = targetValue - seeSwap(x, y, other, removed | (1L << from), seeValue(attacker));
+        return Math.max(0, value);
+    }
+
+    /**
+     * Finds the least valuable piece of the given player that attacks (x, y), treating the
+     * squares in the removed bitmask (bit y * 8 + x) as empty.
+     * @return the attacker's square as y * 8 + x, or -1 if there is none
+     */
+    private int leastValuableAttacker(int x, int y, Player side, long removed) {
+        boolean white = side == Player.WHITE;
+        int best = -1;
+        int bestValue = Integer.MAX_VALUE;
+
+        // pawns capture towards the other side, so they sit one row behind the target
+        int pawnY = white ? y + 1 : y - 1;
+        Piece pawn = white ? Piece.WPAWN : Piece.BPAWN;
+        for (int dx = -1; dx <= 1; dx += 2) {
+            int sq = attackerAt(x + dx, pawnY, pawn, removed);
+            if (sq >= 0) {
+                // nothing is cheaper than a pawn
+                return sq;
+            }
+        }
+
+        Piece knight = white ? Piece.WKNIGHT : Piece.BKNIGHT;
+        for (int i = 0; i < 8; i++) {
+            int sq = attackerAt(x + KNIGHT_DX[i], y + KNIGHT_DY[i], knight, removed);
+            if (sq >= 0) {
+                bestValue = seeValue(knight);
+                best = sq;
+                break;
+            }
+        }
+
+        // sliders: the first piece on each ray that has not been removed
+        for (int dir = 0; dir < 8; dir++) {
+            int dx = RAY_DX[dir];
+            int dy = RAY_DY[dir];
+            boolean diagonal = dx != 0 && dy != 0;
+            int cx = x + dx;
+            int cy = y + dy;
+            while (board.isValidPosition(cx, cy)) {
+                Piece piece = board.getPiece(cx, cy);
+                if (piece != null && (removed & (1L << (cy * 8 + cx))) == 0) {
+                    if (piece.getPlayer() == side && slidesAlong(piece, diagonal)) {
+                        int value = seeValue(piece);
+                        if (value < bestValue) {
+                            bestValue = value;
+                            best = cy * 8 + cx;
+                        }
+                    }
+                    break;
+                }
+                cx += dx;
+                cy += dy;
+            }
+        }
+
+        if (best < 0) {
+            Piece king = white ? Piece.WKING : Piece.BKING;
+            for (int dir = 0; dir < 8; dir++) {
+                int sq = attackerAt(x + RAY_DX[dir], y + RAY_DY[dir], king, removed);
+                if (sq >= 0) {
+                    return sq;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return y * 8 + x if (x, y) is on the board, holds the given piece and was not removed, -1 otherwise
+     */
+    private int attackerAt(int x, int y, Piece piece, long removed) {
+        if (!board.isValidPosition(x, y) || board.getPiece(x, y) != piece) {
+            return -1;
+        }
+        int sq = y * 8 + x;
+        return (removed & (1L << sq)) == 0 ? sq : -1;
+    }
+
+    /**
+     * @return whether the given piece slides along diagonals (if diagonal) or ranks and files (otherwise)
+     */
+    private static boolean slidesAlong(Piece piece, boolean diagonal) {
+        switch (piece) {
+            case WQUEEN:
+            case BQUEEN:
+                return true;
+            case WBISHOP:
+            case BBISHOP:
+                return diagonal;
+            case WROOK:
+            case BROOK:
+                return !diagonal;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The material value used by see. Kings are worth more than everything else combined, so an
+     * exchange where a king recaptures into an attacked square never pays off.
+     */
+    private static int seeValue(Piece piece) {
+        if (piece == Piece.WKING || piece == Piece.BKING) {
+            return SEE_KING_VALUE;
+        }
+        return Math.abs(piece.getValue());
+    }
+
+    /**
+     * Gets the Zobrist hash of this position. Positions with the same pieces on the same squares
+     * and the same player to move have the same hash. Only changes made through populate,
+     * setPlayer and move are reflected, not changes made directly to the board.
+     * @return the hash of this position
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Gets the number of moves made since the last capture or pawn move. The position can't
+     * repeat any position from before that move.
+     * @return the halfmove clock of this position
+     */
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    /**
+     * Sets the number of moves made since the last capture or pawn move.
+     * @param halfmoveClock the new halfmove clock
+     * @throws IllegalArgumentException if halfmoveClock is negative
+     * @modifies <code>this</code>
+     */
+    public void setHalfmoveClock(int halfmoveClock) {
+        if (halfmoveClock < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.halfmoveClock = halfmoveClock;
+    }
+
     /**
      * View current chess board.
      * @return The current chess board.
@@ -233,6 +615,9 @@ public class ChessPosition {
         if (player == null) {
             throw new IllegalArgumentException();
         }
+        if (player != this.player) {
+            hash ^= Zobrist.SIDE;
+        }
         this.player = player;
     }
 
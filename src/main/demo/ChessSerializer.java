@@ -1,6 +1,7 @@
 package demo;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -47,6 +48,30 @@ public class ChessSerializer {
         w.flush();
     }
 
+    /**
+     * Writes the given <code>ChessPosition</code> to an <code>OutputStream</code> as a single line
+     *   FEN record (see <code>Fen.format</code>).
+     * @requires s != null && cp != null
+     * @effects writing data to s
+     * @throws IOException if an I/O error occurs
+     */
+    public static void serializeFen(OutputStream s, ChessPosition cp) throws IOException {
+        OutputStreamWriter w = new OutputStreamWriter(s);
+        w.write(Fen.format(cp));
+        w.write('\n');
+        w.flush();
+    }
+
+    /**
+     * Checks whether a file should be written as FEN rather than in the default format.
+     * @requires filename != null
+     * @return true iff the file name ends in .fen or .epd, in any case
+     */
+    public static boolean isFenFile(String filename) {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".fen") || lower.endsWith(".epd");
+    }
+
     /**
      * Deserializes the file at the given path and constructs a <code>ChessPosition</code>
      *   based on it.
@@ -56,36 +81,61 @@ public class ChessSerializer {
      * @throws IOException if an I/O error occurs
      */
     public static ChessPosition deserialize(String filename) throws IOException, SerializationException {
-        return deserialize(new FileInputStream(filename));
+        try (InputStream in = new FileInputStream(filename)) {
+            return deserialize(in);
+        }
     }
 
     /**
      * Deserializes data from the given <code>InputStream</code> and constructs a
-     *   <code>ChessPosition</code> based on it.
+     *   <code>ChessPosition</code> based on it. The data may be in the format written by
+     *   <code>serialize</code> or a FEN record on its first non-blank line, as written by
+     *   <code>serializeFen</code>.
      * @requires s != null
      * @effects constructs a <code>ChessPosition</code>
-     * @throws SerializationException if data in the given stream
+     * @throws SerializationException if data in the given stream is ill-formatted
      * @throws IOException if an I/O error occurs
      */
     public static ChessPosition deserialize(InputStream s) throws IOException, SerializationException {
-        Scanner scanner = new Scanner(s);
-        ChessPosition res;
+        // both formats are plain ASCII, and one char per byte keeps indexes simple
+        String text = new String(s.readAllBytes(), StandardCharsets.ISO_8859_1);
+        int pos = skipWhitespace(text, 0);
+        if (text.startsWith("WHITE", pos) || text.startsWith("BLACK", pos)) {
+            return parseDefault(text, pos);
+        }
+        int end = pos;
+        while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+            end++;
+        }
+        return Fen.parse(text.subSequence(pos, end));
+    }
 
-        try {
-            res = new ChessPosition(Player.valueOf(scanner.next()));
-            for (int y = 0; y < 8; y++) {
-                for (int x = 0; x < 8; x++) {
-                    String str = scanner.next();
-                    if (str.length() != 1) {
-                        throw new SerializationException();
-                    }
-                    res.populate(BoardPresent.pieceFrom(str.charAt(0)), x, y);
+    /**
+     * parses the format written by serialize: the player to move, then 64 squares, each a
+     * piece letter or '.', separated by whitespace
+     */
+    private static ChessPosition parseDefault(String text, int pos) throws SerializationException {
+        ChessPosition res = new ChessPosition(text.charAt(pos) == 'W' ? Player.WHITE : Player.BLACK);
+        pos += 5;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int next = skipWhitespace(text, pos);
+                // each square is one character, with whitespace on both sides
+                if (next == pos || next >= text.length()
+                        || (next + 1 < text.length() && !Character.isWhitespace(text.charAt(next + 1)))) {
+                    throw new SerializationException();
                 }
+                res.populate(BoardPresent.pieceFrom(text.charAt(next)), x, y);
+                pos = next + 1;
             }
-        } catch (NoSuchElementException e) {
-            throw new SerializationException();
         }
-        
         return res;
     }
-}
\ No newline at end of file
+
+    private static int skipWhitespace(String text, int pos) {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
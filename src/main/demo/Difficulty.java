@@ -0,0 +1,59 @@
+package demo;
+
+/**
+ * Strength levels for <code>ChessBot</code>. Each level caps how deep the bot searches, how many
+ * nodes it may visit and how long it may think, and the bot stops at whichever limit it reaches
+ * first, so no level keeps the player waiting longer than its time limit.
+ */
+public enum Difficulty {
+    BEGINNER(1, 300, 250),
+    EASY(2, 3000, 500),
+    MEDIUM(3, 20000, 1500),
+    HARD(4, 100000, 4000),
+    EXPERT(8, 1000000, 10000);
+
+    private final int depth;
+    private final long nodes;
+    private final long millis;
+
+    Difficulty(int depth, long nodes, long millis) {
+        this.depth = depth;
+        this.nodes = nodes;
+        this.millis = millis;
+    }
+
+    /**
+     * Gets the deepest search, in plies, this level allows.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets how many nodes a search at this level may visit.
+     */
+    public long getNodeLimit() {
+        return nodes;
+    }
+
+    /**
+     * Gets how long a search at this level may take, in milliseconds.
+     */
+    public long getTimeLimit() {
+        return millis;
+    }
+
+    /**
+     * Finds a level by name, ignoring case.
+     * @param name the name of a level, e.g. "easy"
+     * @return the level, or null if there is none by that name
+     */
+    public static Difficulty parse(String name) {
+        for (Difficulty d : values()) {
+            if (d.name().equalsIgnoreCase(name)) {
+                return d;
+            }
+        }
+        return null;
+    }
+}
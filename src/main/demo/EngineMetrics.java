@@ -0,0 +1,198 @@
+package demo;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics for one or more <code>ChessBot</code>s, published over JMX.
+ * <p>
+ * Attach every bot of an engine, or of a pool of engines, to the same metrics and register them
+ * once:
+ * <pre>
+ *   EngineMetrics metrics = new EngineMetrics();
+ *   metrics.attach(bot);
+ *   metrics.register("analysis");
+ * </pre>
+ * after which jconsole and other local JMX tools show them as
+ * <code>demo:type=EngineMetrics,name=analysis</code>. Bots report each search as it starts and
+ * finishes; the counters and the latency histogram are updated without locks, so many bots
+ * searching on their own threads don't contend for them.
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+
+    public static final String DOMAIN = "demo";
+
+    private final CopyOnWriteArrayList<ChessBot> bots = new CopyOnWriteArrayList<>();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile ObjectName name = null;
+
+    /**
+     * Makes a bot report its searches to these metrics, and the table and cache operations
+     * apply to it. A bot reports to one set of metrics at a time.
+     * @param bot the bot to attach
+     * @throws IllegalArgumentException if bot is null
+     */
+    public void attach(ChessBot bot) {
+        if (bot == null) {
+            throw new IllegalArgumentException();
+        }
+        EngineMetrics old = bot.getMetrics();
+        if (old != null && old != this) {
+            old.detach(bot);
+        }
+        bot.setMetrics(this);
+        bots.addIfAbsent(bot);
+    }
+
+    /**
+     * Stops a bot reporting to these metrics. The statistics it already reported are kept.
+     * @param bot the bot to detach; nothing happens if it is null or not attached
+     */
+    public void detach(ChessBot bot) {
+        if (bot != null && bots.remove(bot)) {
+            bot.setMetrics(null);
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     * @param name the value of the name key of the object name, e.g. the name of the engine
+     * @return the object name the metrics were registered under
+     * @throws JMException if the name is malformed or already taken
+     * @throws IllegalArgumentException if name is null
+     * @throws IllegalStateException if the metrics are already registered
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (name == null) {
+            throw new IllegalArgumentException();
+        }
+        if (this.name != null) {
+            throw new IllegalStateException();
+        }
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=EngineMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if they are registered.
+     * @throws JMException if the server refuses
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            name = null;
+        }
+    }
+
+    /**
+     * called by an attached bot when a search starts
+     */
+    void searchStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * called by an attached bot when a search finishes, with the nodes it visited and the time
+     * it took
+     */
+    void searchFinished(long searchNodes, long nanos) {
+        inFlight.decrementAndGet();
+        nodes.add(searchNodes);
+        searches.increment();
+        latency.record(nanos);
+    }
+
+    @Override
+    public int getBots() {
+        return bots.size();
+    }
+
+    @Override
+    public long getNodesSearched() {
+        return nodes.sum();
+    }
+
+    @Override
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    @Override
+    public int getSearchesInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public double getAverageLatencyMillis() {
+        return latency.getMeanMicros() / 1000;
+    }
+
+    @Override
+    public double getP99LatencyMillis() {
+        return latency.getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public int getTableSize() {
+        for (ChessBot bot : bots) {
+            return bot.getTableSize();
+        }
+        return 0;
+    }
+
+    @Override
+    public double getTableOccupancy() {
+        double total = 0;
+        int n = 0;
+        for (ChessBot bot : bots) {
+            total += bot.getTableOccupancy();
+            n++;
+        }
+        return n == 0 ? 0 : total / n;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException if entries is not a power of two or is larger than
+     *   ChessBot.MAX_TABLE_SIZE
+     */
+    @Override
+    public void resizeTable(int entries) {
+        if (!ChessBot.isValidTableSize(entries)) {
+            throw new IllegalArgumentException();
+        }
+        for (ChessBot bot : bots) {
+            bot.setTableSize(entries);
+        }
+    }
+
+    @Override
+    public void clearCaches() {
+        for (ChessBot bot : bots) {
+            bot.clearTable();
+            if (bot.getTablebase() != null) {
+                bot.getTablebase().clearCache();
+            }
+        }
+    }
+
+    @Override
+    public void resetStatistics() {
+        nodes.reset();
+        searches.reset();
+        latency.clear();
+    }
+}
@@ -0,0 +1,66 @@
+package demo;
+
+/**
+ * The management interface of <code>EngineMetrics</code>, as seen by JMX clients such as
+ * jconsole or VisualVM.
+ */
+public interface EngineMetricsMBean {
+
+    /**
+     * Gets the number of bots attached.
+     */
+    int getBots();
+
+    /**
+     * Gets the total number of nodes searched by every attached bot since the metrics were
+     * created or reset.
+     */
+    long getNodesSearched();
+
+    /**
+     * Gets the number of moves picked since the metrics were created or reset.
+     */
+    long getSearches();
+
+    /**
+     * Gets the number of searches running right now.
+     */
+    int getSearchesInFlight();
+
+    /**
+     * Gets the mean time taken to pick a move, in milliseconds.
+     */
+    double getAverageLatencyMillis();
+
+    /**
+     * Gets the 99th percentile of the time taken to pick a move, in milliseconds.
+     */
+    double getP99LatencyMillis();
+
+    /**
+     * Gets the number of entries in the best move table of each attached bot.
+     */
+    int getTableSize();
+
+    /**
+     * Gets the fraction of best move table entries in use, averaged over the attached bots.
+     */
+    double getTableOccupancy();
+
+    /**
+     * Resizes the best move table of every attached bot. Bots that are searching switch to the
+     * new table when their next search starts.
+     * @param entries the new number of entries, a power of two
+     */
+    void resizeTable(int entries);
+
+    /**
+     * Empties the best move tables and tablebase block caches of every attached bot.
+     */
+    void clearCaches();
+
+    /**
+     * Sets the node count, search count and latency histogram back to zero.
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,398 @@
+package demo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs test suites in Extended Position Description (EPD) format: each line is the first four
+ * fields of a FEN followed by operations such as
+ * <pre>
+ *   r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - bm Qxf7#; id "scholar";
+ * </pre>
+ * A position is solved if the bot, searching under a node or time limit, plays one of the
+ * <code>bm</code> (best) moves and none of the <code>am</code> (avoid) moves. Positions are spread
+ * over a pool of threads, each search single threaded with a bot of its own, so a suite solves
+ * about as many positions per CPU second however many threads run it.
+ * <pre>
+ *   java demo.EpdRunner [-threads n] [-nodes n] [-ms n] suite.epd...
+ * </pre>
+ */
+public class EpdRunner {
+
+    /**
+     * One position of a suite.
+     */
+    public static class Entry {
+        /**
+         * the id operation, or the line number if there is none
+         */
+        public final String id;
+        public final ChessPosition position;
+        public final Set<Move> bestMoves;
+        public final Set<Move> avoidMoves;
+        /**
+         * false if a bm or am move could not be read, e.g. because it castles or promotes
+         */
+        public final boolean supported;
+
+        Entry(String id, ChessPosition position, Set<Move> bestMoves, Set<Move> avoidMoves, boolean supported) {
+            this.id = id;
+            this.position = position;
+            this.bestMoves = bestMoves;
+            this.avoidMoves = avoidMoves;
+            this.supported = supported && (!bestMoves.isEmpty() || !avoidMoves.isEmpty());
+        }
+
+        /**
+         * Checks a move against the bm and am operations.
+         * @param move the move played
+         * @return true iff move is a best move (if any are given) and not a move to avoid
+         */
+        public boolean isSolvedBy(Move move) {
+            return move != null && (bestMoves.isEmpty() || bestMoves.contains(move)) && !avoidMoves.contains(move);
+        }
+    }
+
+    /**
+     * The outcome of searching one position.
+     */
+    public static class Result {
+        public final Entry entry;
+        /**
+         * the move played, or null if the entry was skipped
+         */
+        public final Move move;
+        public final boolean solved;
+        public final long nodes;
+        public final long nanos;
+        /**
+         * how far into the search the solution was found and kept, or -1 if it wasn't solved
+         */
+        public final long solveNanos;
+
+        Result(Entry entry, Move move, boolean solved, long nodes, long nanos, long solveNanos) {
+            this.entry = entry;
+            this.move = move;
+            this.solved = solved;
+            this.nodes = nodes;
+            this.nanos = nanos;
+            this.solveNanos = solveNanos;
+        }
+    }
+
+    private final int threads;
+    private final long nodeLimit;
+    private final long timeLimit;
+
+    /**
+     * Constructs a runner.
+     * @param threads how many positions to search at once
+     * @param nodeLimit the node budget per position, or Long.MAX_VALUE for none
+     * @param timeLimit the time limit per position in milliseconds, or 0 for none
+     * @throws IllegalArgumentException if threads &lt; 1, nodeLimit &lt; 1 or timeLimit &lt; 0, or
+     *   there is neither a node nor a time limit
+     */
+    public EpdRunner(int threads, long nodeLimit, long timeLimit) {
+        if (threads < 1 || nodeLimit < 1 || timeLimit < 0 || nodeLimit == Long.MAX_VALUE && timeLimit == 0) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+        this.nodeLimit = nodeLimit;
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Reads a suite. Blank lines and lines starting with # are skipped.
+     * @param path the EPD file
+     * @return the entries, in file order
+     * @throws IOException if the file cannot be read
+     * @throws SerializationException if a line is not well formed EPD
+     * @throws IllegalArgumentException if path is null
+     */
+    public static List<Entry> read(Path path) throws IOException, SerializationException {
+        if (path == null) {
+            throw new IllegalArgumentException();
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    entries.add(parse(line, Integer.toString(number)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads one line of a suite.
+     * @param line the line
+     * @param defaultId the id to use if the line has no id operation
+     * @return the entry
+     * @throws SerializationException if the line is not well formed EPD
+     * @throws IllegalArgumentException if line or defaultId is null
+     */
+    public static Entry parse(String line, String defaultId) throws SerializationException {
+        if (line == null || defaultId == null) {
+            throw new IllegalArgumentException();
+        }
+        PackedPositions packed = new PackedPositions(1);
+        int pos = Fen.parse(line, 0, line.length(), packed);
+        ChessPosition position = packed.get(0);
+        // castling rights and en passant square
+        for (int field = 0; field < 2; field++) {
+            pos = Fen.skipSpaces(line, pos, line.length());
+            if (pos >= line.length()) {
+                throw new SerializationException("missing castling or en passant field");
+            }
+            while (pos < line.length() && !Character.isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        String id = defaultId;
+        Set<Move> best = new HashSet<>();
+        Set<Move> avoid = new HashSet<>();
+        boolean supported = true;
+        for (String operation : splitOperations(line.substring(pos))) {
+            String[] words = operation.trim().split("\\s+");
+            if (words[0].equals("id") && words.length > 1) {
+                id = unquote(operation.trim().substring(2).trim());
+            } else if (words[0].equals("bm") || words[0].equals("am")) {
+                for (int i = 1; i < words.length; i++) {
+                    Move move = San.parse(position, words[i]);
+                    if (move == null) {
+                        supported = false;
+                    } else {
+                        (words[0].equals("bm") ? best : avoid).add(move);
+                    }
+                }
+            }
+        }
+        return new Entry(id, position, best, avoid, supported);
+    }
+
+    /**
+     * splits EPD operations at semicolons outside quoted strings
+     */
+    private static List<String> splitOperations(String text) {
+        List<String> operations = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (c == ';' && !quoted) {
+                if (!current.toString().trim().isEmpty()) {
+                    operations.add(current.toString());
+                }
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (!current.toString().trim().isEmpty()) {
+            operations.add(current.toString());
+        }
+        return operations;
+    }
+
+    private static String unquote(String s) {
+        return s.length() >= 2 && s.startsWith("\"") && s.endsWith("\"") ? s.substring(1, s.length() - 1) : s;
+    }
+
+    /**
+     * Searches every entry of a suite.
+     * @param entries the entries to search
+     * @return the results, in the same order as entries
+     * @throws IllegalArgumentException if entries is null
+     */
+    public List<Result> run(List<Entry> entries) {
+        if (entries == null) {
+            throw new IllegalArgumentException();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>();
+            for (Entry entry : entries) {
+                tasks.add(() -> solve(entry));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * searches one entry with a bot of its own
+     */
+    private Result solve(Entry entry) {
+        if (!entry.supported) {
+            return new Result(entry, null, false, 0, 0, -1);
+        }
+        ChessBot bot = new ChessBot();
+        bot.setPly(SearchStats.MAX_DEPTH);
+        bot.setNodeLimit(nodeLimit);
+        bot.setTimeLimit(timeLimit);
+        Move move = bot.getBestMove(entry.position);
+        SearchStats stats = bot.getLastStats();
+        boolean solved = entry.isSolvedBy(move);
+        long solveNanos = -1;
+        if (solved) {
+            // the earliest iteration from which every later one agreed; if only the unfinished last
+            // iteration found the move, it took the whole search
+            solveNanos = stats.getNanos();
+            if (move.equals(stats.getDepthMove(stats.getDepth()))) {
+                int depth = stats.getDepth();
+                while (depth > 1 && entry.isSolvedBy(stats.getDepthMove(depth - 1))) {
+                    depth--;
+                }
+                solveNanos = stats.getDepthNanos(depth);
+            }
+        }
+        return new Result(entry, move, solved, stats.getNodes(), stats.getNanos(), solveNanos);
+    }
+
+    /**
+     * Summarizes results: how many positions were solved, how quickly, and at what cost.
+     * @param results results returned by run
+     * @return a few lines of text
+     * @throws IllegalArgumentException if results is null
+     */
+    public static String summary(List<Result> results) {
+        if (results == null) {
+            throw new IllegalArgumentException();
+        }
+        int searched = 0;
+        int solved = 0;
+        long nodes = 0;
+        long nanos = 0;
+        List<Long> solveTimes = new ArrayList<>();
+        // solutions found within 10 ms, 100 ms, 1 s, 10 s and longer
+        int[] buckets = new int[5];
+        for (Result result : results) {
+            if (!result.entry.supported) {
+                continue;
+            }
+            searched++;
+            nodes += result.nodes;
+            nanos += result.nanos;
+            if (result.solved) {
+                solved++;
+                solveTimes.add(result.solveNanos);
+                int bucket = 0;
+                for (long limit = 10000000; bucket < 4 && result.solveNanos >= limit; limit *= 10) {
+                    bucket++;
+                }
+                buckets[bucket]++;
+            }
+        }
+        Collections.sort(solveTimes);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("solved %d of %d (%.1f%%), %d skipped%n", solved, searched,
+                searched == 0 ? 0.0 : 100.0 * solved / searched, results.size() - searched));
+        sb.append(String.format("nodes %d, search time %.1f s, %.0f nodes/s, %.2f solved per search second%n",
+                nodes, nanos / 1e9, nanos == 0 ? 0.0 : nodes * 1e9 / nanos, nanos == 0 ? 0.0 : solved * 1e9 / nanos));
+        if (!solveTimes.isEmpty()) {
+            sb.append(String.format("time to solution: median %.1f ms, 90%% %.1f ms, max %.1f ms%n",
+                    percentile(solveTimes, 50) / 1e6, percentile(solveTimes, 90) / 1e6,
+                    solveTimes.get(solveTimes.size() - 1) / 1e6));
+        }
+        String[] labels = {"< 10 ms", "< 100 ms", "< 1 s", "< 10 s", ">= 10 s"};
+        for (int i = 0; i < buckets.length; i++) {
+            sb.append(String.format("  %-9s %d%n", labels[i], buckets[i]));
+        }
+        return sb.toString();
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(sorted.size() * percentile / 100.0) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    /**
+     * Runs suites from the command line, printing a line per position and then the summary.
+     * @param args the options and EPD files
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> suites = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long nodeLimit = Long.MAX_VALUE;
+        long timeLimit = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("-") && i + 1 < args.length) {
+                long value = Long.parseLong(args[++i]);
+                switch (args[i - 1]) {
+                    case "-threads":
+                        threads = (int) value;
+                        break;
+                    case "-nodes":
+                        nodeLimit = value;
+                        break;
+                    case "-ms":
+                        timeLimit = value;
+                        break;
+                    default:
+                        System.err.println("unknown option " + args[i - 1]);
+                        System.exit(1);
+                }
+            } else {
+                suites.add(Paths.get(args[i]));
+            }
+        }
+        if (suites.isEmpty()) {
+            System.err.println("usage: java demo.EpdRunner [-threads n] [-nodes n] [-ms n] suite.epd...");
+            System.exit(1);
+        }
+        if (nodeLimit == Long.MAX_VALUE && timeLimit == 0) {
+            timeLimit = 1000;
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (Path suite : suites) {
+            try {
+                entries.addAll(read(suite));
+            } catch (SerializationException e) {
+                System.err.println(suite + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        long start = System.nanoTime();
+        List<Result> results = new EpdRunner(threads, nodeLimit, timeLimit).run(entries);
+        for (Result result : results) {
+            String outcome = !result.entry.supported ? "skipped" : result.solved ? "solved" : "failed";
+            System.out.printf("%-20s %-7s %-12s %9d nodes %8.1f ms%n", result.entry.id, outcome,
+                    result.move == null ? "" : San.format(result.entry.position, result.move), result.nodes, result.nanos / 1e6);
+        }
+        System.out.print(summary(results));
+        System.out.printf("wall time %.1f s on %d threads%n", (System.nanoTime() - start) / 1e9, threads);
+    }
+}
@@ -0,0 +1,250 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * Scans positions written in Forsyth-Edwards Notation (FEN). Only the piece placement and
+ * active color fields are meaningful to this program; castling rights and en passant squares
+ * are not supported by <code>ChessPosition</code> and are skipped.
+ * <p>
+ * The scanner works directly on a <code>CharSequence</code> one character at a time and
+ * never creates substrings, so it can be run over millions of lines cheaply. Likewise
+ * <code>append</code> writes straight into a caller's <code>StringBuilder</code>.
+ */
+public class Fen {
+
+    /**
+     * Parses a complete FEN record. The castling, en passant and fullmove fields may be left
+     * out, as in EPD; the castling and en passant fields are checked but ignored.
+     * @param text the record; leading and trailing spaces are ignored
+     * @return a new position, with its halfmove clock set from the record
+     * @throws IllegalArgumentException if text is null
+     * @throws SerializationException if the record is ill-formatted
+     */
+    public static ChessPosition parse(CharSequence text) throws SerializationException {
+        if (text == null) {
+            throw new IllegalArgumentException();
+        }
+        int end = text.length();
+        byte[] squares = new byte[PackedPositions.SQUARES];
+        int pos = parsePlacement(text, 0, end, squares, 0);
+        pos = skipSpaces(text, pos, end);
+        if (pos >= end || (text.charAt(pos) != 'w' && text.charAt(pos) != 'b')) {
+            throw new SerializationException("bad active color");
+        }
+        ChessPosition position = new ChessPosition(text.charAt(pos) == 'w' ? Player.WHITE : Player.BLACK);
+        for (int s = 0; s < PackedPositions.SQUARES; s++) {
+            if (squares[s] != 0) {
+                position.populate(PackedPositions.decode(squares[s]), s & 7, s >>> 3);
+            }
+        }
+        pos = skipSpaces(text, pos + 1, end);
+
+        // castling rights: "-" or some of KQkq
+        while (pos < end && "KQkq-".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        if (pos < end && !isSpace(text.charAt(pos))) {
+            throw new SerializationException("bad castling field");
+        }
+        pos = skipSpaces(text, pos, end);
+
+        // en passant square: "-" or a square on rank 3 or 6
+        if (pos < end) {
+            if (text.charAt(pos) == '-') {
+                pos++;
+            } else if (pos + 1 < end && text.charAt(pos) >= 'a' && text.charAt(pos) <= 'h'
+                    && (text.charAt(pos + 1) == '3' || text.charAt(pos + 1) == '6')) {
+                pos += 2;
+            } else {
+                throw new SerializationException("bad en passant field");
+            }
+            if (pos < end && !isSpace(text.charAt(pos))) {
+                throw new SerializationException("bad en passant field");
+            }
+            pos = skipSpaces(text, pos, end);
+        }
+
+        // halfmove clock, then the fullmove number, which ChessPosition doesn't keep
+        for (int field = 0; field < 2 && pos < end; field++) {
+            int value = 0;
+            int digits = 0;
+            while (pos < end && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+                if (++digits > 6) {
+                    throw new SerializationException("move number too large");
+                }
+                value = value * 10 + text.charAt(pos++) - '0';
+            }
+            if (digits == 0 || (pos < end && !isSpace(text.charAt(pos)))) {
+                throw new SerializationException("bad move number");
+            }
+            if (field == 0) {
+                position.setHalfmoveClock(value);
+            }
+            pos = skipSpaces(text, pos, end);
+        }
+        if (pos < end) {
+            throw new SerializationException("trailing characters");
+        }
+        return position;
+    }
+
+    /**
+     * Writes a position as a FEN record. There are never castling rights or an en passant
+     * square, and since positions don't know how far into a game they are, the fullmove
+     * number is always 1.
+     * @param position the position to write
+     * @return the record, e.g. "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1"
+     * @throws IllegalArgumentException if position is null
+     */
+    public static String format(ChessPosition position) {
+        if (position == null) {
+            throw new IllegalArgumentException();
+        }
+        StringBuilder sb = new StringBuilder(64);
+        append(position, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a position as a FEN record (see <code>format</code>) without creating any other
+     * objects.
+     * @param position the position to write
+     * @param sb where to write it
+     * @throws IllegalArgumentException if position or sb is null
+     * @modifies sb
+     */
+    public static void append(ChessPosition position, StringBuilder sb) {
+        if (position == null || sb == null) {
+            throw new IllegalArgumentException();
+        }
+        Board board = position.getBoard();
+        for (int y = 0; y < 8; y++) {
+            if (y > 0) {
+                sb.append('/');
+            }
+            int empty = 0;
+            for (int x = 0; x < 8; x++) {
+                Piece piece = board.getPiece(x, y);
+                if (piece == null) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    sb.append((char) ('0' + empty));
+                    empty = 0;
+                }
+                sb.append(BoardPresent.presentPiece(piece));
+            }
+            if (empty > 0) {
+                sb.append((char) ('0' + empty));
+            }
+        }
+        sb.append(position.getPlayer() == Player.WHITE ? " w - - " : " b - - ");
+        sb.append(position.getHalfmoveClock()).append(" 1");
+    }
+
+    /**
+     * Parses the piece placement and active color fields starting at the given offset and
+     * appends the position to the given collection.
+     * @requires text != null && dst != null
+     * @param text the text to scan
+     * @param start the index of the first character of the placement field
+     * @param end the index one past the last character that may be scanned
+     * @param dst the collection to append the parsed position to
+     * @return the index just past the active color field
+     * @throws SerializationException if the fields are ill-formatted
+     * @modifies dst
+     */
+    public static int parse(CharSequence text, int start, int end, PackedPositions dst)
+            throws SerializationException {
+        int index = dst.addEmpty();
+        try {
+            int pos = parsePlacement(text, start, end, dst.squares(), index * PackedPositions.SQUARES);
+            pos = skipSpaces(text, pos, end);
+            if (pos >= end) {
+                throw new SerializationException("missing active color");
+            }
+            char side = text.charAt(pos);
+            if (side == 'w') {
+                dst.setPlayer(index, Player.WHITE);
+            } else if (side == 'b') {
+                dst.setPlayer(index, Player.BLACK);
+            } else {
+                throw new SerializationException("bad active color: " + side);
+            }
+            return pos + 1;
+        } catch (SerializationException e) {
+            // don't leave a half parsed position behind
+            dst.truncate(index);
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a piece placement field into 64 piece codes (see <code>PackedPositions</code>),
+     * rank 8 first, which is the same order as the y coordinate of <code>Board</code>.
+     * @requires text != null && squares != null && squares.length &ge; base + 64
+     * @param text the text to scan
+     * @param start the index of the first character of the field
+     * @param end the index one past the last character that may be scanned
+     * @param squares the array to write the codes into
+     * @param base the index in squares to write the code for a8 to
+     * @return the index just past the placement field
+     * @throws SerializationException if the field is ill-formatted
+     * @modifies squares
+     */
+    public static int parsePlacement(CharSequence text, int start, int end, byte[] squares, int base)
+            throws SerializationException {
+        // empty squares are skipped over below, so clear them all up front
+        Arrays.fill(squares, base, base + PackedPositions.SQUARES, (byte) 0);
+        int pos = skipSpaces(text, start, end);
+        int x = 0;
+        int y = 0;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == ' ' || c == '\t') {
+                break;
+            }
+            pos++;
+            if (c == '/') {
+                if (x != 8 || y == 7) {
+                    throw new SerializationException("bad rank separator");
+                }
+                x = 0;
+                y++;
+            } else if (c >= '1' && c <= '8') {
+                x += c - '0';
+                if (x > 8) {
+                    throw new SerializationException("rank too long");
+                }
+            } else {
+                Piece piece = BoardPresent.pieceFrom(c);
+                if (piece == null || x >= 8) {
+                    throw new SerializationException("bad placement character: " + c);
+                }
+                squares[base + y * 8 + x] = PackedPositions.encode(piece);
+                x++;
+            }
+        }
+        if (x != 8 || y != 7) {
+            throw new SerializationException("incomplete placement");
+        }
+        return pos;
+    }
+
+    /**
+     * Gets the index of the first character at or after pos that is not a space or tab.
+     * @return an index in [pos, end]
+     */
+    public static int skipSpaces(CharSequence text, int pos, int end) {
+        while (pos < end && isSpace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t';
+    }
+}
@@ -0,0 +1,128 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of one game: the current position, the positions before it (for repetitions) and
+ * the moves played. Each game has its own, so any number of games can be played at once in one
+ * JVM, e.g. by <code>Match</code>.
+ */
+public class Game {
+
+    /**
+     * how a game stands
+     */
+    public enum Result {
+        ONGOING,
+        WHITE_WINS,
+        BLACK_WINS,
+        DRAW
+    }
+
+    private final ChessPosition start;
+    private ChessPosition position;
+    private final PositionHistory history = new PositionHistory();
+    private final List<Move> moves = new ArrayList<>();
+
+    /**
+     * Constructs a game from the standard starting position.
+     */
+    public Game() {
+        this(ChessPosition.standardBoard());
+    }
+
+    /**
+     * Constructs a game from the given position, with no history before it.
+     * @param start the position to start from
+     * @throws IllegalArgumentException if start is null
+     */
+    public Game(ChessPosition start) {
+        if (start == null) {
+            throw new IllegalArgumentException();
+        }
+        this.start = start;
+        this.position = start;
+    }
+
+    /**
+     * Gets the position the game started from.
+     */
+    public ChessPosition getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the current position.
+     */
+    public ChessPosition getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the positions before the current one. The history belongs to the game and must not
+     * be modified.
+     */
+    public PositionHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Gets the moves played so far, in order.
+     */
+    public List<Move> getMoves() {
+        return Collections.unmodifiableList(moves);
+    }
+
+    /**
+     * Checks whether a move can be played in the current position.
+     * @param move the move to check
+     * @return true iff move is legal
+     * @throws IllegalArgumentException if move is null
+     */
+    public boolean isLegal(Move move) {
+        return position.isLegal(move);
+    }
+
+    /**
+     * Plays a move.
+     * @param move the move to play
+     * @throws IllegalArgumentException if move is null or not legal in the current position
+     * @modifies <code>this</code>
+     */
+    public void play(Move move) {
+        if (!isLegal(move)) {
+            throw new IllegalArgumentException();
+        }
+        history.push(position);
+        position = position.move(move);
+        moves.add(move);
+    }
+
+    /**
+     * Gets the result of the game: decided by checkmate, or drawn by stalemate, threefold
+     * repetition or the fifty move rule.
+     */
+    public Result getResult() {
+        if (position.possibleMoves().isEmpty()) {
+            if (!position.isInCheck(position.getPlayer())) {
+                return Result.DRAW;
+            }
+            return position.getPlayer() == Player.WHITE ? Result.BLACK_WINS : Result.WHITE_WINS;
+        }
+        return history.isDraw(position) ? Result.DRAW : Result.ONGOING;
+    }
+
+    /**
+     * Describes why the game is over.
+     * @return "checkmate", "stalemate", "threefold repetition", "fifty move rule", or null if
+     *   the game is not over
+     */
+    public String getResultReason() {
+        if (position.possibleMoves().isEmpty()) {
+            return position.isInCheck(position.getPlayer()) ? "checkmate" : "stalemate";
+        }
+        return history.drawReason(position);
+    }
+}
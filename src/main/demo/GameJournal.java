@@ -0,0 +1,576 @@
+package demo;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file recording games move by move, so that games still in progress when the
+ * program stops, or crashes, can be picked up again.
+ * <p>
+ * The file starts with the bytes "CJNL" and a version, followed by records of the form
+ * <pre>
+ *   type (1 byte)  game id (4 bytes)  payload  check (4 bytes)
+ * </pre>
+ * where the check is the CRC-32 of the rest of the record. A START record's payload is the side
+ * the bot plays (0 for none, 1 for white, 2 for black) and the starting position as a
+ * <code>PositionCodec</code> record (42 bytes in all), a MOVE record's is the move as two bytes
+ * from <code>Move.encode</code> (11 bytes in all), and an END record has none.
+ * <p>
+ * Opening a journal replays it. Reading stops at the first record that is cut short, fails its
+ * check or doesn't fit the games before it (such as an illegal move), which is what a crash
+ * part way through a write leaves behind, and the file is cut back to the last good record.
+ * Games started but not ended are available from <code>getRecovered</code>. If any games had
+ * ended, the file is then rewritten with only the unfinished ones, so it never grows much
+ * beyond the games in progress.
+ * <p>
+ * Records are gathered in memory and written, and synced to disk, according to the
+ * <code>Sync</code> policy. Any number of threads may record moves at once; with
+ * <code>ALWAYS</code>, threads waiting on a sync at the same time share it (group commit). Once
+ * a write fails, the journal can't tell how much of it reached the file, so every later call
+ * that records something throws the failure again; the file is still recovered to its last good
+ * record when it is next opened.
+ */
+public class GameJournal implements Closeable {
+
+    /**
+     * When records reach the disk.
+     */
+    public enum Sync {
+        /**
+         * every record is written to the operating system as it is made, but never forced to
+         * the disk; survives the program crashing, but not the machine
+         */
+        NEVER,
+        /**
+         * every record is forced to the disk before the call making it returns
+         */
+        ALWAYS,
+        /**
+         * records are written and forced to the disk every interval by a background thread;
+         * a machine crash loses at most about that much
+         */
+        INTERVAL;
+
+        /**
+         * Finds a policy by name, ignoring case.
+         * @param name the name of a policy, e.g. "interval"
+         * @return the policy, or null if there is none by that name
+         */
+        public static Sync parse(String name) {
+            for (Sync sync : values()) {
+                if (sync.name().equalsIgnoreCase(name)) {
+                    return sync;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private static final byte[] MAGIC = {'C', 'J', 'N', 'L', 2};
+    private static final byte START = 1;
+    private static final byte MOVE = 2;
+    private static final byte END = 3;
+    private static final int HEADER = 1 + 4;
+    private static final int CHECK = 4;
+    private static final int START_BYTES = HEADER + 1 + PositionCodec.BYTES + CHECK;
+    private static final int MOVE_BYTES = HEADER + 2 + CHECK;
+    private static final int END_BYTES = HEADER + CHECK;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Sync sync;
+    private final Map<Integer, Game> recovered;
+    private final Map<Integer, Player> recoveredBots;
+    private final long truncatedBytes;
+    private final Thread flusher;
+
+    // guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private ByteBuffer spare = ByteBuffer.allocate(4096);
+    private long appended = 0;
+    private int nextId;
+    private boolean closed = false;
+
+    // guarded by commitLock
+    private final Object commitLock = new Object();
+    private volatile long committed = 0;
+    private volatile IOException failure = null;
+
+    /**
+     * Opens a journal, creating it if it doesn't exist, and replays it.
+     * @param path the journal file
+     * @param sync when records reach the disk
+     * @param intervalMillis how often records are synced with Sync.INTERVAL; ignored otherwise
+     * @throws IOException if the file can't be read or written
+     * @throws SerializationException if the file isn't a journal
+     * @throws IllegalArgumentException if path or sync is null, or intervalMillis &lt; 1 with
+     *   Sync.INTERVAL
+     */
+    public GameJournal(Path path, Sync sync, long intervalMillis) throws IOException, SerializationException {
+        if (path == null || sync == null || (sync == Sync.INTERVAL && intervalMillis < 1)) {
+            throw new IllegalArgumentException();
+        }
+        this.path = path;
+        this.sync = sync;
+
+        Replay replay = new Replay();
+        if (Files.exists(path) && Files.size(path) > 0) {
+            try (InputStream in = Files.newInputStream(path)) {
+                replay.read(new DataInputStream(new BufferedInputStream(in, 1 << 16)));
+            }
+        }
+        this.recovered = Collections.unmodifiableMap(replay.games);
+        this.recoveredBots = replay.bots;
+        this.nextId = replay.maxId + 1;
+        this.truncatedBytes = Files.exists(path) ? Math.max(0, Files.size(path) - replay.end) : 0;
+        if (replay.ended || replay.end == 0) {
+            rewrite(replay.games, replay.bots);
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } else {
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            if (truncatedBytes > 0) {
+                channel.truncate(replay.end);
+                channel.force(false);
+            }
+            channel.position(replay.end);
+        }
+
+        if (sync == Sync.INTERVAL) {
+            flusher = new Thread(() -> flushPeriodically(intervalMillis), "journal " + path.getFileName());
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Gets the games that were started but not ended when the journal was opened, by id, in the
+     * order they were started. They can be carried on by recording more moves under their ids.
+     */
+    public Map<Integer, Game> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Gets the side the bot played in a recovered game.
+     * @param game the id of the game
+     * @return the bot's side, or null if people played both sides or there is no such game
+     */
+    public Player getBot(int game) {
+        return recoveredBots.get(game);
+    }
+
+    /**
+     * Gets how many bytes of a partly written record were cut off the end of the file when it
+     * was opened.
+     */
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Records the start of a new game between two people.
+     * @param start the position the game starts from
+     * @return the id to record the game's moves under
+     * @throws IOException if the record can't be written, or an earlier write failed
+     * @throws IllegalArgumentException if start is null or can't be encoded (see
+     *   PositionCodec)
+     * @throws IllegalStateException if the journal is closed
+     */
+    public int startGame(ChessPosition start) throws IOException {
+        return startGame(start, null);
+    }
+
+    /**
+     * Records the start of a new game.
+     * @param start the position the game starts from
+     * @param bot the side the bot plays, or null if people play both sides
+     * @return the id to record the game's moves under
+     * @throws IOException if the record can't be written, or an earlier write failed
+     * @throws IllegalArgumentException if start is null or can't be encoded (see
+     *   PositionCodec)
+     * @throws IllegalStateException if the journal is closed
+     */
+    public int startGame(ChessPosition start, Player bot) throws IOException {
+        if (start == null) {
+            throw new IllegalArgumentException();
+        }
+        long end;
+        int id;
+        synchronized (this) {
+            checkOpen();
+            id = nextId++;
+            ByteBuffer buf = reserve(START_BYTES);
+            int at = buf.position();
+            buf.put(START).putInt(id).put(sideOf(bot));
+            try {
+                PositionCodec.encode(start, buf);
+            } catch (IllegalArgumentException e) {
+                // take back the half written record
+                buf.position(at);
+                nextId--;
+                throw e;
+            }
+            end = finish(buf, at);
+        }
+        commit(end);
+        return id;
+    }
+
+    /**
+     * Records a move of a game.
+     * @param game the id of the game, from startGame or getRecovered
+     * @param move the move, which is expected to be legal in the game's current position
+     * @throws IOException if the record can't be written, or an earlier write failed
+     * @throws IllegalArgumentException if game &lt; 1 or move is null
+     * @throws IllegalStateException if the journal is closed
+     */
+    public void recordMove(int game, Move move) throws IOException {
+        if (game < 1 || move == null) {
+            throw new IllegalArgumentException();
+        }
+        long end;
+        synchronized (this) {
+            checkOpen();
+            ByteBuffer buf = reserve(MOVE_BYTES);
+            int at = buf.position();
+            buf.put(MOVE).putInt(game).putShort(Move.encode(move));
+            end = finish(buf, at);
+        }
+        commit(end);
+    }
+
+    /**
+     * Records that a game is over, so it isn't recovered.
+     * @param game the id of the game
+     * @throws IOException if the record can't be written, or an earlier write failed
+     * @throws IllegalArgumentException if game &lt; 1
+     * @throws IllegalStateException if the journal is closed
+     */
+    public void endGame(int game) throws IOException {
+        if (game < 1) {
+            throw new IllegalArgumentException();
+        }
+        long end;
+        synchronized (this) {
+            checkOpen();
+            ByteBuffer buf = reserve(END_BYTES);
+            int at = buf.position();
+            buf.put(END).putInt(game);
+            end = finish(buf, at);
+        }
+        commit(end);
+    }
+
+    /**
+     * Writes every record made so far and forces it to the disk, whatever the sync policy.
+     * @throws IOException if the records can't be written
+     */
+    public void sync() throws IOException {
+        long end;
+        synchronized (this) {
+            end = appended;
+        }
+        flush(end, true);
+    }
+
+    /**
+     * Syncs the journal and closes the file. Games not ended are recovered the next time it is
+     * opened.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        if (flusher != null) {
+            // not interrupted, since interrupting a write would close the channel under it
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IllegalStateException();
+        }
+        if (failure != null) {
+            throw new IOException("an earlier write to the journal failed", failure);
+        }
+    }
+
+    private static byte sideOf(Player bot) {
+        return (byte) (bot == null ? 0 : bot == Player.WHITE ? 1 : 2);
+    }
+
+    /**
+     * makes room for a record at the end of the pending buffer
+     */
+    private ByteBuffer reserve(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2 + bytes);
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        return pending;
+    }
+
+    /**
+     * appends the check to the record starting at the given index and returns the journal
+     * length once the record is written
+     */
+    private long finish(ByteBuffer buf, int at) {
+        buf.putInt(check(buf.array(), at, buf.position() - at));
+        appended += buf.position() - at;
+        return appended;
+    }
+
+    private static int check(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * carries out the sync policy for a record ending at the given length
+     */
+    private void commit(long end) throws IOException {
+        if (sync == Sync.NEVER) {
+            flush(end, false);
+        } else if (sync == Sync.ALWAYS) {
+            flush(end, true);
+        }
+    }
+
+    /**
+     * writes everything pending, and forces it to the disk if asked, unless that has already
+     * been done up to end. A failure is kept, and rethrown by every later flush and record
+     */
+    private void flush(long end, boolean force) throws IOException {
+        synchronized (commitLock) {
+            if (failure != null) {
+                throw new IOException("an earlier write to the journal failed", failure);
+            }
+            if (committed >= end) {
+                // another thread's write took this record with it
+                return;
+            }
+            ByteBuffer toWrite;
+            long upTo;
+            synchronized (this) {
+                toWrite = pending;
+                pending = spare;
+                spare = toWrite;
+                upTo = appended;
+            }
+            try {
+                toWrite.flip();
+                while (toWrite.hasRemaining()) {
+                    channel.write(toWrite);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                // ready to be filled again, whatever was or wasn't written
+                toWrite.clear();
+            }
+            committed = upTo;
+        }
+    }
+
+    private void flushPeriodically(long intervalMillis) {
+        while (true) {
+            synchronized (this) {
+                try {
+                    if (!closed) {
+                        wait(intervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    // close() does the last sync
+                    return;
+                }
+            }
+            try {
+                sync();
+            } catch (IOException e) {
+                // the journal is failed for good; the next record or close() reports it
+                System.err.println("journal " + path + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * writes a fresh journal holding only the given games, replacing the file atomically
+     */
+    private void rewrite(Map<Integer, Game> games, Map<Integer, Player> bots) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            buf.put(MAGIC);
+            for (Map.Entry<Integer, Game> entry : games.entrySet()) {
+                Game game = entry.getValue();
+                int at = buf.position();
+                buf.put(START).putInt(entry.getKey()).put(sideOf(bots.get(entry.getKey())));
+                PositionCodec.encode(game.getStart(), buf);
+                buf.putInt(check(buf.array(), at, buf.position() - at));
+                for (Move move : game.getMoves()) {
+                    if (buf.remaining() < MOVE_BYTES) {
+                        buf.flip();
+                        while (buf.hasRemaining()) {
+                            out.write(buf);
+                        }
+                        buf.clear();
+                    }
+                    at = buf.position();
+                    buf.put(MOVE).putInt(entry.getKey()).putShort(Move.encode(move));
+                    buf.putInt(check(buf.array(), at, buf.position() - at));
+                }
+                if (buf.remaining() < START_BYTES) {
+                    buf.flip();
+                    while (buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                    buf.clear();
+                }
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * the state of the games found while reading a journal
+     */
+    private static class Replay {
+        final Map<Integer, Game> games = new LinkedHashMap<>();
+        final Map<Integer, Player> bots = new HashMap<>();
+        int maxId = 0;
+        boolean ended = false;
+        /**
+         * the length of the journal up to the last good record
+         */
+        long end = 0;
+
+        void read(DataInputStream in) throws IOException, SerializationException {
+            byte[] record = new byte[START_BYTES];
+            try {
+                in.readFully(record, 0, MAGIC.length);
+            } catch (EOFException e) {
+                throw new SerializationException("not a journal");
+            }
+            for (int i = 0; i < MAGIC.length - 1; i++) {
+                if (record[i] != MAGIC[i]) {
+                    throw new SerializationException("not a journal");
+                }
+            }
+            if (record[MAGIC.length - 1] != MAGIC[MAGIC.length - 1]) {
+                throw new SerializationException("unsupported journal version " + record[MAGIC.length - 1]);
+            }
+            end = MAGIC.length;
+            while (true) {
+                int type = in.read();
+                int length = type == START ? START_BYTES : type == MOVE ? MOVE_BYTES : type == END ? END_BYTES : 0;
+                if (length == 0) {
+                    // the end, or garbage
+                    return;
+                }
+                record[0] = (byte) type;
+                try {
+                    in.readFully(record, 1, length - 1);
+                } catch (EOFException e) {
+                    return;
+                }
+                if (check(record, 0, length - CHECK) != ByteBuffer.wrap(record, length - CHECK, CHECK).getInt()
+                        || !apply(record)) {
+                    return;
+                }
+                end += length;
+            }
+        }
+
+        /**
+         * applies a record to the games, returning false if it doesn't fit them
+         */
+        private boolean apply(byte[] record) {
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            byte type = buf.get();
+            int id = buf.getInt();
+            if (type == START) {
+                byte side = buf.get();
+                if (id < 1 || games.containsKey(id) || side < 0 || side > 2) {
+                    return false;
+                }
+                try {
+                    games.put(id, new Game(PositionCodec.decode(buf)));
+                } catch (SerializationException e) {
+                    return false;
+                }
+                if (side != 0) {
+                    bots.put(id, side == 1 ? Player.WHITE : Player.BLACK);
+                }
+                maxId = Math.max(maxId, id);
+                return true;
+            }
+            Game game = games.get(id);
+            if (game == null) {
+                return false;
+            }
+            if (type == END) {
+                games.remove(id);
+                bots.remove(id);
+                ended = true;
+                return true;
+            }
+            Move move = Move.decode(buf.getShort() & 0xffff);
+            if (move == null || !game.isLegal(move)) {
+                return false;
+            }
+            game.play(move);
+            return true;
+        }
+    }
+}
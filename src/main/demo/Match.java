@@ -0,0 +1,566 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Plays games between two bot configurations, A and B, and measures the Elo difference between
+ * them, optionally stopping early once a sequential probability ratio test (SPRT) decides.
+ * <p>
+ * Games are played in pairs from varied openings, A playing white in one game of each pair and
+ * black in the other. Bots with node or depth limits are deterministic, so every pair starts
+ * from a different position: one of a fixed set of opening lines followed by a few seeded random
+ * plies. Otherwise later pairs would repeat earlier ones move for move, and the error bars and
+ * the SPRT would count the same games over and over. Each game has its own <code>Game</code> and
+ * its own two bots, so games run side by side on a thread pool, one per core by default. Games
+ * that go on for too long are scored as draws.
+ * <p>
+ * Bots are described by comma separated settings applied on top of the default bot, e.g.
+ * <code>level=hard</code>, <code>depth=4,nodes=50000</code> or <code>mcts=4000</code>; see
+ * parseBot.
+ * <pre>
+ *   java demo.Match [-games n] [-threads n] [-plies n] [-seed n] [-elo0 e] [-elo1 e] &lt;bot A&gt; &lt;bot B&gt;
+ * </pre>
+ * Evaluation weights are shared by every bot in the JVM (see BoardEval.setWeights), so two
+ * weight sets have to be compared in separate runs against a fixed opponent.
+ */
+public class Match {
+
+    /**
+     * openings to start games from, as SAN move lines; none of them castles, since
+     * ChessPosition can't
+     */
+    private static final String[] OPENINGS = {
+            "e4 e5 Nf3 Nc6 Bb5 a6",
+            "e4 e5 Nf3 Nc6 Bc4 Bc5",
+            "e4 e5 Nf3 Nf6 Nxe5 d6",
+            "e4 c5 Nf3 d6 d4 cxd4 Nxd4 Nf6 Nc3",
+            "e4 c5 Nc3 Nc6 g3 g6",
+            "e4 e6 d4 d5 Nc3 Nf6",
+            "e4 c6 d4 d5 e5 Bf5",
+            "e4 d5 exd5 Qxd5 Nc3 Qa5",
+            "e4 Nf6 e5 Nd5 d4 d6",
+            "e4 g6 d4 Bg7 Nc3 d6",
+            "d4 d5 c4 e6 Nc3 Nf6",
+            "d4 d5 c4 c6 Nf3 Nf6",
+            "d4 d5 c4 dxc4 Nf3 Nf6",
+            "d4 Nf6 c4 g6 Nc3 Bg7",
+            "d4 Nf6 c4 e6 Nc3 Bb4",
+            "d4 Nf6 c4 c5 d5 b5",
+            "d4 f5 g3 Nf6 Bg2 g6",
+            "c4 e5 Nc3 Nf6 g3 d5",
+            "c4 c5 Nc3 Nc6 g3 g6",
+            "Nf3 d5 g3 Nf6 Bg2 c6",
+    };
+
+    public static final int DEFAULT_MAX_PLIES = 300;
+
+    /**
+     * random plies played after each opening line
+     */
+    private static final int RANDOM_PLIES = 4;
+
+    /**
+     * how many repeated positions in a row make openings give up looking for new ones
+     */
+    private static final int MAX_REPEATS = 1000;
+
+    /**
+     * The games won, drawn and lost by A, and the statistics derived from them.
+     */
+    public static class Score {
+        public final int wins;
+        public final int draws;
+        public final int losses;
+
+        /**
+         * Constructs a score.
+         * @throws IllegalArgumentException if any count is negative
+         */
+        public Score(int wins, int draws, int losses) {
+            if (wins < 0 || draws < 0 || losses < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.wins = wins;
+            this.draws = draws;
+            this.losses = losses;
+        }
+
+        /**
+         * Gets the number of games played.
+         */
+        public int games() {
+            return wins + draws + losses;
+        }
+
+        /**
+         * Gets A's average score per game, from 0 to 1.
+         */
+        public double mean() {
+            return games() == 0 ? 0.5 : (wins + 0.5 * draws) / games();
+        }
+
+        /**
+         * Gets the variance of A's score in a single game.
+         */
+        public double variance() {
+            int n = games();
+            if (n == 0) {
+                return 0;
+            }
+            double m = mean();
+            return (wins * (1 - m) * (1 - m) + draws * (0.5 - m) * (0.5 - m) + losses * m * m) / n;
+        }
+
+        /**
+         * Gets the Elo difference of A over B that the score suggests.
+         */
+        public double elo() {
+            return eloOf(mean());
+        }
+
+        /**
+         * Gets the half width of the 95% confidence interval of elo().
+         */
+        public double eloError() {
+            int n = games();
+            if (n == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double margin = 1.959964 * Math.sqrt(variance() / n);
+            return (eloOf(mean() + margin) - eloOf(mean() - margin)) / 2;
+        }
+
+        /**
+         * Gets the log likelihood ratio of the hypothesis that A is elo1 stronger than B against
+         * the hypothesis that it is elo0 stronger, using the normal approximation of the
+         * generalized SPRT.
+         */
+        public double llr(double elo0, double elo1) {
+            double variance = variance();
+            if (variance == 0) {
+                return 0;
+            }
+            double s0 = scoreOf(elo0);
+            double s1 = scoreOf(elo1);
+            return games() * (s1 - s0) * (2 * mean() - s0 - s1) / (2 * variance);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("+%d =%d -%d, %.1f%%, Elo %+.1f +/- %.1f", wins, draws, losses,
+                    100 * mean(), elo(), eloError());
+        }
+
+        private static double eloOf(double score) {
+            double s = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+            return -400 * Math.log10(1 / s - 1);
+        }
+
+        private static double scoreOf(double elo) {
+            return 1 / (1 + Math.pow(10, -elo / 400));
+        }
+    }
+
+    /**
+     * What a match concluded.
+     */
+    public enum Verdict {
+        /**
+         * all games were played without the SPRT deciding, or no SPRT was run
+         */
+        INCONCLUSIVE,
+        /**
+         * the SPRT accepted elo1: A is stronger by about that much
+         */
+        H1_ACCEPTED,
+        /**
+         * the SPRT accepted elo0
+         */
+        H0_ACCEPTED
+    }
+
+    private final Supplier<ChessBot> botA;
+    private final Supplier<ChessBot> botB;
+    private final int threads;
+    private final int maxPlies;
+
+    private double elo0 = 0;
+    private double elo1 = 0;
+    private double lowerBound = 0;
+    private double upperBound = 0;
+    private boolean sprt = false;
+    private long seed = 1;
+
+    // guarded by this
+    private int wins;
+    private int draws;
+    private int losses;
+    private Verdict verdict = Verdict.INCONCLUSIVE;
+
+    /**
+     * Constructs a match.
+     * @param botA makes a bot with A's configuration; called once per game
+     * @param botB makes a bot with B's configuration; called once per game
+     * @param threads how many games to play at once
+     * @param maxPlies the number of plies after which a game is scored as a draw
+     * @throws IllegalArgumentException if botA or botB is null, threads &lt; 1 or maxPlies &lt; 1
+     */
+    public Match(Supplier<ChessBot> botA, Supplier<ChessBot> botB, int threads, int maxPlies) {
+        if (botA == null || botB == null || threads < 1 || maxPlies < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.botA = botA;
+        this.botB = botB;
+        this.threads = threads;
+        this.maxPlies = maxPlies;
+    }
+
+    /**
+     * Makes the match stop as soon as an SPRT of elo0 against elo1 decides.
+     * @param elo0 the Elo difference of the null hypothesis
+     * @param elo1 the Elo difference of the alternative hypothesis
+     * @param alpha the chance of accepting elo1 when elo0 is true
+     * @param beta the chance of accepting elo0 when elo1 is true
+     * @throws IllegalArgumentException if elo1 &lt;= elo0 or alpha or beta is not in (0, 0.5)
+     */
+    public void setSprt(double elo0, double elo1, double alpha, double beta) {
+        if (!(elo1 > elo0) || !(alpha > 0 && alpha < 0.5) || !(beta > 0 && beta < 0.5)) {
+            throw new IllegalArgumentException();
+        }
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        this.lowerBound = Math.log(beta / (1 - alpha));
+        this.upperBound = Math.log((1 - beta) / alpha);
+        this.sprt = true;
+    }
+
+    /**
+     * Sets the seed of the random plies that vary the openings. Matches with the same seed and
+     * deterministic bots play the same games.
+     * @param seed the seed
+     * @modifies <code>this</code>
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Plays up to the given number of games, fewer if the SPRT decides first. Games already
+     * running when it decides are finished and counted. If there aren't enough distinct
+     * openings for every pair, a warning is printed and only as many pairs as there are
+     * openings are played.
+     * @param games the number of games; rounded up to an even number so colors are balanced
+     * @param progress called with the score after each game, or null
+     * @return the final score
+     * @throws IllegalArgumentException if games &lt; 1
+     * @throws IllegalStateException if a game failed, once the other games have finished
+     */
+    public Score play(int games, Consumer<Score> progress) {
+        if (games < 1) {
+            throw new IllegalArgumentException();
+        }
+        int pairs = (games + 1) / 2;
+        List<ChessPosition> openings = openings(pairs, seed);
+        if (openings.size() < pairs) {
+            System.err.println("only " + openings.size() + " distinct openings were found, so only "
+                    + 2 * openings.size() + " games are played");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> played = new ArrayList<>();
+        for (ChessPosition opening : openings) {
+            for (int aWhite = 0; aWhite < 2; aWhite++) {
+                boolean aIsWhite = aWhite == 0;
+                played.add(pool.submit(() -> {
+                    if (isDecided()) {
+                        return;
+                    }
+                    Game.Result result = playGame(opening, aIsWhite);
+                    Score score = record(result, aIsWhite);
+                    if (progress != null) {
+                        progress.accept(score);
+                    }
+                }));
+            }
+        }
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting; games can't be abandoned part way
+            }
+            for (Future<?> game : played) {
+                game.get();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return getScore();
+    }
+
+    /**
+     * Gets the score so far.
+     */
+    public synchronized Score getScore() {
+        return new Score(wins, draws, losses);
+    }
+
+    /**
+     * Gets what the SPRT concluded, INCONCLUSIVE if it hasn't decided or isn't used.
+     */
+    public synchronized Verdict getVerdict() {
+        return verdict;
+    }
+
+    private synchronized boolean isDecided() {
+        return verdict != Verdict.INCONCLUSIVE;
+    }
+
+    /**
+     * adds a finished game to the score and runs the SPRT
+     */
+    private synchronized Score record(Game.Result result, boolean aIsWhite) {
+        if (result == Game.Result.DRAW || result == Game.Result.ONGOING) {
+            draws++;
+        } else if ((result == Game.Result.WHITE_WINS) == aIsWhite) {
+            wins++;
+        } else {
+            losses++;
+        }
+        Score score = new Score(wins, draws, losses);
+        if (sprt && verdict == Verdict.INCONCLUSIVE) {
+            double llr = score.llr(elo0, elo1);
+            if (llr >= upperBound) {
+                verdict = Verdict.H1_ACCEPTED;
+            } else if (llr <= lowerBound) {
+                verdict = Verdict.H0_ACCEPTED;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * plays one game to the end, or to maxPlies
+     *
+     * @return the result, ONGOING if the game was cut off
+     */
+    private Game.Result playGame(ChessPosition opening, boolean aIsWhite) {
+        ChessBot a = botA.get();
+        ChessBot b = botB.get();
+        Game game = new Game(opening);
+        Game.Result result = game.getResult();
+        for (int ply = 0; ply < maxPlies && result == Game.Result.ONGOING; ply++) {
+            boolean aToMove = (game.getPosition().getPlayer() == Player.WHITE) == aIsWhite;
+            ChessBot bot = aToMove ? a : b;
+            game.play(bot.getBestMove(game.getPosition(), game.getHistory()));
+            result = game.getResult();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the positions games start from: the end of each opening line.
+     */
+    public static List<ChessPosition> openings() {
+        List<ChessPosition> positions = new ArrayList<>();
+        for (String line : OPENINGS) {
+            ChessPosition position = ChessPosition.standardBoard();
+            for (String san : line.split(" ")) {
+                Move move = San.parse(position, san);
+                if (move == null) {
+                    // the list above is fixed, so this is a bug
+                    throw new IllegalStateException(line);
+                }
+                position = position.move(move);
+            }
+            positions.add(position);
+        }
+        return positions;
+    }
+
+    /**
+     * Gets distinct positions to start games from: the opening lines in turn, each followed by
+     * a few random legal plies. A position that has already been handed out, or where the game
+     * is over, is drawn again.
+     * @param count how many positions to get
+     * @param seed seeds the random plies; the same seed gives the same positions
+     * @return count different positions, or fewer if no new ones turn up after many tries
+     * @throws IllegalArgumentException if count &lt; 0
+     */
+    public static List<ChessPosition> openings(int count, long seed) {
+        if (count < 0) {
+            throw new IllegalArgumentException();
+        }
+        List<ChessPosition> lines = openings();
+        Random random = new Random(seed);
+        Set<Long> seen = new HashSet<>();
+        List<ChessPosition> positions = new ArrayList<>();
+        int repeats = 0;
+        while (positions.size() < count && repeats < MAX_REPEATS) {
+            ChessPosition position = lines.get((positions.size() + repeats) % lines.size());
+            for (int ply = 0; ply < RANDOM_PLIES; ply++) {
+                // sorted, so the seed alone decides the moves
+                List<Move> moves = new ArrayList<>(position.possibleMoves());
+                if (moves.isEmpty()) {
+                    break;
+                }
+                moves.sort(Comparator.comparingInt(Move::encode));
+                position = position.move(moves.get(random.nextInt(moves.size())));
+            }
+            if (!position.possibleMoves().isEmpty() && seen.add(position.getHash())) {
+                positions.add(position);
+                repeats = 0;
+            } else {
+                repeats++;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Reads a bot configuration: comma separated settings applied, in order, to a new bot.
+     * <pre>
+     *   level=NAME   a difficulty level (beginner ... expert)
+     *   depth=N      the search depth
+     *   nodes=N      the node limit per move
+     *   ms=N         the time limit per move in milliseconds, 0 for none
+     *   mcts=N       use MCTS with N iterations per move
+     * </pre>
+     * @param spec the configuration, e.g. "depth=3,nodes=20000"
+     * @return makes a new bot with that configuration each time it is called
+     * @throws IllegalArgumentException if spec is null or not understood
+     */
+    public static Supplier<ChessBot> parseBot(String spec) {
+        if (spec == null) {
+            throw new IllegalArgumentException();
+        }
+        String[] settings = spec.split(",");
+        Supplier<ChessBot> supplier = () -> {
+            ChessBot bot = new ChessBot();
+            for (String setting : settings) {
+                String[] parts = setting.trim().split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException();
+                }
+                if (parts[0].equals("level")) {
+                    Difficulty difficulty = Difficulty.parse(parts[1]);
+                    if (difficulty == null) {
+                        throw new IllegalArgumentException();
+                    }
+                    bot.setDifficulty(difficulty);
+                    continue;
+                }
+                long value;
+                try {
+                    value = Long.parseLong(parts[1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException();
+                }
+                switch (parts[0]) {
+                    case "depth":
+                        bot.setPly((int) value);
+                        break;
+                    case "nodes":
+                        bot.setNodeLimit(value);
+                        break;
+                    case "ms":
+                        bot.setTimeLimit(value);
+                        break;
+                    case "mcts":
+                        bot.setStrategy(ChessBot.Strategy.MCTS);
+                        bot.setMctsIterations((int) value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+            return bot;
+        };
+        // fail now rather than in the middle of the match
+        supplier.get();
+        return supplier;
+    }
+
+    /**
+     * Runs a match from the command line, printing the score every few games.
+     * @param args the options and the two bot configurations
+     */
+    public static void main(String[] args) {
+        List<String> bots = new ArrayList<>();
+        int games = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxPlies = DEFAULT_MAX_PLIES;
+        double elo0 = 0;
+        double elo1 = 10;
+        boolean sprt = false;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("-") && i + 1 < args.length) {
+                String value = args[++i];
+                switch (args[i - 1]) {
+                    case "-games":
+                        games = Integer.parseInt(value);
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "-plies":
+                        maxPlies = Integer.parseInt(value);
+                        break;
+                    case "-seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "-elo0":
+                        elo0 = Double.parseDouble(value);
+                        sprt = true;
+                        break;
+                    case "-elo1":
+                        elo1 = Double.parseDouble(value);
+                        sprt = true;
+                        break;
+                    default:
+                        System.err.println("unknown option " + args[i - 1]);
+                        System.exit(1);
+                }
+            } else {
+                bots.add(args[i]);
+            }
+        }
+        if (bots.size() != 2) {
+            System.err.println("usage: java demo.Match [-games n] [-threads n] [-plies n] [-seed n] "
+                    + "[-elo0 e] [-elo1 e] <bot A> <bot B>");
+            System.exit(1);
+        }
+        Match match = new Match(parseBot(bots.get(0)), parseBot(bots.get(1)), threads, maxPlies);
+        match.setSeed(seed);
+        if (sprt) {
+            match.setSprt(elo0, elo1, 0.05, 0.05);
+        }
+        long start = System.nanoTime();
+        Score score = match.play(games, s -> {
+            if (s.games() % 10 == 0) {
+                System.out.println(s.games() + " games: " + s);
+            }
+        });
+        System.out.println("A: " + bots.get(0) + "  B: " + bots.get(1));
+        System.out.println(score.games() + " games: " + score);
+        if (sprt) {
+            System.out.printf("SPRT elo0 %.1f elo1 %.1f: LLR %.2f (%.2f, %.2f), %s%n", elo0, elo1,
+                    score.llr(elo0, elo1), match.lowerBound, match.upperBound, match.getVerdict());
+        }
+        System.out.printf("%.1f s on %d threads%n", (System.nanoTime() - start) / 1e9, threads);
+    }
+}
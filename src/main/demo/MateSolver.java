@@ -0,0 +1,428 @@
+package demo;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Answers "can the player to move force checkmate within N moves?" using proof-number search.
+ * <p>
+ * Unlike <code>ChessBot</code>, which scores positions with a heuristic evaluation, proof-number
+ * search only tries to prove or disprove a goal. Every node of the game tree carries a proof
+ * number (how many leaves must still be proven to prove it) and a disproof number (the same for
+ * disproving it), and the search always expands the most-proving leaf: the one reached by
+ * following the child with the smallest proof number at attacker nodes and the smallest disproof
+ * number at defender nodes. Forcing lines, where the defender has few replies, are explored first,
+ * which is exactly what mate puzzles consist of.
+ * <p>
+ * Tree nodes don't store positions; a node's position is rebuilt by replaying moves from the
+ * root, which keeps each node small. Nodes that have been solved are also recorded in a
+ * transposition table so that a position reached through a different move order is solved
+ * immediately.
+ */
+public class MateSolver {
+
+    /**
+     * used as an infinite proof or disproof number
+     */
+    private static final int INF = Integer.MAX_VALUE / 2;
+
+    /**
+     * results stored in the transposition table
+     */
+    private static final byte PROVEN = 1;
+    private static final byte DISPROVEN = 2;
+
+    /**
+     * The outcome of a call to solve.
+     */
+    public static class Result {
+        /**
+         * whether a forced mate was found
+         */
+        public final boolean proven;
+        /**
+         * whether it was shown that there is no forced mate. proven and disproven are both false
+         * if the node limit was reached first
+         */
+        public final boolean disproven;
+        /**
+         * if proven, a mating line starting with the attacker's move; empty otherwise
+         */
+        public final List<Move> line;
+        /**
+         * the number of tree nodes created
+         */
+        public final long nodes;
+        /**
+         * how long the search took, in nanoseconds
+         */
+        public final long nanos;
+
+        public Result(boolean proven, boolean disproven, List<Move> line, long nodes, long nanos) {
+            this.proven = proven;
+            this.disproven = disproven;
+            this.line = line;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            String outcome = proven ? "mate: " + line : disproven ? "no mate" : "unknown (node limit reached)";
+            return outcome + " [" + nodes + " nodes, " + (nanos / 1000000) + " ms]";
+        }
+    }
+
+    /**
+     * a node of the search tree. Attacker nodes have the attacker to move and are proven if any
+     * child is; defender nodes are proven if all children are
+     */
+    private static class Node {
+        final Node parent;
+        final long hash;
+        final short move;
+        final boolean attacker;
+        /**
+         * how many more moves the attacker may make, counting a move made from this node
+         */
+        final int movesLeft;
+        int proof;
+        int disproof;
+        Node[] children;
+
+        Node(Node parent, long hash, short move, boolean attacker, int movesLeft) {
+            this.parent = parent;
+            this.hash = hash;
+            this.move = move;
+            this.attacker = attacker;
+            this.movesLeft = movesLeft;
+        }
+    }
+
+    private final long maxNodes;
+    private final long[] tableKeys;
+    private final byte[] tableResults;
+    private final byte[] tableMovesLeft;
+    private long nodes;
+
+    /**
+     * Constructs a solver that gives up after creating one million nodes and has a transposition
+     * table with 2^20 entries.
+     */
+    public MateSolver() {
+        this(1000000, 20);
+    }
+
+    /**
+     * Constructs a solver.
+     * @param maxNodes the number of nodes after which a search gives up
+     * @param tableBits the transposition table holds 2^tableBits entries
+     * @throws IllegalArgumentException if maxNodes &lt; 1 or tableBits is not in [1, 30]
+     */
+    public MateSolver(long maxNodes, int tableBits) {
+        if (maxNodes < 1 || tableBits < 1 || tableBits > 30) {
+            throw new IllegalArgumentException();
+        }
+        this.maxNodes = maxNodes;
+        this.tableKeys = new long[1 << tableBits];
+        this.tableResults = new byte[1 << tableBits];
+        this.tableMovesLeft = new byte[1 << tableBits];
+    }
+
+    /**
+     * Clears the transposition table.
+     * @modifies <code>this</code>
+     */
+    public void clear() {
+        Arrays.fill(tableResults, (byte) 0);
+    }
+
+    /**
+     * Determines whether the player to move in the given position can force checkmate in at most
+     * the given number of their own moves.
+     * @param position the position to solve
+     * @param mateIn the maximum number of moves the attacker may make
+     * @return the outcome of the search
+     * @throws IllegalArgumentException if position is null or mateIn is not in [1, 100]
+     */
+    public Result solve(ChessPosition position, int mateIn) {
+        if (position == null || mateIn < 1 || mateIn > 100) {
+            throw new IllegalArgumentException();
+        }
+        long start = System.nanoTime();
+        nodes = 1;
+        Node root = new Node(null, position.getHash(), (short) 0, true, mateIn);
+        Set<Move> rootMoves = position.possibleMoves();
+        if (rootMoves.isEmpty()) {
+            root.proof = INF;
+            root.disproof = 0;
+        } else {
+            root.proof = 1;
+            root.disproof = rootMoves.size();
+        }
+
+        while (root.proof != 0 && root.disproof != 0 && nodes < maxNodes) {
+            // descend to the most proving node, replaying moves along the way
+            Node node = root;
+            ChessPosition nodePosition = position;
+            while (node.children != null) {
+                node = mostProvingChild(node);
+                nodePosition = nodePosition.move(Move.decode(node.move));
+            }
+            expand(node, nodePosition);
+            // back up the new numbers until they stop changing
+            boolean expanded = true;
+            while (node != null) {
+                int oldProof = node.proof;
+                int oldDisproof = node.disproof;
+                update(node);
+                if (node.proof == 0 || node.disproof == 0) {
+                    store(node, node.proof == 0 ? PROVEN : DISPROVEN);
+                }
+                if (!expanded && node.proof == oldProof && node.disproof == oldDisproof) {
+                    break;
+                }
+                expanded = false;
+                node = node.parent;
+            }
+        }
+
+        List<Move> line = new ArrayList<>();
+        if (root.proof == 0) {
+            buildLine(root, position, line);
+        }
+        return new Result(root.proof == 0, root.disproof == 0, line, nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * Solves each of the given positions with a shared transposition table.
+     * @param positions the positions to solve
+     * @param mateIn the maximum number of moves the attacker may make
+     * @return the result for each position, in the same order
+     * @throws IllegalArgumentException if positions is null or contains null, or mateIn is not
+     *   in [1, 100]
+     */
+    public List<Result> solveAll(List<ChessPosition> positions, int mateIn) {
+        if (positions == null) {
+            throw new IllegalArgumentException();
+        }
+        List<Result> results = new ArrayList<>(positions.size());
+        for (ChessPosition position : positions) {
+            results.add(solve(position, mateIn));
+        }
+        return results;
+    }
+
+    /**
+     * creates the children of a leaf and sets their initial proof and disproof numbers
+     */
+    private void expand(Node node, ChessPosition position) {
+        Set<Move> moves = position.possibleMoves();
+        Node[] children = new Node[moves.size()];
+        int i = 0;
+        for (Move move : moves) {
+            ChessPosition next = position.move(move);
+            boolean childAttacker = !node.attacker;
+            int childMovesLeft = node.attacker ? node.movesLeft - 1 : node.movesLeft;
+            Node child = new Node(node, next.getHash(), Move.encode(move), childAttacker, childMovesLeft);
+            nodes++;
+            initialize(child, next);
+            children[i++] = child;
+        }
+        node.children = children;
+    }
+
+    /**
+     * sets a new node's proof and disproof numbers from the position it represents
+     */
+    private void initialize(Node node, ChessPosition position) {
+        byte known = probe(node);
+        if (known == PROVEN) {
+            node.proof = 0;
+            node.disproof = INF;
+            return;
+        } else if (known == DISPROVEN) {
+            node.proof = INF;
+            node.disproof = 0;
+            return;
+        }
+
+        Set<Move> replies = position.possibleMoves();
+        if (node.attacker) {
+            if (replies.isEmpty() || node.movesLeft == 0) {
+                // the attacker is mated, stalemated, or out of moves
+                node.proof = INF;
+                node.disproof = 0;
+            } else {
+                node.proof = 1;
+                node.disproof = replies.size();
+            }
+        } else {
+            if (replies.isEmpty()) {
+                boolean mated = position.isInCheck(position.getPlayer());
+                node.proof = mated ? 0 : INF;
+                node.disproof = mated ? INF : 0;
+            } else if (node.movesLeft == 0) {
+                // the defender survived the attacker's last move
+                node.proof = INF;
+                node.disproof = 0;
+            } else {
+                node.proof = replies.size();
+                node.disproof = 1;
+            }
+        }
+        if (node.proof == 0 || node.disproof == 0) {
+            store(node, node.proof == 0 ? PROVEN : DISPROVEN);
+        }
+    }
+
+    /**
+     * recomputes an interior node's numbers from its children
+     */
+    private static void update(Node node) {
+        if (node.children == null) {
+            return;
+        }
+        if (node.children.length == 0) {
+            // no moves: handled when the node was initialized
+            return;
+        }
+        int min = INF;
+        long sum = 0;
+        for (Node child : node.children) {
+            int minOf = node.attacker ? child.proof : child.disproof;
+            int sumOf = node.attacker ? child.disproof : child.proof;
+            min = Math.min(min, minOf);
+            sum = Math.min(INF, sum + sumOf);
+        }
+        if (node.attacker) {
+            node.proof = min;
+            node.disproof = (int) sum;
+        } else {
+            node.disproof = min;
+            node.proof = (int) sum;
+        }
+    }
+
+    private static Node mostProvingChild(Node node) {
+        Node best = null;
+        for (Node child : node.children) {
+            int value = node.attacker ? child.proof : child.disproof;
+            int bestValue = best == null ? INF + 1 : node.attacker ? best.proof : best.disproof;
+            if (value < bestValue) {
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * follows proven children from node, appending their moves to line. Where the tree stops early
+     * because a child was solved from the transposition table, the rest of the line is found by
+     * solving that child's position again
+     */
+    private void buildLine(Node node, ChessPosition position, List<Move> line) {
+        while (node.children != null && node.children.length > 0) {
+            Node next = null;
+            for (Node child : node.children) {
+                if (child.proof == 0) {
+                    // the defender picks the reply that takes longest to mate; use the biggest subtree as a proxy
+                    if (next == null || (!node.attacker && subtreeSize(child) > subtreeSize(next))) {
+                        next = child;
+                    }
+                    if (node.attacker) {
+                        break;
+                    }
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Move move = Move.decode(next.move);
+            line.add(move);
+            position = position.move(move);
+            node = next;
+        }
+        if (node.attacker && node.movesLeft > 0 && !position.possibleMoves().isEmpty()) {
+            Result rest = new MateSolver(maxNodes, 16).solve(position, node.movesLeft);
+            line.addAll(rest.line);
+        }
+    }
+
+    private static int subtreeSize(Node node) {
+        if (node.children == null) {
+            return 1;
+        }
+        int size = 1;
+        for (Node child : node.children) {
+            size += subtreeSize(child);
+        }
+        return size;
+    }
+
+    /**
+     * the key of a node in the transposition table. The position hash includes the player to move,
+     * so adding whether that player is the attacker also pins down who the attacker is, which can
+     * differ between the positions of solveAll
+     */
+    private static long tableKey(Node node) {
+        return node.attacker ? node.hash : ~node.hash;
+    }
+
+    private byte probe(Node node) {
+        long key = tableKey(node);
+        int movesLeft = node.movesLeft;
+        int slot = (int) (key ^ (key >>> 32)) & (tableKeys.length - 1);
+        if (tableResults[slot] == 0 || tableKeys[slot] != key) {
+            return 0;
+        }
+        // a mate within fewer moves is also a mate within more, and no mate within more moves
+        // means no mate within fewer
+        if (tableResults[slot] == PROVEN && tableMovesLeft[slot] <= movesLeft) {
+            return PROVEN;
+        } else if (tableResults[slot] == DISPROVEN && tableMovesLeft[slot] >= movesLeft) {
+            return DISPROVEN;
+        }
+        return 0;
+    }
+
+    private void store(Node node, byte result) {
+        long key = tableKey(node);
+        int slot = (int) (key ^ (key >>> 32)) & (tableKeys.length - 1);
+        tableKeys[slot] = key;
+        tableResults[slot] = result;
+        tableMovesLeft[slot] = (byte) node.movesLeft;
+    }
+
+
+    /**
+     * Solves every position given on the command line.
+     * Usage: <code>java demo.MateSolver &lt;moves&gt; &lt;saved game file&gt;...</code>
+     *
+     * @param args command line args
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("usage: java demo.MateSolver <moves> <saved game file>...");
+            System.exit(2);
+        }
+        int mateIn = Integer.parseInt(args[0]);
+        MateSolver solver = new MateSolver();
+        int proven = 0;
+        for (int i = 1; i < args.length; i++) {
+            try (FileInputStream in = new FileInputStream(args[i])) {
+                Result result = solver.solve(ChessSerializer.deserialize(in), mateIn);
+                if (result.proven) {
+                    proven++;
+                }
+                System.out.println(args[i] + ": " + result);
+            } catch (IOException | SerializationException e) {
+                System.out.println(args[i] + ": could not read position (" + e + ")");
+            }
+        }
+        System.out.println(proven + " of " + (args.length - 1) + " positions have a mate in " + mateIn);
+    }
+}
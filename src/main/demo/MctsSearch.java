@@ -0,0 +1,325 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Monte Carlo tree search engine using the PUCT selection rule, as an alternative to the alpha
+ * beta search in <code>ChessBot</code>.
+ * <p>
+ * Each iteration walks down the tree from the root, at every node picking the child that
+ * maximizes <code>Q + c * P * sqrt(N) / (1 + n)</code>, where Q is the child's average value, P
+ * its prior and N and n the visit counts of the node and the child. The leaf it reaches is
+ * expanded, scored with <code>BoardEval</code> (squashed into [-1, 1]), and the score is backed up
+ * along the path. The move played is the root child with the most visits.
+ * <p>
+ * The tree lives in an arena of parallel primitive arrays indexed by node number rather than in
+ * node objects, and positions are not stored at all; a leaf's position is rebuilt by replaying
+ * the moves on its path. Several threads can search the same tree: a thread adds a virtual loss
+ * to every node on its path while it evaluates the leaf, which steers the other threads towards
+ * different parts of the tree. Selection and backup hold a lock on the arena, but move generation
+ * and evaluation, which is where the time goes, run outside it.
+ */
+public class MctsSearch {
+
+    /**
+     * exploration constant of the PUCT formula
+     */
+    private static final double C_PUCT = 1.5;
+
+    /**
+     * how many visits a virtual loss counts for
+     */
+    private static final int VIRTUAL_LOSS = 1;
+
+    /**
+     * centipawn scale used to squash evaluations into [-1, 1]
+     */
+    private static final double EVAL_SCALE = 400.0;
+
+    /**
+     * expansion states of a node
+     */
+    private static final byte UNEXPANDED = 0;
+    private static final byte EXPANDING = 1;
+    private static final byte EXPANDED = 2;
+
+    // the node arena
+    private final int capacity;
+    private final int[] firstChild;
+    private final int[] childCount;
+    /**
+     * the move leading to a node, packed as (from square) &lt;&lt; 6 | (to square) with squares as y * 8 + x
+     */
+    private final short[] move;
+    private final int[] visits;
+    private final int[] virtualLoss;
+    /**
+     * sum of backed up values, from the point of view of the player who made the move into the node
+     */
+    private final double[] valueSum;
+    private final float[] prior;
+    private final byte[] state;
+    private int size;
+
+    private final Object lock = new Object();
+
+    private ChessPosition root;
+    private int iterationsLeft;
+    private long timeLimit;
+    private long deadline;
+    private long iterations;
+    private SearchStats stats = new SearchStats();
+
+    /**
+     * Constructs a search with room for the given number of tree nodes.
+     * @param capacity the maximum number of nodes in the tree
+     * @throws IllegalArgumentException if capacity &lt; 2
+     */
+    public MctsSearch(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        firstChild = new int[capacity];
+        childCount = new int[capacity];
+        move = new short[capacity];
+        visits = new int[capacity];
+        virtualLoss = new int[capacity];
+        valueSum = new double[capacity];
+        prior = new float[capacity];
+        state = new byte[capacity];
+    }
+
+    /**
+     * Searches the given position.
+     * @param position the position to search
+     * @param iterations how many leaves to evaluate in total
+     * @param threads how many threads to search with
+     * @return the move with the most visits, or null if there are no legal moves
+     * @throws IllegalArgumentException if position is null, iterations &lt; 1 or threads &lt; 1
+     */
+    public Move search(ChessPosition position, int iterations, int threads) {
+        return search(position, iterations, threads, 0);
+    }
+
+    /**
+     * Searches the given position until the iterations are used up or the time runs out,
+     * whichever comes first. Iterations already under way when the time runs out are finished.
+     * @param position the position to search
+     * @param iterations how many leaves to evaluate in total
+     * @param threads how many threads to search with
+     * @param timeLimit how long to search for, in milliseconds, or 0 for no limit
+     * @return the move with the most visits, or null if there are no legal moves
+     * @throws IllegalArgumentException if position is null, iterations &lt; 1, threads &lt; 1 or
+     * timeLimit &lt; 0
+     */
+    public Move search(ChessPosition position, int iterations, int threads, long timeLimit) {
+        if (position == null || iterations < 1 || threads < 1 || timeLimit < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.root = position;
+        this.iterationsLeft = iterations;
+        this.iterations = 0;
+        this.stats = new SearchStats();
+        long start = System.nanoTime();
+        this.timeLimit = timeLimit;
+        this.deadline = start + timeLimit * 1000000;
+        size = 1;
+        resetNode(0, (short) 0, 1f);
+
+        if (threads == 1) {
+            work();
+        } else {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread t = new Thread(this::work, "mcts-" + i);
+                workers.add(t);
+                t.start();
+            }
+            for (Thread t : workers) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        stats.nanos = System.nanoTime() - start;
+        int best = -1;
+        for (int i = 0; i < childCount[0]; i++) {
+            int child = firstChild[0] + i;
+            if (best < 0 || visits[child] > visits[best]) {
+                best = child;
+            }
+        }
+        return best < 0 ? null : Move.decode(move[best]);
+    }
+
+    /**
+     * Gets the number of completed iterations of the last search.
+     */
+    public long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Gets the statistics of the last search, merged from every thread. Nodes are leaves
+     * evaluated.
+     */
+    public SearchStats getStats() {
+        return new SearchStats(stats);
+    }
+
+    /**
+     * Gets the number of nodes in the tree built by the last search.
+     */
+    public int getNodes() {
+        return size;
+    }
+
+    /**
+     * Gets the average value of the root position for the player to move, in [-1, 1], after the
+     * last search.
+     */
+    public double getRootValue() {
+        return visits[0] == 0 ? 0 : -valueSum[0] / visits[0];
+    }
+
+    /**
+     * runs iterations until the shared budget is used up or the time runs out
+     */
+    private void work() {
+        int[] path = new int[256];
+        // counted without the lock, and added to the shared statistics when the thread is done
+        SearchStats local = new SearchStats();
+        while (true) {
+            int depth;
+            int leaf;
+            boolean expander;
+            synchronized (lock) {
+                if (iterationsLeft <= 0 || timeLimit > 0 && System.nanoTime() - deadline > 0) {
+                    stats.merge(local);
+                    return;
+                }
+                iterationsLeft--;
+                // select, adding a virtual loss along the way
+                leaf = 0;
+                depth = 0;
+                path[depth++] = 0;
+                virtualLoss[0] += VIRTUAL_LOSS;
+                while (state[leaf] == EXPANDED && childCount[leaf] > 0 && depth < path.length) {
+                    leaf = selectChild(leaf);
+                    path[depth++] = leaf;
+                    virtualLoss[leaf] += VIRTUAL_LOSS;
+                }
+                expander = state[leaf] == UNEXPANDED;
+                if (expander) {
+                    state[leaf] = EXPANDING;
+                }
+            }
+
+            // rebuild the leaf position and evaluate it without holding the lock
+            ChessPosition position = root;
+            for (int i = 1; i < depth; i++) {
+                position = position.move(Move.decode(move[path[i]]));
+            }
+            Set<Move> moves = position.possibleMoves();
+            local.nodes++;
+            double value;
+            if (moves.isEmpty()) {
+                value = position.isInCheck(position.getPlayer()) ? -1.0 : 0.0;
+            } else {
+                value = Math.tanh(BoardEval.evaluate(position) / EVAL_SCALE);
+            }
+            List<Move> children = null;
+            float[] priors = null;
+            if (expander && !moves.isEmpty()) {
+                children = new ArrayList<>(moves);
+                priors = priors(position, children);
+            }
+
+            synchronized (lock) {
+                if (expander) {
+                    if (children != null && size + children.size() <= capacity) {
+                        firstChild[leaf] = size;
+                        childCount[leaf] = children.size();
+                        for (int i = 0; i < children.size(); i++) {
+                            resetNode(size + i, Move.encode(children.get(i)), priors[i]);
+                        }
+                        size += children.size();
+                    }
+                    state[leaf] = EXPANDED;
+                }
+                // back up: value is from the point of view of the player to move at the leaf, and
+                // each node stores values for the player who moved into it
+                double v = -value;
+                for (int i = depth - 1; i >= 0; i--) {
+                    int node = path[i];
+                    visits[node]++;
+                    valueSum[node] += v;
+                    virtualLoss[node] -= VIRTUAL_LOSS;
+                    v = -v;
+                }
+                iterations++;
+            }
+        }
+    }
+
+    /**
+     * picks the child of node with the highest PUCT score, counting virtual losses as visits
+     * that lost
+     */
+    private int selectChild(int node) {
+        double sqrtParent = Math.sqrt(visits[node] + virtualLoss[node] + 1);
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < childCount[node]; i++) {
+            int child = firstChild[node] + i;
+            int n = visits[child] + virtualLoss[child];
+            double q = n == 0 ? 0 : (valueSum[child] - virtualLoss[child]) / n;
+            double score = q + C_PUCT * prior[child] * sqrtParent / (1 + n);
+            if (score > bestScore) {
+                bestScore = score;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * move priors: a softmax over a cheap move ordering score, where captures are scored by
+     * static exchange evaluation and quiet moves by 0
+     */
+    private static float[] priors(ChessPosition position, List<Move> moves) {
+        Board board = position.getBoard();
+        float[] result = new float[moves.size()];
+        double total = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            Move m = moves.get(i);
+            int score = board.getPiece(m.moveToX, m.moveToY) == null ? 0 : position.see(m);
+            double weight = Math.exp(Math.max(-1000, Math.min(1000, score)) / 200.0);
+            result[i] = (float) weight;
+            total += weight;
+        }
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= total;
+        }
+        return result;
+    }
+
+    private void resetNode(int node, short packedMove, float nodePrior) {
+        firstChild[node] = 0;
+        childCount[node] = 0;
+        move[node] = packedMove;
+        visits[node] = 0;
+        virtualLoss[node] = 0;
+        valueSum[node] = 0;
+        prior[node] = nodePrior;
+        state[node] = UNEXPANDED;
+    }
+
+}
@@ -16,7 +16,7 @@ public class Move {
     public int moveToY;
 
     /**
-     * the value of this move for white
+     * a scratch score for this move; ChessBot stores move ordering scores here during search
      */
     public int value;
 
@@ -27,6 +27,31 @@ public class Move {
         this.moveToY = moveToY;
     }
 
+    /**
+     * Packs a move into 12 bits as (from square) &lt;&lt; 6 | (to square), with squares numbered
+     * y * 8 + x. No legal move packs to 0, so 0 can stand for no move.
+     * @param move the move to pack
+     * @return the packed move
+     * @throws IllegalArgumentException if move is null
+     */
+    public static short encode(Move move) {
+        if (move == null) {
+            throw new IllegalArgumentException();
+        }
+        return (short) (((move.prevY * 8 + move.prevX) << 6) | (move.moveToY * 8 + move.moveToX));
+    }
+
+    /**
+     * Unpacks a move packed by encode.
+     * @param packed the packed move
+     * @return the move
+     */
+    public static Move decode(int packed) {
+        int from = (packed >>> 6) & 63;
+        int to = packed & 63;
+        return new Move(from & 7, from >>> 3, to & 7, to >>> 3);
+    }
+
     /**
      * Implemented so Set comparison works in the tests. Two moves are equal
      * if they start at the same coordinates and end at the same coordinates.
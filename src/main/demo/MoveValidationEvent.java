@@ -0,0 +1,30 @@
+package demo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event committed by <code>ProgramStateMachine</code> whenever a move entered by
+ * a player, in the GUI or on the command line, is checked for legality. The event's duration is
+ * the time the check took.
+ */
+@Name("demo.MoveValidation")
+@Label("Move Validation")
+@Category({"Chess", "Game"})
+@Description("A player's move was checked for legality")
+@StackTrace(false)
+public class MoveValidationEvent extends Event {
+
+    @Label("Position Hash")
+    long positionHash;
+
+    @Label("Move")
+    String move;
+
+    @Label("Legal")
+    boolean legal;
+}
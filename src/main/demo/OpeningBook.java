@@ -0,0 +1,219 @@
+package demo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An opening book: for each position it knows, a list of moves with weights saying how often
+ * each should be played.
+ * <p>
+ * A book file is <code>MAGIC</code> followed by an unused int and then 16 byte records of
+ * <pre>
+ *   long hash    the Zobrist hash of the position (ChessPosition.getHash)
+ *   int  move    the move, as Move.encode packs it
+ *   int  weight  how often to play the move, relative to the other moves from the position
+ * </pre>
+ * all big endian, sorted by hash (as signed longs). The file is memory mapped and looked up by
+ * binary search, so opening a book costs nothing however large it is, and a lookup touches only
+ * a few pages of it.
+ */
+public class OpeningBook {
+
+    public static final int MAGIC = 0x43424B31;
+
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    /**
+     * Opens a book file.
+     * @param path the file to open
+     * @throws IOException if the file cannot be read
+     * @throws SerializationException if the file is not a book, or is too large to map
+     * @throws IllegalArgumentException if path is null
+     */
+    public OpeningBook(Path path) throws IOException, SerializationException {
+        if (path == null) {
+            throw new IllegalArgumentException();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE
+                    || (length - HEADER_SIZE) % RECORD_SIZE != 0) {
+                throw new SerializationException();
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            size = (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new SerializationException();
+        }
+    }
+
+    /**
+     * Gets the number of records (position and move pairs) in the book.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Picks a book move for a position at random, each move with probability proportional to
+     * its weight. Moves that are not legal in the position are skipped.
+     * @param position the position to look up
+     * @param random the source of randomness
+     * @return a legal book move, or null if the book has none for the position
+     * @throws IllegalArgumentException if position or random is null
+     */
+    public Move pick(ChessPosition position, Random random) {
+        if (position == null || random == null) {
+            throw new IllegalArgumentException();
+        }
+        long hash = position.getHash();
+        int first = firstRecord(hash);
+        if (first == size || hashAt(first) != hash) {
+            return null;
+        }
+        long total = 0;
+        int end = first;
+        for (; end < size && hashAt(end) == hash; end++) {
+            if (weightAt(end) > 0 && position.isLegal(Move.decode(moveAt(end)))) {
+                total += weightAt(end);
+            }
+        }
+        if (total == 0) {
+            return null;
+        }
+        long target = (long) (random.nextDouble() * total);
+        for (int i = first; i < end; i++) {
+            Move move = Move.decode(moveAt(i));
+            if (weightAt(i) > 0 && position.isLegal(move)) {
+                target -= weightAt(i);
+                if (target < 0) {
+                    return move;
+                }
+            }
+        }
+        // only reachable through rounding
+        return null;
+    }
+
+    /**
+     * Gets the total weight the book gives a move from a position.
+     * @param position the position the move is made from
+     * @param move the move
+     * @return the sum of the weights of the matching records, or 0 if there are none
+     * @throws IllegalArgumentException if position or move is null
+     */
+    public long weight(ChessPosition position, Move move) {
+        if (position == null || move == null) {
+            throw new IllegalArgumentException();
+        }
+        long hash = position.getHash();
+        int encoded = Move.encode(move);
+        long total = 0;
+        for (int i = firstRecord(hash); i < size && hashAt(i) == hash; i++) {
+            if (moveAt(i) == encoded) {
+                total += weightAt(i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * binary search for the first record whose hash is at least hash
+     */
+    private int firstRecord(long hash) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (hashAt(mid) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long hashAt(int record) {
+        return buffer.getLong(HEADER_SIZE + record * RECORD_SIZE);
+    }
+
+    private int moveAt(int record) {
+        return buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + 8);
+    }
+
+    private int weightAt(int record) {
+        return buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + 12);
+    }
+
+    /**
+     * Writes the header of a book file. Records must follow, sorted by hash.
+     * @param out the stream to write to
+     * @throws IOException if out throws one
+     * @throws IllegalArgumentException if out is null
+     */
+    public static void writeHeader(DataOutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException();
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(0);
+    }
+
+    /**
+     * Writes a book file from records in any order.
+     * @param out the stream to write to; it is not closed
+     * @param hashes the position hash of each record
+     * @param moves the encoded move of each record
+     * @param weights the weight of each record
+     * @param count the number of records
+     * @throws IOException if out throws one
+     * @throws IllegalArgumentException if any array is null or shorter than count
+     */
+    public static void write(OutputStream out, long[] hashes, int[] moves, int[] weights, int count)
+            throws IOException {
+        if (out == null || hashes == null || moves == null || weights == null || count < 0
+                || hashes.length < count || moves.length < count || weights.length < count) {
+            throw new IllegalArgumentException();
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        writeHeader(data);
+        for (int i : order) {
+            data.writeLong(hashes[i]);
+            data.writeInt(moves[i]);
+            data.writeInt(weights[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Writes a book file from records in any order; see write(OutputStream, ...).
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, long[] hashes, int[] moves, int[] weights, int count)
+            throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(out, hashes, moves, weights, count);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * A compact, data-oriented collection of many chess positions. Instead of one
+ * <code>ChessPosition</code> object (and one <code>Board</code> with an 8 x 8 array of
+ * references) per position, every position is stored as 64 consecutive bytes in a single
+ * flat array, plus one byte for the player to move. Bulk consumers such as
+ * <code>BoardEval.evaluateBatch</code> can then stream through the data without chasing
+ * pointers.
+ * <p>
+ * Square <code>s</code> of position <code>i</code> lives at
+ * <code>squares[i * SQUARES + s]</code>, where <code>s = y * 8 + x</code> using the same
+ * coordinates as <code>Board</code>. Each square holds a piece code from
+ * <code>encode(Piece)</code>: 0 for an empty square, otherwise the piece's ordinal plus one.
+ */
+public class PackedPositions {
+
+    /**
+     * number of bytes used for the squares of a single position
+     */
+    public static final int SQUARES = 64;
+
+    /**
+     * number of distinct piece codes, including the code for an empty square
+     */
+    public static final int CODES = 13;
+
+    /**
+     * side to move codes stored in the side array
+     */
+    public static final byte WHITE_TO_MOVE = 0;
+    public static final byte BLACK_TO_MOVE = 1;
+
+    private static final Piece[] PIECES = Piece.values();
+
+    private byte[] squares;
+    private byte[] sides;
+    private int size;
+
+    /**
+     * Constructs an empty collection with room for 16 positions.
+     */
+    public PackedPositions() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty collection with room for the given number of positions.
+     * @param capacity the number of positions to reserve space for
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public PackedPositions(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        squares = new byte[capacity * SQUARES];
+        sides = new byte[capacity];
+        size = 0;
+    }
+
+    /**
+     * Gets the code used to store the given piece.
+     * @param piece the piece to encode, may be null
+     * @return 0 if piece is null, otherwise piece.ordinal() + 1
+     */
+    public static byte encode(Piece piece) {
+        return piece == null ? 0 : (byte) (piece.ordinal() + 1);
+    }
+
+    /**
+     * Gets the piece represented by the given code.
+     * @param code a code produced by <code>encode</code>
+     * @return the piece with the given code, or null for an empty square
+     * @throws IllegalArgumentException if code is not a valid piece code
+     */
+    public static Piece decode(int code) {
+        if (code < 0 || code >= CODES) {
+            throw new IllegalArgumentException();
+        }
+        return code == 0 ? null : PIECES[code - 1];
+    }
+
+    /**
+     * Appends the given position to the end of this collection.
+     * @param position the position to append
+     * @return the index of the appended position
+     * @throws IllegalArgumentException if position is null
+     * @modifies <code>this</code>
+     */
+    public int add(ChessPosition position) {
+        if (position == null) {
+            throw new IllegalArgumentException();
+        }
+        int index = addEmpty();
+        Board board = position.getBoard();
+        int base = index * SQUARES;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                squares[base + y * 8 + x] = encode(board.getPiece(x, y));
+            }
+        }
+        sides[index] = position.getPlayer() == Player.WHITE ? WHITE_TO_MOVE : BLACK_TO_MOVE;
+        return index;
+    }
+
+    /**
+     * Appends every position of another collection, in order.
+     * @param other the positions to append
+     * @throws IllegalArgumentException if other is null or this
+     * @modifies <code>this</code>
+     */
+    public void addAll(PackedPositions other) {
+        if (other == null || other == this) {
+            throw new IllegalArgumentException();
+        }
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.squares, 0, squares, size * SQUARES, other.size * SQUARES);
+        System.arraycopy(other.sides, 0, sides, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Appends an empty board with white to move. Callers are expected to fill in the
+     * squares directly through <code>squares()</code>.
+     * @return the index of the appended position
+     * @modifies <code>this</code>
+     */
+    public int addEmpty() {
+        ensureCapacity(size + 1);
+        Arrays.fill(squares, size * SQUARES, (size + 1) * SQUARES, (byte) 0);
+        sides[size] = WHITE_TO_MOVE;
+        return size++;
+    }
+
+    /**
+     * Builds a <code>ChessPosition</code> from the position stored at the given index.
+     * @param index the index of the position
+     * @return a new position equal to the one stored at index
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    public ChessPosition get(int index) {
+        checkIndex(index);
+        ChessPosition position = new ChessPosition(
+                sides[index] == WHITE_TO_MOVE ? Player.WHITE : Player.BLACK);
+        int base = index * SQUARES;
+        for (int s = 0; s < SQUARES; s++) {
+            byte code = squares[base + s];
+            if (code != 0) {
+                position.populate(decode(code), s & 7, s >>> 3);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Gets the player to move in the position stored at the given index.
+     * @param index the index of the position
+     * @return the player whose turn it is
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    public Player getPlayer(int index) {
+        checkIndex(index);
+        return sides[index] == WHITE_TO_MOVE ? Player.WHITE : Player.BLACK;
+    }
+
+    /**
+     * Sets the player to move in the position stored at the given index.
+     * @param index the index of the position
+     * @param player the player whose turn it is
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     * @throws IllegalArgumentException if player is null
+     * @modifies <code>this</code>
+     */
+    public void setPlayer(int index, Player player) {
+        checkIndex(index);
+        if (player == null) {
+            throw new IllegalArgumentException();
+        }
+        sides[index] = player == Player.WHITE ? WHITE_TO_MOVE : BLACK_TO_MOVE;
+    }
+
+    /**
+     * Gets the number of positions stored.
+     * @return the number of positions in this collection
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every position from this collection, keeping the allocated storage.
+     * @modifies <code>this</code>
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Removes every position at or after the given index.
+     * @param newSize the number of positions to keep
+     * @throws IllegalArgumentException if newSize is not in [0, size()]
+     * @modifies <code>this</code>
+     */
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IllegalArgumentException();
+        }
+        size = newSize;
+    }
+
+    /**
+     * Direct access to the backing square array. Only the first
+     * <code>size() * SQUARES</code> entries are meaningful, and the array may be replaced
+     * when positions are added.
+     * @return the backing square array
+     */
+    public byte[] squares() {
+        return squares;
+    }
+
+    /**
+     * Direct access to the backing side to move array. Only the first <code>size()</code>
+     * entries are meaningful, and the array may be replaced when positions are added.
+     * @return the backing side to move array
+     */
+    public byte[] sides() {
+        return sides;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= sides.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, sides.length * 2);
+        squares = Arrays.copyOf(squares, newCapacity * SQUARES);
+        sides = Arrays.copyOf(sides, newCapacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("" + index);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One game of a PGN file: its tag pairs, the position it starts from, its main line of moves and
+ * its result. Comments, annotations and variations are not kept.
+ */
+public class PgnGame {
+
+    private final Map<String, String> tags;
+    private final ChessPosition start;
+    private final List<Move> moves;
+    private final String result;
+    private final String error;
+
+    /**
+     * Constructs a game.
+     * @param tags the tag pairs, in the order they are to be written; copied
+     * @param start the position the moves are played from
+     * @param moves the moves, each legal after the ones before it; copied
+     * @param result "1-0", "0-1", "1/2-1/2" or "*"
+     * @throws IllegalArgumentException if any argument is null, or result is not one of the above
+     */
+    public PgnGame(Map<String, String> tags, ChessPosition start, List<Move> moves, String result) {
+        this(tags, start, moves, result, null);
+    }
+
+    PgnGame(Map<String, String> tags, ChessPosition start, List<Move> moves, String result, String error) {
+        if (tags == null || start == null || moves == null || !isResult(result)) {
+            throw new IllegalArgumentException();
+        }
+        this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+        this.start = start;
+        this.moves = Collections.unmodifiableList(new ArrayList<>(moves));
+        this.result = result;
+        this.error = error;
+    }
+
+    /**
+     * Constructs a game from a played <code>Game</code>, with its result worked out from its
+     * final position ("*" if it is still going on).
+     * @param tags the tag pairs, e.g. Event, White and Black; copied, and Result is filled in
+     * @param game the game
+     * @throws IllegalArgumentException if tags or game is null
+     */
+    public static PgnGame of(Map<String, String> tags, Game game) {
+        if (tags == null || game == null) {
+            throw new IllegalArgumentException();
+        }
+        String result;
+        switch (game.getResult()) {
+            case WHITE_WINS:
+                result = "1-0";
+                break;
+            case BLACK_WINS:
+                result = "0-1";
+                break;
+            case DRAW:
+                result = "1/2-1/2";
+                break;
+            default:
+                result = "*";
+        }
+        Map<String, String> all = new LinkedHashMap<>(tags);
+        all.put("Result", result);
+        return new PgnGame(all, game.getStart(), game.getMoves(), result);
+    }
+
+    /**
+     * Gets the tag pairs in the order they were read.
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Gets the value of a tag.
+     * @return the value, or null if the game has no such tag
+     */
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+
+    /**
+     * Gets the position the game starts from: the FEN tag if there is one, otherwise the
+     * standard starting position.
+     */
+    public ChessPosition getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the main line of moves.
+     */
+    public List<Move> getMoves() {
+        return moves;
+    }
+
+    /**
+     * Gets the result from the end of the move text: "1-0", "0-1", "1/2-1/2" or "*".
+     */
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Gets why the moves stop early, e.g. at a castle (which <code>ChessPosition</code> can't
+     * play) or an illegal move.
+     * @return a description of the problem, or null if every move was read
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Replays the moves into a new <code>Game</code>.
+     */
+    public Game toGame() {
+        Game game = new Game(start);
+        for (Move move : moves) {
+            game.play(move);
+        }
+        return game;
+    }
+
+    static boolean isResult(String result) {
+        return "1-0".equals(result) || "0-1".equals(result) || "1/2-1/2".equals(result)
+                || "*".equals(result);
+    }
+}
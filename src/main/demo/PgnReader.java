@@ -0,0 +1,468 @@
+package demo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the games of a PGN file one at a time, so a file of any size is read in the memory of
+ * a single game.
+ * <p>
+ * Bytes are pulled through a fixed <code>ByteBuffer</code> from a channel and scanned one at a
+ * time. Move text is collected in a reused buffer and handed straight to
+ * <code>San.parse</code>, so no <code>String</code> is made per move, number or comment; only
+ * tag names and values become strings. Comments, NAGs, variations and escape lines are
+ * skipped. A game whose moves can't all be played (a castle or promotion, which
+ * <code>ChessPosition</code> doesn't support, or an illegal move) keeps the moves before it
+ * and reports the problem through <code>PgnGame.getError</code>; reading carries on with the
+ * next game.
+ * <p>
+ * For parallel reading, <code>split</code> cuts a file into byte ranges that each hold whole
+ * games, and <code>open(path, start, end)</code> reads one range.
+ */
+public class PgnReader implements Iterator<PgnGame>, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EOF = -1;
+    private static final byte[] GAME_START = "[Event ".getBytes(StandardCharsets.US_ASCII);
+
+    private final ReadableByteChannel channel;
+    private final FileChannel file;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position;
+    private final long end;
+
+    private final StringBuilder token = new StringBuilder();
+    private byte[] bytes = new byte[256];
+    private boolean lineStart = true;
+    private PgnGame next;
+    private long games = 0;
+
+    /**
+     * Constructs a reader of everything a channel has left.
+     * @param channel the channel to read; closed by close()
+     * @throws IllegalArgumentException if channel is null
+     */
+    public PgnReader(ReadableByteChannel channel) {
+        if (channel == null) {
+            throw new IllegalArgumentException();
+        }
+        this.channel = channel;
+        this.file = null;
+        this.end = Long.MAX_VALUE;
+        buffer.flip();
+    }
+
+    private PgnReader(FileChannel file, long start, long end) {
+        this.channel = file;
+        this.file = file;
+        this.position = start;
+        this.end = end;
+        buffer.flip();
+    }
+
+    /**
+     * Opens a reader of a whole file.
+     * @param path the file
+     * @throws IOException if the file can't be opened
+     * @throws IllegalArgumentException if path is null
+     */
+    public static PgnReader open(Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException();
+        }
+        return new PgnReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Opens a reader of the bytes [start, end) of a file, usually a range from split.
+     * @param path the file
+     * @param start the offset of the first byte to read
+     * @param end the offset one past the last byte to read
+     * @throws IOException if the file can't be opened
+     * @throws IllegalArgumentException if path is null or start and end aren't a range
+     */
+    public static PgnReader open(Path path, long start, long end) throws IOException {
+        if (path == null || start < 0 || end < start) {
+            throw new IllegalArgumentException();
+        }
+        return new PgnReader(FileChannel.open(path, StandardOpenOption.READ), start, end);
+    }
+
+    /**
+     * Cuts a file into about equal byte ranges that each start at the beginning of a game, i.e.
+     * at a line starting with "[Event ", or at the end of the file.
+     * @param path the file
+     * @param parts how many ranges to cut it into
+     * @return parts + 1 offsets, the first 0 and the last the file size, in order; range i is
+     *   [offsets[i], offsets[i + 1]) and may be empty
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if path is null or parts &lt; 1
+     */
+    public static long[] split(Path path, int parts) throws IOException {
+        if (path == null || parts < 1) {
+            throw new IllegalArgumentException();
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = file.size();
+            long[] offsets = new long[parts + 1];
+            offsets[parts] = size;
+            ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+            for (int i = 1; i < parts; i++) {
+                long guess = Math.max(size / parts * i, offsets[i - 1]);
+                offsets[i] = guess == 0 ? 0 : nextGameStart(file, guess, size, window);
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * finds the first line starting with GAME_START that begins at or after from
+     */
+    private static long nextGameStart(FileChannel file, long from, long size, ByteBuffer window)
+            throws IOException {
+        // look from the byte before, so a game starting exactly at from is found
+        long offset = from - 1;
+        while (offset < size) {
+            window.clear();
+            int n = file.read(window, offset);
+            if (n <= 0) {
+                break;
+            }
+            byte[] data = window.array();
+            for (int i = 0; i + GAME_START.length < n; i++) {
+                if (data[i] == '\n' && startsWith(data, i + 1)) {
+                    return offset + i + 1;
+                }
+            }
+            if (n <= GAME_START.length) {
+                break;
+            }
+            // overlap windows so a match across the edge isn't missed
+            offset += n - GAME_START.length;
+        }
+        return size;
+    }
+
+    private static boolean startsWith(byte[] data, int at) {
+        for (int j = 0; j < GAME_START.length; j++) {
+            if (data[at + j] != GAME_START[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of games returned by next so far.
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Checks whether there is another game, reading it if need be.
+     * @throws UncheckedIOException if the channel can't be read
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readGame();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    /**
+     * Gets the next game.
+     * @throws NoSuchElementException if there are no more games
+     * @throws UncheckedIOException if the channel can't be read
+     */
+    @Override
+    public PgnGame next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        PgnGame game = next;
+        next = null;
+        games++;
+        return game;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * reads the tags and move text of one game, or returns null at the end of the input
+     */
+    private PgnGame readGame() throws IOException {
+        Map<String, String> tags = new LinkedHashMap<>();
+        int c = skipWhitespaceAndComments();
+        while (c == '[') {
+            readTag(tags);
+            c = skipWhitespaceAndComments();
+        }
+        if (c == EOF && tags.isEmpty()) {
+            return null;
+        }
+
+        ChessPosition start = ChessPosition.standardBoard();
+        String error = null;
+        String fen = tags.get("FEN");
+        if (fen != null) {
+            try {
+                start = Fen.parse(fen);
+            } catch (SerializationException e) {
+                error = "bad FEN tag: " + e.getMessage();
+            }
+        }
+        ChessPosition position = start;
+        List<Move> moves = new ArrayList<>();
+        String result = "*";
+        while (true) {
+            c = skipWhitespaceAndComments();
+            if (c == EOF || c == '[') {
+                // no result: the next game, or the end
+                break;
+            }
+            if (c == '(') {
+                skipVariation();
+                continue;
+            }
+            if (c == '$') {
+                read();
+                readToken();
+                continue;
+            }
+            readToken();
+            if (token.length() == 0) {
+                // stray punctuation such as an unmatched ')'
+                read();
+                continue;
+            }
+            String r = resultOf(token);
+            if (r != null) {
+                result = r;
+                break;
+            }
+            // a move number, "12." or "12...", possibly run into its move as in "12.e4"
+            int s = 0;
+            while (s < token.length() && token.charAt(s) >= '0' && token.charAt(s) <= '9') {
+                s++;
+            }
+            int dots = s;
+            while (dots < token.length() && token.charAt(dots) == '.') {
+                dots++;
+            }
+            s = dots > s || s == token.length() ? dots : 0;
+            if (s == token.length() || error != null) {
+                continue;
+            }
+            Move move = San.parse(position, token, s, token.length());
+            if (move == null) {
+                error = "can't play move " + (moves.size() + 1) + ": " + token.substring(s);
+                continue;
+            }
+            moves.add(move);
+            position = position.move(move);
+        }
+        return new PgnGame(tags, start, moves, result, error);
+    }
+
+    /**
+     * reads a tag pair at '[', through the closing ']'
+     */
+    private void readTag(Map<String, String> tags) throws IOException {
+        read();
+        int c = peek();
+        while (c == ' ' || c == '\t') {
+            read();
+            c = peek();
+        }
+        int n = 0;
+        while (c != EOF && c != ' ' && c != '\t' && c != '"' && c != ']' && c != '\n') {
+            n = put(n, read());
+            c = peek();
+        }
+        String name = new String(bytes, 0, n, StandardCharsets.UTF_8);
+        while (c == ' ' || c == '\t') {
+            read();
+            c = peek();
+        }
+        n = 0;
+        if (c == '"') {
+            read();
+            for (c = read(); c != EOF && c != '"' && c != '\n'; c = read()) {
+                if (c == '\\') {
+                    c = read();
+                    if (c == EOF) {
+                        break;
+                    }
+                }
+                n = put(n, c);
+            }
+        }
+        // anything else up to the end of the tag is ignored
+        for (c = peek(); c != EOF && c != ']' && c != '\n'; c = peek()) {
+            read();
+        }
+        if (c == ']') {
+            read();
+        }
+        if (!name.isEmpty()) {
+            tags.put(name, new String(bytes, 0, n, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * reads characters up to whitespace or punctuation that ends a token into token
+     */
+    private void readToken() throws IOException {
+        token.setLength(0);
+        for (int c = peek(); c != EOF && !isDelimiter(c); c = peek()) {
+            token.append((char) read());
+        }
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c <= ' ' || c == '{' || c == '}' || c == '(' || c == ')' || c == ';' || c == '['
+                || c == ']' || c == '$';
+    }
+
+    /**
+     * skips a parenthesized variation, including nested variations and comments in it
+     */
+    private void skipVariation() throws IOException {
+        int depth = 0;
+        int c;
+        do {
+            c = read();
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '{') {
+                skipPast('}');
+            } else if (c == ';') {
+                skipPast('\n');
+            }
+        } while (c != EOF && depth > 0);
+    }
+
+    /**
+     * skips whitespace, {comments}, ;comments and %escape lines
+     *
+     * @return the next character, not consumed
+     */
+    private int skipWhitespaceAndComments() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == '{') {
+                skipPast('}');
+            } else if (c == ';' || (c == '%' && lineStart)) {
+                skipPast('\n');
+            } else if (c != EOF && (c <= ' ' || c == 0xef || c == 0xbb || c == 0xbf)) {
+                // whitespace, or a UTF-8 byte order mark
+                read();
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private void skipPast(int last) throws IOException {
+        read();
+        for (int c = read(); c != EOF && c != last; c = read()) {
+            // skip
+        }
+    }
+
+    private int put(int n, int b) {
+        if (n == bytes.length) {
+            bytes = Arrays.copyOf(bytes, n * 2);
+        }
+        bytes[n] = (byte) b;
+        return n + 1;
+    }
+
+    private static String resultOf(CharSequence token) {
+        int n = token.length();
+        if (n == 1 && token.charAt(0) == '*') {
+            return "*";
+        }
+        if (n == 3 && token.charAt(1) == '-') {
+            if (token.charAt(0) == '1' && token.charAt(2) == '0') {
+                return "1-0";
+            }
+            if (token.charAt(0) == '0' && token.charAt(2) == '1') {
+                return "0-1";
+            }
+        }
+        if (n == 7 && "1/2-1/2".contentEquals(token)) {
+            return "1/2-1/2";
+        }
+        return null;
+    }
+
+    private int peek() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return EOF;
+        }
+        return buffer.get(buffer.position()) & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return EOF;
+        }
+        int c = buffer.get() & 0xff;
+        lineStart = c == '\n';
+        return c;
+    }
+
+    /**
+     * refills the empty buffer from the channel, returning false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        while (true) {
+            buffer.clear();
+            int n;
+            if (file != null) {
+                if (position >= end) {
+                    buffer.flip();
+                    return false;
+                }
+                buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                n = file.read(buffer, position);
+            } else {
+                n = channel.read(buffer);
+            }
+            buffer.flip();
+            if (n < 0) {
+                return false;
+            }
+            if (n > 0) {
+                position += n;
+                return true;
+            }
+        }
+    }
+}
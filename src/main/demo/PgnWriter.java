@@ -0,0 +1,81 @@
+package demo;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes games in PGN: the tag pairs, then the moves in SAN with move numbers, wrapped at 80
+ * columns, then the result and a blank line. Games can be appended one after another to
+ * build an archive <code>PgnReader</code> can read back.
+ */
+public class PgnWriter {
+
+    private static final int LINE_WIDTH = 80;
+
+    /**
+     * Writes one game. If it doesn't start from the standard position and has no FEN tag,
+     * SetUp and FEN tags are added for its start.
+     * @param game the game to write
+     * @param out where to write it, e.g. a <code>BufferedWriter</code>
+     * @throws IOException if out can't be written
+     * @throws IllegalArgumentException if game or out is null
+     */
+    public static void write(PgnGame game, Appendable out) throws IOException {
+        if (game == null || out == null) {
+            throw new IllegalArgumentException();
+        }
+        for (Map.Entry<String, String> tag : game.getTags().entrySet()) {
+            writeTag(tag.getKey(), tag.getValue(), out);
+        }
+        ChessPosition position = game.getStart();
+        if (game.getTag("FEN") == null
+                && position.getHash() != ChessPosition.standardBoard().getHash()) {
+            writeTag("SetUp", "1", out);
+            writeTag("FEN", Fen.format(position), out);
+        }
+        out.append('\n');
+
+        StringBuilder line = new StringBuilder(LINE_WIDTH + 16);
+        int number = 1;
+        boolean first = true;
+        for (Move move : game.getMoves()) {
+            int start = line.length();
+            if (line.length() > 0) {
+                line.append(' ');
+            }
+            if (position.getPlayer() == Player.WHITE) {
+                line.append(number).append(". ");
+            } else if (first) {
+                line.append(number).append("... ");
+            }
+            line.append(San.format(position, move));
+            if (line.length() > LINE_WIDTH && start > 0) {
+                // move the whole of this move and its number onto the next line
+                out.append(line, 0, start).append('\n');
+                line.delete(0, start + 1);
+            }
+            if (position.getPlayer() == Player.BLACK) {
+                number++;
+            }
+            position = position.move(move);
+            first = false;
+        }
+        if (line.length() > 0) {
+            line.append(line.length() + 1 + game.getResult().length() > LINE_WIDTH ? '\n' : ' ');
+        }
+        line.append(game.getResult());
+        out.append(line).append("\n\n");
+    }
+
+    private static void writeTag(String name, String value, Appendable out) throws IOException {
+        out.append('[').append(name).append(" \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+        out.append("\"]\n");
+    }
+}
@@ -0,0 +1,302 @@
+package demo;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes positions as fixed size binary records of <code>BYTES</code> (32) bytes, read from
+ * and written to a caller's <code>ByteBuffer</code> at its current position. Nothing is
+ * allocated along the way except the <code>ChessPosition</code> a decode returns, and decoding
+ * into a <code>PackedPositions</code> allocates nothing at all, so records can be streamed
+ * straight out of a mapped file or a network buffer.
+ * <p>
+ * A record is laid out as follows, with multi-byte fields big endian whatever the buffer's
+ * byte order:
+ * <pre>
+ *   bytes  0-7    occupancy: bit s is set if square s (y * 8 + x, as in Board) holds a piece
+ *   bytes  8-23   a 4 bit piece code (see PackedPositions.encode) per set occupancy bit, in
+ *                 square order, high nibble first, then zeros
+ *   byte   24     1 if black is to move, otherwise 0
+ *   bytes 25-26   the halfmove clock
+ *   bytes 27-31   zero, reserved
+ * </pre>
+ * Since every record is the same size, record i of a buffer starts at byte i * BYTES. A
+ * position can hold at most 32 pieces, which every position reachable in a game does.
+ */
+public class PositionCodec {
+
+    /**
+     * the size of a record
+     */
+    public static final int BYTES = 32;
+
+    /**
+     * the most pieces a position can have and still be encoded
+     */
+    public static final int MAX_PIECES = 32;
+
+    /**
+     * Writes a position at the buffer's position and advances it by BYTES.
+     * @param position the position to write
+     * @param dst the buffer to write into
+     * @throws IllegalArgumentException if position or dst is null, or position has more than
+     *   MAX_PIECES pieces or a halfmove clock over 65535
+     * @throws BufferOverflowException if dst has fewer than BYTES bytes remaining
+     * @modifies dst
+     */
+    public static void encode(ChessPosition position, ByteBuffer dst) {
+        if (position == null || dst == null) {
+            throw new IllegalArgumentException();
+        }
+        Board board = position.getBoard();
+        long occupancy = 0;
+        long high = 0;
+        long low = 0;
+        int count = 0;
+        for (int s = 0; s < PackedPositions.SQUARES; s++) {
+            Piece piece = board.getPiece(s & 7, s >>> 3);
+            if (piece == null) {
+                continue;
+            }
+            if (count == MAX_PIECES) {
+                throw new IllegalArgumentException();
+            }
+            occupancy |= 1L << s;
+            long code = PackedPositions.encode(piece);
+            if (count < 16) {
+                high |= code << (60 - 4 * count);
+            } else {
+                low |= code << (60 - 4 * (count - 16));
+            }
+            count++;
+        }
+        put(dst, occupancy, high, low, position.getPlayer() == Player.BLACK, position.getHalfmoveClock());
+    }
+
+    /**
+     * Reads a position at the buffer's position and advances it by BYTES.
+     * @param src the buffer to read from
+     * @return a new position
+     * @throws IllegalArgumentException if src is null
+     * @throws BufferUnderflowException if src has fewer than BYTES bytes remaining
+     * @throws SerializationException if the record is not one encode could have written; src
+     *   is still advanced past it
+     */
+    public static ChessPosition decode(ByteBuffer src) throws SerializationException {
+        if (src == null) {
+            throw new IllegalArgumentException();
+        }
+        if (src.remaining() < BYTES) {
+            throw new BufferUnderflowException();
+        }
+        long occupancy = getLong(src);
+        long high = getLong(src);
+        long low = getLong(src);
+        byte side = src.get();
+        int clock = getShort(src) & 0xffff;
+        check(occupancy, high, low, side, src.get() | src.getInt());
+
+        ChessPosition position = new ChessPosition(side == 0 ? Player.WHITE : Player.BLACK);
+        int count = 0;
+        for (long bits = occupancy; bits != 0; bits &= bits - 1) {
+            int s = Long.numberOfTrailingZeros(bits);
+            position.populate(PackedPositions.decode(codeAt(high, low, count++)), s & 7, s >>> 3);
+        }
+        position.setHalfmoveClock(clock);
+        return position;
+    }
+
+    /**
+     * Writes positions one after another, as encode does.
+     * @param positions the positions to write
+     * @param offset the index of the first position to write
+     * @param length how many positions to write
+     * @param dst the buffer to write into
+     * @throws IllegalArgumentException if positions, any position written or dst is null, a
+     *   position can't be encoded, or offset and length are out of range
+     * @throws BufferOverflowException if dst has fewer than length * BYTES bytes
+     *   remaining, in which case nothing is written
+     * @modifies dst
+     */
+    public static void encode(ChessPosition[] positions, int offset, int length, ByteBuffer dst) {
+        if (positions == null || dst == null || offset < 0 || length < 0
+                || offset > positions.length - length) {
+            throw new IllegalArgumentException();
+        }
+        if (dst.remaining() < (long) length * BYTES) {
+            throw new BufferOverflowException();
+        }
+        for (int i = offset; i < offset + length; i++) {
+            encode(positions[i], dst);
+        }
+    }
+
+    /**
+     * Reads positions one after another, as decode does.
+     * @param src the buffer to read from
+     * @param dst the array to store the positions in
+     * @param offset the index to store the first position at
+     * @param length how many positions to read
+     * @throws IllegalArgumentException if src or dst is null, or offset and length are out of
+     *   range
+     * @throws BufferUnderflowException if src has fewer than length * BYTES bytes
+     *   remaining, in which case nothing is read
+     * @throws SerializationException if a record is ill-formatted; the positions before it
+     *   have been stored
+     * @modifies dst
+     */
+    public static void decode(ByteBuffer src, ChessPosition[] dst, int offset, int length)
+            throws SerializationException {
+        if (src == null || dst == null || offset < 0 || length < 0 || offset > dst.length - length) {
+            throw new IllegalArgumentException();
+        }
+        if (src.remaining() < (long) length * BYTES) {
+            throw new BufferUnderflowException();
+        }
+        for (int i = offset; i < offset + length; i++) {
+            dst[i] = decode(src);
+        }
+    }
+
+    /**
+     * Writes every position of a collection one after another. Packed positions have no
+     * halfmove clock, so it is written as 0.
+     * @param positions the positions to write
+     * @param dst the buffer to write into
+     * @throws IllegalArgumentException if positions or dst is null, or a position has more than
+     *   MAX_PIECES pieces
+     * @throws BufferOverflowException if dst has fewer than positions.size() * BYTES
+     *   bytes remaining, in which case nothing is written
+     * @modifies dst
+     */
+    public static void encode(PackedPositions positions, ByteBuffer dst) {
+        if (positions == null || dst == null) {
+            throw new IllegalArgumentException();
+        }
+        if (dst.remaining() < (long) positions.size() * BYTES) {
+            throw new BufferOverflowException();
+        }
+        byte[] squares = positions.squares();
+        byte[] sides = positions.sides();
+        for (int i = 0; i < positions.size(); i++) {
+            int base = i * PackedPositions.SQUARES;
+            long occupancy = 0;
+            long high = 0;
+            long low = 0;
+            int count = 0;
+            for (int s = 0; s < PackedPositions.SQUARES; s++) {
+                long code = squares[base + s];
+                if (code == 0) {
+                    continue;
+                }
+                if (count == MAX_PIECES) {
+                    throw new IllegalArgumentException();
+                }
+                occupancy |= 1L << s;
+                if (count < 16) {
+                    high |= code << (60 - 4 * count);
+                } else {
+                    low |= code << (60 - 4 * (count - 16));
+                }
+                count++;
+            }
+            put(dst, occupancy, high, low, sides[i] == PackedPositions.BLACK_TO_MOVE, 0);
+        }
+    }
+
+    /**
+     * Reads positions one after another and appends them to a collection, without creating
+     * any objects (beyond growing the collection). Halfmove clocks are dropped.
+     * @param src the buffer to read from
+     * @param count how many positions to read
+     * @param dst the collection to append to
+     * @throws IllegalArgumentException if src or dst is null or count &lt; 0
+     * @throws BufferUnderflowException if src has fewer than count * BYTES bytes
+     *   remaining, in which case nothing is read
+     * @throws SerializationException if a record is ill-formatted; the positions before it
+     *   have been appended
+     * @modifies dst
+     */
+    public static void decode(ByteBuffer src, int count, PackedPositions dst) throws SerializationException {
+        if (src == null || dst == null || count < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (src.remaining() < (long) count * BYTES) {
+            throw new BufferUnderflowException();
+        }
+        for (int i = 0; i < count; i++) {
+            long occupancy = getLong(src);
+            long high = getLong(src);
+            long low = getLong(src);
+            byte side = src.get();
+            getShort(src);
+            check(occupancy, high, low, side, src.get() | src.getInt());
+
+            int index = dst.addEmpty();
+            byte[] squares = dst.squares();
+            int base = index * PackedPositions.SQUARES;
+            int n = 0;
+            for (long bits = occupancy; bits != 0; bits &= bits - 1) {
+                squares[base + Long.numberOfTrailingZeros(bits)] = (byte) codeAt(high, low, n++);
+            }
+            dst.sides()[index] = side == 0 ? PackedPositions.WHITE_TO_MOVE : PackedPositions.BLACK_TO_MOVE;
+        }
+    }
+
+    private static void put(ByteBuffer dst, long occupancy, long high, long low, boolean black, int clock) {
+        if (clock > 0xffff) {
+            throw new IllegalArgumentException();
+        }
+        if (dst.remaining() < BYTES) {
+            throw new BufferOverflowException();
+        }
+        putLong(dst, occupancy);
+        putLong(dst, high);
+        putLong(dst, low);
+        dst.put(black ? (byte) 1 : (byte) 0);
+        short s = (short) clock;
+        dst.putShort(dst.order() == ByteOrder.BIG_ENDIAN ? s : Short.reverseBytes(s));
+        dst.put((byte) 0);
+        dst.putInt(0);
+    }
+
+    /**
+     * checks the fields of a record against each other
+     */
+    private static void check(long occupancy, long high, long low, byte side, int reserved)
+            throws SerializationException {
+        int count = Long.bitCount(occupancy);
+        if (count > MAX_PIECES) {
+            throw new SerializationException("too many pieces");
+        }
+        if ((side & ~1) != 0 || reserved != 0) {
+            throw new SerializationException("bad flags");
+        }
+        for (int i = 0; i < MAX_PIECES; i++) {
+            int code = codeAt(high, low, i);
+            if (i < count ? code == 0 || code >= PackedPositions.CODES : code != 0) {
+                throw new SerializationException("bad piece code");
+            }
+        }
+    }
+
+    private static int codeAt(long high, long low, int i) {
+        return i < 16 ? (int) (high >>> (60 - 4 * i)) & 0xf : (int) (low >>> (60 - 4 * (i - 16))) & 0xf;
+    }
+
+    private static void putLong(ByteBuffer dst, long value) {
+        dst.putLong(dst.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+    }
+
+    private static long getLong(ByteBuffer src) {
+        long value = src.getLong();
+        return src.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+    }
+
+    private static short getShort(ByteBuffer src) {
+        short value = src.getShort();
+        return src.order() == ByteOrder.BIG_ENDIAN ? value : Short.reverseBytes(value);
+    }
+}
@@ -0,0 +1,137 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * A stack of the hashes of the positions that came before the current one in a game, used to
+ * detect draws by repetition. The game (and <code>ChessBot</code> while it searches) pushes a
+ * position every time a move is made from it and pops it when the move is taken back, so the
+ * stack always mirrors the move stack.
+ * <p>
+ * Since a capture or pawn move can never be undone, no position before the last such move can
+ * repeat. Repetition checks therefore only look back as far as the current position's halfmove
+ * clock, and only at every other entry, where the same player was to move.
+ */
+public class PositionHistory {
+
+    /**
+     * number of halfmoves without a capture or pawn move after which the game is drawn
+     */
+    public static final int FIFTY_MOVE_LIMIT = 100;
+
+    private long[] hashes;
+    private int size;
+
+    /**
+     * Constructs an empty history.
+     */
+    public PositionHistory() {
+        hashes = new long[64];
+        size = 0;
+    }
+
+    /**
+     * Constructs a copy of the given history.
+     * @param other the history to copy
+     * @throws IllegalArgumentException if other is null
+     */
+    public PositionHistory(PositionHistory other) {
+        if (other == null) {
+            throw new IllegalArgumentException();
+        }
+        hashes = Arrays.copyOf(other.hashes, Math.max(64, other.size));
+        size = other.size;
+    }
+
+    /**
+     * Records that a move is being made from the given position.
+     * @param position the position being left
+     * @throws IllegalArgumentException if position is null
+     * @modifies <code>this</code>
+     */
+    public void push(ChessPosition position) {
+        if (position == null) {
+            throw new IllegalArgumentException();
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        hashes[size++] = position.getHash();
+    }
+
+    /**
+     * Removes the most recently pushed position.
+     * @throws IllegalStateException if the history is empty
+     * @modifies <code>this</code>
+     */
+    public void pop() {
+        if (size == 0) {
+            throw new IllegalStateException();
+        }
+        size--;
+    }
+
+    /**
+     * Removes every position from the history.
+     * @modifies <code>this</code>
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Gets the number of positions in the history.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Counts how many times the given position occurred earlier in this history, looking back
+     * only as far as its halfmove clock allows.
+     * @param position the current position, which follows the last position pushed
+     * @return the number of earlier occurrences of position
+     * @throws IllegalArgumentException if position is null
+     */
+    public int repetitions(ChessPosition position) {
+        if (position == null) {
+            throw new IllegalArgumentException();
+        }
+        long hash = position.getHash();
+        int oldest = Math.max(0, size - position.getHalfmoveClock());
+        int count = 0;
+        // the entry at size - 1 had the other player to move, so start two back
+        for (int i = size - 2; i >= oldest; i -= 2) {
+            if (hashes[i] == hash) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Determines whether the game is drawn by threefold repetition or the fifty move rule.
+     * @param position the current position, which follows the last position pushed
+     * @return true iff position occurred at least twice before, or its halfmove clock has
+     *   reached FIFTY_MOVE_LIMIT
+     * @throws IllegalArgumentException if position is null
+     */
+    public boolean isDraw(ChessPosition position) {
+        return drawReason(position) != null;
+    }
+
+    /**
+     * Describes why the game is drawn, if it is.
+     * @param position the current position, which follows the last position pushed
+     * @return "threefold repetition", "fifty move rule", or null if neither applies
+     * @throws IllegalArgumentException if position is null
+     */
+    public String drawReason(ChessPosition position) {
+        if (repetitions(position) >= 2) {
+            return "threefold repetition";
+        } else if (position.getHalfmoveClock() >= FIFTY_MOVE_LIMIT) {
+            return "fifty move rule";
+        }
+        return null;
+    }
+}
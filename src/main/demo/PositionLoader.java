@@ -0,0 +1,381 @@
+package demo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads large files of positions, one per line as FEN or EPD, into
+ * <code>PackedPositions</code> using several threads.
+ * <p>
+ * The file is cut on line boundaries into chunks of about <code>chunkBytes</code>, and each
+ * chunk is memory mapped and scanned in place by a worker: <code>Fen.parse</code> reads the
+ * mapped bytes through a thin <code>CharSequence</code> view, so no line is ever copied into a
+ * <code>String</code>. Each position's game result, if the line has one (see
+ * <code>Tuner.parseResult</code>), is kept alongside it, NaN otherwise. Blank lines and lines
+ * starting with '#' are skipped.
+ * <p>
+ * <code>load</code> gathers the whole file into one collection. For files that don't fit in
+ * memory, <code>stream</code> hands the chunks out in file order while the workers parse the
+ * next few ahead.
+ * <pre>
+ *   java demo.PositionLoader [-threads n] positions.epd...
+ * </pre>
+ */
+public class PositionLoader {
+
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+
+    /**
+     * The positions of one chunk of a file and their results.
+     */
+    public static class Chunk {
+        /**
+         * the positions, in file order
+         */
+        public final PackedPositions positions;
+        /**
+         * results[i] is the result of position i from white's point of view (1, 0.5 or 0), or
+         * NaN if its line has none; there may be more entries than positions
+         */
+        public final float[] results;
+        /**
+         * the byte offset in the file the chunk starts at
+         */
+        public final long offset;
+
+        Chunk(PackedPositions positions, float[] results, long offset) {
+            this.positions = positions;
+            this.results = results;
+            this.offset = offset;
+        }
+    }
+
+    private final int threads;
+    private final int chunkBytes;
+    private boolean requireResults = false;
+
+    /**
+     * Constructs a loader.
+     * @param threads how many chunks to parse at once
+     * @param chunkBytes about how many bytes of the file make a chunk
+     * @throws IllegalArgumentException if threads &lt; 1 or chunkBytes &lt; 1
+     */
+    public PositionLoader(int threads, int chunkBytes) {
+        if (threads < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Sets whether a line without a game result is an error, as it is for tuning data.
+     * @param requireResults true to reject lines without a result
+     * @modifies <code>this</code>
+     */
+    public void setRequireResults(boolean requireResults) {
+        this.requireResults = requireResults;
+    }
+
+    /**
+     * Loads every position in a file.
+     * @param path the file
+     * @return the positions and their results, in file order, with exactly one result per
+     *   position
+     * @throws IOException if the file can't be read
+     * @throws SerializationException if a line is ill-formatted
+     * @throws IllegalArgumentException if path is null
+     */
+    public Chunk load(Path path) throws IOException, SerializationException {
+        if (path == null) {
+            throw new IllegalArgumentException();
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        try (ChunkIterator it = stream(path)) {
+            while (it.hasNext()) {
+                chunks.add(it.nextChunk());
+            }
+        }
+        int total = 0;
+        for (Chunk chunk : chunks) {
+            total += chunk.positions.size();
+        }
+        PackedPositions positions = new PackedPositions(total);
+        float[] results = new float[total];
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.results, 0, results, positions.size(), chunk.positions.size());
+            positions.addAll(chunk.positions);
+        }
+        return new Chunk(positions, results, 0);
+    }
+
+    /**
+     * Starts reading a file chunk by chunk. Up to threads chunks are parsed ahead of the one
+     * being handed out, so memory use depends on the chunk size and not the file size.
+     * @param path the file
+     * @return the chunks in file order; must be closed
+     * @throws IOException if the file can't be opened
+     * @throws IllegalArgumentException if path is null
+     */
+    public ChunkIterator stream(Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException();
+        }
+        return new ChunkIterator(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Hands out the chunks of a file in order, parsing ahead on a pool of threads.
+     * <code>next</code> reports errors unchecked (SerializationException wrapped in an
+     * <code>IllegalStateException</code>); <code>nextChunk</code> reports them as they are.
+     */
+    public class ChunkIterator implements Iterator<Chunk>, Closeable {
+        private final FileChannel file;
+        private final ExecutorService pool;
+        private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        private final ByteBuffer window = ByteBuffer.allocate(4096);
+        private final long size;
+        private long offset = 0;
+
+        private ChunkIterator(FileChannel file) throws IOException {
+            this.file = file;
+            this.size = file.size();
+            this.pool = Executors.newFixedThreadPool(threads);
+            try {
+                for (int i = 0; i <= threads; i++) {
+                    submitNext();
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !pending.isEmpty();
+        }
+
+        /**
+         * Gets the next chunk.
+         * @throws NoSuchElementException if there are no more chunks
+         * @throws IOException if the file can't be read
+         * @throws SerializationException if a line in the chunk is ill-formatted
+         */
+        public Chunk nextChunk() throws IOException, SerializationException {
+            if (pending.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Chunk chunk;
+            try {
+                chunk = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SerializationException) {
+                    throw (SerializationException) e.getCause();
+                }
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            submitNext();
+            return chunk;
+        }
+
+        /**
+         * Gets the next chunk.
+         * @throws NoSuchElementException if there are no more chunks
+         * @throws UncheckedIOException if the file can't be read
+         * @throws IllegalStateException if a line in the chunk is ill-formatted
+         */
+        @Override
+        public Chunk next() {
+            try {
+                return nextChunk();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (SerializationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            pool.shutdownNow();
+            pending.clear();
+            file.close();
+        }
+
+        /**
+         * maps the next chunk of the file and queues it for parsing
+         */
+        private void submitNext() throws IOException {
+            if (offset >= size) {
+                return;
+            }
+            long start = offset;
+            long end = lineEnd(start + chunkBytes);
+            offset = end;
+            MappedByteBuffer bytes = file.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            pending.add(pool.submit(() -> parse(bytes, start)));
+        }
+
+        /**
+         * finds the offset just past the first newline at or after from, or the file size
+         */
+        private long lineEnd(long from) throws IOException {
+            // a mapping can't be over 2GB, so a chunk can't be either
+            long limit = Math.min(size, offset + Integer.MAX_VALUE);
+            long pos = Math.min(from, limit);
+            while (pos < limit) {
+                window.clear();
+                int n = file.read(window, pos);
+                if (n <= 0) {
+                    break;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (window.get(i) == '\n') {
+                        return Math.min(pos + i + 1, limit);
+                    }
+                }
+                pos += n;
+            }
+            return limit;
+        }
+    }
+
+    /**
+     * parses the lines of one mapped chunk
+     */
+    private Chunk parse(ByteBuffer bytes, long offset) throws SerializationException {
+        ByteChars text = new ByteChars(bytes);
+        int length = text.length();
+        PackedPositions positions = new PackedPositions(Math.max(16, length / 64));
+        float[] results = new float[Math.max(16, length / 64)];
+        int count = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && bytes.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && bytes.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            int start = Fen.skipSpaces(text, lineStart, lineEnd);
+            if (start < lineEnd && text.charAt(start) != '#') {
+                try {
+                    int pos = Fen.parse(text, start, lineEnd, positions);
+                    float result = Tuner.parseResult(text, pos, lineEnd);
+                    if (requireResults && Float.isNaN(result)) {
+                        positions.truncate(positions.size() - 1);
+                        throw new SerializationException("missing result");
+                    }
+                    if (count == results.length) {
+                        results = Arrays.copyOf(results, count * 2);
+                    }
+                    results[count++] = result;
+                } catch (SerializationException e) {
+                    throw new SerializationException("line at byte " + (offset + lineStart) + ": " + e.getMessage());
+                }
+            }
+            lineStart = next;
+        }
+        return new Chunk(positions, results, offset);
+    }
+
+    /**
+     * a read only view of a byte buffer as Latin-1 characters, without copying
+     */
+    static class ByteChars implements CharSequence {
+        private final ByteBuffer bytes;
+
+        ByteChars(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Loads the given files and reports how many positions they hold and how fast they were
+     * read.
+     * @param args [-threads n] followed by the files
+     */
+    public static void main(String[] args) throws IOException, SerializationException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: java demo.PositionLoader [-threads n] positions.epd...");
+            System.exit(1);
+        }
+        PositionLoader loader = new PositionLoader(threads, DEFAULT_CHUNK_BYTES);
+        for (String file : files) {
+            long start = System.nanoTime();
+            long positions = 0;
+            long labeled = 0;
+            try (ChunkIterator it = loader.stream(Paths.get(file))) {
+                while (it.hasNext()) {
+                    Chunk chunk = it.nextChunk();
+                    positions += chunk.positions.size();
+                    for (int i = 0; i < chunk.positions.size(); i++) {
+                        labeled += Float.isNaN(chunk.results[i]) ? 0 : 1;
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d positions (%d with results) in %.2f s, %.0f positions/s%n",
+                    file, positions, labeled, seconds, positions / seconds);
+        }
+    }
+}
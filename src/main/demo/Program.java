@@ -10,6 +10,11 @@ import java.io.*;
  */
 public class Program {
 
+    /**
+     * the running command line interface, or null before main starts it
+     */
+    private static ProgramStateMachine machine = null;
+
 
 
 
@@ -21,12 +26,16 @@ public class Program {
      * @param args command line args
      */
     public static void main(String[] args) {
-        ProgramStateMachine machine = new ProgramStateMachine();
+        machine = new ProgramStateMachine();
+        String journal = System.getProperty("chess.journal");
+        if (journal != null) {
+            machine.openJournal(journal);
+        }
         machine.start();
         while (machine.update()) {}
     }
 
     public static ChessPosition getChessPosition() {
-        return ProgramStateMachine.chessPosition;
+        return machine == null ? null : machine.getChessPosition();
     }
 }
\ No newline at end of file
@@ -1,11 +1,24 @@
 package demo;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import javax.management.JMException;
 
 // a state machine used to model the welcome screen and the pvp chess screen
 public class ProgramStateMachine extends StateMachine {
@@ -38,6 +51,11 @@ public class ProgramStateMachine extends StateMachine {
                     "load <filepath> pvb     -- load a game from a file and play against a bot.\n" +
                     "exit|quit               -- exit this program.\n" +
                     "enable|disable <attr>   -- enable or disable an attribute.\n" +
+                    "loadeval <filepath>     -- load tuned evaluation weights from a file.\n" +
+                    "tablebase <directory>   -- let the bot use the endgame tables in a directory.\n" +
+                    "book <filepath>         -- let the bot play openings from a book file.\n" +
+                    "journal <filepath>      -- record every move in a journal and resume an unfinished game.\n" +
+                    "bench [depth]           -- search fixed positions and show the node signature and speed.\n" +
                     "help                    -- show this message.\n" +
                     "manual                  -- show a more detailed manual.";
 
@@ -48,7 +66,12 @@ public class ProgramStateMachine extends StateMachine {
                     "return                  -- return to welcome screen.\n" +
                     "help                    -- show this message.\n" +
                     "setply <num>            -- sets the search depth for the bot (3 by default, don't recommend higher).\n"+
-                    "getply                  -- outputs the ply the bot is currently searching to";
+                    "getply                  -- outputs the ply the bot is currently searching to\n" +
+                    "level <name>            -- sets the bot's difficulty: beginner, easy, medium, hard or expert.\n" +
+                    "mate <num>              -- checks whether the side to move can force mate in num moves.\n" +
+                    "strategy alphabeta|mcts -- choose the bot's search algorithm.\n" +
+                    "threads <num>           -- sets how many threads the bot searches with.\n" +
+                    "stats                   -- show what the bot's last search did.";
 
     private static final String manual =
             "move|mv <coordinate> <coordinate>\n" +
@@ -60,8 +83,34 @@ public class ProgramStateMachine extends StateMachine {
                     "   In this program, d1, D1, 1d, 1D are all acceptable.\n" +
                     "   * Only available in a game\n\n" +
                     "save <filepath>\n" +
-                    "   Save current game to a given file.\n" +
+                    "   Save current game to a given file. A name ending in .pgn saves every\n" +
+                    "       move as PGN, and one ending in .fen or .epd saves the position\n" +
+                    "       as a FEN record.\n" +
                     "   * Only available in a game\n\n" +
+                    "mate <num>\n" +
+                    "   Prove or disprove that the player to move can force checkmate\n" +
+                    "       within num of their own moves, and show the mating line.\n" +
+                    "   * Only available in a game\n\n" +
+                    "level beginner|easy|medium|hard|expert\n" +
+                    "   Set how strong the bot plays. Each level limits how deep the\n" +
+                    "       bot searches and how long it may think: from a quarter of\n" +
+                    "       a second for beginner up to ten seconds for expert.\n" +
+                    "       The default is medium. setply overrides the depth.\n" +
+                    "   * Only available in a game against a bot\n\n" +
+                    "strategy alphabeta|mcts\n" +
+                    "   Choose how the bot searches: alphabeta looks a fixed number of\n" +
+                    "       moves ahead (see setply), mcts runs a Monte Carlo tree search.\n" +
+                    "   * Only available in a game against a bot\n\n" +
+                    "threads <num>\n" +
+                    "   Set how many threads the bot searches with. Alphabeta's extra\n" +
+                    "       threads search ahead to order the moves of the main one.\n" +
+                    "   * Only available in a game against a bot\n\n" +
+                    "stats\n" +
+                    "   Show statistics of the bot's last search: nodes, nodes per\n" +
+                    "       second, time per depth, effective branching factor, how\n" +
+                    "       often the first move caused a cutoff and how often the\n" +
+                    "       best move table was hit.\n" +
+                    "   * Only available in a game against a bot\n\n" +
                     "return\n" +
                     "   Return to the welcome screen.\n" +
                     "   * Only available in a game\n\n" +
@@ -73,9 +122,11 @@ public class ProgramStateMachine extends StateMachine {
                     "   * Only available in welcome screen\n\n" +
                     "load <filepath> pvp\n" +
                     "   Load a previous game from a file and control both sides.\n" +
+                    "   The file may also hold a FEN record, or a PGN game if it ends in .pgn.\n" +
                     "   * Only available in welcome screen\n\n" +
                     "load <filepath> pvb\n" +
                     "   Load a previous game from a file and play against a bot.\n" +
+                    "   The file may also hold a FEN record, or a PGN game if it ends in .pgn.\n" +
                     "   * Only available in welcome screen\n\n" +
                     "exit|quit\n" +
                     "   Exit the program.\n\n" +
@@ -85,57 +136,65 @@ public class ProgramStateMachine extends StateMachine {
                     "       show_help - this attribute decides whether the program will\n" +
                     "           show help message everytime an input prompt appears\n" +
                     "       debug_mode - this attribute decides whether the program\n" +
-                    "           will print stack traces on failures";
+                    "           will print stack traces on failures\n\n" +
+                    "loadeval <filepath>\n" +
+                    "   Load piece values and position bonus tables written by\n" +
+                    "       the tuner (java demo.Tuner) and use them for the bot.\n\n" +
+                    "tablebase <directory>\n" +
+                    "   Open the endgame tables written by the generator\n" +
+                    "       (java demo.TablebaseGenerator) in a directory. The bot\n" +
+                    "       plays perfectly once few enough pieces are left.\n\n" +
+                    "book <filepath>\n" +
+                    "   Open an opening book. While the game is in the book, the\n" +
+                    "       bot plays book moves instead of searching.\n\n" +
+                    "journal <filepath> [always|interval|never]\n" +
+                    "   Record every move of every game in a journal file as it is made.\n" +
+                    "       If the journal holds a game that never finished, e.g.\n" +
+                    "       because the program crashed, that game is resumed, against\n" +
+                    "       the bot if it was a bot game. The optional sync policy says\n" +
+                    "       when moves are forced to the disk: after every move (always,\n" +
+                    "       the default), every " + GameJournal.DEFAULT_INTERVAL_MILLIS + " ms (interval), or never, which\n" +
+                    "       survives the program crashing but not the machine. Setting\n" +
+                    "       -Dchess.journal=<filepath> opens a journal at startup, and\n" +
+                    "       -Dchess.journal.sync=<policy> sets the default policy.\n\n" +
+                    "bench [depth]\n" +
+                    "   Search a fixed set of positions to a fixed depth (" + Bench.DEFAULT_DEPTH + " by\n" +
+                    "       default) on one thread, then show the total nodes and\n" +
+                    "       nodes per second. The node total only changes when the\n" +
+                    "       search itself does, so it works as a signature of it.";
 
     private final String[] playerText = { "white", "black" };
 
-    public static ChessPosition chessPosition;
+    /**
+     * the game being played, or null before the first one starts
+     */
+    private Game game = null;
 
-    private Scanner consoleIn;
-    private boolean showHelp = true;
-    private boolean isDebug = false;
+    /**
+     * where every move is recorded, or null; journalGame is the id of the current game in it, 0 if none
+     */
+    private GameJournal journal = null;
+    private int journalGame = 0;
 
     /**
-     * returns a board in starting position
+     * the endgame tables handed to every bot, or null
      */
-    private static ChessPosition standardBoard() {
-        ChessPosition chess = new ChessPosition(Player.WHITE);
-        /* Starting position
-         * R N B Q K B N R
-         * P P P P P P P P
-         *   #   #   #   #
-         * #   #   #   #
-         *   #   #   #   #
-         * #   #   #   #
-         * P P P P P P P P
-         * R N B Q K B N R
-         */
-        // White
-        chess.populate(Piece.WROOK, 0, 7);
-        chess.populate(Piece.WKNIGHT, 1, 7);
-        chess.populate(Piece.WBISHOP, 2, 7);
-        chess.populate(Piece.WQUEEN, 3, 7);
-        chess.populate(Piece.WKING, 4, 7);
-        chess.populate(Piece.WBISHOP, 5, 7);
-        chess.populate(Piece.WKNIGHT, 6, 7);
-        chess.populate(Piece.WROOK, 7, 7);
-        for (int i = 0; i < 8; i++) {
-            chess.populate(Piece.WPAWN, i, 6);
-        }
-        // Black
-        chess.populate(Piece.BROOK, 0, 0);
-        chess.populate(Piece.BKNIGHT, 1, 0);
-        chess.populate(Piece.BBISHOP, 2, 0);
-        chess.populate(Piece.BQUEEN, 3, 0);
-        chess.populate(Piece.BKING, 4, 0);
-        chess.populate(Piece.BBISHOP, 5, 0);
-        chess.populate(Piece.BKNIGHT, 6, 0);
-        chess.populate(Piece.BROOK, 7, 0);
-        for (int i = 0; i < 8; i++) {
-            chess.populate(Piece.BPAWN, i, 1);
-        }
-        return chess;
-    }
+    private Tablebase tablebase = null;
+
+    /**
+     * the opening book handed to every bot, or null
+     */
+    private OpeningBook book = null;
+
+    /**
+     * live metrics of the bots, published over JMX as demo:type=EngineMetrics,name=game the first time a
+     * bot is created
+     */
+    private static EngineMetrics metrics = null;
+
+    private Scanner consoleIn;
+    private boolean showHelp = true;
+    private boolean isDebug = false;
 
     /**
      * turns given attr on or off depending on val (affects UI)
@@ -165,6 +224,73 @@ public class ProgramStateMachine extends StateMachine {
             shutdown();
         } else if (cmd.equals("manual")) {
             System.out.println(manual);
+        } else if (cmd.equals("loadeval")) {
+            String filename = s.nextLine().trim();
+            try {
+                BoardEval.loadWeights(filename);
+                System.out.println("Loaded evaluation weights from " + filename);
+            } catch (IOException e) {
+                if (isDebug) {
+                    e.printStackTrace();
+                }
+                System.out.println("error reading or locating file: " + filename);
+            } catch (SerializationException e) {
+                if (isDebug) {
+                    e.printStackTrace();
+                }
+                System.out.println("given weights file is ill-formatted.");
+            }
+        } else if (cmd.equals("tablebase")) {
+            String directory = s.nextLine().trim();
+            try {
+                Tablebase opened = new Tablebase(Paths.get(directory), Tablebase.DEFAULT_CACHE_BLOCKS);
+                if (tablebase != null) {
+                    tablebase.close();
+                }
+                tablebase = opened;
+                if (bot != null) {
+                    bot.setTablebase(tablebase);
+                }
+                System.out.println("Opened " + tablebase.getTableCount() + " tables with up to "
+                        + tablebase.getMaxMen() + " pieces from " + directory);
+            } catch (IOException | InvalidPathException e) {
+                if (isDebug) {
+                    e.printStackTrace();
+                }
+                System.out.println("error reading or locating directory: " + directory);
+            } catch (SerializationException e) {
+                if (isDebug) {
+                    e.printStackTrace();
+                }
+                System.out.println("a table in the directory is ill-formatted.");
+            }
+        } else if (cmd.equals("bench")) {
+            int depth = Bench.DEFAULT_DEPTH;
+            if (s.hasNext()) {
+                try {
+                    depth = Integer.parseInt(s.next());
+                } catch (NumberFormatException e) {
+                    depth = 0;
+                }
+            }
+            if (depth <= 0) {
+                System.out.println("depth must be a positive integer");
+            } else {
+                Bench.run(depth, System.out);
+            }
+        } else if (cmd.equals("journal")) {
+            String filename = s.nextLine().trim();
+            GameJournal.Sync sync = defaultJournalSync();
+            int space = filename.lastIndexOf(' ');
+            if (space > 0 && GameJournal.Sync.parse(filename.substring(space + 1)) != null) {
+                sync = GameJournal.Sync.parse(filename.substring(space + 1));
+                filename = filename.substring(0, space).trim();
+            }
+            if (openJournal(filename, sync) && commandLineGame) {
+                transitionTo("pvp");
+            }
+        } else if (cmd.equals("book")) {
+            openBook(s.nextLine().trim());
         } else {
             return false;
         }
@@ -279,13 +405,15 @@ public class ProgramStateMachine extends StateMachine {
             System.out.println("Upper-case letters represents white; lower-case letters");
             System.out.println("represents black");
             System.out.println();
-            BoardPresent.present(System.out, chessPosition.getBoard());
+            BoardPresent.present(System.out, game.getPosition().getBoard());
 
             if (showHelp) {
                 System.out.println(pvpHelp);
             }
         }, () -> {
             // onUpdate
+            ChessPosition chessPosition = game.getPosition();
+            PositionHistory history = game.getHistory();
             // first check for checkmate and stalemate
             if (chessPosition.possibleMoves().isEmpty()) {
                 if (chessPosition.isInCheck(chessPosition.getPlayer())) {
@@ -298,12 +426,18 @@ public class ProgramStateMachine extends StateMachine {
                 // return to main menu
                 transitionTo("choose board");
 
+            } else if (history.isDraw(chessPosition)) {
+                System.out.println("Draw by " + history.drawReason(chessPosition) + "!");
+                // return to main menu
+                transitionTo("choose board");
+
             } else if (bot != null && chessPosition.getPlayer() != user) {
                 //we know the user is playing against a bot, so let the bot move and then continue
                 System.out.println("Bot is thinking...\n");
-                Move botMove = bot.getBestMove(chessPosition);
-                System.out.println("Bot moves " + botMove + "\n");
-                chessPosition = chessPosition.move(botMove);
+                Move botMove = bot.getBestMove(chessPosition, history);
+                System.out.println("Bot moves " + botMove + " (" + bot.getLastNodes() + " nodes, "
+                        + bot.getLastNanos() / 1000000 + " ms)\n");
+                play(botMove);
                 transitionTo("pvp");
             } else {
 
@@ -332,10 +466,10 @@ public class ProgramStateMachine extends StateMachine {
                             System.out.println("There is an ill-formatted position.");
                             return;
                         }
-                        if (!chessPosition.possibleMoves().contains(m)) {
+                        if (!isLegalMove(m)) {
                             System.out.println("This is not a valid move.");
                         } else {
-                            chessPosition = chessPosition.move(m);
+                            play(m);
                             // display the board, then the command interface again
                             //TODO
                             transitionTo("pvp");
@@ -362,19 +496,13 @@ public class ProgramStateMachine extends StateMachine {
                             }
                         }
 
-                        FileOutputStream fout = null;
                         try {
-                            fout = new FileOutputStream(filename);
-                            ChessSerializer.serialize(fout, chessPosition);
+                            saveGame(filename);
                         } catch (IOException e) {
                             if (isDebug) {
                                 e.printStackTrace();
                             }
                             System.out.println(errorOccured);
-                        } finally {
-                            if (fout != null) {
-                                fout.close();
-                            }
                         }
 
                     } else if (next.equals("setply")) {
@@ -391,9 +519,85 @@ public class ProgramStateMachine extends StateMachine {
                             System.out.println("Bad format to 'setply' command");
                         }
 
+                    } else if (next.equals("mate")) {
+                        int moves;
+                        try {
+                            moves = Integer.parseInt(s.next());
+                        } catch (NumberFormatException e) {
+                            System.out.println("Bad format to 'mate' command");
+                            return;
+                        }
+                        if (moves <= 0 || moves > 100) {
+                            System.out.println("number of moves must be between 1 and 100");
+                            return;
+                        }
+                        String player = playerText[chessPosition.getPlayer().ordinal()];
+                        MateSolver.Result result = new MateSolver().solve(chessPosition, moves);
+                        if (result.proven) {
+                            System.out.println(player + " mates in " + moves + ": " + result.line);
+                        } else if (result.disproven) {
+                            System.out.println(player + " has no forced mate in " + moves);
+                        } else {
+                            System.out.println("Gave up after " + result.nodes + " nodes");
+                        }
+
+                    } else if (next.equals("level")) {
+                        if (bot == null) {
+                            System.out.println("Not playing against a bot");
+                            return;
+                        }
+                        Difficulty difficulty = Difficulty.parse(s.next());
+                        if (difficulty == null) {
+                            System.out.println("Bad format to 'level' command");
+                        } else {
+                            bot.setDifficulty(difficulty);
+                            System.out.println("Bot's level set to " + difficulty.name().toLowerCase() + " (at most "
+                                    + difficulty.getTimeLimit() + " ms per move)\n");
+                        }
+
+                    } else if (next.equals("strategy") || next.equals("threads")) {
+                        if (bot == null) {
+                            System.out.println("Not playing against a bot");
+                            return;
+                        }
+                        String arg = s.next();
+                        if (next.equals("strategy")) {
+                            if (arg.equals("alphabeta")) {
+                                bot.setStrategy(ChessBot.Strategy.ALPHA_BETA);
+                            } else if (arg.equals("mcts")) {
+                                bot.setStrategy(ChessBot.Strategy.MCTS);
+                            } else {
+                                System.out.println("Bad format to 'strategy' command");
+                                return;
+                            }
+                            System.out.println("Bot's strategy set to " + arg + "\n");
+                        } else {
+                            int threads;
+                            try {
+                                threads = Integer.parseInt(arg);
+                            } catch (NumberFormatException e) {
+                                System.out.println("Bad format to 'threads' command");
+                                return;
+                            }
+                            if (threads <= 0) {
+                                System.out.println("threads must be a positive integer");
+                            } else {
+                                bot.setThreads(threads);
+                                System.out.println("Bot's threads set to " + threads + "\n");
+                            }
+                        }
+
+                    } else if (next.equals("stats")) {
+                        if (bot == null) {
+                            System.out.println("Not playing against a bot");
+                            return;
+                        }
+                        System.out.println(bot.getLastStats() + "\n");
+
                     } else if (next.equals("getply")) {
                         System.out.println("Bot is searching " + bot.getPly() + " moves ahead in the game\n");
                     } else if (next.equals("return")) {
+                        getMetrics().detach(bot);
                         bot = null;
                         user = null;
                         transitionTo("choose board");
@@ -425,10 +629,11 @@ public class ProgramStateMachine extends StateMachine {
      * @param gameType one of pvp or pvb, depending whether user is playing alone or against bot
      */
     public void startGame(String gameType) {
-        chessPosition = standardBoard();
+        game = new Game();
         if (gameType.equalsIgnoreCase("pvb")) {
             selectUserColor();
         } else if (gameType.equalsIgnoreCase("pvp")) {
+            journalNewGame(false);
             if (commandLineGame) {
                 transitionTo("pvp");
             }
@@ -437,6 +642,217 @@ public class ProgramStateMachine extends StateMachine {
         }
     }
 
+    /**
+     * opens an opening book for the current bot and every bot created after it
+     *
+     * @param fileName the book file
+     * @return true iff the book was opened
+     */
+    public boolean openBook(String fileName) {
+        try {
+            book = new OpeningBook(Paths.get(fileName));
+        } catch (IOException | InvalidPathException e) {
+            if (isDebug) {
+                e.printStackTrace();
+            }
+            System.out.println("error reading or locating file: " + fileName);
+            return false;
+        } catch (SerializationException e) {
+            if (isDebug) {
+                e.printStackTrace();
+            }
+            System.out.println("given book file is ill-formatted.");
+            return false;
+        }
+        if (bot != null) {
+            bot.setOpeningBook(book);
+        }
+        System.out.println("Opened a book of " + book.size() + " moves from " + fileName);
+        return true;
+    }
+
+    /**
+     * opens a journal with the sync policy from -Dchess.journal.sync, ALWAYS by default; see
+     * openJournal(String, GameJournal.Sync)
+     *
+     * @param fileName the journal file, created if it doesn't exist
+     * @return true iff a game was resumed
+     */
+    public boolean openJournal(String fileName) {
+        return openJournal(fileName, defaultJournalSync());
+    }
+
+    /**
+     * opens a journal to record moves in from now on. If it holds an unfinished game, the most recently
+     * started one is resumed, against a new bot if it was a bot game; otherwise the current game, if any,
+     * is recorded from its start
+     *
+     * @param fileName the journal file, created if it doesn't exist
+     * @param sync when moves are forced to the disk
+     * @return true iff a game was resumed
+     */
+    public boolean openJournal(String fileName, GameJournal.Sync sync) {
+        closeJournal();
+        try {
+            journal = new GameJournal(Paths.get(fileName), sync, GameJournal.DEFAULT_INTERVAL_MILLIS);
+        } catch (IOException | InvalidPathException e) {
+            if (isDebug) {
+                e.printStackTrace();
+            }
+            System.out.println("error reading or creating file: " + fileName);
+            return false;
+        } catch (SerializationException e) {
+            if (isDebug) {
+                e.printStackTrace();
+            }
+            System.out.println("given journal file is ill-formatted.");
+            return false;
+        }
+        if (journal.getTruncatedBytes() > 0) {
+            System.out.println("Dropped " + journal.getTruncatedBytes() + " bytes of an unfinished write from " + fileName);
+        }
+        Map.Entry<Integer, Game> last = null;
+        for (Map.Entry<Integer, Game> entry : journal.getRecovered().entrySet()) {
+            last = entry;
+        }
+        if (last == null) {
+            if (game != null) {
+                journalNewGame(bot != null);
+            }
+            System.out.println("Recording moves in " + fileName);
+            return false;
+        }
+        game = last.getValue();
+        journalGame = last.getKey();
+        Player botSide = journal.getBot(journalGame);
+        if (botSide == null) {
+            getMetrics().detach(bot);
+            bot = null;
+            user = null;
+            System.out.println("Resumed an unfinished game of " + game.getMoves().size() + " moves from " + fileName);
+        } else {
+            user = botSide == Player.WHITE ? Player.BLACK : Player.WHITE;
+            newBot();
+            System.out.println("Resumed an unfinished game of " + game.getMoves().size() + " moves against the bot from "
+                    + fileName + "; you play " + playerText[user.ordinal()]);
+        }
+        return true;
+    }
+
+    /**
+     * gets the journal sync policy named by -Dchess.journal.sync, ALWAYS if it isn't set or isn't understood
+     */
+    private static GameJournal.Sync defaultJournalSync() {
+        String name = System.getProperty("chess.journal.sync");
+        if (name == null) {
+            return GameJournal.Sync.ALWAYS;
+        }
+        GameJournal.Sync sync = GameJournal.Sync.parse(name);
+        if (sync == null) {
+            System.out.println("unknown journal sync policy " + name + ", so moves are synced always");
+            return GameJournal.Sync.ALWAYS;
+        }
+        return sync;
+    }
+
+    /**
+     * plays a move in the current game, recording it in the journal
+     */
+    private void play(Move m) {
+        game.play(m);
+        if (journal != null && journalGame != 0) {
+            try {
+                journal.recordMove(journalGame, m);
+                if (game.getResult() != Game.Result.ONGOING) {
+                    journal.endGame(journalGame);
+                    journalGame = 0;
+                }
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
+    }
+
+    /**
+     * ends the game being recorded in the journal, if any, and starts recording the current one
+     *
+     * @param botGame true iff the user plays against the bot, which has the other colour
+     */
+    private void journalNewGame(boolean botGame) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            if (journalGame != 0) {
+                journal.endGame(journalGame);
+            }
+            Player botSide = null;
+            if (botGame && user != null) {
+                botSide = user == Player.WHITE ? Player.BLACK : Player.WHITE;
+            }
+            journalGame = journal.startGame(game.getStart(), botSide);
+            for (Move m : game.getMoves()) {
+                journal.recordMove(journalGame, m);
+            }
+        } catch (IOException e) {
+            journalFailed(e);
+        }
+    }
+
+    private void journalFailed(IOException e) {
+        if (isDebug) {
+            e.printStackTrace();
+        }
+        System.out.println("could not write to the game journal, so moves are no longer recorded.");
+        closeJournal();
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                if (isDebug) {
+                    e.printStackTrace();
+                }
+            }
+            journal = null;
+            journalGame = 0;
+        }
+    }
+
+    /**
+     * saves the current game: all of its moves as PGN if the file name ends in .pgn, otherwise
+     * the current position, as a FEN record if the name ends in .fen or .epd
+     *
+     * @param fileName the file to save to
+     * @throws IOException if the file can't be written
+     */
+    public void saveGame(String fileName) throws IOException {
+        try (FileOutputStream fout = new FileOutputStream(fileName)) {
+            if (isPgnFile(fileName)) {
+                Map<String, String> tags = new LinkedHashMap<>();
+                tags.put("Event", "Casual game");
+                tags.put("Site", "?");
+                tags.put("Date", new SimpleDateFormat("yyyy.MM.dd").format(new Date()));
+                tags.put("Round", "-");
+                tags.put("White", "?");
+                tags.put("Black", "?");
+                Writer w = new BufferedWriter(new OutputStreamWriter(fout, StandardCharsets.UTF_8));
+                PgnWriter.write(PgnGame.of(tags, game), w);
+                w.flush();
+            } else if (ChessSerializer.isFenFile(fileName)) {
+                ChessSerializer.serializeFen(fout, game.getPosition());
+            } else {
+                ChessSerializer.serialize(fout, game.getPosition());
+            }
+        }
+    }
+
+    private static boolean isPgnFile(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".pgn");
+    }
+
     /**
      * loads a saved game
      *
@@ -449,10 +865,24 @@ public class ProgramStateMachine extends StateMachine {
         FileInputStream fin = null;
         try {
             fin = new FileInputStream(fileName);
-            chessPosition = ChessSerializer.deserialize(fin);
+            if (isPgnFile(fileName)) {
+                PgnReader reader = new PgnReader(fin.getChannel());
+                if (!reader.hasNext()) {
+                    throw new SerializationException("no game");
+                }
+                PgnGame pgn = reader.next();
+                if (pgn.getError() != null) {
+                    System.out.println("only the first " + pgn.getMoves().size() + " moves were loaded: "
+                            + pgn.getError());
+                }
+                game = pgn.toGame();
+            } else {
+                game = new Game(ChessSerializer.deserialize(fin));
+            }
             if (gameType.equalsIgnoreCase("pvb")) {
                 selectUserColor();
             } else if (gameType.equalsIgnoreCase("pvp")) {
+                journalNewGame(false);
                 if (commandLineGame) {
                     transitionTo("pvp");
                 }
@@ -460,7 +890,7 @@ public class ProgramStateMachine extends StateMachine {
                 System.out.println("Invalid option supplied to 'load' command");
             }
 
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             if (isDebug) {
                 e.printStackTrace();
             }
@@ -502,12 +932,24 @@ public class ProgramStateMachine extends StateMachine {
             }
             user = choice.equals("w") ? Player.WHITE : Player.BLACK;
         }
-        bot = new ChessBot();
+        newBot();
+        journalNewGame(true);
         if (commandLineGame) {
             transitionTo("pvp");
         }
     }
 
+    /**
+     * replaces the bot with a new one using the tablebase and opening book
+     */
+    private void newBot() {
+        getMetrics().detach(bot);
+        bot = new ChessBot();
+        bot.setTablebase(tablebase);
+        bot.setOpeningBook(book);
+        getMetrics().attach(bot);
+    }
+
     public ProgramStateMachine(boolean GUIGame) {
         this.commandLineGame = false;
         initializeStates();
@@ -541,19 +983,75 @@ public class ProgramStateMachine extends StateMachine {
         consoleIn = new Scanner(System.in);
         System.out.println(terminalSizeMsg);
         if (commandLineGame) {
-            transitionTo("pvp");
+            // a game resumed from a journal before starting carries on where it was
+            transitionTo(game != null ? "pvp" : "choose board");
         }
     }
 
+    @Override
+    public void shutdown() {
+        closeJournal();
+        super.shutdown();
+    }
+
+    /**
+     * gets the metrics every bot is attached to, registering them with JMX on first use. The game goes on
+     * without JMX if they can't be registered
+     */
+    private static synchronized EngineMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new EngineMetrics();
+            try {
+                metrics.register("game");
+            } catch (JMException e) {
+                System.err.println("could not register engine metrics: " + e.getMessage());
+            }
+        }
+        return metrics;
+    }
+
     /////////////////////////////////////
     // Getter Methods used by BoardGUI //
     /////////////////////////////////////
     public ChessPosition getChessPosition() {
-        return chessPosition;
+        return game == null ? null : game.getPosition();
+    }
+
+    public Game getGame() {
+        return game;
+    }
+
+    /**
+     * checks whether a move entered by a player is legal in the current position, recording the check
+     * as a MoveValidationEvent
+     */
+    public boolean isLegalMove(Move m) {
+        MoveValidationEvent event = new MoveValidationEvent();
+        event.begin();
+        boolean legal = game.getPosition().possibleMoves().contains(m);
+        if (event.shouldCommit()) {
+            event.positionHash = game.getPosition().getHash();
+            event.move = String.valueOf(m);
+            event.legal = legal;
+            event.commit();
+        }
+        return legal;
+    }
+
+    /**
+     * has the bot pick its move in the current position and plays it. The bot only picks legal moves, so
+     * unlike a player's move it isn't checked with isLegalMove
+     *
+     * @return the move played
+     */
+    public Move botMove() {
+        Move m = bot.getBestMove(game.getPosition(), game.getHistory());
+        move(m);
+        return m;
     }
 
     public void move(Move m) {
-        chessPosition = chessPosition.move(m);
+        play(m);
         if (commandLineGame) {
             transitionTo("pvp");
         }
@@ -563,6 +1061,10 @@ public class ProgramStateMachine extends StateMachine {
         user = p;
     }
 
+    public PositionHistory getHistory() {
+        return game == null ? null : game.getHistory();
+    }
+
     public ChessBot getBot() {
         return bot;
     }
@@ -0,0 +1,169 @@
+package demo;
+
+import java.util.Set;
+
+/**
+ * Reads and writes moves in Standard Algebraic Notation (SAN), e.g. <code>Nf3</code>,
+ * <code>exd5</code>, <code>R1e2+</code> or <code>Qh7#</code>.
+ * <p>
+ * Castling and promotion are written in SAN but cannot be played by <code>ChessPosition</code>,
+ * so moves using them are never parsed.
+ */
+public class San {
+
+    private static final String PIECE_LETTERS = "KQRBN";
+
+    /**
+     * Finds the legal move a SAN string describes. Check and annotation marks (+, #, !, ?) are
+     * ignored, as are a missing or extra capture mark and more disambiguation than needed.
+     * @param position the position the move is made from
+     * @param san the move
+     * @return the move, or null if no legal move matches, more than one does, or the move is
+     *   a castle or promotion
+     * @throws IllegalArgumentException if position or san is null
+     */
+    public static Move parse(ChessPosition position, String san) {
+        if (position == null || san == null) {
+            throw new IllegalArgumentException();
+        }
+        return parse(position, san, 0, san.length());
+    }
+
+    /**
+     * Finds the legal move described by the SAN in text[start, end), as parse(position, san)
+     * does, without creating a substring.
+     * @param position the position the move is made from
+     * @param text the text holding the move
+     * @param start the index of the first character of the move
+     * @param end the index one past the last character of the move
+     * @return the move, or null if no legal move matches, more than one does, or the move is
+     *   a castle or promotion
+     * @throws IllegalArgumentException if position or text is null, or start and end are not a
+     *   range in text
+     */
+    public static Move parse(ChessPosition position, CharSequence text, int start, int end) {
+        if (position == null || text == null || start < 0 || start > end || end > text.length()) {
+            throw new IllegalArgumentException();
+        }
+        while (end > start && "+#!?".indexOf(text.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        char letter = 'P';
+        if (end > start && PIECE_LETTERS.indexOf(text.charAt(start)) >= 0) {
+            letter = text.charAt(start);
+            start++;
+        }
+        // needs at least a destination square, and anything else (castling, "=Q") is not ours
+        if (end - start < 2 || !isFile(text.charAt(end - 2)) || !isRank(text.charAt(end - 1))) {
+            return null;
+        }
+        int toX = text.charAt(end - 2) - 'a';
+        int toY = '8' - text.charAt(end - 1);
+        int fromX = -1;
+        int fromY = -1;
+        for (int i = start; i < end - 2; i++) {
+            char c = text.charAt(i);
+            if (isFile(c)) {
+                fromX = c - 'a';
+            } else if (isRank(c)) {
+                fromY = '8' - c;
+            } else if (c != 'x' && c != '-' && c != ':') {
+                return null;
+            }
+        }
+
+        Board board = position.getBoard();
+        Move found = null;
+        for (Move move : position.possibleMoves()) {
+            if (move.moveToX != toX || move.moveToY != toY
+                    || fromX >= 0 && move.prevX != fromX || fromY >= 0 && move.prevY != fromY
+                    || letterOf(board.getPiece(move.prevX, move.prevY)) != letter) {
+                continue;
+            }
+            if (found != null) {
+                return null;
+            }
+            found = move;
+        }
+        return found;
+    }
+
+    /**
+     * Writes a legal move in SAN, with only as much disambiguation as needed and a + or # mark
+     * if it gives check or mate.
+     * @param position the position the move is made from
+     * @param move a legal move in position
+     * @return the move in SAN
+     * @throws IllegalArgumentException if position or move is null, or move is not legal
+     */
+    public static String format(ChessPosition position, Move move) {
+        if (position == null || move == null) {
+            throw new IllegalArgumentException();
+        }
+        Set<Move> moves = position.possibleMoves();
+        if (!moves.contains(move)) {
+            throw new IllegalArgumentException();
+        }
+        Board board = position.getBoard();
+        char letter = letterOf(board.getPiece(move.prevX, move.prevY));
+        boolean capture = board.getPiece(move.moveToX, move.moveToY) != null;
+        StringBuilder sb = new StringBuilder();
+        if (letter == 'P') {
+            if (capture) {
+                sb.append(file(move.prevX));
+            }
+        } else {
+            sb.append(letter);
+            boolean ambiguous = false;
+            boolean sameFile = false;
+            boolean sameRank = false;
+            for (Move other : moves) {
+                if (other.equals(move) || other.moveToX != move.moveToX || other.moveToY != move.moveToY
+                        || letterOf(board.getPiece(other.prevX, other.prevY)) != letter) {
+                    continue;
+                }
+                ambiguous = true;
+                sameFile |= other.prevX == move.prevX;
+                sameRank |= other.prevY == move.prevY;
+            }
+            if (ambiguous && (!sameFile || sameRank)) {
+                sb.append(file(move.prevX));
+            }
+            if (sameFile) {
+                sb.append(rank(move.prevY));
+            }
+        }
+        if (capture) {
+            sb.append('x');
+        }
+        sb.append(file(move.moveToX)).append(rank(move.moveToY));
+        ChessPosition next = position.move(move);
+        if (next.isInCheck(next.getPlayer())) {
+            sb.append(next.possibleMoves().isEmpty() ? '#' : '+');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * the SAN letter of a piece, P for pawns
+     */
+    private static char letterOf(Piece piece) {
+        return Character.toUpperCase(piece.getShortHand().charAt(1));
+    }
+
+    private static boolean isFile(char c) {
+        return c >= 'a' && c <= 'h';
+    }
+
+    private static boolean isRank(char c) {
+        return c >= '1' && c <= '8';
+    }
+
+    private static char file(int x) {
+        return (char) ('a' + x);
+    }
+
+    private static char rank(int y) {
+        return (char) ('8' - y);
+    }
+}
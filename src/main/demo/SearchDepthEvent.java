@@ -0,0 +1,40 @@
+package demo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event committed by <code>ChessBot</code> each time an iteration of its alpha
+ * beta search finishes. The event's duration is that of the iteration.
+ */
+@Name("demo.SearchDepth")
+@Label("Search Depth")
+@Category({"Chess", "Search"})
+@Description("An iteration of the bot's alpha beta search finished")
+@StackTrace(false)
+public class SearchDepthEvent extends Event {
+
+    @Label("Position Hash")
+    long positionHash;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Score")
+    @Description("Value of the best move for the player to move, in centipawns")
+    int score;
+
+    @Label("Nodes")
+    @Description("Nodes searched since the start of the search")
+    long nodes;
+
+    @Label("Elapsed")
+    @Description("Time since the start of the search")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+}
@@ -0,0 +1,242 @@
+package demo;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Attributes search time to the phases that make it up: move generation, check detection,
+ * position copies and evaluation.
+ * <p>
+ * Profiling is off unless the JVM is started with <code>-Dchess.profile=true</code>, e.g.
+ * <pre>
+ *   java -Dchess.profile=true -cp build/classes demo.Program
+ * </pre>
+ * The instrumented methods test <code>ENABLED</code>, a static final, before doing anything, so
+ * when profiling is off the JIT folds the test away and they cost what they did before. When it
+ * is on, every instrumented call reads <code>System.nanoTime</code> on entry and exit, and
+ * <code>ChessBot</code> prints a breakdown with <code>report</code> after each search.
+ * <p>
+ * Times are exclusive: while a phase calls into another (possibleMoves copies positions and
+ * tests them for check) the time counts for the inner phase only, so the phases add up to no
+ * more than the search took. Each thread keeps its own counters, which report adds together.
+ * The counters of threads that have died, e.g. the workers of each <code>MctsSearch</code>, are
+ * folded into one total and dropped, so their number stays bounded by the live threads.
+ */
+public class SearchProfiler {
+
+    /**
+     * the phases time is attributed to
+     */
+    public enum Phase {
+        MOVE_GENERATION("move generation"),
+        CHECK_DETECTION("check detection"),
+        POSITION_COPY("position copy"),
+        EVALUATION("evaluation");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * whether profiling is on, from the chess.profile system property
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("chess.profile");
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * how deeply phases can nest; deeper calls are counted but not timed
+     */
+    private static final int MAX_NESTING = 16;
+
+    // guarded by profilers, as are retiredCalls and retiredNanos, the counters of dead threads
+    private static final List<SearchProfiler> profilers = new ArrayList<>();
+    private static final long[] retiredCalls = new long[PHASES.length];
+    private static final long[] retiredNanos = new long[PHASES.length];
+
+    private static final ThreadLocal<SearchProfiler> current = ThreadLocal.withInitial(() -> {
+        SearchProfiler profiler = new SearchProfiler();
+        synchronized (profilers) {
+            prune();
+            profilers.add(profiler);
+        }
+        return profiler;
+    });
+
+    // weak, so a dead thread isn't kept from being collected until the next prune
+    private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+    // only ever touched by the thread owning this profiler
+    private final long[] calls = new long[PHASES.length];
+    private final long[] nanos = new long[PHASES.length];
+    private final int[] stack = new int[MAX_NESTING];
+    private int depth = 0;
+    private long since = 0;
+
+    private SearchProfiler() {
+    }
+
+    /**
+     * Records that the calling thread has entered a phase. Must be paired with a call to exit,
+     * normally in a finally block.
+     * @param phase the phase being entered
+     * @throws IllegalArgumentException if phase is null
+     */
+    public static void enter(Phase phase) {
+        if (phase == null) {
+            throw new IllegalArgumentException();
+        }
+        current.get().push(phase.ordinal());
+    }
+
+    /**
+     * Records that the calling thread has left the phase it last entered.
+     * @throws IllegalStateException if the thread is not in a phase
+     */
+    public static void exit() {
+        current.get().pop();
+    }
+
+    private void push(int phase) {
+        long now = System.nanoTime();
+        if (depth > 0 && depth <= MAX_NESTING) {
+            nanos[stack[depth - 1]] += now - since;
+        }
+        if (depth < MAX_NESTING) {
+            stack[depth] = phase;
+        }
+        depth++;
+        calls[phase]++;
+        since = now;
+    }
+
+    private void pop() {
+        if (depth == 0) {
+            throw new IllegalStateException();
+        }
+        long now = System.nanoTime();
+        if (depth <= MAX_NESTING) {
+            nanos[stack[depth - 1]] += now - since;
+        }
+        depth--;
+        since = now;
+    }
+
+    /**
+     * Sets every thread's counters back to zero. Threads that are in a phase at the time should
+     * not be; their next exit would be charged from the time of their last entry.
+     */
+    public static void reset() {
+        synchronized (profilers) {
+            prune();
+            for (int i = 0; i < PHASES.length; i++) {
+                retiredCalls[i] = 0;
+                retiredNanos[i] = 0;
+            }
+            for (SearchProfiler profiler : profilers) {
+                for (int i = 0; i < PHASES.length; i++) {
+                    profiler.calls[i] = 0;
+                    profiler.nanos[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets how many times a phase was entered since the last reset, by any thread.
+     * @param phase the phase
+     * @throws IllegalArgumentException if phase is null
+     */
+    public static long getCalls(Phase phase) {
+        if (phase == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (profilers) {
+            prune();
+            long total = retiredCalls[phase.ordinal()];
+            for (SearchProfiler profiler : profilers) {
+                total += profiler.calls[phase.ordinal()];
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Gets how long was spent in a phase since the last reset, in nanoseconds, added up over
+     * every thread.
+     * @param phase the phase
+     * @throws IllegalArgumentException if phase is null
+     */
+    public static long getNanos(Phase phase) {
+        if (phase == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (profilers) {
+            prune();
+            long total = retiredNanos[phase.ordinal()];
+            for (SearchProfiler profiler : profilers) {
+                total += profiler.nanos[phase.ordinal()];
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Gets how many threads have counters, for testing.
+     */
+    static int getThreadCount() {
+        synchronized (profilers) {
+            prune();
+            return profilers.size();
+        }
+    }
+
+    /**
+     * folds the counters of threads that have died into the retired totals and drops them;
+     * called with the profilers lock held
+     */
+    private static void prune() {
+        for (Iterator<SearchProfiler> it = profilers.iterator(); it.hasNext(); ) {
+            SearchProfiler profiler = it.next();
+            Thread thread = profiler.owner.get();
+            if (thread == null || !thread.isAlive()) {
+                for (int i = 0; i < PHASES.length; i++) {
+                    retiredCalls[i] += profiler.calls[i];
+                    retiredNanos[i] += profiler.nanos[i];
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Formats the counters as a table with a row per phase, and a last row for the rest of the
+     * search (move ordering, hashing and the search itself).
+     * @param searchNanos how long the search took; with several threads, the time added up over
+     *                    all of them
+     * @return the table
+     */
+    public static String report(long searchNanos) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %12s %10s %7s %9s%n", "phase", "calls", "ms", "share", "ns/call"));
+        long accounted = 0;
+        for (Phase phase : PHASES) {
+            long phaseCalls = getCalls(phase);
+            long phaseNanos = getNanos(phase);
+            accounted += phaseNanos;
+            sb.append(row(phase.label, phaseCalls, phaseNanos, searchNanos));
+        }
+        sb.append(row("other", -1, Math.max(0, searchNanos - accounted), searchNanos));
+        return sb.toString();
+    }
+
+    private static String row(String label, long calls, long nanos, long total) {
+        return String.format("%-16s %12s %10.1f %6.1f%% %9s%n", label, calls < 0 ? "" : Long.toString(calls),
+                nanos / 1e6, total == 0 ? 0.0 : 100.0 * nanos / total,
+                calls <= 0 ? "" : Long.toString(nanos / calls));
+    }
+}
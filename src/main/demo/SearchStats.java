@@ -0,0 +1,230 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * Counters describing one search by <code>ChessBot</code>.
+ * <p>
+ * The counters are plain fields that only the searching thread touches, so counting costs no
+ * more than an increment. A search running on several threads gives each thread its own
+ * instance and merges them when the threads are done.
+ */
+public class SearchStats {
+
+    /**
+     * deepest iteration per-depth figures are kept for
+     */
+    public static final int MAX_DEPTH = 64;
+
+    long nodes;
+    long quiescenceNodes;
+    long nanos;
+    int depth;
+    final long[] depthNodes = new long[MAX_DEPTH + 1];
+    final long[] depthNanos = new long[MAX_DEPTH + 1];
+    // best move of each iteration as Move.encode packs it, 0 for none
+    final int[] depthMoves = new int[MAX_DEPTH + 1];
+    long cutoffs;
+    long firstMoveCutoffs;
+    long tableProbes;
+    long tableHits;
+    long tableStores;
+
+    /**
+     * Constructs empty statistics.
+     */
+    public SearchStats() {
+    }
+
+    /**
+     * Constructs a copy of the given statistics.
+     * @param other the statistics to copy
+     * @throws IllegalArgumentException if other is null
+     */
+    public SearchStats(SearchStats other) {
+        if (other == null) {
+            throw new IllegalArgumentException();
+        }
+        merge(other);
+        nanos = other.nanos;
+        depth = other.depth;
+    }
+
+    /**
+     * Adds the counters of another thread's statistics to these. Times and depths are not
+     * added, since the threads ran side by side; the deeper depth is kept.
+     * @param other the statistics to add
+     * @throws IllegalArgumentException if other is null
+     * @modifies <code>this</code>
+     */
+    public void merge(SearchStats other) {
+        if (other == null) {
+            throw new IllegalArgumentException();
+        }
+        nodes += other.nodes;
+        quiescenceNodes += other.quiescenceNodes;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        tableProbes += other.tableProbes;
+        tableHits += other.tableHits;
+        tableStores += other.tableStores;
+        for (int d = 0; d <= MAX_DEPTH; d++) {
+            depthNodes[d] += other.depthNodes[d];
+            depthNanos[d] = Math.max(depthNanos[d], other.depthNanos[d]);
+            if (depthMoves[d] == 0) {
+                depthMoves[d] = other.depthMoves[d];
+            }
+        }
+        depth = Math.max(depth, other.depth);
+    }
+
+    /**
+     * Sets every counter back to zero.
+     * @modifies <code>this</code>
+     */
+    public void clear() {
+        nodes = 0;
+        quiescenceNodes = 0;
+        nanos = 0;
+        depth = 0;
+        Arrays.fill(depthNodes, 0);
+        Arrays.fill(depthNanos, 0);
+        Arrays.fill(depthMoves, 0);
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        tableStores = 0;
+    }
+
+    /**
+     * Gets the number of positions searched, quiescence included. For MCTS this is the number of
+     * leaves evaluated.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Gets the number of positions searched by quiescence search.
+     */
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+
+    /**
+     * Gets how long the search took, in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Gets the deepest iteration the search completed.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets how many nodes had been searched when the given iteration finished.
+     * @param depth an iteration, from 1 to getDepth()
+     * @return the total nodes searched up to the end of that iteration, or 0 if it is unknown
+     */
+    public long getDepthNodes(int depth) {
+        return depth < 0 || depth > MAX_DEPTH ? 0 : depthNodes[depth];
+    }
+
+    /**
+     * Gets how long after the start of the search the given iteration finished.
+     * @param depth an iteration, from 1 to getDepth()
+     * @return the time in nanoseconds, or 0 if it is unknown
+     */
+    public long getDepthNanos(int depth) {
+        return depth < 0 || depth > MAX_DEPTH ? 0 : depthNanos[depth];
+    }
+
+    /**
+     * Gets the best move found by the given iteration.
+     * @param depth an iteration, from 1 to getDepth()
+     * @return the move, or null if it is unknown
+     */
+    public Move getDepthMove(int depth) {
+        return depth < 0 || depth > MAX_DEPTH || depthMoves[depth] == 0 ? null : Move.decode(depthMoves[depth]);
+    }
+
+    /**
+     * Gets the number of nodes searched per second.
+     */
+    public double getNodesPerSecond() {
+        return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+    }
+
+    /**
+     * Gets the effective branching factor: how many times more nodes the last iteration searched
+     * than the one before it, or 0 if fewer than two iterations finished.
+     */
+    public double getBranchingFactor() {
+        if (depth < 2 || depth > MAX_DEPTH) {
+            return 0;
+        }
+        long last = depthNodes[depth] - depthNodes[depth - 1];
+        long previous = depthNodes[depth - 1] - depthNodes[depth - 2];
+        return previous == 0 ? 0 : (double) last / previous;
+    }
+
+    /**
+     * Gets the fraction of beta cutoffs caused by the first move searched, which shows how good
+     * the move ordering is.
+     */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    /**
+     * Gets the number of beta cutoffs.
+     */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    /**
+     * Gets the number of best move table lookups.
+     */
+    public long getTableProbes() {
+        return tableProbes;
+    }
+
+    /**
+     * Gets the fraction of best move table lookups that found an entry for the position.
+     */
+    public double getTableHitRate() {
+        return tableProbes == 0 ? 0 : (double) tableHits / tableProbes;
+    }
+
+    /**
+     * Gets the fraction of best move table lookups after which a best move was stored.
+     */
+    public double getTableStoreRate() {
+        return tableProbes == 0 ? 0 : (double) tableStores / tableProbes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("nodes            %d (%d quiescence)%n", nodes, quiescenceNodes));
+        sb.append(String.format("time             %.1f ms%n", nanos / 1e6));
+        sb.append(String.format("nodes/second     %.0f%n", getNodesPerSecond()));
+        sb.append(String.format("depth            %d%n", depth));
+        for (int d = 1; d <= Math.min(depth, MAX_DEPTH); d++) {
+            sb.append(String.format("  depth %-2d       %d nodes, %.1f ms%n", d, depthNodes[d] - depthNodes[d - 1],
+                    (depthNanos[d] - depthNanos[d - 1]) / 1e6));
+        }
+        sb.append(String.format("branching factor %.2f%n", getBranchingFactor()));
+        sb.append(String.format("cutoffs          %d (%.1f%% on the first move)%n", cutoffs,
+                100 * getFirstMoveCutoffRate()));
+        sb.append(String.format("table            %d probes, %.1f%% hits, %.1f%% stores", tableProbes,
+                100 * getTableHitRate(), 100 * getTableStoreRate()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,421 @@
+package demo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Looks up positions in the DTM files written by <code>TablebaseGenerator</code>.
+ * <p>
+ * Files are memory mapped rather than read, so the operating system pages in only the parts
+ * that are used and shares them between processes. Each probe needs one block of a table
+ * inflated; the most recently used blocks are kept in a fixed size LRU cache, so probes from
+ * nearby parts of a search mostly hit inflated blocks. Tables are found by a material key
+ * computed from the board, and materials stored with the colors swapped are probed by
+ * mirroring the position. All scratch space is allocated up front, so a probe allocates
+ * nothing. Probes are synchronized, so one instance can be shared between bots.
+ */
+public class Tablebase implements Closeable {
+
+    /**
+     * returned by probe when no table covers the position
+     */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * the default number of inflated blocks to keep (8 MB)
+     */
+    public static final int DEFAULT_CACHE_BLOCKS = 256;
+
+    /**
+     * one mapped DTM file
+     */
+    private static class Table {
+        TablebaseIndex index;
+        MappedByteBuffer buffer;
+        long[] offsets;
+        int blockSize;
+        /**
+         * the first slot of each piece (by ordinal) in the material, or -1 if it has none
+         */
+        int[] firstSlot;
+    }
+
+    private final List<Table> tables = new ArrayList<>();
+    /**
+     * material keys, and for each the table and whether it is stored with the colors swapped
+     */
+    private int[] keys = new int[0];
+    private int[] keyTables = new int[0];
+    private boolean[] keyFlips = new boolean[0];
+    private int maxMen = 0;
+
+    // the block cache: a doubly linked list of slots from most to least recently used, and a
+    // hash table from (table, block) to slot with chaining through chainNext
+    private final byte[][] blocks;
+    private final long[] blockKeys;
+    private final int[] newer;
+    private final int[] older;
+    private final int[] buckets;
+    private final int[] chainNext;
+    private int used = 0;
+    private int mostRecent = -1;
+    private int leastRecent = -1;
+    private long hits = 0;
+    private long misses = 0;
+
+    // scratch space for probes
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private final int[] squares = new int[TablebaseIndex.MAX_MEN];
+    private final int[] filled = new int[12];
+
+    /**
+     * Opens every table in a directory.
+     * @param directory the directory holding the .dtm files
+     * @param cacheBlocks how many inflated blocks to keep in memory, at least 1
+     * @throws IOException if the directory or a file in it cannot be read
+     * @throws SerializationException if a file is not a well formed table
+     * @throws IllegalArgumentException if directory is null or cacheBlocks &lt; 1
+     */
+    public Tablebase(Path directory, int cacheBlocks) throws IOException, SerializationException {
+        if (directory == null || cacheBlocks < 1) {
+            throw new IllegalArgumentException();
+        }
+        blocks = new byte[cacheBlocks][];
+        blockKeys = new long[cacheBlocks];
+        newer = new int[cacheBlocks];
+        older = new int[cacheBlocks];
+        chainNext = new int[cacheBlocks];
+        buckets = new int[Integer.highestOneBit(cacheBlocks) * 4];
+        Arrays.fill(buckets, -1);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.dtm")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                name = name.substring(0, name.length() - ".dtm".length());
+                TablebaseIndex index;
+                try {
+                    index = new TablebaseIndex(name);
+                } catch (IllegalArgumentException e) {
+                    throw new SerializationException("not a material: " + name);
+                }
+                if (TablebaseIndex.isCanonical(name)) {
+                    open(file, index);
+                }
+            }
+        }
+    }
+
+    private void open(Path file, TablebaseIndex index) throws IOException, SerializationException {
+        Table table = new Table();
+        table.index = index;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            table.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = table.buffer;
+        if (buffer.capacity() < TablebaseFile.HEADER_SIZE || buffer.getInt(0) != TablebaseFile.MAGIC
+                || buffer.getInt(4) != TablebaseFile.KIND_DTM || buffer.getLong(8) != index.size()) {
+            throw new SerializationException();
+        }
+        table.blockSize = buffer.getInt(16);
+        int blockCount = buffer.getInt(20);
+        if (table.blockSize <= 0 || blockCount != (index.size() + (long) table.blockSize - 1) / table.blockSize
+                || TablebaseFile.HEADER_SIZE + 8L * (blockCount + 1) > buffer.capacity()) {
+            throw new SerializationException();
+        }
+        table.offsets = new long[blockCount + 1];
+        for (int b = 0; b <= blockCount; b++) {
+            table.offsets[b] = buffer.getLong(TablebaseFile.HEADER_SIZE + 8 * b);
+            if (table.offsets[b] > buffer.capacity() || (b > 0 && table.offsets[b] < table.offsets[b - 1])) {
+                throw new SerializationException();
+            }
+            if (b > 0) {
+                int length = (int) (table.offsets[b] - table.offsets[b - 1]);
+                if (length > compressed.length) {
+                    compressed = new byte[length];
+                }
+            }
+        }
+        table.firstSlot = new int[12];
+        Arrays.fill(table.firstSlot, -1);
+        for (int slot = index.men() - 1; slot >= 0; slot--) {
+            table.firstSlot[index.getPiece(slot).ordinal()] = slot;
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] == null || blocks[i].length < table.blockSize) {
+                blocks[i] = new byte[table.blockSize];
+            }
+        }
+
+        tables.add(table);
+        maxMen = Math.max(maxMen, index.men());
+        int key = 0;
+        int flippedKey = 0;
+        for (int slot = 0; slot < index.men(); slot++) {
+            Piece piece = index.getPiece(slot);
+            key += keyOf(piece);
+            flippedKey += keyOf(Piece.values()[(piece.ordinal() + 6) % 12]);
+        }
+        addKey(key, tables.size() - 1, false);
+        if (flippedKey != key) {
+            addKey(flippedKey, tables.size() - 1, true);
+        }
+    }
+
+    private void addKey(int key, int table, boolean flip) {
+        int n = keys.length;
+        keys = Arrays.copyOf(keys, n + 1);
+        keyTables = Arrays.copyOf(keyTables, n + 1);
+        keyFlips = Arrays.copyOf(keyFlips, n + 1);
+        keys[n] = key;
+        keyTables[n] = table;
+        keyFlips[n] = flip;
+    }
+
+    /**
+     * material keys count the non-king pieces of each kind and color in 4 bits each; kings
+     * count for nothing and pawns for more than any table holds
+     */
+    private static int keyOf(Piece piece) {
+        switch (piece) {
+            case WQUEEN:
+                return 1;
+            case WROOK:
+                return 1 << 4;
+            case WBISHOP:
+                return 1 << 8;
+            case WKNIGHT:
+                return 1 << 12;
+            case BQUEEN:
+                return 1 << 16;
+            case BROOK:
+                return 1 << 20;
+            case BBISHOP:
+                return 1 << 24;
+            case BKNIGHT:
+                return 1 << 28;
+            case WPAWN:
+            case BPAWN:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Gets the largest number of pieces, kings included, of any open table.
+     */
+    public int getMaxMen() {
+        return maxMen;
+    }
+
+    /**
+     * Gets the number of open tables.
+     */
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    /**
+     * Gets the number of probes answered from an already inflated block.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of probes that had to inflate a block.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Empties the block cache, so that the memory of the inflated blocks can be reused. The
+     * blocks themselves stay allocated.
+     */
+    public synchronized void clearCache() {
+        used = 0;
+        mostRecent = -1;
+        leastRecent = -1;
+        Arrays.fill(buckets, -1);
+    }
+
+    /**
+     * Closes every table and frees the block cache and the inflater. The files are unmapped once
+     * the mappings are garbage collected, since Java can't unmap them any sooner. Afterwards
+     * every probe returns NOT_FOUND. Closing twice does nothing.
+     * @modifies <code>this</code>
+     */
+    @Override
+    public synchronized void close() {
+        tables.clear();
+        keys = new int[0];
+        keyTables = new int[0];
+        keyFlips = new boolean[0];
+        maxMen = 0;
+        clearCache();
+        Arrays.fill(blocks, null);
+        compressed = new byte[0];
+        inflater.end();
+    }
+
+    /**
+     * Looks up a position.
+     * @param position the position to look up
+     * @return NOT_FOUND if no table covers the position, otherwise its DTM byte (as an unsigned
+     *   value) from the point of view of the player to move; see TablebaseFile
+     * @throws IllegalArgumentException if position is null
+     */
+    public synchronized int probe(ChessPosition position) {
+        if (position == null) {
+            throw new IllegalArgumentException();
+        }
+        Board board = position.getBoard();
+        int men = 0;
+        int key = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                Piece piece = board.getPiece(x, y);
+                if (piece != null) {
+                    int pieceKey = keyOf(piece);
+                    if (pieceKey < 0 || ++men > maxMen) {
+                        return NOT_FOUND;
+                    }
+                    key += pieceKey;
+                }
+            }
+        }
+        int k = 0;
+        while (k < keys.length && keys[k] != key) {
+            k++;
+        }
+        if (k == keys.length || tables.get(keyTables[k]).index.men() != men) {
+            // kings don't count towards the key, so this catches boards without them
+            return NOT_FOUND;
+        }
+        Table table = tables.get(keyTables[k]);
+        boolean flip = keyFlips[k];
+
+        Arrays.fill(filled, 0);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                Piece piece = board.getPiece(x, y);
+                if (piece != null) {
+                    int ordinal = flip ? (piece.ordinal() + 6) % 12 : piece.ordinal();
+                    int slot = table.firstSlot[ordinal] + filled[ordinal]++;
+                    squares[slot] = (y * 8 + x) ^ (flip ? 56 : 0);
+                }
+            }
+        }
+        boolean blackToMove = (position.getPlayer() == Player.BLACK) != flip;
+        int index = table.index.index(squares, blackToMove);
+        byte[] block = block(keyTables[k], table, index / table.blockSize);
+        return block[index % table.blockSize] & 0xFF;
+    }
+
+    /**
+     * gets an inflated block, from the cache if it is there
+     */
+    private byte[] block(int tableNumber, Table table, int blockNumber) {
+        long key = ((long) tableNumber << 32) | blockNumber;
+        int bucket = bucketOf(key);
+        for (int slot = buckets[bucket]; slot >= 0; slot = chainNext[slot]) {
+            if (blockKeys[slot] == key) {
+                hits++;
+                touch(slot);
+                return blocks[slot];
+            }
+        }
+        misses++;
+
+        int slot;
+        if (used < blocks.length) {
+            slot = used++;
+        } else {
+            // evict the least recently used block
+            slot = leastRecent;
+            unlink(slot);
+            int oldBucket = bucketOf(blockKeys[slot]);
+            if (buckets[oldBucket] == slot) {
+                buckets[oldBucket] = chainNext[slot];
+            } else {
+                int s = buckets[oldBucket];
+                while (chainNext[s] != slot) {
+                    s = chainNext[s];
+                }
+                chainNext[s] = chainNext[slot];
+            }
+        }
+
+        int length = (int) (table.offsets[blockNumber + 1] - table.offsets[blockNumber]);
+        table.buffer.get((int) table.offsets[blockNumber], compressed, 0, length);
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try {
+            inflater.inflate(blocks[slot], 0, table.blockSize);
+        } catch (DataFormatException e) {
+            // the file was checked when it was opened, so it must have changed underneath us
+            throw new IllegalStateException(e);
+        }
+
+        blockKeys[slot] = key;
+        chainNext[slot] = buckets[bucket];
+        buckets[bucket] = slot;
+        newer[slot] = -1;
+        older[slot] = mostRecent;
+        if (mostRecent >= 0) {
+            newer[mostRecent] = slot;
+        }
+        mostRecent = slot;
+        if (leastRecent < 0) {
+            leastRecent = slot;
+        }
+        return blocks[slot];
+    }
+
+    private int bucketOf(long key) {
+        int h = (int) (key ^ (key >>> 29)) * 0x9E3779B9;
+        return (h >>> 16) & (buckets.length - 1);
+    }
+
+    /**
+     * moves a cached slot to the front of the LRU list
+     */
+    private void touch(int slot) {
+        if (slot == mostRecent) {
+            return;
+        }
+        unlink(slot);
+        newer[slot] = -1;
+        older[slot] = mostRecent;
+        newer[mostRecent] = slot;
+        mostRecent = slot;
+    }
+
+    private void unlink(int slot) {
+        if (newer[slot] >= 0) {
+            older[newer[slot]] = older[slot];
+        } else {
+            mostRecent = older[slot];
+        }
+        if (older[slot] >= 0) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            leastRecent = newer[slot];
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The on-disk format of endgame tablebases, and the values stored in them.
+ * <p>
+ * Every material has two files, named after it: "KQvK.dtm" stores one byte per index of
+ * <code>TablebaseIndex</code>, and "KQvK.wdl" stores just win/draw/loss in 2 bits per index.
+ * Both are split into blocks of <code>BLOCK_SIZE</code> bytes that are deflated separately, so a
+ * reader can decompress only the blocks it needs. A file is laid out as
+ * <pre>
+ *   int    MAGIC
+ *   int    kind (KIND_WDL or KIND_DTM)
+ *   long   number of positions
+ *   int    BLOCK_SIZE
+ *   int    number of blocks n
+ *   long[n + 1] offset of each compressed block from the start of the file, then the file length
+ *   the compressed blocks
+ * </pre>
+ * all big endian.
+ * <p>
+ * A DTM byte is <code>DRAW</code>, <code>ILLEGAL</code> (the side not to move is in check), or
+ * one more than the number of plies until mate with best play. An odd number of plies means the
+ * side to move mates, an even one that it gets mated.
+ */
+public class TablebaseFile {
+
+    public static final int MAGIC = 0x43544231;
+
+    public static final int KIND_WDL = 0;
+    public static final int KIND_DTM = 1;
+
+    /**
+     * uncompressed bytes per block
+     */
+    public static final int BLOCK_SIZE = 32768;
+
+    /**
+     * bytes before the block offsets
+     */
+    public static final int HEADER_SIZE = 24;
+
+    /**
+     * DTM values other than distances
+     */
+    public static final byte DRAW = 0;
+    public static final byte ILLEGAL = (byte) 0xFF;
+
+    /**
+     * the longest distance to mate, in plies, a DTM byte can hold
+     */
+    public static final int MAX_PLIES = 252;
+
+    /**
+     * WDL values, from the point of view of the side to move
+     */
+    public static final int WDL_DRAW = 0;
+    public static final int WDL_WIN = 1;
+    public static final int WDL_LOSS = 2;
+    public static final int WDL_ILLEGAL = 3;
+
+    /**
+     * Converts a DTM byte into a WDL value.
+     * @param dtm a DTM byte
+     * @return the matching WDL_ constant
+     */
+    public static int wdlOf(byte dtm) {
+        int value = dtm & 0xFF;
+        if (dtm == ILLEGAL) {
+            return WDL_ILLEGAL;
+        } else if (value == 0) {
+            return WDL_DRAW;
+        }
+        return (value & 1) == 0 ? WDL_WIN : WDL_LOSS;
+    }
+
+    /**
+     * Gets the number of plies until mate stored in a DTM byte.
+     * @param dtm a DTM byte that is neither DRAW nor ILLEGAL
+     * @return the number of plies until mate
+     */
+    public static int pliesOf(byte dtm) {
+        return (dtm & 0xFF) - 1;
+    }
+
+    /**
+     * Writes both files of a table.
+     * @param directory the directory to write to
+     * @param name the material's name, used for the file names
+     * @param dtm the DTM table, one byte per index
+     * @throws IOException if the files cannot be written
+     * @throws IllegalArgumentException if any argument is null
+     */
+    public static void write(Path directory, String name, byte[] dtm) throws IOException {
+        if (directory == null || name == null || dtm == null) {
+            throw new IllegalArgumentException();
+        }
+        byte[] wdl = new byte[(dtm.length + 3) / 4];
+        for (int i = 0; i < dtm.length; i++) {
+            wdl[i >>> 2] |= wdlOf(dtm[i]) << ((i & 3) * 2);
+        }
+        write(directory.resolve(name + ".wdl"), KIND_WDL, dtm.length, wdl);
+        write(directory.resolve(name + ".dtm"), KIND_DTM, dtm.length, dtm);
+    }
+
+    private static void write(Path path, int kind, long entries, byte[] data) throws IOException {
+        int blocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] offsets = new long[blocks + 1];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] buffer = new byte[BLOCK_SIZE];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE + 8L * offsets.length;
+            for (int b = 0; b < blocks; b++) {
+                offsets[b] = position;
+                int start = b * BLOCK_SIZE;
+                deflater.reset();
+                deflater.setInput(data, start, Math.min(BLOCK_SIZE, data.length - start));
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    ByteBuffer out = ByteBuffer.wrap(buffer, 0, n);
+                    while (out.hasRemaining()) {
+                        position += channel.write(out, position);
+                    }
+                }
+            }
+            offsets[blocks] = position;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 8 * offsets.length);
+            header.putInt(MAGIC).putInt(kind).putLong(entries).putInt(BLOCK_SIZE).putInt(blocks);
+            for (long offset : offsets) {
+                header.putLong(offset);
+            }
+            header.flip();
+            long headerPosition = 0;
+            while (header.hasRemaining()) {
+                headerPosition += channel.write(header, headerPosition);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads a whole DTM file into memory.
+     * @param path the file to read
+     * @return one DTM byte per index
+     * @throws IOException if the file cannot be read
+     * @throws SerializationException if the file is not a DTM table
+     * @throws IllegalArgumentException if path is null
+     */
+    public static byte[] readDtm(Path path) throws IOException, SerializationException {
+        if (path == null) {
+            throw new IllegalArgumentException();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != KIND_DTM) {
+                throw new SerializationException();
+            }
+            long entries = header.getLong();
+            int blockSize = header.getInt();
+            int blocks = header.getInt();
+            if (entries < 0 || entries > Integer.MAX_VALUE || blockSize <= 0
+                    || blocks != (entries + blockSize - 1) / blockSize) {
+                throw new SerializationException();
+            }
+            ByteBuffer offsetBuffer = ByteBuffer.allocate(8 * (blocks + 1));
+            readFully(channel, offsetBuffer, HEADER_SIZE);
+            offsetBuffer.flip();
+
+            byte[] data = new byte[(int) entries];
+            Inflater inflater = new Inflater();
+            try {
+                long start = offsetBuffer.getLong();
+                for (int b = 0; b < blocks; b++) {
+                    long end = offsetBuffer.getLong();
+                    if (end < start || end - start > Integer.MAX_VALUE) {
+                        throw new SerializationException();
+                    }
+                    ByteBuffer compressed = ByteBuffer.allocate((int) (end - start));
+                    readFully(channel, compressed, start);
+                    inflater.reset();
+                    inflater.setInput(compressed.array());
+                    int length = Math.min(blockSize, data.length - b * blockSize);
+                    if (inflater.inflate(data, b * blockSize, length) != length) {
+                        throw new SerializationException();
+                    }
+                    start = end;
+                }
+            } catch (DataFormatException e) {
+                throw new SerializationException();
+            } finally {
+                inflater.end();
+            }
+            return data;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException, SerializationException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new SerializationException();
+            }
+            position += n;
+        }
+    }
+}
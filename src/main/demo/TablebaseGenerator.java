@@ -0,0 +1,489 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Generates endgame tablebases by retrograde analysis: starting from the checkmates, it works
+ * backwards one ply at a time, so that after pass n every position that is won or lost in n
+ * plies is known. Whatever is left when no pass makes progress is a draw.
+ * <p>
+ * A table holds one byte per index of <code>TablebaseIndex</code>, in the DTM encoding of
+ * <code>TablebaseFile</code>. Generation takes one more byte per index for scratch space, plus
+ * the finished tables of every material reachable by captures, which are generated first (or
+ * read from the output directory, if they are already there). A four piece table takes about
+ * 5 MB and a five piece table about 330 MB.
+ * <p>
+ * Legality and check come from <code>ChessPosition</code>. Each pass then visits every unsolved
+ * position, split across a ForkJoinPool by index range, and looks up its successors with a
+ * small move generator working directly on the pieces' squares. Positions only ever write their
+ * own entry, and a pass only reads values settled in earlier passes, so no locking is needed.
+ */
+public class TablebaseGenerator {
+
+    /**
+     * how many positions a task handles without splitting
+     */
+    private static final int CHUNK = 1 << 14;
+
+    /**
+     * values used only while generating: an UNKNOWN position is not solved yet, and a
+     * KNOWN_DRAW one is stalemate. Scratch bytes hold IN_CHECK before the first pass, and
+     * afterwards the best capture's value (KNOWN_DRAW for a draw) or NO_CAPTURE.
+     */
+    private static final byte UNKNOWN = 0;
+    private static final byte KNOWN_DRAW = (byte) 0xFE;
+    private static final byte NO_CAPTURE = (byte) 0xFF;
+    private static final byte IN_CHECK = 1;
+
+    private static final int[] KING_DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] KING_DY = {0, 0, 1, -1, 1, -1, 1, -1};
+    private static final int[] KNIGHT_DX = {2, 1, -1, -2, -2, -1, 1, 2};
+    private static final int[] KNIGHT_DY = {-1, -2, -2, -1, 1, 2, 2, 1};
+
+    private final ForkJoinPool pool;
+    private final Path directory;
+    private final Map<String, byte[]> tables = new HashMap<>();
+    private final List<String> generated = new ArrayList<>();
+
+    /**
+     * Constructs a generator.
+     * @param pool the pool passes run on
+     * @param directory where to look for tables that were already generated, or null to
+     *   generate everything
+     * @throws IllegalArgumentException if pool is null
+     */
+    public TablebaseGenerator(ForkJoinPool pool, Path directory) {
+        if (pool == null) {
+            throw new IllegalArgumentException();
+        }
+        this.pool = pool;
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the table for a material, generating it and the tables it depends on if needed.
+     * @param material the name of a canonical material (see TablebaseIndex.isCanonical)
+     * @return the DTM table, one byte per index
+     * @throws IllegalArgumentException if material is not a valid canonical material name
+     * @throws IOException if an existing table cannot be read
+     * @throws SerializationException if an existing table is malformed
+     */
+    public byte[] generate(String material) throws IOException, SerializationException {
+        if (material == null || !TablebaseIndex.isCanonical(material)) {
+            throw new IllegalArgumentException();
+        }
+        TablebaseIndex index = new TablebaseIndex(material);
+        byte[] table = tables.get(index.getName());
+        if (table != null) {
+            return table;
+        }
+        if (directory != null) {
+            Path path = directory.resolve(index.getName() + ".dtm");
+            if (Files.exists(path)) {
+                table = TablebaseFile.readDtm(path);
+                if (table.length != index.size()) {
+                    throw new SerializationException();
+                }
+                tables.put(index.getName(), table);
+                return table;
+            }
+        }
+        table = new Table(index).solve();
+        tables.put(index.getName(), table);
+        generated.add(index.getName());
+        return table;
+    }
+
+    /**
+     * Gets the names of the tables this generator computed (rather than read), in the order
+     * they were finished.
+     */
+    public List<String> getGenerated() {
+        return new ArrayList<>(generated);
+    }
+
+    /**
+     * the lookup of the table a capture leads to
+     */
+    private static class Capture {
+        TablebaseIndex index;
+        byte[] table;
+        /**
+         * whether the table is stored with the colors swapped
+         */
+        boolean flip;
+        /**
+         * the slot in the smaller material of each piece of this one
+         */
+        int[] slots;
+    }
+
+    /**
+     * the state of one table being generated
+     */
+    private class Table {
+        final TablebaseIndex index;
+        final byte[] data;
+        final byte[] scratch;
+        /**
+         * indexed by the slot of the captured piece; null for kings
+         */
+        final Capture[] captures;
+
+        Table(TablebaseIndex index) throws IOException, SerializationException {
+            this.index = index;
+            this.captures = new Capture[index.men()];
+            for (int slot = 0; slot < index.men(); slot++) {
+                if (TablebaseIndex.letterOf(index.getPiece(slot)) != 'K') {
+                    captures[slot] = capture(slot);
+                }
+            }
+            this.data = new byte[index.size()];
+            this.scratch = new byte[index.size()];
+        }
+
+        private Capture capture(int captured) throws IOException, SerializationException {
+            StringBuilder name = new StringBuilder();
+            for (int slot = 0; slot < index.men(); slot++) {
+                if (slot == index.getWhiteCount()) {
+                    name.append('v');
+                }
+                if (slot != captured) {
+                    name.append(TablebaseIndex.letterOf(index.getPiece(slot)));
+                }
+            }
+            Capture capture = new Capture();
+            capture.flip = !TablebaseIndex.isCanonical(name.toString());
+            String stored = capture.flip ? TablebaseIndex.flipName(name.toString()) : name.toString();
+            capture.index = new TablebaseIndex(stored);
+            capture.table = generate(stored);
+            capture.slots = new int[index.men()];
+            boolean[] used = new boolean[capture.index.men()];
+            for (int slot = 0; slot < index.men(); slot++) {
+                if (slot == captured) {
+                    continue;
+                }
+                Piece piece = index.getPiece(slot);
+                if (capture.flip) {
+                    piece = Piece.values()[(piece.ordinal() + 6) % 12];
+                }
+                int target = 0;
+                while (used[target] || capture.index.getPiece(target) != piece) {
+                    target++;
+                }
+                used[target] = true;
+                capture.slots[slot] = target;
+            }
+            return capture;
+        }
+
+        byte[] solve() {
+            int size = index.size();
+            pool.invoke(new Pass(this, -1, 0, size));
+            long longestCapture = pool.invoke(new Pass(this, 0, 0, size));
+            int idle = 0;
+            for (int n = 1; n <= TablebaseFile.MAX_PLIES; n++) {
+                long solved = pool.invoke(new Pass(this, n, 0, size));
+                idle = solved == 0 ? idle + 1 : 0;
+                // a pass with nothing new means the next one can only find positions settled by
+                // a capture, so two in a row after the longest capture means we are done
+                if (idle >= 2 && n >= longestCapture) {
+                    break;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (data[i] == KNOWN_DRAW) {
+                    data[i] = TablebaseFile.DRAW;
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * One pass over a range of positions. Pass -1 marks illegal positions and notes which are
+     * in check, pass 0 finds mates and stalemates and scores captures, and pass n &ge; 1 finds
+     * the positions won (n odd) or lost (n even) in n plies. Returns the number of positions
+     * solved, except pass 0, which returns the largest capture value.
+     */
+    private static class Pass extends RecursiveTask<Long> {
+        private final Table table;
+        private final int pass;
+        private final int from;
+        private final int to;
+
+        // per task scratch space
+        private int[] squares;
+        private int[] child;
+        private int[] occupant;
+        private int[] quiet;
+        private int quietCount;
+        private int bestCapture;
+        private int captureCount;
+
+        Pass(Table table, int pass, int from, int to) {
+            this.table = table;
+            this.pass = pass;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > CHUNK) {
+                int mid = (from + to) >>> 1;
+                Pass left = new Pass(table, pass, from, mid);
+                Pass right = new Pass(table, pass, mid, to);
+                left.fork();
+                long r = right.compute();
+                long l = left.join();
+                return pass == 0 ? Math.max(l, r) : l + r;
+            }
+            squares = new int[TablebaseIndex.MAX_MEN];
+            child = new int[TablebaseIndex.MAX_MEN];
+            occupant = new int[64];
+            Arrays.fill(occupant, -1);
+            quiet = new int[256];
+            long result = 0;
+            for (int i = from; i < to; i++) {
+                if (pass == -1) {
+                    legality(i);
+                } else if (pass == 0) {
+                    result = Math.max(result, terminal(i));
+                } else if (table.data[i] == UNKNOWN && solve(i)) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        private void legality(int i) {
+            TablebaseIndex index = table.index;
+            boolean blackToMove = index.decode(i, squares);
+            ChessPosition position = new ChessPosition(blackToMove ? Player.BLACK : Player.WHITE);
+            for (int slot = 0; slot < index.men(); slot++) {
+                if (position.getBoard().getPiece(squares[slot] & 7, squares[slot] >>> 3) != null) {
+                    // two pieces on one square
+                    table.data[i] = TablebaseFile.ILLEGAL;
+                    return;
+                }
+                position.populate(index.getPiece(slot), squares[slot] & 7, squares[slot] >>> 3);
+            }
+            Player toMove = position.getPlayer();
+            if (position.isInCheck(toMove == Player.WHITE ? Player.BLACK : Player.WHITE)) {
+                table.data[i] = TablebaseFile.ILLEGAL;
+            } else {
+                table.data[i] = UNKNOWN;
+                table.scratch[i] = position.isInCheck(toMove) ? IN_CHECK : 0;
+            }
+        }
+
+        private int terminal(int i) {
+            if (table.data[i] == TablebaseFile.ILLEGAL) {
+                return 0;
+            }
+            generate(i);
+            int legal = captureCount;
+            for (int q = 0; q < quietCount; q++) {
+                if (table.data[quiet[q]] != TablebaseFile.ILLEGAL) {
+                    legal++;
+                }
+            }
+            if (legal == 0) {
+                // mated in 0 plies, or stalemate
+                table.data[i] = table.scratch[i] == IN_CHECK ? 1 : KNOWN_DRAW;
+                return 0;
+            }
+            table.scratch[i] = captureCount == 0 ? NO_CAPTURE : (byte) bestCapture;
+            return captureCount == 0 || bestCapture == (KNOWN_DRAW & 0xFF) ? 0 : bestCapture;
+        }
+
+        private boolean solve(int i) {
+            int capture = table.scratch[i] & 0xFF;
+            if ((pass & 1) == 1) {
+                // won in pass plies if some move reaches a position lost in pass - 1 plies
+                boolean won = capture == pass + 1;
+                if (!won) {
+                    generate(i);
+                    for (int q = 0; q < quietCount && !won; q++) {
+                        won = (table.data[quiet[q]] & 0xFF) == pass;
+                    }
+                }
+                if (won) {
+                    table.data[i] = (byte) (pass + 1);
+                }
+                return won;
+            }
+            // lost in pass plies if every move reaches a position won in fewer plies
+            if (capture != (NO_CAPTURE & 0xFF)
+                    && (capture == (KNOWN_DRAW & 0xFF) || (capture & 1) == 0 || capture > pass + 1)) {
+                return false;
+            }
+            generate(i);
+            for (int q = 0; q < quietCount; q++) {
+                int value = table.data[quiet[q]] & 0xFF;
+                if (value == (TablebaseFile.ILLEGAL & 0xFF)) {
+                    continue;
+                }
+                if (value == 0 || value == (KNOWN_DRAW & 0xFF) || (value & 1) == 1 || value > pass) {
+                    return false;
+                }
+            }
+            table.data[i] = (byte) (pass + 1);
+            return true;
+        }
+
+        /**
+         * decodes position i and lists its successors: quiet moves into quiet[], by index, and
+         * legal captures into bestCapture, valued for the side to move as they are in a table
+         */
+        private void generate(int i) {
+            TablebaseIndex index = table.index;
+            int men = index.men();
+            boolean blackToMove = index.decode(i, squares);
+            for (int slot = 0; slot < men; slot++) {
+                occupant[squares[slot]] = slot;
+            }
+            quietCount = 0;
+            captureCount = 0;
+            bestCapture = 0;
+            int first = blackToMove ? index.getWhiteCount() : 0;
+            int last = blackToMove ? men : index.getWhiteCount();
+            for (int slot = first; slot < last; slot++) {
+                int x = squares[slot] & 7;
+                int y = squares[slot] >>> 3;
+                switch (TablebaseIndex.letterOf(index.getPiece(slot))) {
+                    case 'K':
+                        steps(slot, x, y, KING_DX, KING_DY, blackToMove, false, 0, 8);
+                        break;
+                    case 'N':
+                        steps(slot, x, y, KNIGHT_DX, KNIGHT_DY, blackToMove, false, 0, 8);
+                        break;
+                    case 'Q':
+                        steps(slot, x, y, KING_DX, KING_DY, blackToMove, true, 0, 8);
+                        break;
+                    case 'R':
+                        steps(slot, x, y, KING_DX, KING_DY, blackToMove, true, 0, 4);
+                        break;
+                    case 'B':
+                        steps(slot, x, y, KING_DX, KING_DY, blackToMove, true, 4, 8);
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
+            }
+            for (int slot = 0; slot < men; slot++) {
+                occupant[squares[slot]] = -1;
+            }
+        }
+
+        private void steps(int slot, int x, int y, int[] dx, int[] dy, boolean blackToMove,
+                           boolean slides, int firstDirection, int lastDirection) {
+            TablebaseIndex index = table.index;
+            for (int d = firstDirection; d < lastDirection; d++) {
+                int tx = x + dx[d];
+                int ty = y + dy[d];
+                while (tx >= 0 && tx < 8 && ty >= 0 && ty < 8) {
+                    int target = ty * 8 + tx;
+                    int other = occupant[target];
+                    if (other < 0) {
+                        System.arraycopy(squares, 0, child, 0, index.men());
+                        child[slot] = target;
+                        quiet[quietCount++] = index.index(child, !blackToMove);
+                    } else {
+                        if ((other >= index.getWhiteCount()) != blackToMove
+                                && table.captures[other] != null) {
+                            capture(slot, target, other, blackToMove);
+                        }
+                        break;
+                    }
+                    if (!slides) {
+                        break;
+                    }
+                    tx += dx[d];
+                    ty += dy[d];
+                }
+            }
+        }
+
+        private void capture(int slot, int target, int captured, boolean blackToMove) {
+            Capture capture = table.captures[captured];
+            int flip = capture.flip ? 56 : 0;
+            for (int s = 0; s < table.index.men(); s++) {
+                if (s != captured) {
+                    child[capture.slots[s]] = (s == slot ? target : squares[s]) ^ flip;
+                }
+            }
+            // the other player moves next, which is white again if the table is flipped
+            int value = capture.table[capture.index.index(child, blackToMove == capture.flip)] & 0xFF;
+            if (value == (TablebaseFile.ILLEGAL & 0xFF)) {
+                return;
+            }
+            // the position is valued for the other player, so a loss in n plies is a win in n + 1
+            int mine = value == 0 ? KNOWN_DRAW & 0xFF : value + 1;
+            if (captureCount == 0 || rank(mine) > rank(bestCapture)) {
+                bestCapture = mine;
+            }
+            captureCount++;
+        }
+
+        /**
+         * orders values from the mover's point of view: quick wins, then slow wins, draws, slow
+         * losses and quick losses
+         */
+        private static int rank(int value) {
+            if (value == (KNOWN_DRAW & 0xFF)) {
+                return 0;
+            }
+            return (value & 1) == 0 ? 1000 - value : value - 1000;
+        }
+    }
+
+    /**
+     * Generates tables and writes them, along with the tables they depend on, to a directory.
+     * Usage: <code>java demo.TablebaseGenerator &lt;directory&gt; &lt;material&gt;...</code>, e.g.
+     * <code>java demo.TablebaseGenerator tables KQvK KRvK</code>.
+     */
+    public static void main(String[] args) throws IOException, SerializationException {
+        if (args.length < 2) {
+            System.err.println("usage: java demo.TablebaseGenerator <directory> <material>...");
+            System.exit(1);
+        }
+        Path directory = Paths.get(args[0]);
+        Files.createDirectories(directory);
+        TablebaseGenerator generator = new TablebaseGenerator(ForkJoinPool.commonPool(), directory);
+        for (int i = 1; i < args.length; i++) {
+            String material = args[i];
+            if (!TablebaseIndex.isCanonical(material)) {
+                material = TablebaseIndex.flipName(material);
+            }
+            long start = System.nanoTime();
+            byte[] table = generator.generate(material);
+            long millis = (System.nanoTime() - start) / 1000000;
+            int[] counts = new int[4];
+            int longest = 0;
+            for (byte value : table) {
+                counts[TablebaseFile.wdlOf(value)]++;
+                if (value != TablebaseFile.DRAW && value != TablebaseFile.ILLEGAL) {
+                    longest = Math.max(longest, TablebaseFile.pliesOf(value));
+                }
+            }
+            System.out.println(new TablebaseIndex(material).getName() + ": " + counts[TablebaseFile.WDL_WIN]
+                    + " won, " + counts[TablebaseFile.WDL_DRAW] + " drawn, " + counts[TablebaseFile.WDL_LOSS]
+                    + " lost, longest mate " + longest + " plies, " + millis + " ms");
+        }
+        for (String name : generator.getGenerated()) {
+            TablebaseFile.write(directory, name, generator.tables.get(name));
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * The material of an endgame tablebase and the mapping between its positions and dense array
+ * indices.
+ * <p>
+ * A material is named by the white pieces followed by "v" and the black pieces, each side
+ * starting with its king and listing the rest strongest first, e.g. "KQvK" or "KRvKN". Only
+ * pawnless materials with 2 to <code>MAX_MEN</code> pieces are supported, since without pawns
+ * every move can be undone and the eight symmetries of the board all preserve the game.
+ * <p>
+ * The pieces of a material are numbered in name order, so slot 0 is the white king. An index
+ * packs the side to move, the square of the white king and the squares of every other piece:
+ * <pre>
+ *   ((side * 10 + triangle(white king)) * 64 + square(slot 1)) * 64 + ... + square(last slot)
+ * </pre>
+ * where squares are numbered y * 8 + x. Positions are first reflected so the white king lies in
+ * the a1-d1-d4 triangle, which has 10 squares, cutting the table to 10/64 of its size. Indices
+ * with two pieces on one square exist but are never legal positions.
+ */
+public class TablebaseIndex {
+
+    /**
+     * the most pieces (kings included) a material can have
+     */
+    public static final int MAX_MEN = 5;
+
+    /**
+     * number of squares in the a1-d1-d4 triangle
+     */
+    public static final int KING_SQUARES = 10;
+
+    /**
+     * piece letters, strongest first, in the order they appear in material names
+     */
+    private static final String ORDER = "KQRBN";
+
+    /**
+     * triangle number of each square, or -1 for squares outside the a1-d1-d4 triangle
+     */
+    private static final int[] TRIANGLE = new int[64];
+    private static final int[] TRIANGLE_SQUARES = new int[KING_SQUARES];
+
+    static {
+        Arrays.fill(TRIANGLE, -1);
+        int n = 0;
+        for (int x = 0; x < 4; x++) {
+            for (int rank = 0; rank <= x; rank++) {
+                int square = (7 - rank) * 8 + x;
+                TRIANGLE[square] = n;
+                TRIANGLE_SQUARES[n] = square;
+                n++;
+            }
+        }
+    }
+
+    private final String name;
+    private final Piece[] pieces;
+    private final int whiteCount;
+    private final int size;
+
+    /**
+     * Constructs the index of a material.
+     * @param name the material's name, e.g. "KQvK"; the pieces on each side may come in any order
+     * @throws IllegalArgumentException if name is null or malformed, contains pawns, does not have
+     *   exactly one king per side, or has more than MAX_MEN pieces
+     */
+    public TablebaseIndex(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException();
+        }
+        int v = name.indexOf('v');
+        if (v < 0 || v != name.lastIndexOf('v')) {
+            throw new IllegalArgumentException();
+        }
+        String white = sortSide(name.substring(0, v));
+        String black = sortSide(name.substring(v + 1));
+        if (white.length() + black.length() > MAX_MEN) {
+            throw new IllegalArgumentException();
+        }
+        this.name = white + "v" + black;
+        this.whiteCount = white.length();
+        this.pieces = new Piece[white.length() + black.length()];
+        for (int i = 0; i < pieces.length; i++) {
+            char c = i < whiteCount ? white.charAt(i) : black.charAt(i - whiteCount);
+            pieces[i] = pieceOf(c, i < whiteCount ? Player.WHITE : Player.BLACK);
+        }
+        int entries = 2 * KING_SQUARES;
+        for (int i = 1; i < pieces.length; i++) {
+            entries *= 64;
+        }
+        this.size = entries;
+    }
+
+    /**
+     * sorts the letters of one side strongest first, checking it has exactly one king
+     */
+    private static String sortSide(String side) {
+        char[] letters = side.toCharArray();
+        int kings = 0;
+        for (char c : letters) {
+            if (ORDER.indexOf(c) < 0) {
+                throw new IllegalArgumentException();
+            }
+            if (c == 'K') {
+                kings++;
+            }
+        }
+        if (kings != 1) {
+            throw new IllegalArgumentException();
+        }
+        Character[] boxed = new Character[letters.length];
+        for (int i = 0; i < letters.length; i++) {
+            boxed[i] = letters[i];
+        }
+        Arrays.sort(boxed, (a, b) -> ORDER.indexOf(a) - ORDER.indexOf(b));
+        StringBuilder sb = new StringBuilder();
+        for (Character c : boxed) {
+            sb.append(c.charValue());
+        }
+        return sb.toString();
+    }
+
+    private static Piece pieceOf(char letter, Player player) {
+        int white;
+        switch (letter) {
+            case 'K':
+                white = Piece.WKING.ordinal();
+                break;
+            case 'Q':
+                white = Piece.WQUEEN.ordinal();
+                break;
+            case 'R':
+                white = Piece.WROOK.ordinal();
+                break;
+            case 'B':
+                white = Piece.WBISHOP.ordinal();
+                break;
+            case 'N':
+                white = Piece.WKNIGHT.ordinal();
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+        // black pieces come six places after their white counterparts
+        return Piece.values()[player == Player.WHITE ? white : white + 6];
+    }
+
+    /**
+     * Gets the letter used for a piece in material names.
+     * @param piece a piece other than a pawn
+     * @return one of K, Q, R, B, N
+     * @throws IllegalArgumentException if piece is null or a pawn
+     */
+    public static char letterOf(Piece piece) {
+        if (piece == null) {
+            throw new IllegalArgumentException();
+        }
+        switch (piece) {
+            case WKING:
+            case BKING:
+                return 'K';
+            case WQUEEN:
+            case BQUEEN:
+                return 'Q';
+            case WROOK:
+            case BROOK:
+                return 'R';
+            case WBISHOP:
+            case BBISHOP:
+                return 'B';
+            case WKNIGHT:
+            case BKNIGHT:
+                return 'N';
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Gets the name of the material with the colors swapped, e.g. "KvKQ" for "KQvK".
+     * @param name a material name
+     * @return the name with the two sides exchanged
+     * @throws IllegalArgumentException if name is not a valid material name
+     */
+    public static String flipName(String name) {
+        TablebaseIndex index = new TablebaseIndex(name);
+        return index.name.substring(index.whiteCount + 1) + "v" + index.name.substring(0, index.whiteCount);
+    }
+
+    /**
+     * Determines whether tables are stored under this name or under its flipped name. The side
+     * with more pieces, or on a tie the stronger pieces, is white in stored tables; materials
+     * that are the same on both sides, like "KRvKR", are stored as they are.
+     * @param name a material name
+     * @return true iff the table for name is stored as name rather than flipName(name)
+     * @throws IllegalArgumentException if name is not a valid material name
+     */
+    public static boolean isCanonical(String name) {
+        TablebaseIndex index = new TablebaseIndex(name);
+        String white = index.name.substring(0, index.whiteCount);
+        String black = index.name.substring(index.whiteCount + 1);
+        if (white.length() != black.length()) {
+            return white.length() > black.length();
+        }
+        for (int i = 0; i < white.length(); i++) {
+            int diff = ORDER.indexOf(white.charAt(i)) - ORDER.indexOf(black.charAt(i));
+            if (diff != 0) {
+                return diff < 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the normalized name of this material, with each side sorted strongest first.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of pieces, kings included.
+     */
+    public int men() {
+        return pieces.length;
+    }
+
+    /**
+     * Gets the piece in the given slot.
+     * @requires 0 &le; slot &lt; men()
+     */
+    public Piece getPiece(int slot) {
+        return pieces[slot];
+    }
+
+    /**
+     * Gets the number of white pieces; slots 0 to getWhiteCount() - 1 hold white pieces and the
+     * rest black ones.
+     */
+    public int getWhiteCount() {
+        return whiteCount;
+    }
+
+    /**
+     * Gets the number of entries in a table for this material.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Computes the index of a position. The squares are reflected into canonical form first, so
+     * any of the eight symmetric versions of a position gives the same index.
+     * @param squares the square (y * 8 + x) of the piece in each slot; modified in place into the
+     *   canonical reflection
+     * @param blackToMove whether it is black's turn
+     * @requires squares.length &ge; men() and every square is in [0, 64)
+     * @return the index of the position, in [0, size())
+     */
+    public int index(int[] squares, boolean blackToMove) {
+        int n = pieces.length;
+        int king = squares[0];
+        int flip = 0;
+        if ((king & 7) > 3) {
+            flip ^= 7;
+        }
+        if ((king >>> 3) < 4) {
+            flip ^= 56;
+        }
+        for (int i = 0; i < n; i++) {
+            squares[i] ^= flip;
+        }
+        king = squares[0];
+        // the rank counted from white's side, compared to the file
+        if (7 - (king >>> 3) > (king & 7)) {
+            for (int i = 0; i < n; i++) {
+                squares[i] = transpose(squares[i]);
+            }
+        }
+        int result = (blackToMove ? KING_SQUARES : 0) + TRIANGLE[squares[0]];
+        for (int i = 1; i < n; i++) {
+            result = result * 64 + squares[i];
+        }
+        return result;
+    }
+
+    /**
+     * Decodes an index into the squares of the pieces.
+     * @param index an index in [0, size())
+     * @param squares filled with the square (y * 8 + x) of the piece in each slot
+     * @requires squares.length &ge; men()
+     * @return true iff it is black's turn in the position
+     */
+    public boolean decode(int index, int[] squares) {
+        for (int i = pieces.length - 1; i > 0; i--) {
+            squares[i] = index & 63;
+            index >>>= 6;
+        }
+        squares[0] = TRIANGLE_SQUARES[index % KING_SQUARES];
+        return index >= KING_SQUARES;
+    }
+
+    /**
+     * reflects a square in the a1-h8 diagonal
+     */
+    private static int transpose(int square) {
+        int x = square & 7;
+        int y = square >>> 3;
+        return (7 - x) * 8 + (7 - y);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
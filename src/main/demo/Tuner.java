@@ -0,0 +1,400 @@
+package demo;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A Texel style tuner for the weights used by <code>BoardEval</code>. Given a large set of
+ * positions labeled with the final result of the game they came from, it finds the piece values
+ * and position bonus tables that make <code>sigmoid(K * eval)</code> predict those results as
+ * well as possible, and writes them in the format read by <code>BoardEval.loadWeights</code>.
+ * <p>
+ * Each line of the input file holds a FEN position (only the placement and active color fields
+ * are required) followed somewhere later on the line by the result of the game, written either
+ * as <code>1-0</code>, <code>0-1</code> or <code>1/2-1/2</code>, or as a score for white in
+ * brackets such as <code>[0.5]</code>. The positions are kept in a <code>PackedPositions</code>
+ * and the results in a float array, so a few million positions fit in a few hundred megabytes.
+ * <p>
+ * The evaluation is linear in the weights, so the gradient of the mean squared error can be
+ * computed exactly. Every epoch computes the loss and gradient in parallel over chunks of the
+ * positions on a <code>ForkJoinPool</code> and takes one Adam step.
+ */
+public class Tuner {
+
+    /**
+     * how many positions a single task of the parallel loss computation handles
+     */
+    private static final int CHUNK = 16384;
+
+    /**
+     * number of tunable parameters: one value per kind of piece, then 64 position bonuses per kind
+     */
+    public static final int PARAMS = BoardEval.KIND_NAMES.length * (1 + PackedPositions.SQUARES);
+
+    private static final double LN10_OVER_400 = Math.log(10) / 400;
+
+    private final PackedPositions positions;
+    private final float[] results;
+    private final ForkJoinPool pool;
+
+    /**
+     * for every (piece code, square) pair as laid out in PackedPositions, the index of the parameter
+     * holding that piece's value, the index of its position bonus, and +1 for white or -1 for black.
+     * The sign is 0 for empty squares so they add nothing
+     */
+    private final int[] valueParam = new int[PackedPositions.CODES * PackedPositions.SQUARES];
+    private final int[] bonusParam = new int[PackedPositions.CODES * PackedPositions.SQUARES];
+    private final int[] sign = new int[PackedPositions.CODES * PackedPositions.SQUARES];
+
+    private double k = 1.0;
+
+    /**
+     * Constructs a tuner over the given labeled positions.
+     * @requires positions != null && results != null && results.length &ge; positions.size()
+     *   && pool != null
+     * @param positions the positions to tune on
+     * @param results the result of the game each position came from, from white's perspective
+     *                (1 for a white win, 0.5 for a draw, 0 for a black win)
+     * @param pool the pool to compute the loss on
+     */
+    public Tuner(PackedPositions positions, float[] results, ForkJoinPool pool) {
+        if (positions == null || results == null || pool == null || results.length < positions.size()) {
+            throw new IllegalArgumentException();
+        }
+        this.positions = positions;
+        this.results = results;
+        this.pool = pool;
+        for (int code = 1; code < PackedPositions.CODES; code++) {
+            Piece piece = PackedPositions.decode(code);
+            int kind = piece.getPositionBonusIndex() / 2;
+            boolean white = piece.getPlayer() == Player.WHITE;
+            for (int s = 0; s < PackedPositions.SQUARES; s++) {
+                int x = s & 7;
+                int y = s >>> 3;
+                // bonus tables are stored for white with the first row at the bottom; black's table is
+                // white's flipped vertically and negated
+                int row = white ? 7 - y : y;
+                int i = code * PackedPositions.SQUARES + s;
+                valueParam[i] = kind;
+                bonusParam[i] = BoardEval.KIND_NAMES.length + kind * PackedPositions.SQUARES + row * 8 + x;
+                sign[i] = white ? 1 : -1;
+            }
+        }
+    }
+
+    /**
+     * Packs the given piece values and white bonus tables into a single parameter vector.
+     * @requires values and whiteBonuses have the shape described by BoardEval.setWeights
+     * @return an array of PARAMS weights
+     */
+    public static double[] pack(int[] values, int[][][] whiteBonuses) {
+        double[] params = new double[PARAMS];
+        int kinds = BoardEval.KIND_NAMES.length;
+        for (int kind = 0; kind < kinds; kind++) {
+            params[kind] = values[kind];
+            for (int row = 0; row < 8; row++) {
+                for (int x = 0; x < 8; x++) {
+                    params[kinds + kind * PackedPositions.SQUARES + row * 8 + x] = whiteBonuses[kind][row][x];
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Rounds the given parameter vector and writes it to s in the format of BoardEval.writeWeights.
+     * @requires s != null && params.length == PARAMS
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeParams(OutputStream s, double[] params) throws IOException {
+        int kinds = BoardEval.KIND_NAMES.length;
+        int[] values = new int[kinds];
+        int[][][] whiteBonuses = new int[kinds][8][8];
+        for (int kind = 0; kind < kinds; kind++) {
+            values[kind] = (int) Math.round(params[kind]);
+            for (int row = 0; row < 8; row++) {
+                for (int x = 0; x < 8; x++) {
+                    whiteBonuses[kind][row][x] =
+                            (int) Math.round(params[kinds + kind * PackedPositions.SQUARES + row * 8 + x]);
+                }
+            }
+        }
+        BoardEval.writeWeights(s, values, whiteBonuses);
+    }
+
+    /**
+     * Gets the scaling constant K used in the sigmoid.
+     */
+    public double getK() {
+        return k;
+    }
+
+    /**
+     * Finds the scaling constant K that minimizes the loss of the given weights with a golden
+     * section search over [0.05, 4], and uses it for all later computations.
+     * @requires params.length == PARAMS
+     * @return the new K
+     * @modifies <code>this</code>
+     */
+    public double fitK(double[] params) {
+        double lo = 0.05;
+        double hi = 4.0;
+        double ratio = (Math.sqrt(5) - 1) / 2;
+        double a = hi - ratio * (hi - lo);
+        double b = lo + ratio * (hi - lo);
+        double fa = lossWithK(params, a);
+        double fb = lossWithK(params, b);
+        while (hi - lo > 1e-3) {
+            if (fa < fb) {
+                hi = b;
+                b = a;
+                fb = fa;
+                a = hi - ratio * (hi - lo);
+                fa = lossWithK(params, a);
+            } else {
+                lo = a;
+                a = b;
+                fa = fb;
+                b = lo + ratio * (hi - lo);
+                fb = lossWithK(params, b);
+            }
+        }
+        k = (lo + hi) / 2;
+        return k;
+    }
+
+    private double lossWithK(double[] params, double candidate) {
+        double old = k;
+        k = candidate;
+        double loss = loss(params);
+        k = old;
+        return loss;
+    }
+
+    /**
+     * Computes the mean squared error between the game results and the predictions of the given
+     * weights.
+     * @requires params.length == PARAMS
+     * @return the loss
+     */
+    public double loss(double[] params) {
+        return pool.invoke(new LossTask(params, false, 0, positions.size()))[PARAMS] / positions.size();
+    }
+
+    /**
+     * Runs the given number of Adam steps starting from the given weights.
+     * @requires params.length == PARAMS && epochs &ge; 0
+     * @param params the weights to start from; replaced by the tuned weights
+     * @param epochs the number of passes over the data
+     * @param learningRate the Adam step size, in centipawns
+     * @param log where to print progress to, or null to stay quiet
+     * @return the final loss
+     * @modifies params
+     */
+    public double tune(double[] params, int epochs, double learningRate, PrintStream log) {
+        double beta1 = 0.9;
+        double beta2 = 0.999;
+        double[] m = new double[PARAMS];
+        double[] v = new double[PARAMS];
+        double loss = Double.NaN;
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            double[] gradient = pool.invoke(new LossTask(params, true, 0, positions.size()));
+            loss = gradient[PARAMS] / positions.size();
+            for (int i = 0; i < PARAMS; i++) {
+                double g = gradient[i] / positions.size();
+                m[i] = beta1 * m[i] + (1 - beta1) * g;
+                v[i] = beta2 * v[i] + (1 - beta2) * g * g;
+                double mHat = m[i] / (1 - Math.pow(beta1, epoch));
+                double vHat = v[i] / (1 - Math.pow(beta2, epoch));
+                params[i] -= learningRate * mHat / (Math.sqrt(vHat) + 1e-12);
+            }
+            if (log != null && (epoch % 10 == 0 || epoch == epochs)) {
+                log.printf("epoch %d: loss %.6f%n", epoch, loss);
+            }
+        }
+        return loss;
+    }
+
+    /**
+     * computes the summed loss, and optionally the summed gradient, over positions [from, to). The
+     * result has PARAMS gradient entries followed by the loss
+     */
+    private class LossTask extends RecursiveTask<double[]> {
+        private final double[] params;
+        private final boolean withGradient;
+        private final int from;
+        private final int to;
+
+        LossTask(double[] params, boolean withGradient, int from, int to) {
+            this.params = params;
+            this.withGradient = withGradient;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from > CHUNK) {
+                int mid = (from + to) >>> 1;
+                LossTask left = new LossTask(params, withGradient, from, mid);
+                left.fork();
+                double[] right = new LossTask(params, withGradient, mid, to).compute();
+                double[] sum = left.join();
+                for (int i = 0; i <= PARAMS; i++) {
+                    sum[i] += right[i];
+                }
+                return sum;
+            }
+
+            double[] sum = new double[PARAMS + 1];
+            byte[] squares = positions.squares();
+            double scale = k * LN10_OVER_400;
+            for (int p = from; p < to; p++) {
+                int base = p * PackedPositions.SQUARES;
+                double eval = 0;
+                for (int s = 0; s < PackedPositions.SQUARES; s++) {
+                    int i = (squares[base + s] << 6) + s;
+                    eval += sign[i] * (params[valueParam[i]] + params[bonusParam[i]]);
+                }
+                double predicted = 1 / (1 + Math.exp(-scale * eval));
+                double error = results[p] - predicted;
+                sum[PARAMS] += error * error;
+                if (withGradient) {
+                    // d/dw of (r - s)^2 = -2 (r - s) s (1 - s) * scale * feature
+                    double term = -2 * error * predicted * (1 - predicted) * scale;
+                    for (int s = 0; s < PackedPositions.SQUARES; s++) {
+                        int i = (squares[base + s] << 6) + s;
+                        if (sign[i] != 0) {
+                            double t = sign[i] * term;
+                            sum[valueParam[i]] += t;
+                            sum[bonusParam[i]] += t;
+                        }
+                    }
+                }
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Reads labeled positions in the format described in the class comment. Lines that are empty
+     * or start with '#' are skipped.
+     * @requires in != null && positions != null
+     * @param in the text to read
+     * @param positions the collection to append the positions to
+     * @return the game result of each appended position, from white's perspective
+     * @throws SerializationException if a line is ill-formatted
+     * @throws IOException if an I/O error occurs
+     * @modifies positions
+     */
+    public static float[] load(Reader in, PackedPositions positions) throws IOException, SerializationException {
+        BufferedReader reader = new BufferedReader(in, 1 << 16);
+        float[] results = new float[1024];
+        int count = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int start = Fen.skipSpaces(line, 0, line.length());
+            if (start == line.length() || line.charAt(start) == '#') {
+                continue;
+            }
+            try {
+                int pos = Fen.parse(line, start, line.length(), positions);
+                float result = parseResult(line, pos, line.length());
+                if (Float.isNaN(result)) {
+                    positions.truncate(positions.size() - 1);
+                    throw new SerializationException("missing result");
+                }
+                if (count == results.length) {
+                    results = Arrays.copyOf(results, count * 2);
+                }
+                results[count++] = result;
+            } catch (SerializationException e) {
+                throw new SerializationException("line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return Arrays.copyOf(results, count);
+    }
+
+    /**
+     * Scans text[from, to) for the first game result marker.
+     * @return 1, 0.5 or 0 for white, or NaN if there is no result on the line
+     */
+    public static float parseResult(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '[') {
+                // bracketed score such as [1.0], [0.5] or [0]
+                int end = i + 1;
+                while (end < to && text.charAt(end) != ']') {
+                    end++;
+                }
+                if (end < to && end > i + 1) {
+                    char first = text.charAt(i + 1);
+                    if (first == '1') {
+                        return 1f;
+                    } else if (first == '0') {
+                        return end > i + 3 && text.charAt(i + 2) == '.' && text.charAt(i + 3) == '5' ? 0.5f : 0f;
+                    }
+                }
+            } else if (c == '1' && startsWith(text, i, to, "1/2-1/2")) {
+                return 0.5f;
+            } else if (c == '1' && startsWith(text, i, to, "1-0")) {
+                return 1f;
+            } else if (c == '0' && startsWith(text, i, to, "0-1")) {
+                return 0f;
+            }
+        }
+        return Float.NaN;
+    }
+
+    private static boolean startsWith(CharSequence text, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tunes the weights currently used by BoardEval on a data file and writes the result.
+     * Usage: <code>java demo.Tuner &lt;data file&gt; &lt;output file&gt; [epochs] [learning rate]</code>
+     *
+     * @param args command line args
+     */
+    public static void main(String[] args) throws IOException, SerializationException {
+        if (args.length < 2) {
+            System.err.println("usage: java demo.Tuner <data file> <output file> [epochs] [learning rate]");
+            System.exit(2);
+        }
+        int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        double learningRate = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+
+        long start = System.nanoTime();
+        PositionLoader loader = new PositionLoader(Runtime.getRuntime().availableProcessors(),
+                PositionLoader.DEFAULT_CHUNK_BYTES);
+        loader.setRequireResults(true);
+        PositionLoader.Chunk data = loader.load(Paths.get(args[0]));
+        PackedPositions positions = data.positions;
+        float[] results = data.results;
+        System.out.printf("loaded %d positions in %.1fs%n", positions.size(), (System.nanoTime() - start) / 1e9);
+
+        Tuner tuner = new Tuner(positions, results, ForkJoinPool.commonPool());
+        double[] params = pack(BoardEval.getPieceValues(), BoardEval.getWhiteBonuses());
+        System.out.printf("fitted K = %.4f, initial loss %.6f%n", tuner.fitK(params), tuner.loss(params));
+        tuner.tune(params, epochs, learningRate, System.out);
+
+        try (FileOutputStream out = new FileOutputStream(args[1])) {
+            writeParams(out, params);
+        }
+        System.out.printf("wrote %s after %.1fs%n", args[1], (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,39 @@
+package demo;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys used to hash chess positions. The hash of a position is the xor of the key for
+ * every (piece, square) pair on the board, plus <code>SIDE</code> when it is black's turn, so it
+ * can be updated incrementally as pieces move. The keys come from a fixed seed so hashes are
+ * stable between runs and can be stored in files.
+ */
+public class Zobrist {
+
+    /**
+     * xored into the hash when it is black's turn
+     */
+    public static final long SIDE;
+
+    /**
+     * one key per piece and square, indexed by piece.ordinal() * 64 + y * 8 + x
+     */
+    private static final long[] PIECE_SQUARE = new long[12 * 64];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_C4E55L);
+        for (int i = 0; i < PIECE_SQUARE.length; i++) {
+            PIECE_SQUARE[i] = random.nextLong();
+        }
+        SIDE = random.nextLong();
+    }
+
+    /**
+     * Gets the key for a piece on a square.
+     * @requires piece != null && 0 &le; x &lt; 8 && 0 &le; y &lt; 8
+     * @return the key for the given piece on (x, y)
+     */
+    public static long key(Piece piece, int x, int y) {
+        return PIECE_SQUARE[piece.ordinal() * 64 + y * 8 + x];
+    }
+}
@@ -0,0 +1,84 @@
+package demo;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static demo.TestPositions.italian;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Fails when search or move generation starts allocating more per node than it used to. The
+ * budgets, in bytes per node, can be changed with the system properties
+ * chess.alloc.search and chess.alloc.perft (see TEST_JVM_ARGS in the Makefile). They start a
+ * little above what the code allocates today, a few hundred kilobytes per search node, almost
+ * all of it board copies and move sets, and should come down as that allocation is removed.
+ */
+public class AllocationBudgetTest {
+
+    private static final long SEARCH_BUDGET = Long.getLong("chess.alloc.search", 480000);
+    private static final long PERFT_BUDGET = Long.getLong("chess.alloc.perft", 28000);
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public static void init() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static long allocated() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static ChessBot fixedDepthBot() {
+        ChessBot bot = new ChessBot();
+        bot.setPly(2);
+        bot.setNodeLimit(Long.MAX_VALUE);
+        bot.setTimeLimit(0);
+        return bot;
+    }
+
+    @Test
+    public void perftKnownCountsTest() {
+        ChessPosition start = ChessPosition.standardBoard();
+        assertEquals(20, start.perft(1));
+        assertEquals(400, start.perft(2));
+        assertEquals(8902, start.perft(3));
+    }
+
+    @Test
+    public void searchAllocationTest() {
+        // the first searches run interpreted, allocating far more than compiled code does
+        for (int i = 0; i < 3; i++) {
+            fixedDepthBot().getBestMove(italian());
+        }
+        ChessBot bot = fixedDepthBot();
+        ChessPosition position = italian();
+        long before = allocated();
+        bot.getBestMove(position);
+        long bytes = allocated() - before;
+        long perNode = bytes / bot.getLastNodes();
+        assertTrue("search allocated " + perNode + " bytes per node, budget " + SEARCH_BUDGET,
+                perNode <= SEARCH_BUDGET);
+    }
+
+    @Test
+    public void perftAllocationTest() {
+        ChessPosition position = italian();
+        for (int i = 0; i < 3; i++) {
+            position.perft(2);
+        }
+        long before = allocated();
+        long leaves = position.perft(3);
+        long bytes = allocated() - before;
+        long perNode = bytes / leaves;
+        assertTrue("perft allocated " + perNode + " bytes per node, budget " + PERFT_BUDGET,
+                perNode <= PERFT_BUDGET);
+    }
+}
@@ -0,0 +1,139 @@
+package demo;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BoardEvalTest {
+    // plays random legal moves from the starting position and collects every position seen
+    private static List<ChessPosition> randomPositions(int count, long seed) {
+        Random random = new Random(seed);
+        List<ChessPosition> result = new ArrayList<>();
+        ChessPosition cp = ChessPosition.standardBoard();
+        while (result.size() < count) {
+            result.add(cp);
+            List<Move> moves = new ArrayList<>(cp.possibleMoves());
+            if (moves.isEmpty()) {
+                cp = ChessPosition.standardBoard();
+            } else {
+                cp = cp.move(moves.get(random.nextInt(moves.size())));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void packedRoundTripTest() {
+        PackedPositions packed = new PackedPositions(1);
+        List<ChessPosition> positions = randomPositions(20, 1);
+        for (ChessPosition cp : positions) {
+            packed.add(cp);
+        }
+        assertEquals(positions.size(), packed.size());
+        for (int i = 0; i < positions.size(); i++) {
+            ChessPosition expected = positions.get(i);
+            ChessPosition actual = packed.get(i);
+            assertEquals(expected.getPlayer(), actual.getPlayer());
+            for (int x = 0; x < 8; x++) {
+                for (int y = 0; y < 8; y++) {
+                    assertEquals(expected.getBoard().getPiece(x, y), actual.getBoard().getPiece(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchMatchesSingleTest() {
+        List<ChessPosition> positions = randomPositions(200, 2);
+        PackedPositions packed = new PackedPositions();
+        for (ChessPosition cp : positions) {
+            packed.add(cp);
+        }
+        int[] scores = new int[packed.size()];
+        BoardEval.evaluateBatch(packed, scores);
+        for (int i = 0; i < positions.size(); i++) {
+            assertEquals(BoardEval.evaluate(positions.get(i)), scores[i]);
+        }
+    }
+
+    @Test
+    public void parallelBatchMatchesSequentialTest() {
+        PackedPositions packed = new PackedPositions();
+        for (ChessPosition cp : randomPositions(300, 3)) {
+            packed.add(cp);
+        }
+        // repeat the positions so the parallel version actually splits into several chunks
+        while (packed.size() < 20000) {
+            packed.add(packed.get(packed.size() % 300));
+        }
+        int[] sequential = new int[packed.size()];
+        int[] parallel = new int[packed.size()];
+        BoardEval.evaluateBatch(packed, sequential);
+        BoardEval.evaluateBatch(packed, parallel, ForkJoinPool.commonPool());
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void shortScoresTest() {
+        PackedPositions packed = new PackedPositions();
+        packed.add(ChessPosition.standardBoard());
+        BoardEval.evaluateBatch(packed, new int[0]);
+    }
+
+    @Test
+    public void weightsRoundTripTest() throws IOException, SerializationException {
+        int[] values = BoardEval.getPieceValues();
+        int[][][] bonuses = BoardEval.getWhiteBonuses();
+        ChessPosition cp = ChessPosition.standardBoard().move(BoardCoord.move("e2", "e4"));
+        int before = BoardEval.evaluate(cp);
+        try {
+            int[] doubled = values.clone();
+            for (int i = 0; i < doubled.length; i++) {
+                doubled[i] *= 2;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BoardEval.writeWeights(out, doubled, bonuses);
+            BoardEval.loadWeights(new ByteArrayInputStream(out.toByteArray()));
+            assertArrayEquals(doubled, BoardEval.getPieceValues());
+            // material is balanced, so only the bonuses matter
+            assertEquals(before, BoardEval.evaluate(cp));
+            cp.populate(null, 3, 0);
+            // black to move and down a doubled queen
+            assertTrue(BoardEval.evaluate(cp) < -2 * 900);
+        } finally {
+            BoardEval.setWeights(values, bonuses);
+        }
+        assertEquals(before, BoardEval.evaluate(ChessPosition.standardBoard().move(BoardCoord.move("e2", "e4"))));
+    }
+
+    @Test(expected=SerializationException.class)
+    public void badWeightsTest() throws IOException, SerializationException {
+        BoardEval.loadWeights(new ByteArrayInputStream("pawn 100\n1 2 3".getBytes()));
+    }
+
+    @Test
+    public void tunerReducesLossTest() throws IOException, SerializationException {
+        // white is a knight up and wins, or black is a knight up and wins
+        String data = "4k3/8/8/8/8/8/8/1N2K3 w - - 0 1 1-0\n"
+                + "1n2k3/8/8/8/8/8/8/4K3 b - - 0 1 0-1\n"
+                + "4k3/8/8/8/8/8/8/4K3 w - - 0 1 1/2-1/2\n"
+                + "4k3/8/8/3N4/8/8/8/4K3 b [1.0]\n";
+        PackedPositions positions = new PackedPositions();
+        float[] results = Tuner.load(new StringReader(data), positions);
+        assertEquals(4, positions.size());
+        assertArrayEquals(new float[] {1f, 0f, 0.5f, 1f}, results, 0f);
+
+        Tuner tuner = new Tuner(positions, results, ForkJoinPool.commonPool());
+        double[] params = Tuner.pack(BoardEval.getPieceValues(), BoardEval.getWhiteBonuses());
+        tuner.fitK(params);
+        double before = tuner.loss(params);
+        double after = tuner.tune(params, 50, 5.0, null);
+        assertTrue(after <= before);
+        assertTrue(tuner.loss(params) < before);
+    }
+}
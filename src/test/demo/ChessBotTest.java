@@ -0,0 +1,368 @@
+package demo;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.*;
+import static demo.TestPositions.italian;
+import static org.junit.Assert.*;
+
+public class ChessBotTest {
+    @Test
+    public void nodeLimitTest() {
+        ChessBot bot = new ChessBot();
+        bot.setPly(10);
+        bot.setTimeLimit(0);
+        bot.setNodeLimit(500);
+        Move move = bot.getBestMove(italian());
+        assertTrue(italian().possibleMoves().contains(move));
+        // the node that goes over the budget is the last one
+        assertTrue(bot.getLastNodes() <= 501);
+        assertTrue(bot.getLastDepth() < 10);
+    }
+
+    @Test
+    public void timeLimitTest() {
+        ChessBot bot = new ChessBot();
+        bot.setPly(10);
+        bot.setNodeLimit(Long.MAX_VALUE);
+        bot.setTimeLimit(100);
+        Move move = bot.getBestMove(italian());
+        assertTrue(italian().possibleMoves().contains(move));
+        // a node can't take long, so the search stops soon after the deadline
+        assertTrue(bot.getLastNanos() < 600 * 1000000L);
+    }
+
+    @Test
+    public void difficultyTest() {
+        ChessBot bot = new ChessBot();
+        assertEquals(Difficulty.MEDIUM, bot.getDifficulty());
+        bot.setDifficulty(Difficulty.BEGINNER);
+        assertEquals(1, bot.getPly());
+        assertEquals(Difficulty.BEGINNER.getTimeLimit(), bot.getTimeLimit());
+        bot.setPly(2);
+        assertNull(bot.getDifficulty());
+        assertEquals(Difficulty.EXPERT, Difficulty.parse("Expert"));
+        assertNull(Difficulty.parse("grandmaster"));
+    }
+
+    @Test
+    public void findsMateTest() {
+        // back rank mate: Ra8
+        ChessPosition cp = new ChessPosition();
+        BoardCoord.populate(cp, Piece.WKING, "g1");
+        BoardCoord.populate(cp, Piece.WROOK, "a1");
+        BoardCoord.populate(cp, Piece.BKING, "g8");
+        BoardCoord.populate(cp, Piece.BPAWN, "f7");
+        BoardCoord.populate(cp, Piece.BPAWN, "g7");
+        BoardCoord.populate(cp, Piece.BPAWN, "h7");
+        ChessBot bot = new ChessBot();
+        bot.setDifficulty(Difficulty.EXPERT);
+        assertEquals(BoardCoord.move("a1", "a8"), bot.getBestMove(cp));
+        // the mate is found at depth 1, so deeper iterations are skipped
+        assertEquals(1, bot.getLastDepth());
+    }
+
+    @Test
+    public void lazySmpTest() {
+        ChessBot bot = new ChessBot();
+        bot.setPly(3);
+        bot.setNodeLimit(Long.MAX_VALUE);
+        bot.setTimeLimit(0);
+        bot.setThreads(4);
+        Move move = bot.getBestMove(italian());
+        assertTrue(italian().possibleMoves().contains(move));
+        assertEquals(3, bot.getLastDepth());
+        // the helpers have all stopped by the time the move is returned
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().startsWith("alphabeta-"));
+        }
+
+        ChessPosition cp = new ChessPosition();
+        BoardCoord.populate(cp, Piece.WKING, "g1");
+        BoardCoord.populate(cp, Piece.WROOK, "a1");
+        BoardCoord.populate(cp, Piece.BKING, "g8");
+        BoardCoord.populate(cp, Piece.BPAWN, "f7");
+        BoardCoord.populate(cp, Piece.BPAWN, "g7");
+        BoardCoord.populate(cp, Piece.BPAWN, "h7");
+        assertEquals(BoardCoord.move("a1", "a8"), bot.getBestMove(cp));
+    }
+
+    @Test
+    public void statsTest() {
+        ChessBot bot = new ChessBot();
+        bot.setPly(3);
+        bot.setNodeLimit(Long.MAX_VALUE);
+        bot.setTimeLimit(0);
+        bot.getBestMove(italian());
+        SearchStats stats = bot.getLastStats();
+        assertEquals(bot.getLastNodes(), stats.getNodes());
+        assertEquals(3, stats.getDepth());
+        assertEquals(stats.getNodes(), stats.getDepthNodes(3));
+        assertTrue(stats.getDepthNodes(1) < stats.getDepthNodes(2));
+        assertTrue(stats.getQuiescenceNodes() > 0);
+        assertTrue(stats.getBranchingFactor() > 1);
+        assertTrue(stats.getFirstMoveCutoffRate() > 0 && stats.getFirstMoveCutoffRate() <= 1);
+        // deeper iterations find the moves stored by the shallower ones
+        assertTrue(stats.getTableHitRate() > 0);
+
+        SearchStats merged = new SearchStats(stats);
+        merged.merge(stats);
+        assertEquals(2 * stats.getNodes(), merged.getNodes());
+        assertEquals(stats.getDepth(), merged.getDepth());
+    }
+
+    @Test
+    public void profilerTest() {
+        // enter and exit count whether or not profiling is on for the instrumented methods
+        SearchProfiler.reset();
+        SearchProfiler.enter(SearchProfiler.Phase.MOVE_GENERATION);
+        SearchProfiler.enter(SearchProfiler.Phase.CHECK_DETECTION);
+        SearchProfiler.exit();
+        SearchProfiler.enter(SearchProfiler.Phase.CHECK_DETECTION);
+        SearchProfiler.exit();
+        SearchProfiler.exit();
+        assertEquals(1, SearchProfiler.getCalls(SearchProfiler.Phase.MOVE_GENERATION));
+        assertEquals(2, SearchProfiler.getCalls(SearchProfiler.Phase.CHECK_DETECTION));
+        assertEquals(0, SearchProfiler.getCalls(SearchProfiler.Phase.EVALUATION));
+        assertTrue(SearchProfiler.report(1000000).contains("check detection"));
+        SearchProfiler.reset();
+        assertEquals(0, SearchProfiler.getCalls(SearchProfiler.Phase.CHECK_DETECTION));
+    }
+
+    @Test
+    public void profilerThreadsTest() throws InterruptedException {
+        SearchProfiler.reset();
+        int before = SearchProfiler.getThreadCount();
+        for (int i = 0; i < 20; i++) {
+            Thread thread = new Thread(() -> {
+                SearchProfiler.enter(SearchProfiler.Phase.EVALUATION);
+                SearchProfiler.exit();
+            });
+            thread.start();
+            thread.join();
+        }
+        // the dead threads' counts are kept but their counters are dropped
+        assertEquals(20, SearchProfiler.getCalls(SearchProfiler.Phase.EVALUATION));
+        assertTrue(SearchProfiler.getThreadCount() <= before + 1);
+        SearchProfiler.reset();
+        assertEquals(0, SearchProfiler.getCalls(SearchProfiler.Phase.EVALUATION));
+    }
+
+    /**
+     * Calls each instrumented method on its own and prints how often its phase was entered.
+     */
+    public static class ProfiledCalls {
+        public static void main(String[] args) {
+            ChessPosition position = ChessPosition.standardBoard();
+            SearchProfiler.reset();
+            position.possibleMoves();
+            System.out.println("move generation " + SearchProfiler.getCalls(SearchProfiler.Phase.MOVE_GENERATION));
+            SearchProfiler.reset();
+            position.isInCheck(Player.WHITE);
+            System.out.println("check detection " + SearchProfiler.getCalls(SearchProfiler.Phase.CHECK_DETECTION));
+            SearchProfiler.reset();
+            position.move(BoardCoord.move("e2", "e4"));
+            System.out.println("position copy " + SearchProfiler.getCalls(SearchProfiler.Phase.POSITION_COPY));
+            SearchProfiler.reset();
+            BoardEval.evaluate(position);
+            System.out.println("evaluation " + SearchProfiler.getCalls(SearchProfiler.Phase.EVALUATION));
+        }
+    }
+
+    @Test
+    public void profiledMethodsTest() throws IOException, InterruptedException {
+        // ENABLED is fixed when the class loads, so profiling has to be on in a JVM of its own
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-Dchess.profile=true", "-cp",
+                System.getProperty("java.class.path"), ProfiledCalls.class.getName())
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(output, 0, process.waitFor());
+        assertEquals("move generation 1\ncheck detection 1\nposition copy 1\nevaluation 1\n",
+                output.replace("\r", ""));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void profilerUnbalancedTest() {
+        SearchProfiler.exit();
+    }
+
+    @Test
+    public void flightRecorderTest() throws Exception {
+        Path file = Files.createTempFile("search", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(SearchDepthEvent.class);
+            recording.enable(BotMoveEvent.class);
+            recording.start();
+            ChessBot bot = new ChessBot();
+            bot.setDifficulty(Difficulty.EASY);
+            Move move = bot.getBestMove(italian());
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            int depths = 0;
+            int moves = 0;
+            for (RecordedEvent event : events) {
+                if (event.getEventType().getName().equals("demo.SearchDepth")) {
+                    depths++;
+                    assertEquals(depths, event.getInt("depth"));
+                } else if (event.getEventType().getName().equals("demo.BotMove")) {
+                    moves++;
+                    assertEquals(italian().getHash(), event.getLong("positionHash"));
+                    assertEquals(move.toString(), event.getString("move"));
+                }
+            }
+            assertEquals(bot.getLastDepth(), depths);
+            assertEquals(1, moves);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void moveValidationEventTest() throws Exception {
+        Path file = Files.createTempFile("game", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(MoveValidationEvent.class);
+            recording.start();
+            ProgramStateMachine psm = new ProgramStateMachine(true);
+            psm.setUserColor(Player.WHITE);
+            psm.startGame("pvb");
+            psm.getBot().setDifficulty(Difficulty.BEGINNER);
+            // the GUI checks the player's move, but not the bot's reply
+            Move move = BoardCoord.move("e2", "e4");
+            assertTrue(psm.isLegalMove(move));
+            psm.move(move);
+            Move reply = psm.botMove();
+            assertEquals(reply, psm.getGame().getMoves().get(1));
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals("demo.MoveValidation")) {
+                    events.add(event);
+                }
+            }
+            assertEquals(1, events.size());
+            assertEquals(move.toString(), events.get(0).getString("move"));
+            assertTrue(events.get(0).getBoolean("legal"));
+            psm.shutdown();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        ChessBot bot = new ChessBot();
+        bot.setDifficulty(Difficulty.BEGINNER);
+        EngineMetrics metrics = new EngineMetrics();
+        metrics.attach(bot);
+        ObjectName name = metrics.register("test");
+        try {
+            bot.getBestMove(italian());
+            long nodes = bot.getLastNodes();
+            bot.getBestMove(italian());
+            nodes += bot.getLastNodes();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(2L, server.getAttribute(name, "Searches"));
+            assertEquals(nodes, server.getAttribute(name, "NodesSearched"));
+            assertEquals(0, server.getAttribute(name, "SearchesInFlight"));
+            assertTrue((Double) server.getAttribute(name, "P99LatencyMillis") > 0);
+            assertTrue((Double) server.getAttribute(name, "TableOccupancy") > 0);
+
+            server.invoke(name, "resizeTable", new Object[] {1024}, new String[] {"int"});
+            assertEquals(1024, server.getAttribute(name, "TableSize"));
+            bot.getBestMove(italian());
+            server.invoke(name, "clearCaches", new Object[0], new String[0]);
+            bot.setPly(0);
+            bot.getBestMove(italian());
+            assertEquals(0.0, bot.getTableOccupancy(), 0);
+        } finally {
+            metrics.unregister();
+        }
+        metrics.detach(bot);
+        assertNull(bot.getMetrics());
+    }
+
+    @Test
+    public void latencyHistogramTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMeanMicros(), 1e-9);
+        // buckets are at most a quarter of their lower bound wide
+        long p99 = histogram.getPercentileMicros(99);
+        assertTrue(p99 >= 990 && p99 <= 990 * 1.25);
+        assertEquals(1, histogram.getPercentileMicros(0));
+        for (long v = 0; v < 100000; v += 7) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(v <= LatencyHistogram.upperBoundOf(bucket));
+            assertTrue(bucket == 0 || v > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+
+    @Test
+    public void benchSignatureTest() {
+        // every run searches the same nodes, whatever ran before it
+        long signature = Bench.run(1, null);
+        assertTrue(signature > 0);
+        assertEquals(signature, Bench.run(1, null));
+        assertEquals(12, Bench.positions().length);
+        // the phases the JMH benchmarks run over split the same list
+        assertEquals(Bench.positions()[3].getHash(), Bench.positions(Bench.MIDDLEGAME)[0].getHash());
+        assertEquals(12, Bench.positions(Bench.OPENING).length + Bench.positions(Bench.MIDDLEGAME).length
+                + Bench.positions(Bench.ENDGAME).length);
+    }
+
+    @Test
+    public void mctsFindsMateTest() {
+        // a back rank mate in one
+        ChessPosition backRank = new ChessPosition();
+        BoardCoord.populate(backRank, Piece.WKING, "g1");
+        BoardCoord.populate(backRank, Piece.WROOK, "a1");
+        BoardCoord.populate(backRank, Piece.BKING, "g8");
+        BoardCoord.populate(backRank, Piece.BPAWN, "f7");
+        BoardCoord.populate(backRank, Piece.BPAWN, "g7");
+        BoardCoord.populate(backRank, Piece.BPAWN, "h7");
+        MctsSearch search = new MctsSearch(1 << 16);
+        assertEquals(BoardCoord.move("a1", "a8"), search.search(backRank, 3000, 1));
+        assertEquals(3000, search.getIterations());
+        // several threads share the iteration budget and still agree
+        assertEquals(BoardCoord.move("a1", "a8"), search.search(backRank, 3000, 4));
+        assertEquals(3000, search.getIterations());
+        assertTrue(search.getRootValue() > 0);
+    }
+
+    @Test
+    public void mctsLimitsTest() {
+        ChessBot bot = new ChessBot();
+        bot.setStrategy(ChessBot.Strategy.MCTS);
+        bot.setMctsIterations(1000000);
+        bot.setTimeLimit(0);
+        bot.setNodeLimit(300);
+        assertTrue(italian().possibleMoves().contains(bot.getBestMove(italian())));
+        assertEquals(300, bot.getLastNodes());
+
+        bot.setNodeLimit(Long.MAX_VALUE);
+        bot.setTimeLimit(100);
+        assertTrue(italian().possibleMoves().contains(bot.getBestMove(italian())));
+        assertTrue(bot.getLastNodes() < 1000000);
+        assertTrue(bot.getLastNanos() < 600 * 1000000L);
+    }
+}
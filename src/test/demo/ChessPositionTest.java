@@ -545,4 +545,98 @@ public class ChessPositionTest {
         assertEquals(true, chess.possibleMoves().isEmpty());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void seeUndefendedCapture() {
+        BoardCoord.populate(chess, Piece.WPAWN, "e4");
+        BoardCoord.populate(chess, Piece.BKNIGHT, "d5");
+        assertEquals(300, chess.see(BoardCoord.move("e4", "d5")));
+    }
+
+    @Test
+    public void seeQueenTakesDefendedPawn() {
+        BoardCoord.populate(chess, Piece.WQUEEN, "d1");
+        BoardCoord.populate(chess, Piece.BPAWN, "d5");
+        BoardCoord.populate(chess, Piece.BPAWN, "e6");
+        assertEquals(100 - 900, chess.see(BoardCoord.move("d1", "d5")));
+    }
+
+    @Test
+    public void seeXray() {
+        // the rook on d1 backs up the rook on d2 through it
+        BoardCoord.populate(chess, Piece.WROOK, "d2");
+        BoardCoord.populate(chess, Piece.WROOK, "d1");
+        BoardCoord.populate(chess, Piece.BKNIGHT, "d5");
+        BoardCoord.populate(chess, Piece.BROOK, "d8");
+        // RxN RxR RxR: +300 - 500 + 500
+        assertEquals(300, chess.see(BoardCoord.move("d2", "d5")));
+        chess.populate(null, 3, 7);
+        // without the backup the first rook is lost
+        assertEquals(300 - 500, chess.see(BoardCoord.move("d2", "d5")));
+    }
+
+    @Test
+    public void seeKingCannotRecaptureIntoAttack() {
+        BoardCoord.populate(chess, Piece.WKNIGHT, "f6");
+        BoardCoord.populate(chess, Piece.BPAWN, "e7");
+        BoardCoord.populate(chess, Piece.BKING, "e8");
+        BoardCoord.populate(chess, Piece.WROOK, "e1");
+        // NxP, and the king can't take back because the rook x-rays through e7
+        assertEquals(100, chess.see(BoardCoord.move("f6", "e7")));
+        chess.populate(null, 4, 7);
+        // now KxN is safe
+        assertEquals(100 - 300, chess.see(BoardCoord.move("f6", "e7")));
+    }
+
+    @Test
+    public void hashFollowsMoves() {
+        BoardCoord.populate(chess, Piece.WKNIGHT, "b1");
+        BoardCoord.populate(chess, Piece.BPAWN, "c3");
+        ChessPosition moved = chess.move(BoardCoord.move("b1", "c3"));
+
+        ChessPosition expected = new ChessPosition(Player.BLACK);
+        BoardCoord.populate(expected, Piece.WKNIGHT, "c3");
+        assertEquals(expected.getHash(), moved.getHash());
+        assertNotEquals(chess.getHash(), moved.getHash());
+
+        expected.setPlayer(Player.WHITE);
+        assertNotEquals(expected.getHash(), moved.getHash());
+    }
+
+    @Test
+    public void halfmoveClockResets() {
+        BoardCoord.populate(chess, Piece.WKNIGHT, "b1");
+        BoardCoord.populate(chess, Piece.WPAWN, "e2");
+        BoardCoord.populate(chess, Piece.BKNIGHT, "b8");
+        ChessPosition cp = chess.move(BoardCoord.move("b1", "c3"));
+        assertEquals(1, cp.getHalfmoveClock());
+        cp = cp.move(BoardCoord.move("b8", "c6"));
+        assertEquals(2, cp.getHalfmoveClock());
+        cp = cp.move(BoardCoord.move("e2", "e4"));
+        assertEquals(0, cp.getHalfmoveClock());
+    }
+
+    @Test
+    public void repetitionDetected() {
+        BoardCoord.populate(chess, Piece.WKING, "e1");
+        BoardCoord.populate(chess, Piece.BKING, "e8");
+        BoardCoord.populate(chess, Piece.WKNIGHT, "b1");
+        BoardCoord.populate(chess, Piece.BKNIGHT, "b8");
+        PositionHistory history = new PositionHistory();
+        String[] shuffle = {"b1", "c3", "b8", "c6", "c3", "b1", "c6", "b8"};
+        ChessPosition cp = chess;
+        for (int round = 0; round < 2; round++) {
+            assertEquals(round, history.repetitions(cp));
+            assertFalse(history.isDraw(cp));
+            for (int i = 0; i < shuffle.length; i += 2) {
+                history.push(cp);
+                cp = cp.move(BoardCoord.move(shuffle[i], shuffle[i + 1]));
+            }
+        }
+        assertEquals(2, history.repetitions(cp));
+        assertEquals("threefold repetition", history.drawReason(cp));
+
+        // a pawn move means nothing before it can repeat
+        cp.setHalfmoveClock(0);
+        assertEquals(0, history.repetitions(cp));
+    }
+}
@@ -1,6 +1,8 @@
 package demo;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -55,4 +57,137 @@ public class ChessSerializerTest {
 
         checkChessPosition(chess);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void fenTest() throws SerializationException {
+        String start = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1";
+        assertEquals(start, ChessPosition.standardBoard().toFen());
+        assertEquals(ChessPosition.standardBoard().getHash(), ChessPosition.fromFen(start).getHash());
+
+        ChessPosition cp = ChessPosition.fromFen("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R b KQkq e3 12 40");
+        assertEquals(Player.BLACK, cp.getPlayer());
+        assertEquals(12, cp.getHalfmoveClock());
+        assertEquals(Piece.BQUEEN, cp.getBoard().getPiece(4, 1));
+        assertEquals("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R b - - 12 1", cp.toFen());
+        checkChessPosition(cp);
+
+        // the trailing fields are optional, as in EPD
+        assertEquals(Player.BLACK, ChessPosition.fromFen("8/8/4k3/8/2K5/3Q4/8/8 b").getPlayer());
+        assertEquals(0, ChessPosition.fromFen("  8/8/4k3/8/2K5/3Q4/8/8 w -  - ").getHalfmoveClock());
+    }
+
+    @Test
+    public void badFenTest() {
+        String[] bad = {
+                "",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP w - - 0 1",
+                "rnbqkbnr/pppppppp/9/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNX w - - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR x - - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KX - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - e4 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - x 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1 extra",
+        };
+        for (String fen : bad) {
+            try {
+                ChessPosition.fromFen(fen);
+                fail(fen);
+            } catch (SerializationException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void fenFileTest() throws IOException, SerializationException {
+        ChessPosition cp = ChessPosition.fromFen("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 3 1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChessSerializer.serializeFen(out, cp);
+        assertEquals("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 3 1\n", out.toString());
+        ChessPosition read = ChessSerializer.deserialize(new ByteArrayInputStream(("\r\n" + out).getBytes()));
+        assertEquals(cp.getHash(), read.getHash());
+        assertEquals(3, read.getHalfmoveClock());
+
+        assertTrue(ChessSerializer.isFenFile("game.FEN"));
+        assertTrue(ChessSerializer.isFenFile("suite.epd"));
+        assertFalse(ChessSerializer.isFenFile("game.txt"));
+    }
+
+    @Test
+    public void codecTest() throws SerializationException {
+        ChessPosition[] positions = Bench.positions();
+        positions[3].setHalfmoveClock(300);
+        byte[] first = null;
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer buf = ByteBuffer.allocate(positions.length * PositionCodec.BYTES + 5).order(order);
+            buf.put(new byte[5]);
+            PositionCodec.encode(positions, 0, positions.length, buf);
+            assertEquals(0, buf.remaining());
+
+            buf.position(5);
+            ChessPosition[] read = new ChessPosition[positions.length];
+            PositionCodec.decode(buf, read, 0, read.length);
+            for (int i = 0; i < positions.length; i++) {
+                assertEquals(positions[i].toFen(), read[i].toFen());
+                assertEquals(positions[i].getHash(), read[i].getHash());
+            }
+
+            // records are the same bytes in either byte order
+            if (first == null) {
+                first = buf.array();
+            } else {
+                assertArrayEquals(first, buf.array());
+            }
+        }
+    }
+
+    @Test
+    public void packedCodecTest() throws SerializationException {
+        PackedPositions packed = new PackedPositions();
+        for (ChessPosition position : Bench.positions()) {
+            packed.add(position);
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(packed.size() * PositionCodec.BYTES);
+        PositionCodec.encode(packed, buf);
+        buf.flip();
+        PackedPositions read = new PackedPositions();
+        PositionCodec.decode(buf, packed.size(), read);
+        assertEquals(packed.size(), read.size());
+        for (int i = 0; i < packed.size(); i++) {
+            assertEquals(packed.get(i).toFen(), read.get(i).toFen());
+        }
+    }
+
+    @Test
+    public void badCodecTest() {
+        ChessPosition full = new ChessPosition();
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 5; y++) {
+                full.populate(Piece.WPAWN, x, y);
+            }
+        }
+        try {
+            PositionCodec.encode(full, ByteBuffer.allocate(PositionCodec.BYTES));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(PositionCodec.BYTES);
+        PositionCodec.encode(Bench.positions()[10], buf);
+        byte[] bytes = buf.array();
+        // no piece code for an occupied square, a code for an empty one, bad flags, reserved bits
+        int[] corrupt = {8, 23, 24, 31};
+        for (int i : corrupt) {
+            byte[] copy = bytes.clone();
+            copy[i] ^= i == 8 ? copy[8] & 0xf0 : 0x04;
+            try {
+                PositionCodec.decode(ByteBuffer.wrap(copy));
+                fail("byte " + i);
+            } catch (SerializationException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package demo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EpdRunnerTest {
+
+    @Test
+    public void sanParseTest() {
+        ChessPosition start = ChessPosition.standardBoard();
+        assertEquals(BoardCoord.move("g1", "f3"), San.parse(start, "Nf3"));
+        assertEquals(BoardCoord.move("e2", "e4"), San.parse(start, "e4"));
+        assertEquals(BoardCoord.move("e2", "e4"), San.parse(start, "e4!?"));
+        assertNull(San.parse(start, "e5"));
+        assertNull(San.parse(start, "Nd2"));
+        assertNull(San.parse(start, "O-O"));
+        assertNull(San.parse(start, "e8=Q"));
+
+        // both rooks can reach d1
+        ChessPosition cp = new ChessPosition();
+        BoardCoord.populate(cp, Piece.WKING, "g2");
+        BoardCoord.populate(cp, Piece.WROOK, "a1");
+        BoardCoord.populate(cp, Piece.WROOK, "h1");
+        BoardCoord.populate(cp, Piece.BKING, "g8");
+        assertNull(San.parse(cp, "Rd1"));
+        assertEquals(BoardCoord.move("a1", "d1"), San.parse(cp, "Rad1"));
+        assertEquals("Rad1", San.format(cp, BoardCoord.move("a1", "d1")));
+        assertEquals("Ra8+", San.format(cp, BoardCoord.move("a1", "a8")));
+    }
+
+    @Test
+    public void sanFormatTest() {
+        ChessPosition cp = ChessPosition.standardBoard();
+        String[] line = {"e4", "d5", "exd5", "Qxd5", "Nc3", "Qa5", "Nf3", "Nf6"};
+        for (String san : line) {
+            Move move = San.parse(cp, san);
+            assertNotNull(san, move);
+            assertEquals(san, San.format(cp, move));
+            cp = cp.move(move);
+        }
+    }
+
+    @Test
+    public void parseTest() throws SerializationException {
+        EpdRunner.Entry entry = EpdRunner.parse(
+                "6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - bm Ra8#; am Ra7; id \"back rank; mate\";", "1");
+        assertEquals("back rank; mate", entry.id);
+        assertEquals(Player.WHITE, entry.position.getPlayer());
+        assertTrue(entry.supported);
+        assertTrue(entry.isSolvedBy(BoardCoord.move("a1", "a8")));
+        assertFalse(entry.isSolvedBy(BoardCoord.move("a1", "a7")));
+
+        EpdRunner.Entry castle = EpdRunner.parse("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - bm O-O;", "2");
+        assertEquals("2", castle.id);
+        assertFalse(castle.supported);
+    }
+
+    @Test
+    public void runTest() throws Exception {
+        Path suite = Files.createTempFile("suite", ".epd");
+        try {
+            Files.write(suite, Arrays.asList(
+                    "# mates in one",
+                    "6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - bm Ra8#; id \"back rank\";",
+                    "r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - bm Qxf7#; id \"scholar\";",
+                    "",
+                    "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - bm O-O; id \"castle\";"));
+            List<EpdRunner.Entry> entries = EpdRunner.read(suite);
+            assertEquals(3, entries.size());
+            List<EpdRunner.Result> results = new EpdRunner(2, 20000, 0).run(entries);
+            assertEquals("back rank", results.get(0).entry.id);
+            assertTrue(results.get(0).solved);
+            assertTrue(results.get(1).solved);
+            assertTrue(results.get(1).solveNanos >= 0 && results.get(1).solveNanos <= results.get(1).nanos);
+            assertNull(results.get(2).move);
+            assertTrue(EpdRunner.summary(results).startsWith("solved 2 of 2 (100.0%), 1 skipped"));
+        } finally {
+            Files.delete(suite);
+        }
+    }
+}
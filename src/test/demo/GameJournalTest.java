@@ -0,0 +1,223 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GameJournalTest {
+
+    private static final List<String> LINE = Arrays.asList("e4", "e5", "Nf3", "Nc6", "Bb5");
+
+    // records the moves of LINE from the standard position, returning the game id
+    private static int record(GameJournal journal) throws IOException {
+        ChessPosition position = ChessPosition.standardBoard();
+        int id = journal.startGame(position);
+        for (String san : LINE) {
+            Move move = San.parse(position, san);
+            journal.recordMove(id, move);
+            position = position.move(move);
+        }
+        return id;
+    }
+
+    private static void assertLine(Game game) {
+        assertEquals(LINE.size(), game.getMoves().size());
+        ChessPosition position = ChessPosition.standardBoard();
+        for (int i = 0; i < LINE.size(); i++) {
+            Move move = San.parse(position, LINE.get(i));
+            assertEquals(move, game.getMoves().get(i));
+            position = position.move(move);
+        }
+        assertEquals(position.getHash(), game.getPosition().getHash());
+    }
+
+    @Test
+    public void recoverTest() throws Exception {
+        Path file = Files.createTempFile("journal", ".cjnl");
+        try {
+            int id;
+            int botGame;
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                assertTrue(journal.getRecovered().isEmpty());
+                id = record(journal);
+            }
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.NEVER, 0)) {
+                Map<Integer, Game> recovered = journal.getRecovered();
+                assertEquals(1, recovered.size());
+                assertLine(recovered.get(id));
+                assertEquals(0, journal.getTruncatedBytes());
+
+                assertNull(journal.getBot(id));
+
+                // carry on the recovered game, then start a game against the bot
+                Game game = recovered.get(id);
+                journal.recordMove(id, San.parse(game.getPosition(), "a6"));
+                botGame = journal.startGame(ChessPosition.standardBoard(), Player.BLACK);
+                assertNotEquals(id, botGame);
+            }
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.INTERVAL, 1)) {
+                assertEquals(2, journal.getRecovered().size());
+                assertEquals(LINE.size() + 1, journal.getRecovered().get(id).getMoves().size());
+                assertEquals(Player.BLACK, journal.getBot(botGame));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void endedGameTest() throws Exception {
+        Path file = Files.createTempFile("journal", ".cjnl");
+        try {
+            int ended;
+            int live;
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.INTERVAL,
+                    GameJournal.DEFAULT_INTERVAL_MILLIS)) {
+                ended = record(journal);
+                live = record(journal);
+                journal.endGame(ended);
+                journal.sync();
+            }
+            long size = Files.size(file);
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                assertEquals(1, journal.getRecovered().size());
+                assertFalse(journal.getRecovered().containsKey(ended));
+                assertLine(journal.getRecovered().get(live));
+            }
+            // ended games are dropped from the file when it is opened
+            assertTrue(Files.size(file) < size);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void tornTailTest() throws Exception {
+        Path file = Files.createTempFile("journal", ".cjnl");
+        try {
+            int id;
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                id = record(journal);
+            }
+            long size = Files.size(file);
+            Files.write(file, new byte[] {2, 0, 0, 0}, StandardOpenOption.APPEND);
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                assertEquals(4, journal.getTruncatedBytes());
+                assertLine(journal.getRecovered().get(id));
+            }
+            assertEquals(size, Files.size(file));
+
+            // a move cut short is lost, the ones before it are kept
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                assertEquals(LINE.size() - 1, journal.getRecovered().get(id).getMoves().size());
+            }
+
+            // so is a move whose bytes were garbled
+            bytes = Files.readAllBytes(file);
+            bytes[bytes.length - 2] ^= 0x40;
+            Files.write(file, bytes);
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                assertEquals(LINE.size() - 2, journal.getRecovered().get(id).getMoves().size());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void failedWriteTest() throws Exception {
+        Path file = Files.createTempFile("journal", ".cjnl");
+        try {
+            GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0);
+            int id = record(journal);
+            // an interrupted write closes the file under the journal
+            Thread.currentThread().interrupt();
+            try {
+                journal.recordMove(id, BoardCoord.move("a7", "a6"));
+                fail();
+            } catch (IOException e) {
+                // expected
+            } finally {
+                Thread.interrupted();
+            }
+            // later records are refused rather than written over what may be half written
+            try {
+                journal.recordMove(id, BoardCoord.move("a7", "a6"));
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                journal.close();
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            try (GameJournal reopened = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                assertLine(reopened.getRecovered().get(id));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void resumeBotGameTest() throws Exception {
+        Path file = Files.createTempFile("journal", ".cjnl");
+        try {
+            ProgramStateMachine psm = new ProgramStateMachine(true);
+            assertFalse(psm.openJournal(file.toString(), GameJournal.Sync.NEVER));
+            psm.setUserColor(Player.WHITE);
+            psm.startGame("pvb");
+            psm.move(BoardCoord.move("e2", "e4"));
+            psm.shutdown();
+
+            // comes back as the same bot game, not a game between two people
+            psm = new ProgramStateMachine(true);
+            assertTrue(psm.openJournal(file.toString(), GameJournal.Sync.NEVER));
+            assertNotNull(psm.getBot());
+            assertEquals(Player.WHITE, psm.getUser());
+            assertEquals(1, psm.getGame().getMoves().size());
+            psm.shutdown();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void badJournalTest() throws Exception {
+        Path file = Files.createTempFile("journal", ".cjnl");
+        try {
+            Files.write(file, "[Event \"not a journal\"]\n".getBytes("US-ASCII"));
+            try {
+                new GameJournal(file, GameJournal.Sync.ALWAYS, 0).close();
+                fail();
+            } catch (SerializationException e) {
+                // expected
+            }
+            assertEquals(GameJournal.Sync.INTERVAL, GameJournal.Sync.parse("interval"));
+            assertNull(GameJournal.Sync.parse("sometimes"));
+            Files.delete(file);
+            try (GameJournal journal = new GameJournal(file, GameJournal.Sync.ALWAYS, 0)) {
+                try {
+                    journal.recordMove(0, new Move(4, 6, 4, 4));
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package demo;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MatchTest {
+
+    @Test
+    public void scoreTest() {
+        Match.Score even = new Match.Score(3, 4, 3);
+        assertEquals(10, even.games());
+        assertEquals(0.5, even.mean(), 1e-9);
+        assertEquals(0, even.elo(), 1e-9);
+
+        Match.Score score = new Match.Score(5, 10, 0);
+        assertEquals(2.0 / 3, score.mean(), 1e-9);
+        assertEquals(120.4, score.elo(), 0.1);
+        assertTrue(score.eloError() > 0);
+
+        assertEquals(190.8, new Match.Score(3, 0, 1).elo(), 0.1);
+        assertEquals(-190.8, new Match.Score(1, 0, 3).elo(), 0.1);
+
+        // the more games at the same score, the smaller the error and the stronger the evidence
+        Match.Score more = new Match.Score(50, 100, 0);
+        assertTrue(more.eloError() < score.eloError());
+        assertTrue(more.llr(0, 10) > score.llr(0, 10));
+        assertTrue(new Match.Score(0, 100, 50).llr(0, 10) < 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badScoreTest() {
+        new Match.Score(1, -1, 0);
+    }
+
+    @Test
+    public void parseBotTest() {
+        ChessBot bot = Match.parseBot("depth=2,nodes=500,ms=0").get();
+        assertEquals(2, bot.getPly());
+        assertEquals(500, bot.getNodeLimit());
+        assertEquals(ChessBot.Strategy.MCTS, Match.parseBot("mcts=100").get().getStrategy());
+        assertEquals(Difficulty.EASY, Match.parseBot("level=easy").get().getDifficulty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badBotTest() {
+        Match.parseBot("depth=two");
+    }
+
+    @Test
+    public void openingsTest() {
+        for (ChessPosition position : Match.openings()) {
+            assertFalse(position.possibleMoves().isEmpty());
+        }
+    }
+
+    @Test
+    public void variedOpeningsTest() {
+        List<ChessPosition> openings = Match.openings(60, 7);
+        assertEquals(60, openings.size());
+        Set<Long> hashes = new HashSet<>();
+        for (ChessPosition position : openings) {
+            assertFalse(position.possibleMoves().isEmpty());
+            assertTrue(hashes.add(position.getHash()));
+        }
+        // pairs k and k + 20 start from the same opening line, but not the same position
+        assertNotEquals(openings.get(0).getHash(), openings.get(20).getHash());
+        assertEquals(openings.get(20).getHash(), Match.openings(60, 7).get(20).getHash());
+        assertNotEquals(openings.get(20).getHash(), Match.openings(60, 8).get(20).getHash());
+    }
+
+    @Test
+    public void playTest() {
+        Match match = new Match(Match.parseBot("depth=1,nodes=200"), Match.parseBot("depth=1,nodes=200"), 2, 20);
+        AtomicInteger reports = new AtomicInteger();
+        Match.Score score = match.play(3, s -> reports.incrementAndGet());
+        // rounded up to a whole number of color swapped pairs
+        assertEquals(4, score.games());
+        assertEquals(4, reports.get());
+        assertEquals(Match.Verdict.INCONCLUSIVE, match.getVerdict());
+    }
+
+    @Test
+    public void failedGameTest() {
+        AtomicInteger bots = new AtomicInteger();
+        Supplier<ChessBot> failing = () -> {
+            if (bots.incrementAndGet() == 3) {
+                throw new ArithmeticException();
+            }
+            return Match.parseBot("depth=1,nodes=200").get();
+        };
+        Match match = new Match(failing, Match.parseBot("depth=1,nodes=200"), 1, 20);
+        try {
+            match.play(4, null);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof ArithmeticException);
+        }
+        // the other games were still played
+        assertEquals(3, match.getScore().games());
+    }
+}
@@ -0,0 +1,72 @@
+package demo;
+
+import java.util.Arrays;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MateSolverTest {
+    private static ChessPosition backRank() {
+        ChessPosition cp = new ChessPosition();
+        BoardCoord.populate(cp, Piece.WKING, "g1");
+        BoardCoord.populate(cp, Piece.WROOK, "a1");
+        BoardCoord.populate(cp, Piece.BKING, "g8");
+        BoardCoord.populate(cp, Piece.BPAWN, "f7");
+        BoardCoord.populate(cp, Piece.BPAWN, "g7");
+        BoardCoord.populate(cp, Piece.BPAWN, "h7");
+        return cp;
+    }
+
+    private static ChessPosition ladder() {
+        ChessPosition cp = new ChessPosition();
+        BoardCoord.populate(cp, Piece.WKING, "e1");
+        BoardCoord.populate(cp, Piece.WROOK, "a1");
+        BoardCoord.populate(cp, Piece.WROOK, "b1");
+        BoardCoord.populate(cp, Piece.BKING, "h8");
+        return cp;
+    }
+
+    @Test
+    public void mateInOneTest() {
+        MateSolver.Result result = new MateSolver().solve(backRank(), 1);
+        assertTrue(result.proven);
+        assertFalse(result.disproven);
+        assertEquals(Arrays.asList(BoardCoord.move("a1", "a8")), result.line);
+    }
+
+    @Test
+    public void noMateTest() {
+        ChessPosition cp = backRank();
+        // give black an escape square
+        cp.populate(null, 7, 1);
+        MateSolver.Result result = new MateSolver().solve(cp, 1);
+        assertFalse(result.proven);
+        assertTrue(result.disproven);
+        assertTrue(result.line.isEmpty());
+    }
+
+    @Test
+    public void mateInTwoTest() {
+        MateSolver solver = new MateSolver();
+        assertTrue(solver.solve(ladder(), 1).disproven);
+        MateSolver.Result result = solver.solve(ladder(), 2);
+        assertTrue(result.proven);
+        assertEquals(3, result.line.size());
+
+        // the line must actually end in mate
+        ChessPosition cp = ladder();
+        for (Move move : result.line) {
+            assertTrue(cp.possibleMoves().contains(move));
+            cp = cp.move(move);
+        }
+        assertTrue(cp.possibleMoves().isEmpty());
+        assertTrue(cp.isInCheck(Player.BLACK));
+    }
+
+    @Test
+    public void nodeLimitTest() {
+        MateSolver.Result result = new MateSolver(2, 4).solve(ladder(), 2);
+        assertFalse(result.proven);
+        assertFalse(result.disproven);
+    }
+}
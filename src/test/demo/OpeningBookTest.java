@@ -0,0 +1,139 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class OpeningBookTest {
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("book", ".bin");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    // e4 (weight 3) and d4 (weight 1) from the start, an illegal move, and e5 in reply to e4
+    private void writeBook() throws IOException {
+        ChessPosition start = ChessPosition.standardBoard();
+        ChessPosition afterE4 = start.move(BoardCoord.move("e2", "e4"));
+        long[] hashes = {afterE4.getHash(), start.getHash(), start.getHash(), start.getHash(), 12345L};
+        int[] moves = {Move.encode(BoardCoord.move("e7", "e5")), Move.encode(BoardCoord.move("e2", "e4")),
+                Move.encode(BoardCoord.move("d2", "d4")), Move.encode(BoardCoord.move("e2", "e5")),
+                Move.encode(BoardCoord.move("a2", "a3"))};
+        int[] weights = {1, 3, 1, 100, 1};
+        OpeningBook.write(file, hashes, moves, weights, hashes.length);
+    }
+
+    @Test
+    public void lookupTest() throws IOException, SerializationException {
+        writeBook();
+        OpeningBook book = new OpeningBook(file);
+        assertEquals(5, book.size());
+        ChessPosition start = ChessPosition.standardBoard();
+        assertEquals(3, book.weight(start, BoardCoord.move("e2", "e4")));
+        assertEquals(0, book.weight(start, BoardCoord.move("a2", "a3")));
+
+        int e4 = 0;
+        Random random = new Random(1);
+        for (int i = 0; i < 400; i++) {
+            Move move = book.pick(start, random);
+            assertTrue(move.equals(BoardCoord.move("e2", "e4")) || move.equals(BoardCoord.move("d2", "d4")));
+            if (move.equals(BoardCoord.move("e2", "e4"))) {
+                e4++;
+            }
+        }
+        // the illegal move is never picked, so e4 comes up about 3 times in 4
+        assertTrue(e4 > 250 && e4 < 350);
+
+        ChessPosition afterE4 = start.move(BoardCoord.move("e2", "e4"));
+        assertEquals(BoardCoord.move("e7", "e5"), book.pick(afterE4, random));
+        assertNull(book.pick(afterE4.move(BoardCoord.move("e7", "e5")), random));
+    }
+
+    @Test
+    public void botPlaysBookTest() throws IOException, SerializationException {
+        writeBook();
+        ChessBot bot = new ChessBot();
+        bot.setOpeningBook(new OpeningBook(file));
+        ChessPosition afterE4 = ChessPosition.standardBoard().move(BoardCoord.move("e2", "e4"));
+        assertEquals(BoardCoord.move("e7", "e5"), bot.getBestMove(afterE4));
+        assertEquals(0, bot.getLastNodes());
+    }
+
+    @Test
+    public void newBotGetsBookTest() throws IOException, SerializationException {
+        writeBook();
+        // the book is opened before the game, so only the bot the game creates can get it
+        ProgramStateMachine psm = new ProgramStateMachine(true);
+        assertTrue(psm.openBook(file.toString()));
+        psm.startGame("pvb");
+        ChessPosition afterE4 = ChessPosition.standardBoard().move(BoardCoord.move("e2", "e4"));
+        assertEquals(BoardCoord.move("e7", "e5"), psm.getBot().getBestMove(afterE4));
+        assertEquals(0, psm.getBot().getLastNodes());
+    }
+
+    @Test(expected=SerializationException.class)
+    public void badBookTest() throws IOException, SerializationException {
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        new OpeningBook(file);
+    }
+
+    private byte[] buildBook(Path games, int threads, int entries, int maxFanIn) throws IOException {
+        BookBuilder builder = new BookBuilder(threads, entries, 2, 1, games.getParent());
+        builder.setMaxFanIn(maxFanIn);
+        try (java.io.OutputStream out = Files.newOutputStream(file)) {
+            builder.build(Arrays.asList(games), out);
+        }
+        assertEquals(5, builder.getGames());
+        // the line without a result, and the game with an illegal second move
+        assertEquals(2, builder.getSkipped());
+        return Files.readAllBytes(file);
+    }
+
+    @Test
+    public void builderTest() throws IOException, SerializationException {
+        Path games = Files.createTempFile("games", ".txt");
+        try {
+            Files.write(games, Arrays.asList(
+                    "1-0 e2e4 e7e5 g1f3",
+                    "0-1 e2e4 c7c5",
+                    "# a comment",
+                    "",
+                    "1/2-1/2 d2d4 d7d5",
+                    "1-0 e2-e4 e7-e5",
+                    "no result here",
+                    "1-0 e2e4 e2e5"));
+            // a tiny table spills after every few moves, so the merge has to add runs together
+            byte[] spilled = buildBook(games, 2, 2, BookBuilder.DEFAULT_MAX_FAN_IN);
+            byte[] inMemory = buildBook(games, 1, 1024, BookBuilder.DEFAULT_MAX_FAN_IN);
+            assertArrayEquals(inMemory, spilled);
+            // and merging two runs at a time takes several passes but gives the same book
+            assertArrayEquals(inMemory, buildBook(games, 1, 1, 2));
+        } finally {
+            Files.deleteIfExists(games);
+        }
+
+        OpeningBook book = new OpeningBook(file);
+        ChessPosition start = ChessPosition.standardBoard();
+        // 3 wins and a loss for white
+        assertEquals(6, book.weight(start, BoardCoord.move("e2", "e4")));
+        assertEquals(1, book.weight(start, BoardCoord.move("d2", "d4")));
+        ChessPosition afterE4 = start.move(BoardCoord.move("e2", "e4"));
+        // black lost both games with e5, so it is left out
+        assertEquals(0, book.weight(afterE4, BoardCoord.move("e7", "e5")));
+        assertEquals(2, book.weight(afterE4, BoardCoord.move("c7", "c5")));
+        ChessPosition afterD4 = start.move(BoardCoord.move("d2", "d4"));
+        assertEquals(1, book.weight(afterD4, BoardCoord.move("d7", "d5")));
+        assertEquals(4, book.size());
+    }
+}
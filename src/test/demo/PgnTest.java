@@ -0,0 +1,147 @@
+package demo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PgnTest {
+
+    private static final String GAMES =
+            "\uFEFF[Event \"Test \\\"one\\\"\"]\n"
+            + "[White \"A\"]\n"
+            + "[Black \"B\"]\n"
+            + "[Result \"1-0\"]\n"
+            + "\n"
+            + "1. e4 {best by test} e5 2.Nf3 $1 Nc6 (2... d6 3. d4 (3. Bc4)) 3. Bb5 a6;comment\n"
+            + "% escaped line 4. h4\n"
+            + "4. Ba4 Nf6 1-0\n"
+            + "\n"
+            + "[Event \"castles\"]\n"
+            + "1. e4 e5 2. Nf3 Nc6 3. Bc4 Bc5 4. O-O Nf6 *\n"
+            + "\n"
+            + "[Event \"from FEN\"]\n"
+            + "[SetUp \"1\"]\n"
+            + "[FEN \"8/8/4k3/8/2K5/3Q4/8/8 b - - 0 40\"]\n"
+            + "\n"
+            + "40... Kf6 41. Qf5+ 1/2-1/2\n";
+
+    private static List<PgnGame> readAll(String text) {
+        PgnReader reader = new PgnReader(Channels.newChannel(
+                new java.io.ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+        List<PgnGame> games = new ArrayList<>();
+        reader.forEachRemaining(games::add);
+        return games;
+    }
+
+    @Test
+    public void readTest() {
+        List<PgnGame> games = readAll(GAMES);
+        assertEquals(3, games.size());
+
+        PgnGame first = games.get(0);
+        assertEquals("Test \"one\"", first.getTag("Event"));
+        assertEquals(Arrays.asList("Event", "White", "Black", "Result"), new ArrayList<>(first.getTags().keySet()));
+        assertEquals("1-0", first.getResult());
+        assertNull(first.getError());
+        assertEquals(8, first.getMoves().size());
+        assertEquals(BoardCoord.move("g1", "f3"), first.getMoves().get(2));
+        assertEquals(BoardCoord.move("g8", "f6"), first.getMoves().get(7));
+
+        PgnGame castles = games.get(1);
+        assertEquals(6, castles.getMoves().size());
+        assertNotNull(castles.getError());
+        assertEquals("*", castles.getResult());
+
+        PgnGame fen = games.get(2);
+        assertEquals(Player.BLACK, fen.getStart().getPlayer());
+        assertEquals(2, fen.getMoves().size());
+        assertEquals("1/2-1/2", fen.getResult());
+    }
+
+    @Test
+    public void writeTest() throws IOException {
+        for (PgnGame game : readAll(GAMES)) {
+            StringWriter out = new StringWriter();
+            PgnWriter.write(game, out);
+            List<PgnGame> again = readAll(out.toString());
+            assertEquals(1, again.size());
+            assertEquals(game.getMoves(), again.get(0).getMoves());
+            assertEquals(game.getResult(), again.get(0).getResult());
+            assertEquals(game.getStart().getHash(), again.get(0).getStart().getHash());
+        }
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", "?");
+        Game game = new Game(ChessPosition.standardBoard());
+        for (String san : "f3 e5 g4 Qh4".split(" ")) {
+            game.play(San.parse(game.getPosition(), san));
+        }
+        StringWriter out = new StringWriter();
+        PgnWriter.write(PgnGame.of(tags, game), out);
+        assertEquals("[Event \"?\"]\n[Result \"0-1\"]\n\n1. f3 e5 2. g4 Qh4# 0-1\n\n", out.toString());
+    }
+
+    @Test
+    public void splitTest() throws IOException {
+        Path file = Files.createTempFile("games", ".pgn");
+        try {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                text.append(GAMES.substring(1));
+            }
+            Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+            long[] offsets = PgnReader.split(file, 7);
+            assertEquals(8, offsets.length);
+            assertEquals(Files.size(file), offsets[7]);
+            int total = 0;
+            int moves = 0;
+            for (int i = 0; i < 7; i++) {
+                assertTrue(offsets[i] <= offsets[i + 1]);
+                try (PgnReader reader = PgnReader.open(file, offsets[i], offsets[i + 1])) {
+                    while (reader.hasNext()) {
+                        PgnGame game = reader.next();
+                        assertTrue(game.getTag("Event") != null);
+                        moves += game.getMoves().size();
+                        total++;
+                    }
+                }
+            }
+            assertEquals(600, total);
+            assertEquals(200 * 16, moves);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void bookFromPgnTest() throws IOException {
+        Path games = Files.createTempFile("games", ".pgn");
+        Path book = Files.createTempFile("book", ".bin");
+        try {
+            Files.write(games, GAMES.getBytes(StandardCharsets.UTF_8));
+            BookBuilder builder = new BookBuilder(1, 1024, 4, 1, games.getParent());
+            try (java.io.OutputStream out = Files.newOutputStream(book)) {
+                builder.build(Arrays.asList(games), out);
+            }
+            // the game with no result and the one from a FEN are skipped
+            assertEquals(1, builder.getGames());
+            // white won, so only white's first two moves have any weight
+            assertEquals(2, builder.getRecords());
+        } finally {
+            Files.deleteIfExists(games);
+            Files.deleteIfExists(book);
+        }
+    }
+}
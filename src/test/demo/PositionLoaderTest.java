@@ -0,0 +1,92 @@
+package demo;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PositionLoaderTest {
+
+    @Test
+    public void loadTest() throws IOException, SerializationException {
+        StringBuilder data = new StringBuilder("# header\r\n\r\n");
+        int lines = 5000;
+        for (int i = 0; i < lines; i++) {
+            switch (i % 3) {
+                case 0:
+                    data.append("4k3/8/8/8/8/8/8/1N2K3 w - - 0 1 1-0\n");
+                    break;
+                case 1:
+                    data.append("1n2k3/8/8/8/8/8/8/4K3 b - - 0 1 0-1\r\n");
+                    break;
+                default:
+                    data.append("4k3/8/8/3N4/8/8/8/4K3 b - - bm Nd5; c9 \"1/2-1/2\";\n");
+            }
+        }
+        Path file = Files.createTempFile("positions", ".epd");
+        try {
+            Files.write(file, data.toString().getBytes());
+            PackedPositions expected = new PackedPositions();
+            float[] expectedResults = Tuner.load(new StringReader(data.toString()), expected);
+
+            // small chunks, so lines are split over many chunks and threads
+            PositionLoader loader = new PositionLoader(3, 1000);
+            loader.setRequireResults(true);
+            PositionLoader.Chunk all = loader.load(file);
+            assertEquals(lines, all.positions.size());
+            assertArrayEquals(expectedResults, all.results, 0f);
+            for (int i = 0; i < lines; i += 97) {
+                assertEquals(expected.get(i).getHash(), all.positions.get(i).getHash());
+            }
+
+            int streamed = 0;
+            long offset = -1;
+            try (PositionLoader.ChunkIterator it = loader.stream(file)) {
+                while (it.hasNext()) {
+                    PositionLoader.Chunk chunk = it.next();
+                    assertTrue(chunk.offset > offset);
+                    offset = chunk.offset;
+                    streamed += chunk.positions.size();
+                }
+            }
+            assertEquals(lines, streamed);
+
+            Files.write(file, "4k3/8/8/8/8/8/8/4K3 w - - 0 1\n".getBytes());
+            assertTrue(Float.isNaN(new PositionLoader(1, 1 << 20).load(file).results[0]));
+            try {
+                loader.load(file);
+                fail();
+            } catch (SerializationException e) {
+                // no result
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void streamErrorTest() throws IOException {
+        Path file = Files.createTempFile("positions", ".epd");
+        try {
+            Files.write(file, "4k3/8/8/8/8/8/8/4K3 w - - 0 1\n".getBytes());
+            PositionLoader loader = new PositionLoader(1, 1 << 20);
+            loader.setRequireResults(true);
+            try (PositionLoader.ChunkIterator it = loader.stream(file)) {
+                assertTrue(it.hasNext());
+                try {
+                    it.next();
+                    fail();
+                } catch (IllegalStateException e) {
+                    // the Iterator can't throw the checked exception, so it comes wrapped
+                    assertTrue(e.getCause() instanceof SerializationException);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
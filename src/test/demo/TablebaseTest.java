@@ -0,0 +1,175 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TablebaseTest {
+    private static byte[] kqk;
+    private static byte[] krk;
+    private static Path directory;
+
+    @BeforeClass
+    public static void generate() throws IOException, SerializationException {
+        TablebaseGenerator generator = new TablebaseGenerator(ForkJoinPool.commonPool(), null);
+        kqk = generator.generate("KQvK");
+        krk = generator.generate("KRvK");
+        directory = Files.createTempDirectory("tablebase");
+        TablebaseFile.write(directory, "KQvK", kqk);
+        TablebaseFile.write(directory, "KRvK", krk);
+        TablebaseFile.write(directory, "KvK", generator.generate("KvK"));
+    }
+
+    @AfterClass
+    public static void cleanUp() throws IOException {
+        for (String name : new String[] {"KQvK", "KRvK", "KvK"}) {
+            Files.deleteIfExists(directory.resolve(name + ".dtm"));
+            Files.deleteIfExists(directory.resolve(name + ".wdl"));
+        }
+        Files.delete(directory);
+    }
+
+    // white king g6, rook a1, black king g8
+    private static ChessPosition rookMate() {
+        ChessPosition cp = new ChessPosition();
+        BoardCoord.populate(cp, Piece.WKING, "g6");
+        BoardCoord.populate(cp, Piece.WROOK, "a1");
+        BoardCoord.populate(cp, Piece.BKING, "g8");
+        return cp;
+    }
+
+    // the longest mate with the given side to move, in plies
+    private static int longestMate(String material, byte[] table, boolean blackToMove) {
+        TablebaseIndex index = new TablebaseIndex(material);
+        int[] squares = new int[TablebaseIndex.MAX_MEN];
+        int longest = 0;
+        for (int i = 0; i < table.length; i++) {
+            if (index.decode(i, squares) == blackToMove && TablebaseFile.wdlOf(table[i]) == TablebaseFile.WDL_WIN) {
+                longest = Math.max(longest, TablebaseFile.pliesOf(table[i]));
+            }
+        }
+        return longest;
+    }
+
+    @Test
+    public void indexRoundTripTest() {
+        TablebaseIndex index = new TablebaseIndex("KRvKN");
+        int[] squares = new int[TablebaseIndex.MAX_MEN];
+        for (int i = 0; i < index.size(); i += 997) {
+            boolean black = index.decode(i, squares);
+            assertEquals(i, index.index(squares, black));
+        }
+    }
+
+    @Test
+    public void symmetryTest() {
+        TablebaseIndex index = new TablebaseIndex("KQvK");
+        // white king h8, queen g6, black king a1, and the same mirrored left to right
+        int[] squares = {7, 2 * 8 + 6, 7 * 8};
+        int[] mirrored = {0, 2 * 8 + 1, 7 * 8 + 7};
+        assertEquals(index.index(squares, true), index.index(mirrored, true));
+    }
+
+    @Test
+    public void materialNamesTest() {
+        assertEquals("KRvKN", new TablebaseIndex("KRvKN").getName());
+        assertEquals("KQRvK", new TablebaseIndex("KRQvK").getName());
+        assertEquals("KNvKR", TablebaseIndex.flipName("KRvKN"));
+        assertTrue(TablebaseIndex.isCanonical("KRvKN"));
+        assertFalse(TablebaseIndex.isCanonical("KNvKR"));
+        assertFalse(TablebaseIndex.isCanonical("KvKQ"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void pawnsRejectedTest() {
+        new TablebaseIndex("KPvK");
+    }
+
+    @Test
+    public void longestMatesTest() {
+        // mate in 10 moves with king and queen, 16 with king and rook
+        assertEquals(19, longestMate("KQvK", kqk, false));
+        assertEquals(31, longestMate("KRvK", krk, false));
+    }
+
+    @Test
+    public void mateInOneTest() {
+        TablebaseIndex index = new TablebaseIndex("KRvK");
+        // white king g6, rook a1, black king g8: Ra8 mates
+        int[] squares = {2 * 8 + 6, 7 * 8, 6};
+        assertEquals(1, TablebaseFile.pliesOf(krk[index.index(squares, false)]));
+        // with black to move the king steps away, but still loses; index() reflected the
+        // squares in place, so set them up again
+        squares = new int[] {2 * 8 + 6, 7 * 8, 6};
+        assertEquals(TablebaseFile.WDL_LOSS, TablebaseFile.wdlOf(krk[index.index(squares, true)]));
+    }
+
+    @Test
+    public void fileRoundTripTest() throws IOException, SerializationException {
+        assertArrayEquals(kqk, TablebaseFile.readDtm(directory.resolve("KQvK.dtm")));
+        assertTrue(Files.size(directory.resolve("KQvK.wdl")) < kqk.length / 4);
+    }
+
+    @Test
+    public void probeTest() throws IOException, SerializationException {
+        Tablebase tablebase = new Tablebase(directory, 1);
+        assertEquals(3, tablebase.getTableCount());
+        assertEquals(3, tablebase.getMaxMen());
+        ChessPosition cp = rookMate();
+        assertEquals(2, tablebase.probe(cp));
+
+        // the same position with the colors swapped and the board upside down
+        ChessPosition flipped = new ChessPosition(Player.BLACK);
+        BoardCoord.populate(flipped, Piece.BKING, "g3");
+        BoardCoord.populate(flipped, Piece.BROOK, "a8");
+        BoardCoord.populate(flipped, Piece.WKING, "g1");
+        assertEquals(2, tablebase.probe(flipped));
+
+        BoardCoord.populate(cp, Piece.WPAWN, "b2");
+        assertEquals(Tablebase.NOT_FOUND, tablebase.probe(cp));
+        assertEquals(Tablebase.NOT_FOUND, tablebase.probe(new ChessPosition()));
+
+        tablebase.close();
+        assertEquals(0, tablebase.getTableCount());
+        assertEquals(Tablebase.NOT_FOUND, tablebase.probe(rookMate()));
+        tablebase.close();
+    }
+
+    @Test
+    public void blockCacheTest() throws IOException, SerializationException {
+        // a single cached block has to be swapped for every probe that alternates between tables
+        Tablebase tablebase = new Tablebase(directory, 1);
+        ChessPosition kqkPosition = new ChessPosition();
+        BoardCoord.populate(kqkPosition, Piece.WKING, "a1");
+        BoardCoord.populate(kqkPosition, Piece.WQUEEN, "d4");
+        BoardCoord.populate(kqkPosition, Piece.BKING, "h8");
+        int expected = tablebase.probe(kqkPosition);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2, tablebase.probe(rookMate()));
+            assertEquals(expected, tablebase.probe(kqkPosition));
+        }
+        assertEquals(0, tablebase.getHits());
+        assertEquals(7, tablebase.getMisses());
+
+        tablebase = new Tablebase(directory, Tablebase.DEFAULT_CACHE_BLOCKS);
+        for (int i = 0; i < 3; i++) {
+            tablebase.probe(rookMate());
+            tablebase.probe(kqkPosition);
+        }
+        assertEquals(2, tablebase.getMisses());
+        assertEquals(4, tablebase.getHits());
+    }
+
+    @Test
+    public void botUsesTablebaseTest() throws IOException, SerializationException {
+        ChessBot bot = new ChessBot();
+        bot.setTablebase(new Tablebase(directory, Tablebase.DEFAULT_CACHE_BLOCKS));
+        assertEquals(BoardCoord.move("a1", "a8"), bot.getBestMove(rookMate()));
+        // only the root's moves were looked at
+        assertTrue(bot.getLastNodes() < 20);
+    }
+}
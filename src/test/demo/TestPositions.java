@@ -0,0 +1,19 @@
+package demo;
+
+/**
+ * Positions shared by several tests.
+ */
+final class TestPositions {
+
+    private TestPositions() {
+    }
+
+    // a middlegame position after 1. e4 e5 2. Nf3 Nc6 3. Bc4 Bc5
+    static ChessPosition italian() {
+        try {
+            return Fen.parse("r1bqk1nr/pppp1ppp/2n5/2b1p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4");
+        } catch (SerializationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}